@@ -19,6 +19,7 @@ public class BulkBenchmark {
     private static final int FORK = 1;
     private static final int BULK = 64;
     private static final int ITER_SIZE = 256;
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
 
     static {
         JNIWordIndexBindings.load("build/libs/wordindex.so");
@@ -93,4 +94,43 @@ public class BulkBenchmark {
             }
         }
     }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(value = FORK, warmups = FORK)
+    public void JNI_parallelBulkCreate(Blackhole bh) throws Exception {
+        for (int i = 0; i < ITER_SIZE; i++) {
+            try (WordIndex index = new JNIWordIndex(file, new EnglishAnalyzer(), 10000, 8192, THREADS,
+                    256, false)) {
+                bh.consume(index);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(value = FORK, warmups = FORK)
+    public void JNA_parallelBulkCreate(Blackhole bh) throws Exception {
+        for (int i = 0; i < ITER_SIZE; i++) {
+            try (WordIndex index = new JNAWordIndex(file, new EnglishAnalyzer(), 10000, 8192, THREADS,
+                    256, false)) {
+                bh.consume(index);
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(value = FORK, warmups = FORK)
+    public void FFM_parallelBulkCreate(Blackhole bh) throws Exception {
+        for (int i = 0; i < ITER_SIZE; i++) {
+            try (WordIndex index = new FFMWordIndex(file, new EnglishAnalyzer(), 10000, 8192, THREADS,
+                    256, false)) {
+                bh.consume(index);
+            }
+        }
+    }
 }
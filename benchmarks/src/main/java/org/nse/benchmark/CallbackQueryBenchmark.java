@@ -0,0 +1,84 @@
+package org.nse.benchmark;
+
+import org.nse.thesis.wordindex.WordContextIterator;
+import org.nse.thesis.wordindex.WordIndex;
+import org.nse.thesis.wordindex.analyzers.EnglishAnalyzer;
+import org.nse.thesis.wordindex.ffm.FFMNativeHandles;
+import org.nse.thesis.wordindex.ffm.FFMWordIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.FileNotFoundException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares FFM queries, that read results through the buffer protocol, to callback
+ * queries, where native library calls back once per word. Rare word fits one query
+ * buffer, frequent word takes many native calls with the buffer protocol, and many
+ * upcalls with callbacks.
+ */
+@State(Scope.Benchmark)
+public class CallbackQueryBenchmark {
+    static final int FORK = 2;
+    static final String file = "testfiles/bible.txt";
+    static {
+        FFMNativeHandles.load("build/libs/wordindex.so");
+    }
+
+    @Param({"easy", "him"})
+    public String word;
+
+    private FFMWordIndex ffmIndex;
+
+    @Setup
+    public void setup() throws FileNotFoundException {
+        ffmIndex = new FFMWordIndex(file, new EnglishAnalyzer(), 65536, 8192, 4096, true);
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        if (ffmIndex != null) {
+            ffmIndex.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = FORK, warmups = FORK)
+    public Collection<String> FFM_bufferedWordAccess() {
+        return ffmIndex.getWords(word, WordIndex.ContextBytes.SMALL_CONTEXT);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = FORK, warmups = FORK)
+    public void FFM_bufferedIterateAccess(Blackhole blackhole) throws Exception {
+        try (WordContextIterator iterator = ffmIndex.iterateWords(word,
+                WordIndex.ContextBytes.SMALL_CONTEXT)) {
+            while (iterator.hasNext()) {
+                blackhole.consume(iterator.next());
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = FORK, warmups = FORK)
+    public long FFM_callbackWordAccess(Blackhole blackhole) {
+        return ffmIndex.forEachWord(word, WordIndex.ContextBytes.SMALL_CONTEXT,
+                blackhole::consume);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = FORK, warmups = FORK)
+    public long FFM_callbackHitAccess(Blackhole blackhole) {
+        return ffmIndex.forEachHit(word, WordIndex.ContextBytes.SMALL_CONTEXT,
+                hit -> blackhole.consume(hit.byteSize()));
+    }
+}
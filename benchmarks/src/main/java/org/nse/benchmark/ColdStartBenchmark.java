@@ -1,6 +1,8 @@
 package org.nse.benchmark;
 
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.concurrent.TimeUnit;
 
 import org.nse.thesis.wordindex.WordIndex;
@@ -13,11 +15,16 @@ import org.nse.thesis.wordindex.jni.JNIWordIndex;
 import org.nse.thesis.wordindex.jni.JNIWordIndexBindings;
 import org.nse.thesis.wordindex.pojo.BufferedJavaWordIndex;
 import org.nse.thesis.wordindex.pojo.JavaWordIndex;
+import org.nse.thesis.wordindex.pojo.SnapshotWordIndex;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Fork;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
 
 public class ColdStartBenchmark {
     static final int FORK = 1;
@@ -83,4 +90,51 @@ public class ColdStartBenchmark {
             return index;
         }
     }
+
+    @State(Scope.Benchmark)
+    public static class Snapshots {
+        Path javaSnapshot;
+        Path nativeSnapshot;
+
+        @Setup
+        public void setup() throws Exception {
+            javaSnapshot = Files.createTempFile("bible", ".widx");
+            nativeSnapshot = Files.createTempFile("bible-native", ".widx");
+            try (WordIndex index = new BufferedJavaWordIndex(file, new EnglishAnalyzer(), 65536)) {
+                index.save(javaSnapshot);
+            }
+            try (WordIndex index = new JNIWordIndex(file, new EnglishAnalyzer(), 65536, 8192, 256,
+                    false)) {
+                index.save(nativeSnapshot);
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws Exception {
+            Files.deleteIfExists(javaSnapshot);
+            Files.deleteIfExists(nativeSnapshot);
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(value = FORK, warmups = FORK)
+    public WordIndex POJO_SNAPSHOT_coldStartLoading(Snapshots snapshots) throws Exception {
+        try (WordIndex index = new SnapshotWordIndex(file, new EnglishAnalyzer(),
+                snapshots.javaSnapshot, false)) {
+            return index;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Fork(value = FORK, warmups = FORK)
+    public WordIndex JNI_SNAPSHOT_coldStartLoading(Snapshots snapshots) throws Exception {
+        try (WordIndex index = new JNIWordIndex(file, new EnglishAnalyzer(),
+                snapshots.nativeSnapshot, 256)) {
+            return index;
+        }
+    }
 }
@@ -13,6 +13,8 @@ public class Main {
                 .include(ColdStartBenchmark.class.getSimpleName())
                 .include(ThroughPutAccessBenchmark.class.getSimpleName())
                 .include(BulkBenchmark.class.getSimpleName())
+                .include(QueryAllocationBenchmark.class.getSimpleName())
+                .include(CallbackQueryBenchmark.class.getSimpleName())
                 .build();
 
         new Runner(options).run();
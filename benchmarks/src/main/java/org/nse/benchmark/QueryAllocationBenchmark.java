@@ -0,0 +1,87 @@
+package org.nse.benchmark;
+
+import org.nse.thesis.wordindex.WordContextIterator;
+import org.nse.thesis.wordindex.WordIndex;
+import org.nse.thesis.wordindex.analyzers.EnglishAnalyzer;
+import org.nse.thesis.wordindex.ffm.FFMNativeHandles;
+import org.nse.thesis.wordindex.ffm.FFMWordIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.FileNotFoundException;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures allocation per query on the FFM path, with {@code -prof gc}. Query
+ * buffers are pooled, so a query for a missing word should allocate next to
+ * nothing, and other queries only their results.
+ */
+@State(Scope.Benchmark)
+public class QueryAllocationBenchmark {
+    static final int FORK = 2;
+    static final String file = "testfiles/small.txt";
+    static {
+        FFMNativeHandles.load("build/libs/wordindex.so");
+    }
+
+    private WordIndex ffmIndex;
+
+    @Setup
+    public void setup() throws FileNotFoundException {
+        ffmIndex = new FFMWordIndex(file, new EnglishAnalyzer(), 10000, 8192, 256, true);
+    }
+
+    @TearDown
+    public void teardown() throws Exception {
+        if (ffmIndex != null) {
+            ffmIndex.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = FORK, warmups = FORK)
+    public Collection<String> FFM_missingWordAccess() {
+        return ffmIndex.getWords("Nowhere", WordIndex.ContextBytes.SMALL_CONTEXT);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = FORK, warmups = FORK)
+    public Collection<String> FFM_indexWordAccess() {
+        return ffmIndex.getWords("Whereupon", WordIndex.ContextBytes.SMALL_CONTEXT);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = FORK, warmups = FORK)
+    @Threads(4)
+    public Collection<String> FFM_concurrentWordAccess() {
+        return ffmIndex.getWords("Whereupon", WordIndex.ContextBytes.SMALL_CONTEXT);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = FORK, warmups = FORK)
+    public void FFM_iterateWordAccess(Blackhole blackhole) throws Exception {
+        try (WordContextIterator iterator = ffmIndex.iterateWords("Whereupon",
+                WordIndex.ContextBytes.SMALL_CONTEXT)) {
+            while (iterator.hasNext()) {
+                blackhole.consume(iterator.next());
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = FORK, warmups = FORK)
+    public long[] FFM_positionsAccess() {
+        return ffmIndex.getPositions("Whereupon");
+    }
+}
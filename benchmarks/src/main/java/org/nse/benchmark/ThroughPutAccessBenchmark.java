@@ -5,6 +5,8 @@ import org.nse.thesis.wordindex.analyzers.EnglishAnalyzer;
 import org.nse.thesis.wordindex.analyzers.IndexAnalyzer;
 import org.nse.thesis.wordindex.ffm.FFMNativeHandles;
 import org.nse.thesis.wordindex.ffm.FFMWordIndex;
+import org.nse.thesis.wordindex.jna.JNADirectWordIndex;
+import org.nse.thesis.wordindex.jna.JNADirectWordIndexLibrary;
 import org.nse.thesis.wordindex.jna.JNAWordIndex;
 import org.nse.thesis.wordindex.jna.JNAWordIndexLibrary;
 import org.nse.thesis.wordindex.jni.JNIWordIndex;
@@ -24,6 +26,7 @@ public class ThroughPutAccessBenchmark {
     static {
         JNIWordIndexBindings.load("build/libs/wordindex.so");
         JNAWordIndexLibrary.Impl.load("build/libs/wordindex.so");
+        JNADirectWordIndexLibrary.load("build/libs/wordindex.so");
         FFMNativeHandles.load("build/libs/wordindex.so");
     }
 
@@ -31,6 +34,7 @@ public class ThroughPutAccessBenchmark {
     private WordIndex javaBufferedIndex;
     private WordIndex jniIndex;
     private WordIndex jnaIndex;
+    private WordIndex jnaDirectIndex;
     private WordIndex ffmIndex;
 
     @Setup
@@ -40,6 +44,7 @@ public class ThroughPutAccessBenchmark {
         javaBufferedIndex = new BufferedJavaWordIndex(file, analyzer, 10000);
         jniIndex = new JNIWordIndex(file, analyzer, 10000, 8192, 256, true);
         jnaIndex = new JNAWordIndex(file, analyzer, 10000, 8192, 256,true);
+        jnaDirectIndex = new JNADirectWordIndex(file, analyzer, 10000, 8192, 256, true);
         ffmIndex = new FFMWordIndex(file, analyzer, 10000, 8192, 256, true);
     }
 
@@ -54,6 +59,9 @@ public class ThroughPutAccessBenchmark {
         if (jnaIndex != null) {
             jnaIndex.close();
         }
+        if (jnaDirectIndex != null) {
+            jnaDirectIndex.close();
+        }
         if (ffmIndex != null) {
             ffmIndex.close();
         }
@@ -91,6 +99,14 @@ public class ThroughPutAccessBenchmark {
         return jnaIndex.getWords("Whereupon", WordIndex.ContextBytes.SMALL_CONTEXT);
     }
 
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Fork(value = FORK, warmups = FORK)
+    public Collection<String> JNA_DIRECT_indexWordAccess() {
+        return jnaDirectIndex.getWords("Whereupon", WordIndex.ContextBytes.SMALL_CONTEXT);
+    }
+
     @Benchmark
     @BenchmarkMode(Mode.Throughput)
     @OutputTimeUnit(TimeUnit.SECONDS)
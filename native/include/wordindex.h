@@ -10,6 +10,7 @@
 #include <stdarg.h>
 #include <stdbool.h>
 #include <stdlib.h>
+#include <sys/types.h>
 
 #include "wordindex/analyzers.h"
 #include "wordindex/utils.h"
@@ -18,6 +19,10 @@
 #define BUFF_TERM_MARK ((BUFF_TERM_MAKR_TYPE)0)
 #define BUFF_TERM_MARK_SIZE (sizeof(BUFF_TERM_MAKR_TYPE))
 
+// Word buffer size, that makes the index map the file to memory, instead
+// of reading it through a buffer. See file_word_index_open().
+#define WORD_INDEX_MAP_FILE 0
+
 /**
  * @brief
  *
@@ -38,19 +43,97 @@ typedef struct wordindex WordIndex;
 /**
  * @brief Opens a WordIndex over specified file.
  *
+ * With word_buffer_size WORD_INDEX_MAP_FILE, the file is mapped to memory once.
+ * Words are tokenized straight from the mapping, and context windows are read
+ * from it at query time. File must not be truncated while a mapped index is
+ * open, as reading a truncated mapping crashes the process.
+ *
+ * With more than one thread, large files are split to parts at word
+ * boundaries. Each part is indexed by a thread of its own into a partial
+ * table, and partial tables are merged in file order, so positions of each
+ * word stay in ascending order. Refreshing the index always uses a single
+ * thread.
+ *
  * @param filepath
  * @param analyzer
  * @param capacity
- * @param word_buffer_size
+ * @param word_buffer_size Size of the buffer words are read through, or
+ *                         WORD_INDEX_MAP_FILE to map the file.
+ * @param threads Maximum number of threads used in indexing, 0 or 1 indexes
+ *                the file on the calling thread.
  * @param compact
  * @return WordIndex*
  */
 WordIndex *file_word_index_open(const char *filepath, enum index_analyzer analyzer,
-                                size_t capacity, size_t word_buffer_size, bool compact);
+                                size_t capacity, size_t word_buffer_size, size_t threads,
+                                bool compact);
+
+/**
+ * @brief Loads a WordIndex from a snapshot, written by file_word_index_save().
+ *        Snapshot is mapped to memory, and queried as is.
+ *
+ * Snapshot format is shared with the Java implementation. All integers are
+ * unsigned 32-bit little-endian, unless told otherwise.
+ *
+ *   header:          magic "WIDX", version, analyzer, flags,
+ *                    source size (64-bit), source mtime in ms (64-bit),
+ *                    term count, slot count, position count, arena size
+ *   slots:           term number or 0xFFFFFFFF, open addressing, linear probing
+ *   hashes:          hash() of each term
+ *   term offsets:    offset of each term in arena, followed by arena size
+ *   posting offsets: offset of each term in positions, followed by position count
+ *   positions:       file positions of all terms
+ *   arena:           bytes of all terms
+ *
+ * @param snapshot_path Path to the snapshot.
+ * @param filepath Path to the indexed file.
+ * @param analyzer Analyzer, that must be the one snapshot was indexed with.
+ * @return WordIndex* Loaded index, or NULL if snapshot is invalid, or doesn't
+ *                    match the size and modification time of the file.
+ */
+WordIndex *file_word_index_load(const char *snapshot_path, const char *filepath,
+                                enum index_analyzer analyzer);
+
+/**
+ * @brief Saves the index to a snapshot file. Snapshot is tied to the size and
+ *        modification time the indexed file had, when it was indexed.
+ *
+ * @param index Index to save.
+ * @param snapshot_path Path of the snapshot file.
+ * @return true  - When snapshot was written.
+ * @return false - When writing failed.
+ */
+bool file_word_index_save(WordIndex *index, const char *snapshot_path);
+
+/**
+ * @brief Indexes bytes appended to the indexed file since the last indexing.
+ *        Tokenizing starts from the last word of the previously indexed part,
+ *        so a word that was cut off at the old end of the file is indexed as a
+ *        whole.
+ *
+ *        Refresh waits until running queries are done, and open iterators
+ *        are read to the end or closed, as it moves positions of the words,
+ *        and maps the file again. Queries started during a refresh wait for
+ *        it to end. A thread must not refresh the index while it holds an
+ *        open iterator of the index, nor from a query callback, as refresh
+ *        would wait for the thread itself.
+ *
+ * @param index Index built from the file. Index loaded from a snapshot can't
+ *              be refreshed.
+ * @return ssize_t Number of new bytes indexed, or -1 if refreshing failed, or
+ *                 the file got shorter. Index should be closed after a failure.
+ */
+ssize_t file_word_index_refresh(WordIndex *index);
 
 /**
  * @brief
  *
+ *        Word may point into read_buffer, as it's read before any results are
+ *        written to the buffer.
+ *
+ *        Returned iterator keeps the index from being refreshed, until it's
+ *        read to the end, or closed with file_word_index_close_iterator().
+ *
  * @param index
  * @param read_buffer
  * @param read_buffer_size
@@ -63,6 +146,91 @@ void *file_word_index_read_with_context_buffered(WordIndex *index, char *read_bu
                                                  const char *word, size_t word_len,
                                                  size_t context, void *read_iterator);
 
+/**
+ * @brief Copies file positions of the word, without reading any context from the
+ *        file. Positions are copied in file order, starting from the position
+ *        at offset, until capacity is reached.
+ *
+ *        Call with capacity 0 just counts the positions.
+ *
+ * @param index Index to query.
+ * @param word Word to search for.
+ * @param word_len Length of the word.
+ * @param offset Index of the first position to copy.
+ * @param positions Array to copy positions into, may be NULL if capacity is 0.
+ * @param capacity Number of positions that fit into the array.
+ * @return size_t Total number of positions of the word, 0 if word was not found.
+ */
+size_t file_word_index_read_positions(WordIndex *index, const char *word, size_t word_len,
+                                      size_t offset, FilePosition *positions,
+                                      size_t capacity);
+
+/**
+ * @brief Callback, that gets each word with context of a callback query.
+ *
+ * @param context Word with context. Valid only until the callback returns.
+ * @param length Length of the word with context.
+ * @param data Data passed to the query.
+ * @return true  - To continue to the next word.
+ * @return false - To stop the query.
+ */
+typedef bool (*word_context_callback)(const char *context, size_t length, void *data);
+
+/**
+ * @brief Reads words with context, and passes each one to the callback, in file
+ *        order. No buffer size has to be guessed, nor iterator continued. When
+ *        the file is mapped, context points straight to the mapping, otherwise
+ *        it's read into a window, that is reused for each word.
+ *
+ * @param index Index to query.
+ * @param word Word to search for.
+ * @param word_len Length of the word.
+ * @param context Context bytes on both sides of the word.
+ * @param callback Callback called once for each word. Callback must not
+ *                 refresh the index.
+ * @param data Data passed to the callback.
+ * @return size_t Number of words passed to the callback, or 0 if word was not
+ *                found.
+ */
+size_t file_word_index_read_with_context_callback(WordIndex *index, const char *word,
+                                                  size_t word_len, size_t context,
+                                                  word_context_callback callback,
+                                                  void *data);
+
+/**
+ * @brief Reads words with context of several words to the buffer, in one call.
+ *        Each word is written lead by its length and the ordinal of the queried
+ *        word, as 32-bit integers. Buffer is terminated with BUFF_TERM_MARK.
+ *        Words that are not in the index have no results.
+ *
+ *        If buffer was not big enough to read all results, iterator is returned.
+ *        Next call should pass it to continue where previous call left, and
+ *        words are then ignored. Iterator that is not read to the end must be
+ *        closed with file_word_index_close_batch_iterator(). Like iterators of
+ *        single words, it keeps the index from being refreshed until then.
+ *
+ * @param index Index to query.
+ * @param read_buffer Buffer to read into.
+ * @param read_buffer_size Size of the buffer.
+ * @param words Queried words, each lead by its length as 32-bit integer.
+ * @param words_size Size of the words in bytes.
+ * @param context Context bytes on both sides of the words.
+ * @param batch_iterator NULL on the first call, after that the return value.
+ * @return void* Iterator to continue from, or NULL when all results were read.
+ */
+void *file_word_index_read_batch_with_context_buffered(WordIndex *index, char *read_buffer,
+                                                       size_t read_buffer_size,
+                                                       const char *words, size_t words_size,
+                                                       size_t context, void *batch_iterator);
+
+/**
+ * @brief Closes iterator of a batch query, that was not read to the end.
+ *
+ * @param batch_iterator Iterator returned by
+ *        file_word_index_read_batch_with_context_buffered().
+ */
+void file_word_index_close_batch_iterator(void *batch_iterator);
+
 /**
  * @brief
  *
@@ -26,6 +26,71 @@ enum index_analyzer {
  */
 bool analyzer_word_should_break_at(enum index_analyzer analyzer, char c);
 
+/**
+ * @brief Finds the first byte of the text, that is not a delimiter.
+ *
+ * @param analyzer Analyzer, which delimiters are skipped.
+ * @param text Text to scan.
+ * @param length Length of the text.
+ * @return size_t Offset of the first non-delimiter, or length when the text
+ *         has only delimiters.
+ */
+size_t analyzer_skip_breaks(enum index_analyzer analyzer, const char *text,
+                            size_t length);
+
+/**
+ * @brief Scans the word at the start of the text, up to the next delimiter or
+ * the end of the text, and lowercases it to normalized in the same pass.
+ *
+ * Bytes are classified with a lookup table, and scanned 32 bytes at a time
+ * with AVX2, or 16 bytes at a time with SSE2, as selected by the CPU when the
+ * library is loaded. Other platforms scan a byte at a time. Only ASCII letters
+ * are lowercased. Text needs no NUL termination, and is never read past
+ * length.
+ *
+ * @param analyzer Analyzer, which delimiters end the word.
+ * @param text Text, that starts with the word.
+ * @param length Length of the text.
+ * @param normalized Buffer for the lowercased word. Bytes past the word, up to
+ *        normalized_cap, may be overwritten.
+ * @param normalized_cap Capacity of the buffer.
+ * @return size_t Length of the word. Normalized holds the word, NUL terminated,
+ *         only when the length is less than normalized_cap.
+ */
+size_t analyzer_scan_word(enum index_analyzer analyzer, const char *text, size_t length,
+                          char *normalized, size_t normalized_cap);
+
+/**
+ * @brief Word scan implementations of analyzer_scan_word().
+ */
+enum analyzer_scan {
+    // Byte at a time, used on platforms without vector support.
+    ANALYZER_SCAN_SCALAR = 0,
+    // 16 bytes at a time, on x86-64.
+    ANALYZER_SCAN_SSE2,
+    // 32 bytes at a time, on x86-64 CPUs with AVX2.
+    ANALYZER_SCAN_AVX2
+};
+
+/**
+ * @brief Same as analyzer_scan_word(), but scans with the given implementation,
+ * instead of the one selected by the CPU. Lets tests compare implementations to
+ * each other.
+ *
+ * @param scan Implementation to scan with.
+ * @param analyzer Analyzer, which delimiters end the word.
+ * @param text Text, that starts with the word.
+ * @param length Length of the text.
+ * @param normalized Buffer for the lowercased word.
+ * @param normalized_cap Capacity of the buffer.
+ * @param word_length Set to the length of the word.
+ * @return true If word was scanned.
+ * @return false If implementation is not supported on this CPU.
+ */
+bool analyzer_scan_word_with(enum analyzer_scan scan, enum index_analyzer analyzer,
+                             const char *text, size_t length, char *normalized,
+                             size_t normalized_cap, size_t *word_length);
+
 /**
  * @brief
  *
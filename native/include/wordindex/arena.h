@@ -0,0 +1,56 @@
+/**
+ * @file wordindex/arena.h
+ * @author Niklas Seppälä
+ * @copyright Copyright (c) 2023
+ */
+
+#if !defined(WINDEX_ARENA_H)
+#define WINDEX_ARENA_H
+#include <stddef.h>
+
+#define ARENA_DEFAULT_BLOCK_SIZE (64 * 1024)
+
+struct arena_block;
+
+/**
+ * @brief Bump allocator. Memory is handed out from large blocks, and all of
+ *        it is released at once with arena_free(). Single allocations can't
+ *        be freed.
+ */
+struct arena {
+    struct arena_block *head;  // Current block, links to the previous ones.
+    char *next;                // Next free byte of the current block.
+    size_t remaining;          // Free bytes left in the current block.
+    size_t block_size;         // Size of a new block.
+};
+
+/**
+ * @brief Initializes empty arena. No memory is allocated until first
+ *        arena_alloc().
+ *
+ * @param arena Arena to initialize.
+ * @param block_size Size of the blocks allocated by the arena.
+ */
+void arena_init(struct arena *arena, size_t block_size);
+
+/**
+ * @brief Allocates memory from the arena. Allocations larger than the
+ *        block size get a block of their own.
+ *
+ * @param arena Arena to allocate from.
+ * @param size Size of the allocation in bytes.
+ * @param alignment Alignment of the allocation, power of two.
+ *
+ * @return void* Allocated memory, or NULL when allocation failed.
+ */
+void *arena_alloc(struct arena *arena, size_t size, size_t alignment);
+
+/**
+ * @brief Releases all memory allocated from the arena. Arena can be used
+ *        again afterwards.
+ *
+ * @param arena Arena to release.
+ */
+void arena_free(struct arena *arena);
+
+#endif  // WINDEX_ARENA_H
@@ -10,10 +10,34 @@ extern "C" {
 /*
  * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
  * Method:    wordIndexOpen
- * Signature: (Ljava/lang/String;IJJZ)J
+ * Signature: (Ljava/lang/String;IJJIZ)J
  */
 JNIEXPORT jlong JNICALL Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexOpen
-  (JNIEnv *, jclass, jstring, jint, jlong, jlong, jboolean);
+  (JNIEnv *, jclass, jstring, jint, jlong, jlong, jint, jboolean);
+
+/*
+ * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
+ * Method:    wordIndexLoad
+ * Signature: (Ljava/lang/String;Ljava/lang/String;I)J
+ */
+JNIEXPORT jlong JNICALL Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexLoad
+  (JNIEnv *, jclass, jstring, jstring, jint);
+
+/*
+ * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
+ * Method:    wordIndexSave
+ * Signature: (JLjava/lang/String;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexSave
+  (JNIEnv *, jclass, jlong, jstring);
+
+/*
+ * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
+ * Method:    wordIndexRefresh
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexRefresh
+  (JNIEnv *, jclass, jlong);
 
 /*
  * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
@@ -25,11 +49,35 @@ JNIEXPORT void JNICALL Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wo
 
 /*
  * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
- * Method:    wordIndexReadWithContextBuffered
- * Signature: (JLjava/nio/ByteBuffer;JLjava/lang/String;IIJ)J
+ * Method:    wordIndexReadEncodedWithContextBuffered
+ * Signature: (JLjava/nio/ByteBuffer;JIIJ)J
  */
-JNIEXPORT jlong JNICALL Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexReadWithContextBuffered
-  (JNIEnv *, jclass, jlong, jobject, jlong, jstring, jint, jint, jlong);
+JNIEXPORT jlong JNICALL Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexReadEncodedWithContextBuffered
+  (JNIEnv *, jclass, jlong, jobject, jlong, jint, jint, jlong);
+
+/*
+ * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
+ * Method:    wordIndexReadPositions
+ * Signature: (J[B[JI)J
+ */
+JNIEXPORT jlong JNICALL Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexReadPositions
+  (JNIEnv *, jclass, jlong, jbyteArray, jlongArray, jint);
+
+/*
+ * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
+ * Method:    wordIndexReadBatchWithContextBuffered
+ * Signature: (JLjava/nio/ByteBuffer;J[BIJ)J
+ */
+JNIEXPORT jlong JNICALL Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexReadBatchWithContextBuffered
+  (JNIEnv *, jclass, jlong, jobject, jlong, jbyteArray, jint, jlong);
+
+/*
+ * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
+ * Method:    wordIndexCloseBatchIterator
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexCloseBatchIterator
+  (JNIEnv *, jclass, jlong);
 
 /*
  * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
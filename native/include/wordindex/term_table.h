@@ -0,0 +1,124 @@
+/**
+ * @file wordindex/term_table.h
+ * @author Niklas Seppälä
+ * @copyright Copyright (c) 2023
+ */
+
+#if !defined(WINDEX_TERM_TABLE_H)
+#define WINDEX_TERM_TABLE_H
+#include <inttypes.h>
+#include <stdbool.h>
+#include <stddef.h>
+
+#include "wordindex/arena.h"
+#include "wordindex/utils.h"
+
+#define TERM_NOT_FOUND UINT32_MAX
+
+/**
+ * @brief Term stored in the table. Word bytes are stored in the arena
+ *        of the table, and are not NUL terminated.
+ */
+struct term_entry {
+    const char *word;
+    uint32_t word_len;
+    uint32_t hash;
+    struct pos_vec pos_vec;
+};
+
+/**
+ * @brief Slot of the table. Hash is kept in the slot, so probing doesn't
+ *        touch the entries, until hashes match.
+ */
+struct term_slot {
+    uint32_t hash;
+    uint32_t term;  // Term number, TERM_NOT_FOUND when slot is empty.
+};
+
+/**
+ * @brief Term dictionary keyed by normalized words.
+ *
+ *        Terms are numbered in insertion order, and stored in a dense
+ *        array. Table uses open addressing with Robin Hood probing, so
+ *        probe sequences stay short, and lookups of missing words end
+ *        early. Words and the first positions of each term are allocated
+ *        from an arena.
+ */
+struct term_table {
+    size_t capacity;             // Slot count, power of two.
+    struct term_slot *slots;     // Slots, that point to entries.
+    struct term_entry *entries;  // Entries in term number order.
+    size_t size;                 // Number of terms.
+    size_t entry_capacity;       // Capacity of the entries array.
+    struct arena arena;          // Words, and borrowed position arrays.
+};
+
+/**
+ * @brief Initializes empty table.
+ *
+ * @param table Table to initialize.
+ * @param capacity_estimate Estimate how many unique words will be stored.
+ *
+ * @return true  - When table was initialized.
+ * @return false - When allocation failed.
+ */
+bool term_table_init(struct term_table *table, size_t capacity_estimate);
+
+/**
+ * @brief Finds the term number of the word.
+ *
+ * @param table Table to search from.
+ * @param word Normalized word.
+ * @param word_len Length of the word.
+ *
+ * @return uint32_t Term number, or TERM_NOT_FOUND.
+ */
+uint32_t term_table_find(const struct term_table *table, const char *word,
+                         size_t word_len);
+
+/**
+ * @brief Adds position of the word to the table. Word is added as a new
+ *        term, if it's not in the table yet.
+ *
+ * @param table Table to add to.
+ * @param word Normalized word.
+ * @param word_len Length of the word.
+ * @param pos File position of the word.
+ *
+ * @return true  - When position was added.
+ * @return false - When allocation failed.
+ */
+bool term_table_add(struct term_table *table, const char *word, size_t word_len,
+                    FilePosition pos);
+
+/**
+ * @brief Merges terms of the partial table to the table. Positions of the
+ *        partial table are appended after the positions already in the
+ *        table, so partial tables must be merged in file order.
+ *
+ * @param table Table to merge to.
+ * @param part Partial table, that is left unchanged.
+ *
+ * @return true  - When partial table was merged.
+ * @return false - When allocation failed.
+ */
+bool term_table_merge(struct term_table *table, const struct term_table *part);
+
+/**
+ * @brief Releases all memory held by the table.
+ *
+ * @param table Table to release.
+ */
+void term_table_free(struct term_table *table);
+
+#ifdef DBG
+/**
+ * @brief Prints table statistics, and with DBG_HASH its contents.
+ *
+ * @param fname Name of the indexed file.
+ * @param table Table to print.
+ */
+void dbg(const char *fname, const struct term_table *table);
+#endif
+
+#endif  // WINDEX_TERM_TABLE_H
@@ -12,6 +12,8 @@
 #include <stdio.h>
 #include <stdlib.h>
 
+#include "wordindex/arena.h"
+
 #define NOT_USED(x) (void)(x)
 #define UNDEFINED
 #ifndef __FUNCTION_NAME__
@@ -73,6 +75,7 @@ struct pos_vec {
     size_t capacity;      // Current vector capacity.
     size_t length;        // Current length (number of entries held).
     FilePosition *array;  // Underylying array.
+    bool borrowed;        // Array is allocated from an arena, and is not freed.
 };
 
 /**
@@ -80,14 +83,22 @@ struct pos_vec {
  *        manner.
  */
 struct index_read_iterator {
-    FILE *file;           // Open file to read from using word positions.
+    int fd;               // Indexed file to read from using word positions.
     size_t index;         // Next position index.
-    struct pos_vec *vec;  // Vector that contains word FilePositions.
+    struct pos_vec *vec;  // Vector that contains word FilePositions, NULL when
+                          // positions are read from a snapshot.
+    const uint32_t *snapshot_positions;  // Word positions in mapped snapshot.
+    size_t snapshot_length;              // Number of positions in snapshot.
+    const char *mapping;                 // Mapped file, NULL when file is read.
+    size_t mapping_size;                 // Size of the mapped file.
+    struct wordindex *reader;            // Index read by the iterator, released when
+                                         // iterator is closed, NULL if not held.
 };
 
 /**
  * @brief Adds FilePosition to the vector. If vector is full it
- *        will resize by doubling it's capacity.
+ *        will resize by doubling it's capacity. Borrowed array
+ *        is moved to heap, when it's resized.
  *
  * @param vec Vector to add position to.
  * @param position Position to add.
@@ -98,16 +109,26 @@ struct index_read_iterator {
 bool pos_vec_add(struct pos_vec *vec, FilePosition position);
 
 /**
- * @brief Allocates vector that holds FilePositions
- *        with specified capacity.
+ * @brief Initializes vector that holds FilePositions, with the
+ *        initial position. Array of default capacity is borrowed
+ *        from the arena, so words that occur only a few times
+ *        don't need an allocation of their own.
  *
  * @param vec Vector to initialize.
- * @param initial Initial capacity of the vector.
+ * @param initial First position of the vector.
+ * @param arena Arena to borrow the array from.
  *
  * @return true  - When action was completed succesfully.
  * @return false - When action failed.
  */
-bool pos_vec_init(struct pos_vec *vec, FilePosition initial);
+bool pos_vec_init(struct pos_vec *vec, FilePosition initial, struct arena *arena);
+
+/**
+ * @brief Releases the array of the vector, unless it's borrowed.
+ *
+ * @param vec Vector to release.
+ */
+void pos_vec_free(struct pos_vec *vec);
 
 /**
  * @brief Check if iterator has more FilePositions to read.
@@ -130,44 +151,16 @@ FilePosition pos_vec_iter_next(struct index_read_iterator *iter);
 // --------------------------------------------------
 
 /**
- * @brief Entry stored in hashmap.
- */
-struct hash_entry {
-    char *word;
-    size_t word_len;
-    uint32_t hash;
-    struct pos_vec pos_vec;
-    struct hash_entry *next;
-};
-
-/**
- * @brief Hashtable
- */
-struct hash_table {
-    size_t capacity;
-    struct hash_entry **table;
-};
-
-// --------------------------------------------------
-
-/**
- * @brief
+ * @brief Hashes the word bytes. FNV-1a with a final avalanche, so that low
+ *        bits used in slot selection are well distributed. Same as the hash
+ *        of Java implementation, so both can read the same snapshots.
  *
- * @param word
- * @return uint32_t
+ * @param bytes Word bytes.
+ * @param len Length of the word.
+ * @return uint32_t Hash of the word.
  */
-uint32_t hash(const void *word);
+uint32_t hash(const void *bytes, size_t len);
 
 // --------------------------------------------------
-#ifdef DBG
-/**
- * @brief
- *
- * @param fname
- * @param wcount
- * @param table
- */
-void dbg(const char *fname, size_t wcount, const struct hash_table *table);
-#endif
 
 #endif  // WINDEX_UTILS_H
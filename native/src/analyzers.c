@@ -2,9 +2,15 @@
 
 #include <string.h>
 
+#if defined(__x86_64__)
+#include <immintrin.h>
+#endif
+
 #include "wordindex/utils.h"
 
 #define MAX_DELIM_CHARS 16
+#define ANALYZER_COUNT (sizeof(delim_table) / sizeof(delim_table[0]))
+#define ASCII_CASE_BIT 0x20
 
 // Delimiter table for different analyzers.
 // Analyzer enum points to the index.
@@ -12,34 +18,110 @@ static const char delim_table[][MAX_DELIM_CHARS] = {
     " ?!:;,.\n\r"  // TEXT analyzer delimiters
 };
 
-bool analyzer_word_should_break_at(enum index_analyzer analyzer, char at_char) {
-    const char *analyzer_delims = delim_table[analyzer];
-    char delim_char;
-    while ((delim_char = *analyzer_delims++)) {
-        if (at_char == delim_char) {
-            return true;
+// Byte classification for different analyzers, built from the delimiter table.
+// True when the byte is a delimiter.
+static bool break_table[ANALYZER_COUNT][256];
+
+typedef size_t (*scan_word_fn)(enum index_analyzer analyzer, const char *text,
+                               size_t length, char *normalized, size_t normalized_cap);
+
+static size_t scan_word_scalar(enum index_analyzer analyzer, const char *text,
+                               size_t length, char *normalized, size_t normalized_cap,
+                               size_t start);
+static size_t scan_word_fallback(enum index_analyzer analyzer, const char *text,
+                                 size_t length, char *normalized, size_t normalized_cap);
+
+#if defined(__x86_64__)
+// Delimiters of each analyzer, broadcast to the width of AVX2 register. SSE2
+// scan loads the lower half.
+static char delim_vectors[ANALYZER_COUNT][MAX_DELIM_CHARS][sizeof(__m256i)]
+    __attribute__((aligned(sizeof(__m256i))));
+static size_t delim_counts[ANALYZER_COUNT];
+
+static size_t scan_word_sse2(enum index_analyzer analyzer, const char *text,
+                             size_t length, char *normalized, size_t normalized_cap);
+static size_t scan_word_avx2(enum index_analyzer analyzer, const char *text,
+                             size_t length, char *normalized, size_t normalized_cap);
+#endif
+
+// Word scan used, selected by the CPU when the library is loaded.
+static scan_word_fn scan_word = scan_word_fallback;
+
+/**
+ * @brief Builds the lookup tables, and selects the widest word scan the CPU
+ * supports. Run when the library is loaded, so tables are immutable by the
+ * time any thread tokenizes.
+ */
+__attribute__((constructor)) static void analyzers_init(void) {
+    for (size_t analyzer = 0; analyzer < ANALYZER_COUNT; analyzer++) {
+        for (const char *delim = delim_table[analyzer]; *delim; delim++) {
+            break_table[analyzer][(unsigned char)*delim] = true;
+        }
+    }
+#if defined(__x86_64__)
+    for (size_t analyzer = 0; analyzer < ANALYZER_COUNT; analyzer++) {
+        size_t count = 0;
+        for (const char *delim = delim_table[analyzer]; *delim; delim++) {
+            memset(delim_vectors[analyzer][count++], *delim, sizeof(__m256i));
         }
+        delim_counts[analyzer] = count;
+    }
+    __builtin_cpu_init();
+    // SSE2 is part of x86-64, only AVX2 needs checking.
+    scan_word = __builtin_cpu_supports("avx2") ? scan_word_avx2 : scan_word_sse2;
+#endif
+}
+
+bool analyzer_word_should_break_at(enum index_analyzer analyzer, char at_char) {
+    return break_table[analyzer][(unsigned char)at_char];
+}
+
+size_t analyzer_skip_breaks(enum index_analyzer analyzer, const char *text,
+                            size_t length) {
+    // Delimiter runs are short, so they are not worth a vector scan.
+    const bool *breaks = break_table[analyzer];
+    size_t position = 0;
+    while (position < length && breaks[(unsigned char)text[position]]) {
+        position++;
+    }
+    return position;
+}
+
+size_t analyzer_scan_word(enum index_analyzer analyzer, const char *text, size_t length,
+                          char *normalized, size_t normalized_cap) {
+    return scan_word(analyzer, text, length, normalized, normalized_cap);
+}
+
+bool analyzer_scan_word_with(enum analyzer_scan scan, enum index_analyzer analyzer,
+                             const char *text, size_t length, char *normalized,
+                             size_t normalized_cap, size_t *word_length) {
+    scan_word_fn scan_fn = NULL;
+    switch (scan) {
+        case ANALYZER_SCAN_SCALAR:
+            scan_fn = scan_word_fallback;
+            break;
+#if defined(__x86_64__)
+        case ANALYZER_SCAN_SSE2:
+            scan_fn = scan_word_sse2;
+            break;
+        case ANALYZER_SCAN_AVX2:
+            scan_fn = __builtin_cpu_supports("avx2") ? scan_word_avx2 : NULL;
+            break;
+#endif
+        default:
+            break;
     }
-    return false;
+    if (scan_fn == NULL) {
+        return false;
+    }
+    *word_length = scan_fn(analyzer, text, length, normalized, normalized_cap);
+    return true;
 }
 
 size_t analyzer_normalize(enum index_analyzer analyzer, const char *original,
                           size_t original_len, char *normalized) {
     NONNULL(original);
-    strncpy(normalized, original, original_len);
-    normalized[original_len] = '\0';
-    char c;
-    char *d = normalized;
-    size_t length = 0;
-    while ((c = *normalized++)) {
-        if (analyzer_word_should_break_at(analyzer, c)) {
-            *(normalized - 1) = '\0';
-            break;
-        }
-        length++;
-    }
-    for (; *d; d++) *d = tolower(*d);
-    return length;
+    return scan_word(analyzer, original, original_len, normalized, original_len + 1);
 }
 
 const char *analyzer_tokenize_word(enum index_analyzer analyzer, char *text,
@@ -50,3 +132,128 @@ const char *analyzer_tokenize_word(enum index_analyzer analyzer, char *text,
 const char *analyzer_get_delim(enum index_analyzer analyzer) {
     return delim_table[analyzer];
 }
+
+/**
+ * @brief Scans the word a byte at a time, from the start position on.
+ * Bytes are written to normalized, while they fit with the terminating NUL.
+ *
+ * @param analyzer Analyzer, which delimiters end the word.
+ * @param text Text, that starts with the word.
+ * @param length Length of the text.
+ * @param normalized Buffer for the lowercased word.
+ * @param normalized_cap Capacity of the buffer.
+ * @param start Position, where vector scan stopped.
+ *
+ * @return size_t Length of the word.
+ */
+static size_t scan_word_scalar(enum index_analyzer analyzer, const char *text,
+                               size_t length, char *normalized, size_t normalized_cap,
+                               size_t start) {
+    const bool *breaks = break_table[analyzer];
+    size_t position = start;
+    for (; position < length && !breaks[(unsigned char)text[position]]; position++) {
+        if (position + 1 < normalized_cap) {
+            const char byte = text[position];
+            normalized[position] = byte >= 'A' && byte <= 'Z' ? byte | ASCII_CASE_BIT : byte;
+        }
+    }
+    if (position < normalized_cap) {
+        normalized[position] = '\0';
+    }
+    return position;
+}
+
+/**
+ * @brief Word scan for CPUs without vector support.
+ */
+static size_t scan_word_fallback(enum index_analyzer analyzer, const char *text,
+                                 size_t length, char *normalized, size_t normalized_cap) {
+    return scan_word_scalar(analyzer, text, length, normalized, normalized_cap, 0);
+}
+
+#if defined(__x86_64__)
+/**
+ * @brief Scans the word 16 bytes at a time. Each block is compared to every
+ * delimiter of the analyzer, and stored lowercased, before the delimiter is
+ * looked for. Last bytes of the text, and bytes that don't fit to normalized
+ * as a whole block, are left for the scalar scan.
+ */
+static size_t scan_word_sse2(enum index_analyzer analyzer, const char *text,
+                             size_t length, char *normalized, size_t normalized_cap) {
+    const char *delims = delim_vectors[analyzer][0];
+    const size_t delim_count = delim_counts[analyzer];
+    // Bytes 'A'..'Z' are shifted to the bottom of signed range, so that one
+    // signed compare finds them.
+    const __m128i upper_shift = _mm_set1_epi8((char)(0x80 - 'A'));
+    const __m128i upper_limit = _mm_set1_epi8((char)(-0x80 + ('Z' - 'A' + 1)));
+    const __m128i case_bit = _mm_set1_epi8(ASCII_CASE_BIT);
+
+    size_t position = 0;
+    while (position + sizeof(__m128i) <= length &&
+           position + sizeof(__m128i) <= normalized_cap) {
+        const __m128i block = _mm_loadu_si128((const __m128i *)(text + position));
+        __m128i hits = _mm_setzero_si128();
+        for (size_t i = 0; i < delim_count; i++) {
+            const __m128i delim =
+                _mm_load_si128((const __m128i *)(delims + i * sizeof(__m256i)));
+            hits = _mm_or_si128(hits, _mm_cmpeq_epi8(block, delim));
+        }
+        const __m128i upper =
+            _mm_cmplt_epi8(_mm_add_epi8(block, upper_shift), upper_limit);
+        _mm_storeu_si128((__m128i *)(normalized + position),
+                         _mm_or_si128(block, _mm_and_si128(upper, case_bit)));
+
+        const unsigned mask = (unsigned)_mm_movemask_epi8(hits);
+        if (mask != 0) {
+            position += __builtin_ctz(mask);
+            normalized[position] = '\0';
+            return position;
+        }
+        position += sizeof(__m128i);
+    }
+    return scan_word_scalar(analyzer, text, length, normalized, normalized_cap, position);
+}
+
+/**
+ * @brief Scans the word 32 bytes at a time, like scan_word_sse2().
+ */
+__attribute__((target("avx2"))) static size_t scan_word_avx2(enum index_analyzer analyzer,
+                                                              const char *text,
+                                                              size_t length,
+                                                              char *normalized,
+                                                              size_t normalized_cap) {
+    const char *delims = delim_vectors[analyzer][0];
+    const size_t delim_count = delim_counts[analyzer];
+    const __m256i upper_shift = _mm256_set1_epi8((char)(0x80 - 'A'));
+    const __m256i upper_limit = _mm256_set1_epi8((char)(-0x80 + ('Z' - 'A' + 1)));
+    const __m256i case_bit = _mm256_set1_epi8(ASCII_CASE_BIT);
+
+    size_t position = 0;
+    while (position + sizeof(__m256i) <= length &&
+           position + sizeof(__m256i) <= normalized_cap) {
+        const __m256i block = _mm256_loadu_si256((const __m256i *)(text + position));
+        __m256i hits = _mm256_setzero_si256();
+        for (size_t i = 0; i < delim_count; i++) {
+            const __m256i delim =
+                _mm256_load_si256((const __m256i *)(delims + i * sizeof(__m256i)));
+            hits = _mm256_or_si256(hits, _mm256_cmpeq_epi8(block, delim));
+        }
+        const __m256i upper =
+            _mm256_cmpgt_epi8(upper_limit, _mm256_add_epi8(block, upper_shift));
+        _mm256_storeu_si256((__m256i *)(normalized + position),
+                            _mm256_or_si256(block, _mm256_and_si256(upper, case_bit)));
+
+        const unsigned mask = (unsigned)_mm256_movemask_epi8(hits);
+        if (mask != 0) {
+            position += __builtin_ctz(mask);
+            normalized[position] = '\0';
+            return position;
+        }
+        position += sizeof(__m256i);
+    }
+    // Rest is shorter than a block, so it's scanned with 16 byte blocks.
+    return position + scan_word_sse2(analyzer, text + position, length - position,
+                                     normalized + position,
+                                     normalized_cap > position ? normalized_cap - position : 0);
+}
+#endif
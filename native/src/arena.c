@@ -0,0 +1,55 @@
+#include "wordindex/arena.h"
+
+#include <stdalign.h>
+#include <stdint.h>
+#include <stdlib.h>
+
+#include "wordindex/utils.h"
+
+/**
+ * @brief Block of arena memory. Data is aligned for any type.
+ */
+struct arena_block {
+    struct arena_block *next;
+    alignas(max_align_t) char data[];
+};
+
+void arena_init(struct arena *arena, size_t block_size) {
+    arena->head = NULL;
+    arena->next = NULL;
+    arena->remaining = 0;
+    arena->block_size = block_size;
+}
+
+void *arena_alloc(struct arena *arena, size_t size, size_t alignment) {
+    const size_t padding = (alignment - ((uintptr_t)arena->next & (alignment - 1))) &
+                           (alignment - 1);
+    if (arena->head == NULL || padding + size > arena->remaining) {
+        // Block data is aligned for any type, so new block needs no padding.
+        const size_t data_size = size > arena->block_size ? size : arena->block_size;
+        struct arena_block *block = malloc(sizeof(struct arena_block) + data_size);
+        if (block == NULL) {
+            PRINTF_ERROR("%s", ALLOC_ERR);
+            return NULL;
+        }
+        block->next = arena->head;
+        arena->head = block;
+        arena->next = block->data + size;
+        arena->remaining = data_size - size;
+        return block->data;
+    }
+    char *allocation = arena->next + padding;
+    arena->next = allocation + size;
+    arena->remaining -= padding + size;
+    return allocation;
+}
+
+void arena_free(struct arena *arena) {
+    struct arena_block *block = arena->head;
+    while (block != NULL) {
+        struct arena_block *next = block->next;
+        free(block);
+        block = next;
+    }
+    arena_init(arena, arena->block_size);
+}
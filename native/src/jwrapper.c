@@ -4,6 +4,9 @@
 #include "wordindex/jni/org_nse_thesis_wordindex_jni_JNIWordIndexBindings.h"
 #include "wordindex/utils.h"
 
+// Positions are copied straight into Java long arrays.
+_Static_assert(sizeof(FilePosition) == sizeof(jlong), "FilePosition must match jlong");
+
 /**
  * @brief
  *
@@ -11,21 +14,92 @@
  * @param filepath
  * @param capacity
  * @param bufferSize
+ * @param threads
  * @param compact
  * @return JNIEXPORT
  */
 JNIEXPORT jlong JNICALL
 Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexOpen(
     JNIEnv *env, jclass class, jstring filepath, jint analyzer, jlong capacity, jlong bufferSize,
-    jboolean compact) {
+    jint threads, jboolean compact) {
+    NOT_USED(class);
+
+    const char *fpath = (*env)->GetStringUTFChars(env, filepath, NULL);
+    WordIndex *index_handle = file_word_index_open(fpath, analyzer, capacity, bufferSize,
+                                                   threads > 0 ? threads : 1, compact);
+    (*env)->ReleaseStringUTFChars(env, filepath, fpath);
+    return (jlong)index_handle;
+}
+
+/**
+ * @brief
+ *
+ * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
+ * Method:    wordIndexLoad
+ * Signature: (Ljava/lang/String;Ljava/lang/String;I)J
+ *
+ * @param env
+ * @param snapshotPath
+ * @param filepath
+ * @param analyzer
+ * @return JNIEXPORT
+ */
+JNIEXPORT jlong JNICALL
+Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexLoad(
+    JNIEnv *env, jclass class, jstring snapshotPath, jstring filepath, jint analyzer) {
     NOT_USED(class);
 
+    const char *spath = (*env)->GetStringUTFChars(env, snapshotPath, NULL);
     const char *fpath = (*env)->GetStringUTFChars(env, filepath, NULL);
-    WordIndex *index_handle = file_word_index_open(fpath, analyzer, capacity, bufferSize, compact);
+    WordIndex *index_handle = file_word_index_load(spath, fpath, analyzer);
     (*env)->ReleaseStringUTFChars(env, filepath, fpath);
+    (*env)->ReleaseStringUTFChars(env, snapshotPath, spath);
     return (jlong)index_handle;
 }
 
+/**
+ * @brief
+ *
+ * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
+ * Method:    wordIndexSave
+ * Signature: (JLjava/lang/String;)Z
+ *
+ * @param env
+ * @param handle
+ * @param snapshotPath
+ * @return JNIEXPORT
+ */
+JNIEXPORT jboolean JNICALL
+Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexSave(
+    JNIEnv *env, jclass class, jlong handle, jstring snapshotPath) {
+    NOT_USED(class);
+
+    const char *spath = (*env)->GetStringUTFChars(env, snapshotPath, NULL);
+    const bool success = file_word_index_save((WordIndex *)handle, spath);
+    (*env)->ReleaseStringUTFChars(env, snapshotPath, spath);
+    return success ? JNI_TRUE : JNI_FALSE;
+}
+
+/**
+ * @brief
+ *
+ * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
+ * Method:    wordIndexRefresh
+ * Signature: (J)J
+ *
+ * @param env
+ * @param handle
+ * @return JNIEXPORT
+ */
+JNIEXPORT jlong JNICALL
+Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexRefresh(JNIEnv *env,
+                                                                        jclass class,
+                                                                        jlong handle) {
+    NOT_USED(env);
+    NOT_USED(class);
+    return file_word_index_refresh((WordIndex *)handle);
+}
+
 /**
  * @brief
  *
@@ -48,43 +122,139 @@ Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexClose(JNIEnv *en
 }
 
 /**
- * @brief
+ * @brief Word is read in place from the start of the read buffer, where Java
+ * side encoded it, so it's not copied or converted to modified UTF-8.
  *
- * Class:     org_ns_thesis_wordindex_NativeWordIndex
- * Method:    wordIndexReadWithContextBuffered
- * Signature: (JLjava/nio/ByteBuffer;JLjava/lang/String;IJ)J
+ * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
+ * Method:    wordIndexReadEncodedWithContextBuffered
+ * Signature: (JLjava/nio/ByteBuffer;JIIJ)J
  *
  * @param env
  * @param handle
  * @param jbytebyffer
  * @param readBufferSize
- * @param word
+ * @param word_len
  * @param context
- * @param previous
+ * @param iter
  * @return JNIEXPORT
  */
 JNIEXPORT jlong JNICALL
-Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexReadWithContextBuffered(
+Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexReadEncodedWithContextBuffered(
     JNIEnv *env, jclass class, jlong handle, jobject jbytebyffer, jlong readBufferSize,
-    jstring jword, jint word_len, jint context, jlong iter) {
+    jint word_len, jint context, jlong iter) {
     NOT_USED(class);
 
     char *buffer = (*env)->GetDirectBufferAddress(env, jbytebyffer);
+    // Continuing iterator doesn't need the word.
+    const char *word = (void *)iter == NULL ? buffer : NULL;
+
+    return (jlong)file_word_index_read_with_context_buffered(
+        (WordIndex *)handle, buffer, readBufferSize, word, word_len, context, (void *)iter);
+}
+
+/**
+ * @brief
+ *
+ * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
+ * Method:    wordIndexReadPositions
+ * Signature: (J[B[JI)J
+ *
+ * @param env
+ * @param handle
+ * @param jword
+ * @param jpositions
+ * @param from
+ * @return JNIEXPORT
+ */
+JNIEXPORT jlong JNICALL
+Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexReadPositions(
+    JNIEnv *env, jclass class, jlong handle, jbyteArray jword, jlongArray jpositions,
+    jint from) {
+    NOT_USED(class);
+
+    const jsize word_len = (*env)->GetArrayLength(env, jword);
+    const jsize length = (*env)->GetArrayLength(env, jpositions);
+    // Copying positions doesn't block, so both arrays can be accessed in place.
+    jbyte *word = (*env)->GetPrimitiveArrayCritical(env, jword, NULL);
+    if (word == NULL) {
+        // OutOfMemoryError is pending.
+        return 0;
+    }
+    jlong *positions = (*env)->GetPrimitiveArrayCritical(env, jpositions, NULL);
+    if (positions == NULL) {
+        (*env)->ReleasePrimitiveArrayCritical(env, jword, word, JNI_ABORT);
+        return 0;
+    }
+
+    const bool fits = from >= 0 && from < length;
+    const size_t total = file_word_index_read_positions(
+        (WordIndex *)handle, (const char *)word, word_len, from,
+        fits ? (FilePosition *)positions + from : NULL, fits ? (size_t)(length - from) : 0);
+
+    (*env)->ReleasePrimitiveArrayCritical(env, jpositions, positions, 0);
+    (*env)->ReleasePrimitiveArrayCritical(env, jword, word, JNI_ABORT);
+    return (jlong)total;
+}
+
+/**
+ * @brief
+ *
+ * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
+ * Method:    wordIndexReadBatchWithContextBuffered
+ * Signature: (JLjava/nio/ByteBuffer;J[BIJ)J
+ *
+ * @param env
+ * @param handle
+ * @param jbytebuffer
+ * @param readBufferSize
+ * @param jwords
+ * @param context
+ * @param iter
+ * @return JNIEXPORT
+ */
+JNIEXPORT jlong JNICALL
+Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexReadBatchWithContextBuffered(
+    JNIEnv *env, jclass class, jlong handle, jobject jbytebuffer, jlong readBufferSize,
+    jbyteArray jwords, jint context, jlong iter) {
+    NOT_USED(class);
+
+    char *buffer = (*env)->GetDirectBufferAddress(env, jbytebuffer);
     WordIndex *index = (WordIndex *)handle;
 
-    char *word = NULL;
+    // Words are only read on the first call, iterator holds them after that.
+    jbyte *words = NULL;
+    jsize words_size = 0;
     if ((void *)iter == NULL) {
-        word = (char *)(*env)->GetStringUTFChars(env, jword, NULL);
+        words = (*env)->GetByteArrayElements(env, jwords, NULL);
+        if (words == NULL) {
+            // OutOfMemoryError is pending, and thrown when this returns.
+            return (jlong)NULL;
+        }
+        words_size = (*env)->GetArrayLength(env, jwords);
     }
 
-    void *result_iter = file_word_index_read_with_context_buffered(
-        index, buffer, readBufferSize, word, word_len, context, (void *)iter);
+    void *result_iter = file_word_index_read_batch_with_context_buffered(
+        index, buffer, readBufferSize, (const char *)words, words_size, context, (void *)iter);
 
-    if (word != NULL) {
-        (*env)->ReleaseStringUTFChars(env, jword, word);
+    if (words != NULL) {
+        // Words were not modified, no need to copy back.
+        (*env)->ReleaseByteArrayElements(env, jwords, words, JNI_ABORT);
     }
 
-    return (long)result_iter;
+    return (jlong)result_iter;
+}
+
+/*
+ * Class:     org_nse_thesis_wordindex_jni_JNIWordIndexBindings
+ * Method:    wordIndexCloseBatchIterator
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL
+Java_org_nse_thesis_wordindex_jni_JNIWordIndexBindings_wordIndexCloseBatchIterator(
+    JNIEnv *env, jclass class, jlong iterator) {
+    NOT_USED(env);
+    NOT_USED(class);
+    file_word_index_close_batch_iterator((void *)iterator);
 }
 
 /*
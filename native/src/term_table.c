@@ -0,0 +1,284 @@
+#include "wordindex/term_table.h"
+
+#include <string.h>
+
+#define EQ 0
+#define RESIZE_TRESHOLD 0.75f
+#define MIN_CAPACITY 16
+
+static uint32_t find_hashed(const struct term_table *table, const char *word,
+                            size_t word_len, uint32_t hash_value);
+static bool insert_new_term(struct term_table *table, const char *word, size_t word_len,
+                            uint32_t hash_value, FilePosition pos);
+static void place(struct term_slot *slots, size_t mask, struct term_slot slot);
+static bool resize(struct term_table *table);
+static inline size_t probe_distance(uint32_t hash_value, size_t slot, size_t mask);
+
+bool term_table_init(struct term_table *table, size_t capacity_estimate) {
+    const size_t terms = capacity_estimate > MIN_CAPACITY ? capacity_estimate : MIN_CAPACITY;
+    size_t capacity = MIN_CAPACITY;
+    while (capacity * RESIZE_TRESHOLD < terms) {
+        capacity <<= 1;
+    }
+
+    table->slots = malloc(sizeof(struct term_slot) * capacity);
+    table->entries = malloc(sizeof(struct term_entry) * terms);
+    if (table->slots == NULL || table->entries == NULL) {
+        PRINTF_ERROR("%s", ALLOC_ERR);
+        free(table->slots);
+        free(table->entries);
+        table->slots = NULL;
+        table->entries = NULL;
+        return false;
+    }
+    memset(table->slots, 0xFF, sizeof(struct term_slot) * capacity);
+    table->capacity = capacity;
+    table->size = 0;
+    table->entry_capacity = terms;
+    arena_init(&table->arena, ARENA_DEFAULT_BLOCK_SIZE);
+    return true;
+}
+
+uint32_t term_table_find(const struct term_table *table, const char *word,
+                         size_t word_len) {
+    return find_hashed(table, word, word_len, hash(word, word_len));
+}
+
+bool term_table_add(struct term_table *table, const char *word, size_t word_len,
+                    FilePosition pos) {
+    const uint32_t hash_value = hash(word, word_len);
+    const size_t mask = table->capacity - 1;
+    size_t slot = hash_value & mask;
+    for (size_t distance = 0;; distance++) {
+        const struct term_slot current = table->slots[slot];
+        if (current.term == TERM_NOT_FOUND ||
+            probe_distance(current.hash, slot, mask) < distance) {
+            return insert_new_term(table, word, word_len, hash_value, pos);
+        }
+        if (current.hash == hash_value) {
+            struct term_entry *entry = table->entries + current.term;
+            if (entry->word_len == word_len &&
+                memcmp(entry->word, word, word_len) == EQ) {
+                return pos_vec_add(&entry->pos_vec, pos);
+            }
+        }
+        slot = (slot + 1) & mask;
+    }
+}
+
+bool term_table_merge(struct term_table *table, const struct term_table *part) {
+    for (size_t term = 0; term < part->size; term++) {
+        const struct term_entry *entry = part->entries + term;
+        const struct pos_vec *positions = &entry->pos_vec;
+        uint32_t merged = find_hashed(table, entry->word, entry->word_len, entry->hash);
+        size_t next = 0;
+        if (merged == TERM_NOT_FOUND) {
+            if (!insert_new_term(table, entry->word, entry->word_len, entry->hash,
+                                 positions->array[0])) {
+                return false;
+            }
+            merged = table->size - 1;
+            next = 1;
+        }
+        for (; next < positions->length; next++) {
+            if (!pos_vec_add(&table->entries[merged].pos_vec, positions->array[next])) {
+                return false;
+            }
+        }
+    }
+    return true;
+}
+
+void term_table_free(struct term_table *table) {
+    if (table->entries != NULL) {
+        for (size_t term = 0; term < table->size; term++) {
+            pos_vec_free(&table->entries[term].pos_vec);
+        }
+    }
+    free(table->entries);
+    free(table->slots);
+    arena_free(&table->arena);
+    table->entries = NULL;
+    table->slots = NULL;
+    table->size = 0;
+    table->capacity = 0;
+    table->entry_capacity = 0;
+}
+
+/**
+ * @brief Finds the term number of the word, with its hash already computed.
+ *
+ * @param table Table to search from.
+ * @param word Normalized word.
+ * @param word_len Length of the word.
+ * @param hash_value Hash of the word.
+ *
+ * @return uint32_t Term number, or TERM_NOT_FOUND.
+ */
+static uint32_t find_hashed(const struct term_table *table, const char *word,
+                            size_t word_len, uint32_t hash_value) {
+    const size_t mask = table->capacity - 1;
+    size_t slot = hash_value & mask;
+    for (size_t distance = 0;; distance++) {
+        const struct term_slot current = table->slots[slot];
+        // Robin Hood invariant: word would have displaced any slot, that is
+        // closer to its home than the word would be here.
+        if (current.term == TERM_NOT_FOUND ||
+            probe_distance(current.hash, slot, mask) < distance) {
+            return TERM_NOT_FOUND;
+        }
+        if (current.hash == hash_value) {
+            const struct term_entry *entry = table->entries + current.term;
+            if (entry->word_len == word_len &&
+                memcmp(entry->word, word, word_len) == EQ) {
+                return current.term;
+            }
+        }
+        slot = (slot + 1) & mask;
+    }
+}
+
+/**
+ * @brief Adds the word as a new term. Word bytes and the first positions
+ * are allocated from the arena.
+ *
+ * @param table Table to add to.
+ * @param word Normalized word, that is not in the table.
+ * @param word_len Length of the word.
+ * @param hash_value Hash of the word.
+ * @param pos File position of the word.
+ *
+ * @return true  - When term was added.
+ * @return false - When allocation failed.
+ */
+static bool insert_new_term(struct term_table *table, const char *word, size_t word_len,
+                            uint32_t hash_value, FilePosition pos) {
+    if (table->size >= TERM_NOT_FOUND || word_len > UINT32_MAX) {
+        PRINTF_ERROR("%s", "Too many terms in the index");
+        return false;
+    }
+    if (table->size == table->entry_capacity) {
+        const size_t entry_capacity = table->entry_capacity << 1;
+        struct term_entry *entries =
+            realloc(table->entries, sizeof(struct term_entry) * entry_capacity);
+        if (entries == NULL) {
+            PRINTF_ERROR("%s", ALLOC_ERR);
+            return false;
+        }
+        table->entries = entries;
+        table->entry_capacity = entry_capacity;
+    }
+
+    char *stored_word = arena_alloc(&table->arena, word_len, 1);
+    if (stored_word == NULL) {
+        return false;
+    }
+    memcpy(stored_word, word, word_len);
+    struct term_entry *entry = table->entries + table->size;
+    entry->word = stored_word;
+    entry->word_len = word_len;
+    entry->hash = hash_value;
+    if (!pos_vec_init(&entry->pos_vec, pos, &table->arena)) {
+        return false;
+    }
+
+    const struct term_slot slot = {.hash = hash_value, .term = table->size++};
+    place(table->slots, table->capacity - 1, slot);
+    if (table->size > table->capacity * RESIZE_TRESHOLD) {
+        // Table keeps working when resize fails, just with longer probes.
+        resize(table);
+    }
+    return true;
+}
+
+/**
+ * @brief Places the slot to the table. Slots that are closer to their home
+ * slot are displaced, and moved forward.
+ *
+ * @param slots Slots of the table.
+ * @param mask Slot count - 1.
+ * @param slot Slot to place.
+ */
+static void place(struct term_slot *slots, size_t mask, struct term_slot slot) {
+    size_t position = slot.hash & mask;
+    size_t distance = 0;
+    while (slots[position].term != TERM_NOT_FOUND) {
+        const size_t existing = probe_distance(slots[position].hash, position, mask);
+        if (existing < distance) {
+            const struct term_slot displaced = slots[position];
+            slots[position] = slot;
+            slot = displaced;
+            distance = existing;
+        }
+        position = (position + 1) & mask;
+        distance++;
+    }
+    slots[position] = slot;
+}
+
+/**
+ * @brief Doubles the slot count. Slots are placed again from the entries,
+ * by their stored hashes.
+ *
+ * @param table Table to resize.
+ *
+ * @return true  - When table was resized.
+ * @return false - When allocation failed.
+ */
+static bool resize(struct term_table *table) {
+    const size_t capacity = table->capacity << 1;
+    struct term_slot *slots = malloc(sizeof(struct term_slot) * capacity);
+    if (slots == NULL) {
+        PRINTF_ERROR("%s", ALLOC_ERR);
+        return false;
+    }
+    memset(slots, 0xFF, sizeof(struct term_slot) * capacity);
+    for (size_t term = 0; term < table->size; term++) {
+        const struct term_slot slot = {.hash = table->entries[term].hash,
+                                       .term = (uint32_t)term};
+        place(slots, capacity - 1, slot);
+    }
+    free(table->slots);
+    table->slots = slots;
+    table->capacity = capacity;
+    return true;
+}
+
+/**
+ * @brief Calculates how far the slot is from the home slot of the hash.
+ *
+ * @param hash_value Hash stored in the slot.
+ * @param slot Position of the slot.
+ * @param mask Slot count - 1.
+ *
+ * @return size_t Distance from the home slot.
+ */
+static inline size_t probe_distance(uint32_t hash_value, size_t slot, size_t mask) {
+    return (slot - (hash_value & mask)) & mask;
+}
+
+#ifdef DBG
+void dbg(const char *fname, const struct term_table *table) {
+    fprintf(stdout, "[WordIndex: (%s) table-capacity: %ld words: %ld]\n", fname,
+            table->capacity, table->size);
+
+#ifdef DBG_HASH
+    for (size_t term = 0; term < table->size; term++) {
+        const struct term_entry *entry = table->entries + term;
+        fprintf(stdout, "term[%ld] == (\"%.*s\" %ld", term, (int)entry->word_len,
+                entry->word, entry->pos_vec.length);
+#ifdef DBG_POS
+        fprintf(stdout, " %ld/%ld - [", entry->pos_vec.length, entry->pos_vec.capacity);
+        for (size_t j = 0; j < entry->pos_vec.length; j++) {
+            fprintf(stdout, "%ld", entry->pos_vec.array[j]);
+            if (j + 1 < entry->pos_vec.length) {
+                putc(',', stdout);
+            }
+        }
+        fprintf(stdout, "]");
+#endif
+        fprintf(stdout, ")\n");
+    }
+#endif
+}
+#endif
@@ -5,82 +5,72 @@
 
 bool pos_vec_add(struct pos_vec *vec, FilePosition position) {
     if (vec->length == vec->capacity) {
-        vec->capacity <<= 1;
+        const size_t capacity = vec->capacity << 1;
         FilePosition *new_array =
-            realloc(vec->array, sizeof(FilePosition) * vec->capacity);
+            vec->borrowed ? malloc(sizeof(FilePosition) * capacity)
+                          : realloc(vec->array, sizeof(FilePosition) * capacity);
         if (new_array == NULL) {
             PRINTF_ERROR("%s", ALLOC_ERR);
             return false;
         }
+        if (vec->borrowed) {
+            memcpy(new_array, vec->array, sizeof(FilePosition) * vec->length);
+            vec->borrowed = false;
+        }
         vec->array = new_array;
+        vec->capacity = capacity;
     }
     vec->array[vec->length++] = position;
     return true;
 }
 
-bool pos_vec_init(struct pos_vec *vec, FilePosition initial) {
-    vec->length = 0;
-    vec->capacity = VEC_DEF_CAP;
-    FilePosition *array = malloc(sizeof(FilePosition) * VEC_DEF_CAP);
+bool pos_vec_init(struct pos_vec *vec, FilePosition initial, struct arena *arena) {
+    FilePosition *array =
+        arena_alloc(arena, sizeof(FilePosition) * VEC_DEF_CAP, _Alignof(FilePosition));
     if (array == NULL) {
-        PRINTF_ERROR("%s", ALLOC_ERR);
         return false;
     }
+    vec->length = 0;
+    vec->capacity = VEC_DEF_CAP;
     vec->array = array;
+    vec->borrowed = true;
     vec->array[vec->length++] = initial;
     return true;
 }
 
+void pos_vec_free(struct pos_vec *vec) {
+    if (!vec->borrowed) {
+        free(vec->array);
+    }
+    vec->array = NULL;
+    vec->length = 0;
+    vec->capacity = 0;
+}
+
 bool pos_vec_iter_has_next(struct index_read_iterator *iter) {
+    if (iter->vec == NULL) {
+        return iter->index < iter->snapshot_length;
+    }
     return iter->index < iter->vec->length;
 }
 
 FilePosition pos_vec_iter_next(struct index_read_iterator *iter) {
+    if (iter->vec == NULL) {
+        return iter->snapshot_positions[iter->index++];
+    }
     return iter->vec->array[iter->index++];
 }
 
-uint32_t hash(const void *word) {
-    if (word == NULL) return 0;
-
-    const uint8_t *str = word;
-    uint32_t hash = 0;
-    int c;
-    while ((c = *str++)) hash = c + (hash << 6) + (hash << 16) - hash;
-
-    return hash;
-}
-
-#ifdef DBG
-void dbg(const char *fname, size_t wcount, const struct hash_table *table) {
-    fprintf(stdout, "[WordIndex: (%s) table-capacity: %ld words: %ld]\n", fname,
-            table->capacity, wcount);
-
-#ifdef DBG_HASH
-    for (size_t i = 0; i < table->capacity; i++) {
-        struct hash_entry *chain = table->table[i];
-        if (chain == NULL) continue;
-        fprintf(stdout, "table[%ld] == ", i);
-        while (chain != NULL) {
-            fprintf(stdout, "(\"%s\" %ld", chain->word, chain->pos_vec.length);
-#ifdef DBG_POS
-            fprintf(stdout, " %ld/%ld - [", chain->pos_vec.length,
-                    chain->pos_vec.capacity);
-            for (size_t j = 0; j < chain->pos_vec.length; j++) {
-                fprintf(stdout, "%ld", chain->pos_vec.array[j]);
-                if (j + 1 < chain->pos_vec.length) {
-                    putc(',', stdout);
-                }
-            }
-            fprintf(stdout, "]");
-#endif
-            putc(')', stdout);
-            chain = chain->next;
-            if (chain != NULL) {
-                fprintf(stdout, "->");
-            }
-        }
-        fprintf(stdout, "\n");
+uint32_t hash(const void *bytes, size_t len) {
+    const uint8_t *str = bytes;
+    uint32_t h = 0x811C9DC5u;
+    for (size_t i = 0; i < len; i++) {
+        h = (h ^ str[i]) * 0x01000193u;
     }
-#endif
+    h ^= h >> 16;
+    h *= 0x85EBCA6Bu;
+    h ^= h >> 13;
+    h *= 0xC2B2AE35u;
+    h ^= h >> 16;
+    return h;
 }
-#endif
\ No newline at end of file
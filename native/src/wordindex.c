@@ -7,77 +7,201 @@
 #include "wordindex.h"
 
 #include <ctype.h>
+#include <fcntl.h>
 #include <inttypes.h>
 #include <limits.h>
+#include <pthread.h>
 #include <stdbool.h>
 #include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
 #include <unistd.h>
 
 #include "wordindex/analyzers.h"
+#include "wordindex/term_table.h"
 #include "wordindex/utils.h"
 
 #define EQ 0
-#define RESIZE_TRESHOLD 0.75f
 #define ERROR (-1)
 #define terminate_buffer(buffer) memcpy((buffer), &TERM_BUFF_VALUE, BUFF_TERM_MARK_SIZE)
 
+#define SNAPSHOT_MAGIC 0x58444957u  // "WIDX" in little-endian
+#define SNAPSHOT_VERSION 1u
+#define SNAPSHOT_HEADER_SIZE 48
+#define SNAPSHOT_EMPTY_SLOT UINT32_MAX
+#define SNAPSHOT_WRITE_CHUNK 1024
+#define TAIL_SCAN_CHUNK 4096
+#define MIN_PART_SIZE (1 << 20)  // Smaller parts are not worth a thread of their own.
+#define MAX_INDEXING_THREADS 64
+
+#if defined(__BYTE_ORDER__) && __BYTE_ORDER__ != __ORDER_LITTLE_ENDIAN__
+#error "Index snapshots are little-endian, and are mapped as is"
+#endif
+
+/**
+ * @brief Header of index snapshot file, see file_word_index_load().
+ */
+struct snapshot_header {
+    uint32_t magic;
+    uint32_t version;
+    uint32_t analyzer;
+    uint32_t flags;
+    uint64_t source_size;   // Size of the indexed file.
+    uint64_t source_mtime;  // Modification time of the indexed file in ms.
+    uint32_t term_count;
+    uint32_t slot_count;
+    uint32_t position_count;
+    uint32_t arena_size;
+};
+
+_Static_assert(sizeof(struct snapshot_header) == SNAPSHOT_HEADER_SIZE,
+               "Snapshot header must not have padding");
+
+/**
+ * @brief Snapshot mapped to memory. Pointers point to sections of the mapping.
+ */
+struct snapshot {
+    void *base;
+    size_t size;
+    uint32_t slot_mask;
+    const uint32_t *slots;
+    const uint32_t *hashes;
+    const uint32_t *term_offsets;
+    const uint32_t *posting_offsets;
+    const uint32_t *positions;
+    const char *arena;
+};
+
 /**
  * @brief Implementation of opaque WordIndex type.
  */
 struct wordindex {
     char *fname;
-    struct hash_table table;
-    size_t word_count;
+    int fd;                     // Indexed file, open for the lifetime of the index.
+    struct term_table table;    // Terms, when index was built from the file.
     enum index_analyzer analyzer;
+    uint64_t source_size;       // Size of the file, when it was indexed.
+    uint64_t source_mtime;      // Modification time of the file in ms, when it was indexed.
+    struct snapshot *snapshot;  // Mapped snapshot, NULL when index was built from the file.
+    size_t word_buffer_size;    // Size of the buffer used in reading words from the file.
+    size_t indexed_to;          // File position up to which the file is indexed.
+    size_t tail_start;          // Start of the last indexed word, see update_tail_start().
+    const char *mapping;        // Indexed file mapped to memory, NULL when file is read.
+    size_t mapping_size;        // Size of the mapping.
+    pthread_mutex_t lock;       // Guards readers and refreshing.
+    pthread_cond_t released;    // Signaled when readers drop to zero, or refresh ends.
+    size_t readers;             // Running queries and open iterators, see begin_read().
+    bool refreshing;            // Refresh is modifying the index.
 };
 
 static const uint32_t TERM_BUFF_VALUE = BUFF_TERM_MARK;
 
+/**
+ * @brief Part of the file, that is indexed by a thread of its own into
+ *        a partial table, or the whole range that is indexed at once.
+ */
+struct index_part {
+    const WordIndex *index;    // Index being built, only read by the thread.
+    FilePosition start;        // First byte of the part, at a word boundary.
+    FilePosition end;          // End of the part, at a word boundary.
+    struct term_table *table;  // Table positions of words are stored to.
+    bool success;              // Did indexing the part succeed.
+};
+
+/**
+ * @brief Positions of one found word of a batch query.
+ */
+struct batch_term {
+    struct index_read_iterator iterator;  // Positions of the word.
+    size_t word_len;                      // Length of the queried word.
+    uint32_t ordinal;                     // Index of the word in the query.
+};
+
+/**
+ * @brief Iterator of a batch query. Words that were not found have no terms.
+ */
+struct batch_read_iterator {
+    struct batch_term *terms;  // Found words, in query order.
+    size_t term_count;         // Number of found words.
+    size_t current;            // Term being read.
+    uint32_t ctx;              // Context of the query.
+    WordIndex *reader;         // Index read by the iterator, released when closed.
+};
+
 // ------------------------------------------------------------
 // Internal function prototypes
 // ------------------------------------------------------------
 
-static bool index_file(WordIndex *index, FILE *file, size_t word_buffer_size);
-static struct hash_entry *alloc_entry(const char *word, size_t len, uint32_t hash,
-                                      FilePosition pos);
-static inline bool index_should_resize(size_t size, size_t cap);
+static bool init_lock(WordIndex *index);
+static void begin_read(WordIndex *index);
+static void end_read(WordIndex *index);
+static void begin_refresh(WordIndex *index);
+static void end_refresh(WordIndex *index);
+static bool index_from(WordIndex *index, size_t size, FilePosition start,
+                       size_t threads);
+static bool index_parallel(WordIndex *index, size_t size, size_t parts);
+static void *index_part(void *arg);
+static bool index_part_from_file(struct index_part *part, char **norm_word,
+                                 size_t *norm_word_cap);
+static void find_part_boundary(const WordIndex *index, size_t size,
+                               FilePosition *position);
+static bool tokenize_text(struct term_table *table, enum index_analyzer analyzer,
+                          const char *text, size_t length, FilePosition base,
+                          char **norm_word, size_t *norm_word_cap);
+static bool map_file(WordIndex *index, size_t size);
+static void trim_positions(WordIndex *index, FilePosition cut);
+static bool update_tail_start(WordIndex *index, int fd);
 static inline size_t file_pos_with_context(size_t word_position, uint32_t ctx);
 static void do_compaction(WordIndex *index);
-static void resize(WordIndex *index);
-static void redistribute_hash_entries(size_t old_capacity, struct hash_entry **old_table,
-                                      size_t new_capacity, struct hash_entry **new_table);
 static struct index_read_iterator *read_words_with_txt_to_buffer(
     struct index_read_iterator *read_iterator, char *buffer, size_t buffer_size,
     uint32_t ctx, size_t word_len);
+static size_t write_contexts(struct index_read_iterator *read_iterator, char *buffer,
+                             size_t buffer_size, uint32_t ctx, size_t word_len,
+                             const uint32_t *ordinal);
+static bool find_positions(WordIndex *index, const char *word, size_t word_len,
+                           struct index_read_iterator *iterator);
+static struct batch_read_iterator *find_batch(WordIndex *index, const char *words,
+                                              size_t words_size, uint32_t ctx);
 static inline uint32_t single_read_size(uint32_t context, size_t word_len);
 static ssize_t normalize_word_token(const char *w_token, char **norm_word,
                                     size_t token_len, size_t *norm_w_buff_len,
                                     enum index_analyzer analyzer);
+static size_t read_fully(int fd, char *buffer, size_t length, size_t position);
+static size_t read_context(const struct index_read_iterator *iterator, char *buffer,
+                           size_t length, size_t position);
+static const char *mapped_context(const struct index_read_iterator *iterator,
+                                  size_t length, size_t position, size_t *mapped_length);
+static bool write_snapshot(WordIndex *index, FILE *out);
+static uint32_t snapshot_find(const struct snapshot *snapshot, const char *word,
+                              size_t word_len);
+static inline size_t snapshot_slot_count(size_t term_count);
+static inline uint64_t mtime_millis(const struct stat *st);
 
 // ------------------------------------------------------------
 // Public API
 // ------------------------------------------------------------
 
 WordIndex *file_word_index_open(const char *filepath, enum index_analyzer analyzer,
-                                size_t capacity, size_t word_buffer_size, bool compact) {
+                                size_t capacity, size_t word_buffer_size, size_t threads,
+                                bool compact) {
     NONNULL(filepath);
-    WordIndex *index = malloc(sizeof(WordIndex));
+    WordIndex *index = calloc(1, sizeof(WordIndex));
     if (index == NULL) {
         return NULL;
     }
+    index->fd = ERROR;
+    if (!init_lock(index)) {
+        free(index);
+        return NULL;
+    }
 
-    // TODO what the hell was going on here???
-    // TODO index->table.table = calloc(capacity, sizeof(struct hash_entry));
-    struct hash_entry **table = calloc(capacity, sizeof(uintptr_t));
-    if (table == NULL) {
-        PRINTF_ERROR("%s", ALLOC_ERR);
+    if (!term_table_init(&index->table, capacity)) {
         file_word_index_close(index);
         return NULL;
     }
-    index->table.table = table;
-    index->table.capacity = capacity;
 
     const size_t fpath_len = strlen(filepath) + 1;
     char *fname = calloc(fpath_len, sizeof(char));
@@ -90,26 +214,28 @@ WordIndex *file_word_index_open(const char *filepath, enum index_analyzer analyz
     index->fname = fname;
 
     index->analyzer = analyzer;
-    index->word_count = 0;
-    FILE *file = fopen(index->fname, "r");
-    if (file != NULL) {
-        bool success = index_file(index, file, word_buffer_size);
-        fclose(file);
-        if (!success) {
-            file_word_index_close(index);
-            return NULL;
-        }
-    } else {
+    index->word_buffer_size = word_buffer_size;
+    index->fd = open(index->fname, O_RDONLY | O_CLOEXEC);
+    // File is stamped before indexing, so changes made during indexing
+    // make snapshots of this index stale.
+    struct stat file_stat;
+    if (index->fd == ERROR || fstat(index->fd, &file_stat) != 0) {
         PRINTF_ERROR_WITH_ERRNO("Could not open a file %s to index", index->fname);
         file_word_index_close(index);
         return NULL;
     }
+    index->source_size = file_stat.st_size;
+    index->source_mtime = mtime_millis(&file_stat);
+    if (!index_from(index, file_stat.st_size, 0, threads)) {
+        file_word_index_close(index);
+        return NULL;
+    }
 
     if (compact) {
         do_compaction(index);
     }
 #ifdef DBG
-    dbg(index->fname, index->word_count, &index->table);
+    dbg(index->fname, &index->table);
 #endif
     return index;
 }
@@ -127,45 +253,319 @@ void *file_word_index_read_with_context_buffered(WordIndex *index, char *buffer,
                                              word_len);
     }
 
-    char normalized_word[word_len + 1];
-    analyzer_normalize(index->analyzer, word, word_len, normalized_word);
-    // normalize_word(word, normalized_word, word_len);
-
-    struct hash_entry *chain =
-        index->table.table[hash(normalized_word) % index->table.capacity];
-
-    // Find word from chain, and start writing words with their context to buffer.
-    // Returns NULL, if all words fit to buffer, otherwise returns position to continue
-    // from. See above.
-    while (chain != NULL) {
-        if (strncmp(chain->word, normalized_word, chain->word_len) == EQ) {
-            struct index_read_iterator *new_iterator =
-                malloc(sizeof(struct index_read_iterator));
-            if (new_iterator == NULL) {
-                PRINTF_ERROR("%s", ALLOC_ERR);
-                return NULL;
-            }
-            new_iterator->index = 0;
-            new_iterator->file = fopen(index->fname, "r");
-            new_iterator->vec = &chain->pos_vec;
-            return read_words_with_txt_to_buffer(new_iterator, buffer, buffer_size, ctx,
-                                                 word_len);
+    struct index_read_iterator found;
+    begin_read(index);
+    if (!find_positions(index, word, word_len, &found)) {
+        // Word was not found.
+        end_read(index);
+        terminate_buffer(buffer);
+        return NULL;
+    }
+    struct index_read_iterator *new_iterator = malloc(sizeof(struct index_read_iterator));
+    if (new_iterator == NULL) {
+        PRINTF_ERROR("%s", ALLOC_ERR);
+        end_read(index);
+        terminate_buffer(buffer);
+        return NULL;
+    }
+    *new_iterator = found;
+    // Iterator keeps reading the index, until it's closed.
+    new_iterator->reader = index;
+    return read_words_with_txt_to_buffer(new_iterator, buffer, buffer_size, ctx, word_len);
+}
+
+size_t file_word_index_read_positions(WordIndex *index, const char *word, size_t word_len,
+                                      size_t offset, FilePosition *positions,
+                                      size_t capacity) {
+    NONNULL(index);
+
+    struct index_read_iterator found;
+    begin_read(index);
+    if (!find_positions(index, word, word_len, &found)) {
+        end_read(index);
+        return 0;
+    }
+    const size_t total = found.vec != NULL ? found.vec->length : found.snapshot_length;
+    found.index = offset;
+    for (size_t copied = 0; copied < capacity && pos_vec_iter_has_next(&found); copied++) {
+        positions[copied] = pos_vec_iter_next(&found);
+    }
+    end_read(index);
+    return total;
+}
+
+size_t file_word_index_read_with_context_callback(WordIndex *index, const char *word,
+                                                  size_t word_len, size_t ctx,
+                                                  word_context_callback callback,
+                                                  void *data) {
+    NONNULL(index);
+    NONNULL(callback);
+
+    struct index_read_iterator found;
+    begin_read(index);
+    if (!find_positions(index, word, word_len, &found)) {
+        end_read(index);
+        return 0;
+    }
+    const size_t window_size = (ctx << 1) + word_len;
+    // Mapped file is passed to the callback in place, so only reading needs a window.
+    char *window = NULL;
+    if (found.mapping == NULL && (window = malloc(window_size)) == NULL) {
+        PRINTF_ERROR("%s", ALLOC_ERR);
+        end_read(index);
+        return 0;
+    }
+
+    size_t called = 0;
+    while (pos_vec_iter_has_next(&found)) {
+        const FilePosition fpos = pos_vec_iter_next(&found);
+        // Context is cut short at the beginning of the file.
+        const size_t read_size =
+            (size_t)fpos < ctx ? window_size - (ctx - (size_t)fpos) : window_size;
+        const size_t position = file_pos_with_context(fpos, ctx);
+
+        const char *context;
+        size_t length;
+        if (found.mapping != NULL) {
+            context = mapped_context(&found, read_size, position, &length);
+        } else {
+            context = window;
+            length = read_fully(found.fd, window, read_size, position);
+        }
+        called++;
+        if (!callback(context, length, data)) {
+            break;
+        }
+    }
+    free(window);
+    end_read(index);
+    return called;
+}
+
+void *file_word_index_read_batch_with_context_buffered(WordIndex *index, char *buffer,
+                                                       size_t buffer_size,
+                                                       const char *words, size_t words_size,
+                                                       size_t ctx, void *batch_iterator) {
+    NONNULL(index);
+    NONNULL(buffer);
+
+    struct batch_read_iterator *batch = batch_iterator;
+    if (batch == NULL) {
+        begin_read(index);
+        batch = find_batch(index, words, words_size, ctx);
+        if (batch == NULL) {
+            end_read(index);
+            terminate_buffer(buffer);
+            return NULL;
+        }
+        // Iterator keeps reading the index, until it's closed.
+        batch->reader = index;
+    }
+
+    size_t total_written = 0;
+    for (; batch->current < batch->term_count; batch->current++) {
+        struct batch_term *term = batch->terms + batch->current;
+        total_written += write_contexts(&term->iterator, buffer + total_written,
+                                        buffer_size - total_written, batch->ctx,
+                                        term->word_len, &term->ordinal);
+        if (pos_vec_iter_has_next(&term->iterator)) {
+            // No more room, continue from the same term next time.
+            terminate_buffer(buffer + total_written);
+            return batch;
         }
-        chain = chain->next;
     }
 
-    // Word was not found.
-    terminate_buffer(buffer);
+    // All words of the batch read.
+    terminate_buffer(buffer + total_written);
+    file_word_index_close_batch_iterator(batch);
     return NULL;
 }
 
+void file_word_index_close_batch_iterator(void *batch_iterator) {
+    struct batch_read_iterator *batch = batch_iterator;
+    if (batch != NULL) {
+        if (batch->reader != NULL) {
+            end_read(batch->reader);
+        }
+        free(batch->terms);
+        free(batch);
+    }
+}
+
 void file_word_index_close_iterator(struct index_read_iterator *iter) {
-    if (iter != NULL) {
-        if (iter->file != NULL) {
-            fclose(iter->file);
+    // Descriptor is owned by the index.
+    if (iter != NULL && iter->reader != NULL) {
+        end_read(iter->reader);
+    }
+    free(iter);
+}
+
+WordIndex *file_word_index_load(const char *snapshot_path, const char *filepath,
+                                enum index_analyzer analyzer) {
+    NONNULL(snapshot_path);
+    NONNULL(filepath);
+    const int file_fd = open(filepath, O_RDONLY | O_CLOEXEC);
+    struct stat file_stat;
+    if (file_fd == ERROR || fstat(file_fd, &file_stat) != 0) {
+        PRINTF_ERROR_WITH_ERRNO("Could not open a file %s", filepath);
+        if (file_fd != ERROR) {
+            close(file_fd);
         }
-        free(iter);
+        return NULL;
+    }
+
+    const int fd = open(snapshot_path, O_RDONLY);
+    if (fd == ERROR) {
+        PRINTF_ERROR_WITH_ERRNO("Could not open a snapshot %s", snapshot_path);
+        close(file_fd);
+        return NULL;
+    }
+    struct stat snapshot_stat;
+    if (fstat(fd, &snapshot_stat) != 0 ||
+        (size_t)snapshot_stat.st_size < SNAPSHOT_HEADER_SIZE) {
+        close(fd);
+        close(file_fd);
+        PRINTF_ERROR("Invalid snapshot %s", snapshot_path);
+        return NULL;
+    }
+    const size_t size = snapshot_stat.st_size;
+    void *base = mmap(NULL, size, PROT_READ, MAP_PRIVATE, fd, 0);
+    close(fd);
+    if (base == MAP_FAILED) {
+        PRINTF_ERROR_WITH_ERRNO("Could not map a snapshot %s", snapshot_path);
+        close(file_fd);
+        return NULL;
+    }
+
+    struct snapshot_header header;
+    memcpy(&header, base, sizeof(header));
+    const uint64_t expected_size =
+        SNAPSHOT_HEADER_SIZE + sizeof(uint32_t) * ((uint64_t)header.slot_count +
+                                                   3 * (uint64_t)header.term_count + 2 +
+                                                   header.position_count) +
+        header.arena_size;
+    if (header.magic != SNAPSHOT_MAGIC || header.version != SNAPSHOT_VERSION ||
+        expected_size != size || header.slot_count <= header.term_count ||
+        (header.slot_count & (header.slot_count - 1)) != 0) {
+        PRINTF_ERROR("Invalid snapshot %s", snapshot_path);
+        munmap(base, size);
+        close(file_fd);
+        return NULL;
     }
+    if (header.analyzer != (uint32_t)analyzer ||
+        header.source_size != (uint64_t)file_stat.st_size ||
+        header.source_mtime != mtime_millis(&file_stat)) {
+        PRINTF_ERROR("Snapshot %s is stale", snapshot_path);
+        munmap(base, size);
+        close(file_fd);
+        return NULL;
+    }
+
+    WordIndex *index = calloc(1, sizeof(WordIndex));
+    struct snapshot *snapshot = malloc(sizeof(struct snapshot));
+    const size_t fpath_len = strlen(filepath) + 1;
+    char *fname = malloc(fpath_len);
+    if (index != NULL && !init_lock(index)) {
+        free(index);
+        index = NULL;
+    }
+    if (index == NULL || snapshot == NULL || fname == NULL) {
+        PRINTF_ERROR("%s", ALLOC_ERR);
+        free(index);
+        free(snapshot);
+        free(fname);
+        munmap(base, size);
+        close(file_fd);
+        return NULL;
+    }
+    memcpy(fname, filepath, fpath_len);
+
+    snapshot->base = base;
+    snapshot->size = size;
+    snapshot->slot_mask = header.slot_count - 1;
+    snapshot->slots = (const uint32_t *)((const char *)base + SNAPSHOT_HEADER_SIZE);
+    snapshot->hashes = snapshot->slots + header.slot_count;
+    snapshot->term_offsets = snapshot->hashes + header.term_count;
+    snapshot->posting_offsets = snapshot->term_offsets + header.term_count + 1;
+    snapshot->positions = snapshot->posting_offsets + header.term_count + 1;
+    snapshot->arena = (const char *)(snapshot->positions + header.position_count);
+
+    index->fname = fname;
+    index->fd = file_fd;
+    index->analyzer = analyzer;
+    index->source_size = header.source_size;
+    index->source_mtime = header.source_mtime;
+    index->snapshot = snapshot;
+    return index;
+}
+
+bool file_word_index_save(WordIndex *index, const char *snapshot_path) {
+    NONNULL(index);
+    NONNULL(snapshot_path);
+    // Snapshot is written next to the target, and renamed over it when done,
+    // so readers never map a partially written snapshot.
+    const size_t path_len = strlen(snapshot_path);
+    char tmp_path[path_len + sizeof(".tmp")];
+    memcpy(tmp_path, snapshot_path, path_len);
+    memcpy(tmp_path + path_len, ".tmp", sizeof(".tmp"));
+
+    FILE *out = fopen(tmp_path, "wb");
+    if (out == NULL) {
+        PRINTF_ERROR_WITH_ERRNO("Could not open a snapshot %s", tmp_path);
+        return false;
+    }
+    bool success;
+    begin_read(index);
+    if (index->snapshot != NULL) {
+        success = fwrite(index->snapshot->base, sizeof(char), index->snapshot->size, out) ==
+                  index->snapshot->size;
+    } else {
+        success = write_snapshot(index, out);
+    }
+    end_read(index);
+    success = fclose(out) == 0 && success;
+    if (success && rename(tmp_path, snapshot_path) != 0) {
+        PRINTF_ERROR_WITH_ERRNO("Could not write a snapshot %s", snapshot_path);
+        success = false;
+    }
+    if (!success) {
+        remove(tmp_path);
+    }
+    return success;
+}
+
+ssize_t file_word_index_refresh(WordIndex *index) {
+    NONNULL(index);
+    if (index->snapshot != NULL) {
+        PRINTF_ERROR("Index of %s was loaded from a snapshot, and can't be refreshed",
+                     index->fname);
+        return ERROR;
+    }
+    // Vectors and the mapping are replaced, so nothing may read the index meanwhile.
+    begin_refresh(index);
+    struct stat file_stat;
+    ssize_t indexed;
+    if (fstat(index->fd, &file_stat) != 0) {
+        PRINTF_ERROR_WITH_ERRNO("Could not stat a file %s", index->fname);
+        indexed = ERROR;
+    } else if ((size_t)file_stat.st_size == index->indexed_to) {
+        indexed = 0;
+    } else if ((size_t)file_stat.st_size < index->indexed_to) {
+        PRINTF_ERROR("File %s got shorter, and can't be refreshed", index->fname);
+        indexed = ERROR;
+    } else {
+        // Last word may have been cut off at the old end of the file, so tokenizing
+        // starts from it, and positions indexed from there on are dropped.
+        const size_t old_end = index->indexed_to;
+        trim_positions(index, index->tail_start);
+        index->source_size = file_stat.st_size;
+        index->source_mtime = mtime_millis(&file_stat);
+        indexed = index_from(index, file_stat.st_size, index->tail_start, 1)
+                      ? (ssize_t)(index->indexed_to - old_end)
+                      : ERROR;
+    }
+    end_refresh(index);
+    return indexed;
 }
 
 void file_word_index_close(WordIndex *index) {
@@ -173,301 +573,531 @@ void file_word_index_close(WordIndex *index) {
         return;
     }
 
+    if (index->snapshot != NULL) {
+        munmap(index->snapshot->base, index->snapshot->size);
+        free(index->snapshot);
+    }
+
     if (index->fname != NULL) {
         free(index->fname);
     }
-    if (index->table.table != NULL) {
-        for (size_t i = 0; i < index->table.capacity; i++) {
-            struct hash_entry *entry = index->table.table[i];
-            while (entry != NULL) {
-                struct hash_entry *next = entry->next;
-                free(entry->pos_vec.array);
-                free(entry->word);
-                free(entry);
-                entry = next;
-            }
-        }
-        free(index->table.table);
+    if (index->mapping != NULL) {
+        munmap((void *)index->mapping, index->mapping_size);
+    }
+    if (index->fd != ERROR) {
+        close(index->fd);
     }
+    term_table_free(&index->table);
+    pthread_cond_destroy(&index->released);
+    pthread_mutex_destroy(&index->lock);
     free(index);
 }
 
 /**
- * @brief Stores word occurance at specified FilePosition
- * to the index. If word when word already exist in the index,
- * only file position is stored.
+ * @brief Initializes the lock, that keeps refresh from modifying the index
+ * while it's read.
  *
- * @param index WordIndex
- * @param word word
- * @param word_len word length
- * @param pos file position
+ * @param index Index object.
  *
- * @return true  - When word was added to index.
- * @return false - When adding failed.
+ * @return true  - When lock was initialized.
+ * @return false - When initialization failed.
  */
-static bool index_word_at_position(WordIndex *index, char *word, size_t word_len,
-                                   FilePosition pos) {
-    NONNULL(index);
-    NONNULL(word);
-    uint32_t hash_value = hash(word);
-
-    const size_t capacity = index->table.capacity;
-    struct hash_entry **bucket = index->table.table + (hash_value % capacity);
-    if (*bucket == NULL) {
-        // First entry for this bucket.
-        index->word_count++;
-        *bucket = alloc_entry(word, word_len, hash_value, pos);
-        if (bucket == NULL) {
-            // Failed to allocate bucket.
-            return false;
-        }
-    } else {
-        struct hash_entry *entry = *bucket;
-        do {
-            if (strncmp(entry->word, word, word_len) == EQ) {
-                // Found existing entry of word.
-                if (!pos_vec_add(&entry->pos_vec, pos)) {
-                    // Failed to add position to existing entry.
-                    return false;
-                } else {
-                    break;
-                }
-            } else if (entry->next == NULL) {
-                // Hash collision, add word new entry to the bucket.
-                index->word_count++;
-                struct hash_entry *new_entry =
-                    alloc_entry(word, word_len, hash_value, pos);
-                if (new_entry == NULL) {
-                    // Failed to allocate new entry.
-                    return false;
-                } else {
-                    entry->next = new_entry;
-                    break;
-                }
-            }
-        } while ((entry = entry->next));
+static bool init_lock(WordIndex *index) {
+    if (pthread_mutex_init(&index->lock, NULL) != 0) {
+        PRINTF_ERROR("%s", "Could not initialize index lock");
+        return false;
     }
-    if (index_should_resize(index->word_count, capacity)) {
-        resize(index);
+    if (pthread_cond_init(&index->released, NULL) != 0) {
+        PRINTF_ERROR("%s", "Could not initialize index lock");
+        pthread_mutex_destroy(&index->lock);
+        return false;
     }
     return true;
 }
 
 /**
- * @brief Reads the file in buffered manner,
- * and tokenizes the words and stores their file
- * positions to index.
+ * @brief Registers a reader of the index, waiting for a running refresh to end.
+ * Reader is counted, not tied to a thread, so an iterator can be read and
+ * closed by any thread. Readers don't wait for a refresh, that is only waiting
+ * for readers, so a thread with an open iterator can still query the index.
+ *
+ * @param index Index to read.
+ */
+static void begin_read(WordIndex *index) {
+    pthread_mutex_lock(&index->lock);
+    while (index->refreshing) {
+        pthread_cond_wait(&index->released, &index->lock);
+    }
+    index->readers++;
+    pthread_mutex_unlock(&index->lock);
+}
+
+/**
+ * @brief Releases a reader registered by begin_read().
+ *
+ * @param index Index, that was read.
+ */
+static void end_read(WordIndex *index) {
+    pthread_mutex_lock(&index->lock);
+    if (--index->readers == 0) {
+        pthread_cond_broadcast(&index->released);
+    }
+    pthread_mutex_unlock(&index->lock);
+}
+
+/**
+ * @brief Waits until there are no readers nor other refreshes, and marks the
+ * index as being refreshed.
+ *
+ * @param index Index to refresh.
+ */
+static void begin_refresh(WordIndex *index) {
+    pthread_mutex_lock(&index->lock);
+    while (index->readers > 0 || index->refreshing) {
+        pthread_cond_wait(&index->released, &index->lock);
+    }
+    index->refreshing = true;
+    pthread_mutex_unlock(&index->lock);
+}
+
+/**
+ * @brief Ends a refresh started by begin_refresh(), and wakes up the waiting
+ * readers.
+ *
+ * @param index Index, that was refreshed.
+ */
+static void end_refresh(WordIndex *index) {
+    pthread_mutex_lock(&index->lock);
+    index->refreshing = false;
+    pthread_cond_broadcast(&index->released);
+    pthread_mutex_unlock(&index->lock);
+}
+
+/**
+ * @brief Indexes the file from the start position to its end, and finds where
+ * the last indexed word starts. File is mapped to memory, or read through
+ * a buffer, depending on the mode of the index. Large files are split to
+ * parts, that are indexed by multiple threads, when more than one thread is
+ * allowed.
  *
  * @param index Index object.
- * @param file Open file to read from.
- * @param word_buffer_size Size of a buffer used in reading
- *                         words from the file.
+ * @param size Current size of the file.
+ * @param start File position of the file, where indexing starts.
+ * @param threads Maximum number of threads used in indexing.
  *
  * @return true - When indexing was succesful.
  * @return false When indexing failed.
  */
-static bool index_file(WordIndex *index, FILE *file, size_t word_buffer_size) {
-    NONNULL(index);
-    char word_buffer[word_buffer_size];
-    char *next_pos_in_buffer = word_buffer;
-    size_t readBytes = 0, position_offset = 0, truncate_offset = 0;
-
-    // const char *WHITESPACE = " \r\n";
-    const char *ANALYZER_DELIMITERS = analyzer_get_delim(index->analyzer);
-    // Word tokens will be copied to this buffer, and will get normalized.
-    // It's dynamic, because we might need to resize it based on token length.
-    size_t norm_word_buff_len = 64;
-    char *norm_word = malloc(norm_word_buff_len);
-
-    while ((readBytes = fread_unlocked(next_pos_in_buffer, sizeof(char),
-                                       (word_buffer_size - 1) - truncate_offset, file)) !=
-           0) {
-        // We use stdlib string functions, so let's make sure last string is
-        // terminated. This is taken into account, we read in buffsize-1 bytes.
-        word_buffer[truncate_offset + readBytes] = '\0';
-
-        char *save_ptr;
-        char *word_token = strtok_r(word_buffer, ANALYZER_DELIMITERS, &save_ptr);
-        while (word_token != NULL) {
-            const size_t word_token_len = strlen(word_token);
-
-            // Check if we need to move remaining word to start
-            // of buffer, and continue reading to complete the
-            // word.
-            if (word_token + word_token_len == word_buffer + (word_buffer_size - 1)) {
-                memmove(word_buffer, word_token, word_token_len);
-                truncate_offset = word_token_len;
-                break;
-            }
+static bool index_from(WordIndex *index, size_t size, FilePosition start,
+                       size_t threads) {
+    if (index->word_buffer_size == WORD_INDEX_MAP_FILE && !map_file(index, size)) {
+        return false;
+    }
+    size_t parts = (size - start) / MIN_PART_SIZE;
+    if (parts > threads) {
+        parts = threads;
+    }
+    if (parts > MAX_INDEXING_THREADS) {
+        parts = MAX_INDEXING_THREADS;
+    }
 
-            const FilePosition pos =
-                position_offset - truncate_offset + (word_token - word_buffer);
+    bool success;
+    if (start == 0 && parts > 1) {
+        if (index->mapping != NULL) {
+            madvise((void *)index->mapping, index->mapping_size, MADV_WILLNEED);
+        }
+        success = index_parallel(index, size, parts);
+    } else {
+        if (index->mapping != NULL) {
+            madvise((void *)index->mapping, index->mapping_size, MADV_SEQUENTIAL);
+        }
+        struct index_part whole = {
+            .index = index, .start = start, .end = size, .table = &index->table};
+        index_part(&whole);
+        success = whole.success;
+    }
+    if (index->mapping != NULL) {
+        // Queries read small context windows at random positions.
+        madvise((void *)index->mapping, index->mapping_size, MADV_RANDOM);
+    }
+    if (success) {
+        index->indexed_to = size;
+    }
+    return success && update_tail_start(index, index->fd);
+}
 
-            // TODO: Do I even need normalization? Something to think about..
-            const ssize_t norm_word_len =
-                normalize_word_token(word_token, &norm_word, word_token_len,
-                                     &norm_word_buff_len, index->analyzer);
-            if (norm_word_len == ERROR) {
-                free(norm_word);
-                return false;
-            }
+/**
+ * @brief Splits the file to parts at word boundaries, and indexes each part
+ * to a partial table by a thread of its own. Partial tables are merged in
+ * file order, so the positions of each word stay in ascending order.
+ *
+ * @param index Index object, with an empty table.
+ * @param size Current size of the file.
+ * @param parts Number of parts, and threads.
+ *
+ * @return true - When indexing was succesful.
+ * @return false When indexing failed.
+ */
+static bool index_parallel(WordIndex *index, size_t size, size_t parts) {
+    struct index_part *part = calloc(parts, sizeof(struct index_part));
+    struct term_table *tables = calloc(parts, sizeof(struct term_table));
+    pthread_t *threads = calloc(parts, sizeof(pthread_t));
+    bool *started = calloc(parts, sizeof(bool));
+    if (part == NULL || tables == NULL || threads == NULL || started == NULL) {
+        PRINTF_ERROR("%s", ALLOC_ERR);
+        free(part);
+        free(tables);
+        free(threads);
+        free(started);
+        return false;
+    }
 
-            const bool success =
-                index_word_at_position(index, norm_word, norm_word_len, pos);
-            if (!success) {
-                PRINTF_ERROR("Failed to add word %s to the index", norm_word);
-                free(norm_word);
-                return false;
-            }
+    bool success = true;
+    size_t initialized = 0;
+    FilePosition start = 0;
+    for (; initialized < parts && success; initialized++) {
+        FilePosition end = initialized + 1 == parts ? size : size / parts * (initialized + 1);
+        if (end < start) {
+            end = start;
+        }
+        find_part_boundary(index, size, &end);
+        success = term_table_init(&tables[initialized], index->table.entry_capacity);
+        part[initialized].index = index;
+        part[initialized].start = start;
+        part[initialized].end = end;
+        part[initialized].table = &tables[initialized];
+        start = end;
+    }
 
-            // Get next token.
-            word_token = strtok_r(NULL, ANALYZER_DELIMITERS, &save_ptr);
-            if (word_token == NULL) {
-                // Reading buffer is done. Didn't truncate, so reset to zero.
-                truncate_offset = 0;
-            }
+    for (size_t i = 0; i < initialized && success; i++) {
+        // Part is indexed by the calling thread, if no thread can be started.
+        started[i] = pthread_create(&threads[i], NULL, index_part, &part[i]) == 0;
+        if (!started[i]) {
+            index_part(&part[i]);
         }
-        // Set the next read position. If we had to truncate, next read should
-        // 'continue' after truncated bytes.
-        next_pos_in_buffer = word_buffer + truncate_offset;
-        position_offset += readBytes;
     }
-    free(norm_word);
-    return true;
+    for (size_t i = 0; i < initialized; i++) {
+        if (started[i]) {
+            pthread_join(threads[i], NULL);
+        }
+    }
+    for (size_t i = 0; i < initialized; i++) {
+        success = success && part[i].success && term_table_merge(&index->table, &tables[i]);
+        term_table_free(&tables[i]);
+    }
+    free(part);
+    free(tables);
+    free(threads);
+    free(started);
+    return success;
 }
 
 /**
- * @brief Allocates entry object in heap.
+ * @brief Thread routine, that indexes a part of the file into the table of
+ * the part. Part is tokenized straight from the mapping, when file is mapped,
+ * otherwise it's read through a buffer. Result is stored to the part.
  *
- * @param word Word string
- * @param len word length
- * @param hash hash value of the word
- * @param pos word's file positon
+ * @param arg Part to index.
  *
- * @return struct hash_entry* Pointer to new entry.
+ * @return void* NULL.
  */
-static struct hash_entry *alloc_entry(const char *word, size_t len, uint32_t hash,
-                                      FilePosition pos) {
-    struct hash_entry *new_entry = malloc(sizeof(struct hash_entry));
-    if (new_entry == NULL) {
-        PRINTF_ERROR("%s", ALLOC_ERR);
-        return NULL;
-    }
-    new_entry->hash = hash;
-    new_entry->word_len = len;
-    if (!pos_vec_init(&new_entry->pos_vec, pos)) {
-        // Failed to initialize entry.
-        free(new_entry);
+static void *index_part(void *arg) {
+    struct index_part *part = arg;
+    if (part->start == part->end) {
+        part->success = true;
         return NULL;
     }
-    new_entry->next = NULL;
-    char *word_buffer = calloc(len + 1, sizeof(char));
-    if (word_buffer == NULL) {
+    size_t norm_word_cap = 64;
+    char *norm_word = malloc(norm_word_cap);
+    if (norm_word == NULL) {
         PRINTF_ERROR("%s", ALLOC_ERR);
-        free(new_entry);
+        part->success = false;
         return NULL;
     }
-    new_entry->word = word_buffer;
-    memccpy(new_entry->word, word, sizeof(char), len);
-    return new_entry;
+    const WordIndex *index = part->index;
+    if (index->mapping != NULL) {
+        part->success = tokenize_text(part->table, index->analyzer,
+                                      index->mapping + part->start,
+                                      part->end - part->start, part->start, &norm_word,
+                                      &norm_word_cap);
+    } else {
+        part->success = index_part_from_file(part, &norm_word, &norm_word_cap);
+    }
+    free(norm_word);
+    return NULL;
 }
 
 /**
- * @brief
+ * @brief Reads the part of the file through a buffer, and tokenizes it. Word
+ * cut off at the end of the buffer is read again with the next read. Buffer
+ * grows, when a single word doesn't fit in it.
+ *
+ * @param part Part to index.
+ * @param norm_word Buffer for normalized words.
+ * @param norm_word_cap Capacity of the normalized word buffer.
  *
- * @param index
+ * @return true - When indexing was succesful.
+ * @return false When indexing failed.
  */
-static void resize(WordIndex *index) {
-    size_t old_capacity = index->table.capacity;
-    struct hash_entry **old_table = index->table.table;
-
-    const size_t new_capacity = old_capacity << 1;
-    struct hash_entry **new_table = calloc(new_capacity, sizeof(struct hash_entry **));
-    if (new_table == NULL) {
+static bool index_part_from_file(struct index_part *part, char **norm_word,
+                                 size_t *norm_word_cap) {
+    const WordIndex *index = part->index;
+    size_t buffer_size = index->word_buffer_size;
+    char *buffer = malloc(buffer_size);
+    if (buffer == NULL) {
         PRINTF_ERROR("%s", ALLOC_ERR);
-        // Nothing to do.
-        return;
+        return false;
     }
-    redistribute_hash_entries(old_capacity, old_table, new_capacity, new_table);
 
-    index->table.table = new_table;
-    index->table.capacity = new_capacity;
-
-    free(old_table);
+    bool success = true;
+    FilePosition position = part->start;
+    while (success && position < part->end) {
+        const size_t remaining = part->end - position;
+        const size_t wanted = remaining < buffer_size ? remaining : buffer_size;
+        const size_t read_bytes = read_fully(index->fd, buffer, wanted, position);
+        if (read_bytes == 0) {
+            // File got shorter while it was indexed.
+            break;
+        }
+        size_t length = read_bytes;
+        if (read_bytes == wanted && wanted < remaining) {
+            while (length > 0 &&
+                   !analyzer_word_should_break_at(index->analyzer, buffer[length - 1])) {
+                length--;
+            }
+            if (length == 0) {
+                buffer_size <<= 1;
+                char *grown = realloc(buffer, buffer_size);
+                if (grown == NULL) {
+                    PRINTF_ERROR("%s", ALLOC_ERR);
+                    success = false;
+                } else {
+                    buffer = grown;
+                }
+                continue;
+            }
+        }
+        success = tokenize_text(part->table, index->analyzer, buffer, length, position,
+                                norm_word, norm_word_cap);
+        position += length;
+    }
+    free(buffer);
+    return success;
 }
 
 /**
- * @brief When index needs to resize, entries need to be
- * redistributed into new hash container. We can avoid rehashing,
- * as hash value is stored in each entry.
+ * @brief Moves the position forward to the next delimiter, or to the end of
+ * the file, so that no word is split between two parts.
  *
- * @param old_capacity Old hashtable capacity.
- * @param old_table  Old hashtable hash container.
- * @param new_capacity New hashtable capacity.
- * @param new_table New hashtable hash container.
+ * @param index Index object.
+ * @param size Current size of the file.
+ * @param position Position to move.
  */
-static void redistribute_hash_entries(size_t old_capacity, struct hash_entry **old_table,
-                                      size_t new_capacity,
-                                      struct hash_entry **new_table) {
-    for (size_t i = 0; i < old_capacity; i++) {
-        struct hash_entry *entry = old_table[i];
-        while (entry != NULL) {
-            const uint32_t hash_slot = entry->hash % new_capacity;
-
-            struct hash_entry *next = entry->next;
-            entry->next = NULL;
-
-            struct hash_entry *entry_at_new_position = new_table[hash_slot];
-            if (entry_at_new_position == NULL) {
-                // Free slot, store entry here.
-                new_table[hash_slot] = entry;
-            } else {
-                // Find a place at existing bucket and store there.
-                while (entry_at_new_position->next != NULL) {
-                    entry_at_new_position = entry_at_new_position->next;
-                }
-                entry_at_new_position->next = entry;
+static void find_part_boundary(const WordIndex *index, size_t size,
+                               FilePosition *position) {
+    if (index->mapping != NULL) {
+        while (*position < size &&
+               !analyzer_word_should_break_at(index->analyzer, index->mapping[*position])) {
+            (*position)++;
+        }
+        return;
+    }
+    char buffer[TAIL_SCAN_CHUNK];
+    while (*position < size) {
+        const size_t read_bytes = read_fully(index->fd, buffer, sizeof(buffer), *position);
+        if (read_bytes == 0) {
+            break;
+        }
+        for (size_t i = 0; i < read_bytes; i++) {
+            if (analyzer_word_should_break_at(index->analyzer, buffer[i])) {
+                *position += i;
+                return;
             }
+        }
+        *position += read_bytes;
+    }
+    *position = size;
+}
+
+/**
+ * @brief Maps the indexed file to memory, replacing previous mapping. Empty
+ * file is not mapped, as there is nothing to read from it.
+ *
+ * @param index Index object.
+ * @param size Current size of the file.
+ *
+ * @return true  - When file was mapped.
+ * @return false - When mapping failed.
+ */
+static bool map_file(WordIndex *index, size_t size) {
+    if (index->mapping != NULL) {
+        munmap((void *)index->mapping, index->mapping_size);
+        index->mapping = NULL;
+        index->mapping_size = 0;
+    }
+    if (size == 0) {
+        return true;
+    }
+    void *mapping = mmap(NULL, size, PROT_READ, MAP_PRIVATE, index->fd, 0);
+    if (mapping == MAP_FAILED) {
+        PRINTF_ERROR_WITH_ERRNO("Could not map a file %s", index->fname);
+        return false;
+    }
+    index->mapping = mapping;
+    index->mapping_size = size;
+    return true;
+}
 
-            entry = next;
+/**
+ * @brief Tokenizes the words of the text, and stores their file positions to
+ * the table. Words are found and lowercased in a single pass by the analyzer.
+ * Text must start and end at word boundaries, and needs no NUL termination.
+ *
+ * @param table Table to store the positions to.
+ * @param analyzer Analyzer used in tokenizing.
+ * @param text Text to tokenize.
+ * @param length Length of the text.
+ * @param base File position of the start of the text.
+ * @param norm_word Buffer for normalized words.
+ * @param norm_word_cap Capacity of the normalized word buffer.
+ *
+ * @return true - When tokenizing was succesful.
+ * @return false When adding a word failed.
+ */
+static bool tokenize_text(struct term_table *table, enum index_analyzer analyzer,
+                          const char *text, size_t length, FilePosition base,
+                          char **norm_word, size_t *norm_word_cap) {
+    size_t position = analyzer_skip_breaks(analyzer, text, length);
+    while (position < length) {
+        const size_t word_len = analyzer_scan_word(analyzer, text + position,
+                                                   length - position, *norm_word,
+                                                   *norm_word_cap);
+        // Word didn't fit to the buffer, so it's normalized again after growing it.
+        if (word_len >= *norm_word_cap &&
+            normalize_word_token(text + position, norm_word, word_len, norm_word_cap,
+                                 analyzer) == ERROR) {
+            return false;
+        }
+        if (!term_table_add(table, *norm_word, word_len, base + position)) {
+            PRINTF_ERROR("Failed to add word at %zu to the index", base + position);
+            return false;
         }
+        position += word_len;
+        position += analyzer_skip_breaks(analyzer, text + position, length - position);
     }
+    return true;
 }
 
 /**
- * @brief Reads words with context from index to fresh buffer. If
- * results remain to be read after buffer is full, iterator object
- * is returned.
+ * @brief Drops file positions from the cut position onwards from all entries.
+ *        Positions of an entry are in ascending order, so they are dropped from
+ *        the end of the vector.
  *
- * This iterator should be passed as parameter to next method call.
- * If no more reads are needed, you must free the iterator object
- * yourself.
+ * @param index Word index object.
+ * @param cut First file position to drop.
+ */
+static void trim_positions(WordIndex *index, FilePosition cut) {
+    for (size_t term = 0; term < index->table.size; term++) {
+        struct pos_vec *v = &index->table.entries[term].pos_vec;
+        while (v->length > 0 && v->array[v->length - 1] >= cut) {
+            v->length--;
+        }
+    }
+}
+
+/**
+ * @brief Finds where the last indexed word starts. If indexed part of the file
+ *        ends at a delimiter, there is no word to finish, and tail starts at
+ *        the end of indexed part.
  *
  * @param index Word index object.
- * @param pos_iter Iterator, first time NULL
- * @param buffer buffer to read results into
- * @param buffer_size Size of the read buffer
- * @param ctx Context size.
- * @param word_len Length of the word.
+ * @param fd Descriptor of the indexed file.
+ *
+ * @return true  - When tail start was found.
+ * @return false - When reading the file failed.
+ */
+static bool update_tail_start(WordIndex *index, int fd) {
+    char buffer[TAIL_SCAN_CHUNK];
+    size_t position = index->indexed_to;
+    while (position > 0) {
+        const size_t length = position < sizeof(buffer) ? position : sizeof(buffer);
+        const size_t start = position - length;
+        const ssize_t read_bytes = pread(fd, buffer, length, (off_t)start);
+        if (read_bytes == ERROR) {
+            PRINTF_ERROR_WITH_ERRNO("Could not read a file %s", index->fname);
+            return false;
+        }
+        for (ssize_t i = read_bytes - 1; i >= 0; i--) {
+            if (analyzer_word_should_break_at(index->analyzer, buffer[i])) {
+                index->tail_start = start + i + 1;
+                return true;
+            }
+        }
+        position = start;
+    }
+    index->tail_start = 0;
+    return true;
+}
+
+/**
+ * @brief Reads the words with context to the buffer, until all positions are
+ * read, or buffer is full.
  *
- * @return struct pos_vec_iter * Iterator object to continue reading.
+ * @param read_iterator Iterator, that holds the positions of the word.
+ * @param buffer Buffer to read into.
+ * @param buffer_size Size of the buffer.
+ * @param ctx Context bytes on both sides of the word.
+ * @param word_len Length of the queried word.
+ *
+ * @return struct index_read_iterator* Iterator to continue from, or NULL when
+ *         all positions were read, and iterator was closed.
  */
 static struct index_read_iterator *read_words_with_txt_to_buffer(
     struct index_read_iterator *read_iterator, char *buffer, size_t buffer_size,
     uint32_t ctx, size_t word_len) {
+    const size_t total_written =
+        write_contexts(read_iterator, buffer, buffer_size, ctx, word_len, NULL);
+    terminate_buffer(buffer + total_written);
+    if (pos_vec_iter_has_next(read_iterator)) {
+        return read_iterator;
+    }
+    // All word occurances in file read.
+    file_word_index_close_iterator(read_iterator);
+    return NULL;
+}
+
+/**
+ * @brief Writes words with context to the buffer, each lead by its length, and
+ * the ordinal of the word when given. Writing stops, when positions run out,
+ * or the next word wouldn't fit with room left for the TERM_BUFFER_MARK.
+ * Buffer is not terminated.
+ *
+ * @param read_iterator Iterator, that holds the positions of the word.
+ * @param buffer Buffer to write into.
+ * @param buffer_size Size of the buffer.
+ * @param ctx Context bytes on both sides of the word.
+ * @param word_len Length of the queried word.
+ * @param ordinal Ordinal written after the length of each word, or NULL.
+ *
+ * @return size_t Number of bytes written.
+ */
+static size_t write_contexts(struct index_read_iterator *read_iterator, char *buffer,
+                             size_t buffer_size, uint32_t ctx, size_t word_len,
+                             const uint32_t *ordinal) {
+    const size_t header_size = ordinal != NULL ? sizeof(uint32_t) << 1 : sizeof(uint32_t);
     size_t total_written = 0;
     uint32_t default_read_size = (ctx << 1) + word_len;
 
     while (pos_vec_iter_has_next(read_iterator)) {
         const FilePosition fpos = pos_vec_iter_next(read_iterator);
-        // NOTE: reserve space for complete string with length + enough room for
+        // NOTE: reserve space for complete string with header + enough room for
         // TERM_BUFFER_MARK
-        if ((total_written + default_read_size + (sizeof(uint32_t) << 1)) > buffer_size) {
-            // No more room. Mark buffer and rollback iterator
-            // so we can access same position next time.
-            terminate_buffer(buffer + total_written);
+        if ((total_written + default_read_size + header_size + BUFF_TERM_MARK_SIZE) >
+            buffer_size) {
+            // No more room. Rollback iterator so we can access same position
+            // next time.
             read_iterator->index--;
-            return read_iterator;
+            return total_written;
         }
 
         const int truncate_beginning = (int)(fpos - ctx);
@@ -480,42 +1110,131 @@ static struct index_read_iterator *read_words_with_txt_to_buffer(
             read_size = default_read_size + truncate_beginning;
         }
 
-        // Seek and read word with ctx into buffer, after 4 bytes reserved
-        // for string size.
-        fseek(read_iterator->file, file_pos_with_context(fpos, ctx), SEEK_SET);
-        size_t read_bytes = fread_unlocked(buffer + total_written + sizeof(uint32_t),
-                                           sizeof(char), read_size, read_iterator->file);
-        // Write string length before the read bytes.
+        // Read word with ctx into buffer, after the header.
+        const size_t read_bytes =
+            read_context(read_iterator, buffer + total_written + header_size, read_size,
+                         file_pos_with_context(fpos, ctx));
+        // Write string length, and ordinal before the read bytes.
         memcpy(buffer + total_written, &read_bytes, sizeof(uint32_t));
+        if (ordinal != NULL) {
+            memcpy(buffer + total_written + sizeof(uint32_t), ordinal, sizeof(uint32_t));
+        }
 
-        total_written += read_bytes + sizeof(uint32_t);
+        total_written += read_bytes + header_size;
     }
+    return total_written;
+}
 
-    // All word occurances in file read.
-    terminate_buffer(buffer + total_written);
-    file_word_index_close_iterator(read_iterator);
-    return NULL;
+/**
+ * @brief Finds the positions of the word, from the term table, or from the
+ * snapshot, when index was loaded from one.
+ *
+ * @param index Index to search from.
+ * @param word Queried word, that gets normalized.
+ * @param word_len Length of the word.
+ * @param iterator Iterator to set up for reading the positions.
+ *
+ * @return true  - When word was found.
+ * @return false - When word is not in the index.
+ */
+static bool find_positions(WordIndex *index, const char *word, size_t word_len,
+                           struct index_read_iterator *iterator) {
+    char normalized_word[word_len + 1];
+    const size_t normalized_len =
+        analyzer_normalize(index->analyzer, word, word_len, normalized_word);
+
+    *iterator = (struct index_read_iterator){.fd = index->fd,
+                                             .mapping = index->mapping,
+                                             .mapping_size = index->mapping_size};
+    if (index->snapshot != NULL) {
+        const struct snapshot *snapshot = index->snapshot;
+        const uint32_t term = snapshot_find(snapshot, normalized_word, normalized_len);
+        if (term == SNAPSHOT_EMPTY_SLOT) {
+            return false;
+        }
+        const uint32_t start = snapshot->posting_offsets[term];
+        iterator->snapshot_positions = snapshot->positions + start;
+        iterator->snapshot_length = snapshot->posting_offsets[term + 1] - start;
+        return true;
+    }
+
+    const uint32_t term = term_table_find(&index->table, normalized_word, normalized_len);
+    if (term == TERM_NOT_FOUND) {
+        return false;
+    }
+    iterator->vec = &index->table.entries[term].pos_vec;
+    return true;
+}
+
+/**
+ * @brief Finds the positions of each word of a batch query.
+ *
+ * @param index Index to search from.
+ * @param words Words, each lead by its length as 32-bit integer.
+ * @param words_size Size of the words in bytes.
+ * @param ctx Context bytes on both sides of the words.
+ *
+ * @return struct batch_read_iterator* Iterator over the found words, or NULL
+ *         when words are malformed, or allocation failed.
+ */
+static struct batch_read_iterator *find_batch(WordIndex *index, const char *words,
+                                              size_t words_size, uint32_t ctx) {
+    // Each word takes at least its length.
+    const size_t max_words = words_size / sizeof(uint32_t);
+    struct batch_read_iterator *batch = calloc(1, sizeof(struct batch_read_iterator));
+    struct batch_term *terms =
+        max_words > 0 ? malloc(sizeof(struct batch_term) * max_words) : NULL;
+    if (batch == NULL || (max_words > 0 && terms == NULL)) {
+        PRINTF_ERROR("%s", ALLOC_ERR);
+        free(batch);
+        free(terms);
+        return NULL;
+    }
+    batch->terms = terms;
+    batch->ctx = ctx;
+
+    size_t offset = 0;
+    for (uint32_t ordinal = 0; offset < words_size; ordinal++) {
+        uint32_t word_len;
+        if (offset + sizeof(uint32_t) > words_size ||
+            (memcpy(&word_len, words + offset, sizeof(uint32_t)),
+             offset + sizeof(uint32_t) + word_len > words_size)) {
+            PRINTF_ERROR("%s", "Malformed batch query");
+            file_word_index_close_batch_iterator(batch);
+            return NULL;
+        }
+        offset += sizeof(uint32_t);
+        struct batch_term *term = terms + batch->term_count;
+        if (find_positions(index, words + offset, word_len, &term->iterator)) {
+            term->word_len = word_len;
+            term->ordinal = ordinal;
+            batch->term_count++;
+        }
+        offset += word_len;
+    }
+    return batch;
 }
 
 /**
- * @brief Compacts all saved word entry file position vectors
- * to their current capacity.
+ * @brief Shrinks file position vectors of all terms to their length.
+ * Vectors borrowed from the arena are left as is.
  *
  * @param index Word index object.
  */
 static void do_compaction(WordIndex *index) {
-    for (size_t i = 0; i < index->table.capacity; i++) {
-        if (index->table.table[i] != NULL) {
-            struct pos_vec *v = &index->table.table[i]->pos_vec;
-            v->capacity = v->length;
-            FilePosition *arr = realloc(v->array, v->capacity * sizeof(FilePosition));
-            if (arr == NULL) {
-                PRINTF_ERROR("%s", ALLOC_ERR);
-                break;
-            } else {
-                index->table.table[i]->pos_vec.array = arr;
-            }
+    for (size_t term = 0; term < index->table.size; term++) {
+        struct pos_vec *v = &index->table.entries[term].pos_vec;
+        if (v->borrowed || v->length == 0 || v->length == v->capacity) {
+            // Borrowed arrays are released with the arena.
+            continue;
         }
+        FilePosition *arr = realloc(v->array, v->length * sizeof(FilePosition));
+        if (arr == NULL) {
+            PRINTF_ERROR("%s", ALLOC_ERR);
+            break;
+        }
+        v->array = arr;
+        v->capacity = v->length;
     }
 }
 
@@ -535,7 +1254,9 @@ static ssize_t normalize_word_token(const char *word_token, char **norm_word,
                                     size_t word_token_len, size_t *norm_word_cap,
                                     enum index_analyzer analyzer) {
     if (word_token_len + 1 > *norm_word_cap) {
-        *norm_word_cap <<= 1;
+        while (word_token_len + 1 > *norm_word_cap) {
+            *norm_word_cap <<= 1;
+        }
         char *new_addr = realloc(*norm_word, *norm_word_cap);
         if (new_addr == NULL) {
             PRINTF_ERROR("%s", ALLOC_ERR);
@@ -547,19 +1268,6 @@ static ssize_t normalize_word_token(const char *word_token, char **norm_word,
     return analyzer_normalize(analyzer, word_token, word_token_len, *norm_word);
 }
 
-/**
- * @brief Determines if index should do resizing.
- *
- * @param size Current size of the index.
- * @param cap Capacity of the index hashmap.
- *
- * @return true when index should resize
- * @return false when not
- */
-static inline bool index_should_resize(size_t size, size_t cap) {
-    return (size / (float)cap) > RESIZE_TRESHOLD;
-}
-
 /**
  * @brief Calculate where to start reading for word, when context
  * is taken into equation.
@@ -584,3 +1292,226 @@ static inline size_t file_pos_with_context(size_t word_position, uint32_t ctx) {
 static inline uint32_t single_read_size(uint32_t context, size_t word_len) {
     return (context * 2) + word_len + (sizeof(uint32_t) * 2);
 }
+
+/**
+ * @brief Reads context window of a word. Window is copied from the mapping,
+ * when file is mapped, otherwise it's read from the file.
+ *
+ * @param iterator Iterator, that is reading the positions.
+ * @param buffer Buffer to read into.
+ * @param length Number of bytes to read.
+ * @param position File position to start reading from.
+ *
+ * @return size_t Number of bytes read, less than length at the end of the file.
+ */
+static size_t read_context(const struct index_read_iterator *iterator, char *buffer,
+                           size_t length, size_t position) {
+    if (iterator->mapping == NULL) {
+        return read_fully(iterator->fd, buffer, length, position);
+    }
+    size_t read_bytes;
+    const char *mapped = mapped_context(iterator, length, position, &read_bytes);
+    memcpy(buffer, mapped, read_bytes);
+    return read_bytes;
+}
+
+/**
+ * @brief Finds context window of a word from the mapping of the file, without
+ * copying it.
+ *
+ * @param iterator Iterator, that is reading the positions of the mapped file.
+ * @param length Number of bytes wanted.
+ * @param position File position the window starts from.
+ * @param mapped_length Set to the number of bytes mapped, less than length at
+ * the end of the file.
+ *
+ * @return const char* Start of the window in the mapping.
+ */
+static const char *mapped_context(const struct index_read_iterator *iterator,
+                                  size_t length, size_t position, size_t *mapped_length) {
+    if (position >= iterator->mapping_size) {
+        *mapped_length = 0;
+        return iterator->mapping + iterator->mapping_size;
+    }
+    const size_t available = iterator->mapping_size - position;
+    *mapped_length = length < available ? length : available;
+    return iterator->mapping + position;
+}
+
+/**
+ * @brief Reads from the file at specified position until length bytes are
+ * read, or end of the file is reached. File offset is not used, so any number
+ * of readers can share the descriptor.
+ *
+ * @param fd Descriptor of the file.
+ * @param buffer Buffer to read into.
+ * @param length Number of bytes to read.
+ * @param position File position to start reading from.
+ *
+ * @return size_t Number of bytes read, less than length at the end of the
+ * file or on error.
+ */
+static size_t read_fully(int fd, char *buffer, size_t length, size_t position) {
+    size_t total = 0;
+    while (total < length) {
+        const ssize_t read_bytes =
+            pread(fd, buffer + total, length - total, (off_t)(position + total));
+        if (read_bytes > 0) {
+            total += read_bytes;
+        } else if (read_bytes == 0 || errno != EINTR) {
+            break;
+        }
+    }
+    return total;
+}
+
+/**
+ * @brief Writes the index as a snapshot. Terms keep their term numbers.
+ *
+ * @param index Word index object, built from the file.
+ * @param out Open snapshot file.
+ *
+ * @return true  - When snapshot was written.
+ * @return false - When writing failed.
+ */
+static bool write_snapshot(WordIndex *index, FILE *out) {
+    const struct term_table *table = &index->table;
+    const size_t term_count = table->size;
+    size_t position_count = 0, arena_size = 0;
+    for (size_t term = 0; term < term_count; term++) {
+        position_count += table->entries[term].pos_vec.length;
+        arena_size += table->entries[term].word_len;
+    }
+    if (term_count >= UINT32_MAX / 4 || position_count > UINT32_MAX ||
+        arena_size > UINT32_MAX) {
+        PRINTF_ERROR("%s", "Index is too large for a snapshot");
+        return false;
+    }
+
+    const size_t slot_count = snapshot_slot_count(term_count);
+    // slots, hashes, term offsets, posting offsets.
+    uint32_t *tables = malloc(sizeof(uint32_t) * (slot_count + 3 * term_count + 2));
+    if (tables == NULL) {
+        PRINTF_ERROR("%s", ALLOC_ERR);
+        return false;
+    }
+    uint32_t *slots = tables;
+    uint32_t *hashes = slots + slot_count;
+    uint32_t *term_offsets = hashes + term_count;
+    uint32_t *posting_offsets = term_offsets + term_count + 1;
+    memset(slots, 0xFF, sizeof(uint32_t) * slot_count);
+
+    // Terms keep their numbers, and their stored hashes are the snapshot hashes.
+    uint32_t arena_offset = 0, posting_offset = 0;
+    for (uint32_t term = 0; term < term_count; term++) {
+        const struct term_entry *e = table->entries + term;
+        hashes[term] = e->hash;
+        term_offsets[term] = arena_offset;
+        posting_offsets[term] = posting_offset;
+        arena_offset += e->word_len;
+        posting_offset += e->pos_vec.length;
+
+        uint32_t slot = e->hash & (slot_count - 1);
+        while (slots[slot] != SNAPSHOT_EMPTY_SLOT) {
+            slot = (slot + 1) & (slot_count - 1);
+        }
+        slots[slot] = term;
+    }
+    term_offsets[term_count] = arena_offset;
+    posting_offsets[term_count] = posting_offset;
+
+    const struct snapshot_header header = {
+        .magic = SNAPSHOT_MAGIC,
+        .version = SNAPSHOT_VERSION,
+        .analyzer = index->analyzer,
+        .flags = 0,
+        .source_size = index->source_size,
+        .source_mtime = index->source_mtime,
+        .term_count = term_count,
+        .slot_count = slot_count,
+        .position_count = position_count,
+        .arena_size = arena_size,
+    };
+    const size_t table_count = slot_count + 3 * term_count + 2;
+    bool success = fwrite(&header, sizeof(header), 1, out) == 1 &&
+                   fwrite(tables, sizeof(uint32_t), table_count, out) == table_count;
+    free(tables);
+
+    // Positions are narrowed to 32 bits in chunks.
+    uint32_t chunk[SNAPSHOT_WRITE_CHUNK];
+    for (size_t term = 0; success && term < term_count; term++) {
+        const struct pos_vec *v = &table->entries[term].pos_vec;
+        for (size_t j = 0; success && j < v->length;) {
+            size_t n = 0;
+            for (; n < SNAPSHOT_WRITE_CHUNK && j < v->length; n++, j++) {
+                if (v->array[j] > UINT32_MAX) {
+                    PRINTF_ERROR("%s", "Index is too large for a snapshot");
+                    return false;
+                }
+                chunk[n] = v->array[j];
+            }
+            success = fwrite(chunk, sizeof(uint32_t), n, out) == n;
+        }
+    }
+    for (size_t term = 0; success && term < term_count; term++) {
+        const struct term_entry *e = table->entries + term;
+        success = fwrite(e->word, sizeof(char), e->word_len, out) == e->word_len;
+    }
+    if (!success) {
+        PRINTF_ERROR("%s", "Failed to write snapshot");
+    }
+    return success;
+}
+
+/**
+ * @brief Finds the term number of the word from the snapshot.
+ *
+ * @param snapshot Mapped snapshot.
+ * @param word Normalized word.
+ * @param word_len Length of the word.
+ *
+ * @return uint32_t Term number, or SNAPSHOT_EMPTY_SLOT if word is not indexed.
+ */
+static uint32_t snapshot_find(const struct snapshot *snapshot, const char *word,
+                              size_t word_len) {
+    const uint32_t h = hash(word, word_len);
+    uint32_t slot = h & snapshot->slot_mask;
+    uint32_t term;
+    while ((term = snapshot->slots[slot]) != SNAPSHOT_EMPTY_SLOT) {
+        const uint32_t start = snapshot->term_offsets[term];
+        if (snapshot->hashes[term] == h &&
+            snapshot->term_offsets[term + 1] - start == word_len &&
+            memcmp(snapshot->arena + start, word, word_len) == EQ) {
+            return term;
+        }
+        slot = (slot + 1) & snapshot->slot_mask;
+    }
+    return SNAPSHOT_EMPTY_SLOT;
+}
+
+/**
+ * @brief Calculates slot count of the snapshot. Slot count is a power
+ * of two, and at most half of the slots are used.
+ *
+ * @param term_count Number of terms.
+ *
+ * @return size_t Number of slots.
+ */
+static inline size_t snapshot_slot_count(size_t term_count) {
+    size_t slots = 1;
+    while ((slots << 1) <= term_count) {
+        slots <<= 1;
+    }
+    return slots << 2;
+}
+
+/**
+ * @brief Get the modification time of the file in milliseconds.
+ *
+ * @param st File status.
+ *
+ * @return uint64_t Modification time in milliseconds since epoch.
+ */
+static inline uint64_t mtime_millis(const struct stat *st) {
+    return (uint64_t)st->st_mtim.tv_sec * 1000 + st->st_mtim.tv_nsec / 1000000;
+}
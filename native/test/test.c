@@ -1,8 +1,11 @@
 #include <ctype.h>
 #include <inttypes.h>
+#include <pthread.h>
+#include <stdatomic.h>
 #include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
+#include <strings.h>
 #include <sys/resource.h>
 #include <unistd.h>
 
@@ -10,6 +13,14 @@
 
 #define BUFFER_SIZE 4096
 
+void append(const char *path, const char *text) {
+    FILE *file = fopen(path, "a");
+    if (file != NULL) {
+        fputs(text, file);
+        fclose(file);
+    }
+}
+
 void query(WordIndex *index) {
     char word[] = "easy";
     char *buffer = malloc(BUFFER_SIZE);
@@ -44,11 +55,280 @@ void query(WordIndex *index) {
     free(buffer);
 }
 
+void query_batch(WordIndex *index) {
+    const char *words[] = {"easy", "missing", "EASY", "lord"};
+    const size_t word_count = sizeof(words) / sizeof(words[0]);
+    char packed[64];
+    size_t packed_size = 0;
+    for (size_t i = 0; i < word_count; i++) {
+        const uint32_t len = strlen(words[i]);
+        memcpy(packed + packed_size, &len, sizeof(uint32_t));
+        memcpy(packed + packed_size + sizeof(uint32_t), words[i], len);
+        packed_size += len + sizeof(uint32_t);
+    }
+
+    // Small buffer, so that the batch is read in many calls.
+    char *buffer = malloc(BUFFER_SIZE / 8);
+    int counts[sizeof(words) / sizeof(words[0])] = {0};
+    void *remaining = NULL;
+    do {
+        remaining = file_word_index_read_batch_with_context_buffered(
+            index, buffer, BUFFER_SIZE / 8, packed, packed_size, SMALL_CONTEXT, remaining);
+        char *cursor = buffer;
+        uint32_t length;
+        while (memcpy(&length, cursor, sizeof(uint32_t)), length != BUFF_TERM_MARK) {
+            uint32_t ordinal;
+            memcpy(&ordinal, cursor + sizeof(uint32_t), sizeof(uint32_t));
+            counts[ordinal]++;
+            cursor += length + (sizeof(uint32_t) << 1);
+        }
+    } while (remaining != NULL);
+
+    printf("BATCH:");
+    for (size_t i = 0; i < word_count; i++) {
+        printf(" %d", counts[i]);
+    }
+    printf("\n");
+    free(buffer);
+}
+
+void query_positions(WordIndex *index) {
+    const char word[] = "easy";
+    const size_t total = file_word_index_read_positions(index, word, strlen(word), 0, NULL, 0);
+    FilePosition positions[total > 0 ? total : 1];
+    // Copy in two parts, like callers with a too small array do.
+    size_t copied = file_word_index_read_positions(index, word, strlen(word), 0, positions, 2);
+    copied = file_word_index_read_positions(index, word, strlen(word), 2, positions + 2, total - 2);
+    printf("POSITIONS: %zu", copied);
+    for (size_t i = 0; i < total; i++) {
+        printf(" %zu", positions[i]);
+    }
+    printf("\n");
+}
+
+bool count_context(const char *context, size_t length, void *data) {
+    size_t *counts = data;
+    // Every context is complete, and the word is found in it.
+    if (length != (SMALL_CONTEXT << 1) + 4 || strncasecmp(context + SMALL_CONTEXT, "easy", 4) != 0) {
+        printf("ERRR\n");
+        abort();
+    }
+    return ++counts[0] < counts[1];
+}
+
+void query_callback(WordIndex *index) {
+    const char word[] = "easy";
+    size_t all[] = {0, SIZE_MAX};
+    const size_t called = file_word_index_read_with_context_callback(
+        index, word, strlen(word), SMALL_CONTEXT, count_context, all);
+    // Callback stops the query early.
+    size_t two[] = {0, 2};
+    const size_t stopped = file_word_index_read_with_context_callback(
+        index, word, strlen(word), SMALL_CONTEXT, count_context, two);
+    printf("CALLBACK: %zu %zu %zu\n", called, all[0], stopped);
+}
+
+struct refresh_task {
+    WordIndex *index;
+    ssize_t refreshed;
+    atomic_bool done;
+};
+
+void *refresh_in_thread(void *arg) {
+    struct refresh_task *task = arg;
+    task->refreshed = file_word_index_refresh(task->index);
+    atomic_store(&task->done, true);
+    return NULL;
+}
+
+int count_results(const char *buffer) {
+    int count = 0;
+    uint32_t length;
+    while (memcpy(&length, buffer, sizeof(uint32_t)), length != BUFF_TERM_MARK) {
+        count++;
+        buffer += length + sizeof(uint32_t);
+    }
+    return count;
+}
+
+/**
+ * @brief Refreshes a mapped index while an iterator of it is open. Refresh
+ * remaps the file and grows position vectors, so it must wait until the
+ * iterator is read to the end.
+ */
+void refresh_while_iterating(void) {
+    const char path[] = "out/iterated.txt";
+    remove(path);
+    append(path, "easy one, easy two, easy three\n");
+    WordIndex *index = file_word_index_open(path, TEXT, 15, WORD_INDEX_MAP_FILE, 1, true);
+    if (index == NULL) {
+        return;
+    }
+    // Buffer fits one word with context, so iterator stays open after each read.
+    char buffer[(SMALL_CONTEXT << 1) + 4 + sizeof(uint32_t) + BUFF_TERM_MARK_SIZE];
+    void *iterator = file_word_index_read_with_context_buffered(
+        index, buffer, sizeof(buffer), "easy", 4, SMALL_CONTEXT, NULL);
+    int count = count_results(buffer);
+    for (int i = 0; i < 1000; i++) {
+        append(path, "easy does it\n");
+    }
+
+    pthread_t thread;
+    struct refresh_task task = {.index = index};
+    atomic_init(&task.done, false);
+    if (pthread_create(&thread, NULL, refresh_in_thread, &task) != 0) {
+        printf("ERRR\n");
+        abort();
+    }
+    usleep(100 * 1000);
+    const bool waited = !atomic_load(&task.done);
+    while (iterator != NULL) {
+        iterator = file_word_index_read_with_context_buffered(
+            index, buffer, sizeof(buffer), "easy", 4, SMALL_CONTEXT, iterator);
+        count += count_results(buffer);
+    }
+    pthread_join(thread, NULL);
+    printf("WAITED: %d COUNT: %d REFRESHED: %zd\n", waited, count, task.refreshed);
+    query(index);
+    file_word_index_close(index);
+}
+
+// Word bytes of scan inputs: ASCII letters, bytes around 'A'..'Z', and bytes
+// >= 0x80, that must not be case folded.
+static const char scan_alphabet[] = "aZbY\xc3\x84Mz@[`{\xe9\x80\xffQ";
+
+/**
+ * @brief Scans the text with every implementation the CPU supports, and checks
+ * them against a byte at a time reference. Normalized buffer has a canary past
+ * its capacity, that no scan may overwrite.
+ */
+void check_scans(const char *text, size_t length, size_t cap) {
+    size_t expected = 0;
+    while (expected < length && !analyzer_word_should_break_at(TEXT, text[expected])) {
+        expected++;
+    }
+    char *normalized = malloc(cap + 64);
+    for (enum analyzer_scan scan = ANALYZER_SCAN_SCALAR; scan <= ANALYZER_SCAN_AVX2; scan++) {
+        memset(normalized, 0xAA, cap + 64);
+        size_t word_length;
+        if (!analyzer_scan_word_with(scan, TEXT, text, length, normalized, cap, &word_length)) {
+            continue;
+        }
+        bool valid = word_length == expected;
+        // Word bytes that fit with the NUL, and NUL when whole word fits.
+        const size_t fits = expected < cap ? expected : (cap > 0 ? cap - 1 : 0);
+        for (size_t i = 0; valid && i < fits; i++) {
+            const char byte = text[i];
+            valid = normalized[i] == (byte >= 'A' && byte <= 'Z' ? byte | 0x20 : byte);
+        }
+        if (expected < cap) {
+            valid = valid && normalized[expected] == '\0';
+        }
+        for (size_t i = cap; valid && i < cap + 64; i++) {
+            valid = normalized[i] == (char)0xAA;
+        }
+        if (!valid) {
+            printf("ERRR scan %d length %zu cap %zu: %zu != %zu\n", scan, length, cap,
+                   word_length, expected);
+            abort();
+        }
+    }
+    free(normalized);
+}
+
+void compare_scans(void) {
+    const size_t alphabet_len = sizeof(scan_alphabet) - 1;
+    size_t checked = 0;
+    for (size_t length = 0; length <= 100; length++) {
+        // Text is allocated to its exact length, so over-reads are caught.
+        char *text = malloc(length > 0 ? length : 1);
+        for (size_t i = 0; i < length; i++) {
+            text[i] = scan_alphabet[i % alphabet_len];
+        }
+        // Delimiter at every position crosses 16 and 32 byte block boundaries,
+        // and no delimiter runs the word to the end of the text.
+        for (size_t delim = 0; delim <= length; delim++) {
+            const char saved = delim < length ? text[delim] : 0;
+            if (delim < length) {
+                text[delim] = delim % 2 == 0 ? '.' : '\n';
+            }
+            const size_t caps[] = {0, 1, 15, 16, 17, 31, 32, 33, 48, 64, 65, delim, delim + 1, 128};
+            for (size_t i = 0; i < sizeof(caps) / sizeof(caps[0]); i++) {
+                check_scans(text, length, caps[i]);
+                checked++;
+            }
+            if (delim < length) {
+                text[delim] = saved;
+            }
+        }
+        free(text);
+    }
+    printf("SCANS: %s\n", checked > 0 ? "OK" : "NONE");
+}
+
 int main(void) {
-    WordIndex *index = file_word_index_open("test/tfile.txt", TEXT, 15, 8192, true);
+    compare_scans();
+    WordIndex *index = file_word_index_open("test/tfile.txt", TEXT, 15, 8192, 1, true);
     if (index != NULL) {
         query(index);
+        query_batch(index);
+        query_positions(index);
+        query_callback(index);
+        if (file_word_index_save(index, "out/tfile.widx")) {
+            WordIndex *loaded = file_word_index_load("out/tfile.widx", "test/tfile.txt", TEXT);
+            if (loaded != NULL) {
+                query(loaded);
+                query_batch(loaded);
+                query_positions(loaded);
+            }
+            file_word_index_close(loaded);
+        }
     }
     file_word_index_close(index);
+
+    WordIndex *mapped_index = file_word_index_open("test/tfile.txt", TEXT, 15, WORD_INDEX_MAP_FILE, 1, true);
+    if (mapped_index != NULL) {
+        query(mapped_index);
+        query_callback(mapped_index);
+    }
+    file_word_index_close(mapped_index);
+
+    // Parts indexed by multiple threads, through a buffer and mapped.
+    WordIndex *parallel = file_word_index_open("test/tfile.txt", TEXT, 15, 8192, 4, true);
+    if (parallel != NULL) {
+        query(parallel);
+    }
+    file_word_index_close(parallel);
+    parallel = file_word_index_open("test/tfile.txt", TEXT, 15, WORD_INDEX_MAP_FILE, 4, true);
+    if (parallel != NULL) {
+        query(parallel);
+    }
+    file_word_index_close(parallel);
+
+    // Last word is cut off, until the rest of it is appended.
+    remove("out/growing.txt");
+    append("out/growing.txt", "not so easy, ea");
+    WordIndex *growing = file_word_index_open("out/growing.txt", TEXT, 15, 8192, 1, true);
+    if (growing != NULL) {
+        query(growing);
+        append("out/growing.txt", "sy does it\n");
+        printf("REFRESHED: %zd\n", file_word_index_refresh(growing));
+        query(growing);
+    }
+    file_word_index_close(growing);
+
+    // Same file, mapped to memory instead of read through a buffer.
+    remove("out/growing.txt");
+    append("out/growing.txt", "not so easy, ea");
+    WordIndex *mapped = file_word_index_open("out/growing.txt", TEXT, 15, WORD_INDEX_MAP_FILE, 1, true);
+    if (mapped != NULL) {
+        query(mapped);
+        append("out/growing.txt", "sy does it\n");
+        printf("REFRESHED: %zd\n", file_word_index_refresh(mapped));
+        query(mapped);
+    }
+    file_word_index_close(mapped);
+
+    refresh_while_iterating();
     return 0;
 }
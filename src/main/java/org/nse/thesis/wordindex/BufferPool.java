@@ -0,0 +1,77 @@
+package org.nse.thesis.wordindex;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Pool of query buffers, that native indexes read their results into. Queries
+ * borrow buffers from the pool and give them back when done, so native memory is
+ * not allocated, nor freed, on every query.
+ * <p>
+ * Pool is not tied to threads, so it works the same for platform and virtual
+ * threads. Buffers are held in a fixed number of slots, and when all slots are
+ * taken, new buffers are created. Buffers that don't fit back to the pool are
+ * freed, when they get garbage collected.
+ * </p>
+ *
+ * @param <T> Type of the pooled buffers.
+ * @author Niklas Seppälä
+ */
+public final class BufferPool<T> {
+    private final Supplier<T> factory;
+    private final AtomicReferenceArray<T> slots;
+    private final int mask;
+
+    /**
+     * @param factory Creates new buffers, when pool is empty.
+     */
+    public BufferPool(@NotNull Supplier<T> factory) {
+        this.factory = factory;
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final int slotCount = Integer.highestOneBit(processors << 2);
+        this.slots = new AtomicReferenceArray<>(slotCount);
+        this.mask = slotCount - 1;
+    }
+
+    /**
+     * Borrows buffers from the pool, or creates new ones if pool is empty.
+     *
+     * @return Buffers, that must be given back with {@link #release(Object)}.
+     */
+    public @NotNull T acquire() {
+        final int start = probe();
+        for (int i = 0; i <= this.mask; i++) {
+            final int slot = (start + i) & this.mask;
+            final T buffers = this.slots.get(slot);
+            if (buffers != null && this.slots.compareAndSet(slot, buffers, null)) {
+                return buffers;
+            }
+        }
+        return this.factory.get();
+    }
+
+    /**
+     * Gives borrowed buffers back to the pool.
+     *
+     * @param buffers Buffers from {@link #acquire()}.
+     */
+    public void release(@NotNull T buffers) {
+        final int start = probe();
+        for (int i = 0; i <= this.mask; i++) {
+            final int slot = (start + i) & this.mask;
+            if (this.slots.get(slot) == null && this.slots.compareAndSet(slot, null, buffers)) {
+                return;
+            }
+        }
+        // Pool is full, buffers are freed when collected.
+    }
+
+    /**
+     * @return Slot to start looking from, so that threads mostly use different slots.
+     */
+    private static int probe() {
+        return System.identityHashCode(Thread.currentThread());
+    }
+}
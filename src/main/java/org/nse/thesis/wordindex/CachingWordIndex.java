@@ -0,0 +1,427 @@
+package org.nse.thesis.wordindex;
+
+import org.jetbrains.annotations.NotNull;
+import org.nse.thesis.wordindex.analyzers.IndexAnalyzer;
+import org.nse.thesis.wordindex.pojo.JavaWordIndex;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Caches query results of any {@link WordIndex}.
+ * <p>
+ * Results are cached by normalized word and {@link WordIndex.ContextBytes}, so
+ * frequently queried words are served without reading the context bytes again.
+ * Cache is bounded by estimated size of the cached results, and least recently
+ * used results are evicted first. Size and modification time of the indexed file
+ * are checked on every query, and the whole cache is dropped, when either changes.
+ * </p>
+ * <p>
+ * Cache is safe to share between threads. Concurrent misses on the same word
+ * and context are collapsed into a single query of the wrapped index.
+ * </p>
+ *
+ * @author Niklas Seppälä
+ */
+public class CachingWordIndex implements WordIndex {
+    /**
+     * Estimated memory held by a cached result besides its characters.
+     */
+    private static final long RESULT_OVERHEAD = 48;
+    private final WordIndex index;
+    private final Path path;
+    private final IndexAnalyzer analyzer;
+    private final long maxCachedBytes;
+    // Cached results in access order. Guards cachedBytes, stamp and generation too.
+    private final LinkedHashMap<Key, CachedResult> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Key, CompletableFuture<List<String>>> loading = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long cachedBytes;
+    private FileStamp stamp;
+    // Incremented when cache is dropped, so results of older queries aren't cached.
+    private long generation;
+
+    /**
+     * Cache key.
+     *
+     * @param word Normalized word.
+     * @param ctx  Context size of the query.
+     */
+    private record Key(@NotNull String word, @NotNull WordIndex.ContextBytes ctx) {
+    }
+
+    /**
+     * Cached result of a query.
+     *
+     * @param words Words with context.
+     * @param bytes Estimated memory usage of the words.
+     */
+    private record CachedResult(@NotNull List<String> words, long bytes) {
+    }
+
+    /**
+     * Size and modification time of the indexed file.
+     *
+     * @param size     Size of the file in bytes.
+     * @param modified Modification time of the file.
+     */
+    private record FileStamp(long size, long modified) {
+    }
+
+    /**
+     * Statistics of the cache.
+     *
+     * @param hits          Number of queries served from the cache.
+     * @param misses        Number of queries, that queried the wrapped index.
+     * @param evictions     Number of evicted results.
+     * @param cachedResults Number of cached results.
+     * @param cachedBytes   Estimated memory usage of cached results.
+     */
+    public record CacheStats(long hits, long misses, long evictions, int cachedResults,
+                             long cachedBytes) {
+    }
+
+    /**
+     * Wraps the index with a query result cache.
+     *
+     * @param index          Index to cache results of. Closed, when this index is closed.
+     * @param path           Path to the file indexed by the index.
+     * @param analyzer       Analyzer used by the index, to normalize cached words.
+     * @param maxCachedBytes Limit of estimated memory usage of cached results. Larger
+     *                       results than this are not cached.
+     * @throws FileNotFoundException When file doesn't exist.
+     */
+    public CachingWordIndex(@NotNull WordIndex index, @NotNull String path,
+                            @NotNull IndexAnalyzer analyzer, long maxCachedBytes)
+            throws FileNotFoundException {
+        this.index = index;
+        this.path = Path.of(path);
+        this.analyzer = analyzer;
+        this.maxCachedBytes = maxCachedBytes;
+        this.stamp = this.readStamp();
+    }
+
+    /**
+     * Wraps the indexes created by the provider with a query result cache. Each
+     * index has its own cache.
+     *
+     * @param provider       Method to provide implementation of {@link WordIndex}
+     * @param maxCachedBytes Limit of estimated memory usage of cached results of
+     *                       a single index.
+     * @return Provider of caching indexes.
+     */
+    @NotNull
+    public static WordIndex.Provider caching(@NotNull WordIndex.Provider provider,
+                                             long maxCachedBytes) {
+        return (path, analyzer) -> new CachingWordIndex(provider.indexFrom(path, analyzer), path,
+                analyzer, maxCachedBytes);
+    }
+
+    /**
+     * Query the index for all occurrences of words from indexed file, with specified
+     * amount of context, on both sides of the word. Result is served from the cache,
+     * if indexed file hasn't changed since it was cached.
+     *
+     * @param word Word to search for.
+     * @param ctx  The amount of context bytes to surround the word.
+     * @return Unmodifiable collection of words with context.
+     */
+    @Override
+    public @NotNull Collection<String> getWords(@NotNull String word,
+                                                @NotNull WordIndex.ContextBytes ctx) {
+        final Key key = new Key(JavaWordIndex.normalize(word, this.analyzer), ctx);
+        final FileStamp current = this.currentStamp();
+        final long generation;
+        synchronized (this.cache) {
+            generation = this.validate(current);
+            final CachedResult cached = this.cache.get(key);
+            if (cached != null) {
+                this.hits.increment();
+                return cached.words();
+            }
+        }
+        this.misses.increment();
+
+        final CompletableFuture<List<String>> result = new CompletableFuture<>();
+        final CompletableFuture<List<String>> existing = this.loading.putIfAbsent(key, result);
+        if (existing != null) {
+            try {
+                return existing.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Error cause) {
+                    throw cause;
+                }
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        try {
+            final List<String> words = List.copyOf(this.index.getWords(word, ctx));
+            this.admit(key, words, generation);
+            result.complete(words);
+            return words;
+        } catch (Throwable e) {
+            // Concurrent callers waiting for the result must not be left hanging.
+            result.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.loading.remove(key, result);
+        }
+    }
+
+    /**
+     * Queries the index with word with context, results can be accessed through an
+     * iterator. Cached result is iterated, if there is one. Otherwise wrapped index
+     * is iterated, and the result isn't cached.
+     *
+     * @param word Word to search for.
+     * @param ctx  The amount of context bytes to surround the word.
+     * @return Iterator that iterates over the results.
+     * @throws FileNotFoundException If indexed file was deleted.
+     */
+    @Override
+    public @NotNull WordContextIterator iterateWords(@NotNull String word,
+                                                     @NotNull WordIndex.ContextBytes ctx)
+            throws FileNotFoundException {
+        final Key key = new Key(JavaWordIndex.normalize(word, this.analyzer), ctx);
+        final FileStamp current = this.currentStamp();
+        synchronized (this.cache) {
+            this.validate(current);
+            final CachedResult cached = this.cache.get(key);
+            if (cached != null) {
+                this.hits.increment();
+                return new CachedContextIterator(cached.words());
+            }
+        }
+        this.misses.increment();
+        return this.index.iterateWords(word, ctx);
+    }
+
+    /**
+     * Positions are not cached, they are queried from the wrapped index.
+     *
+     * @param word Word to search for.
+     * @return File positions of the word, in file order.
+     */
+    @Override
+    public long @NotNull [] getPositions(@NotNull String word) {
+        return this.index.getPositions(word);
+    }
+
+    /**
+     * Hits are not cached, they are queried from the wrapped index.
+     *
+     * @param word Word to search for.
+     * @param ctx  The amount of context bytes to surround the word.
+     * @return Hits of the word, in file order.
+     * @throws IOException When indexed file can't be mapped.
+     */
+    @Override
+    public @NotNull List<WordHit> getHits(@NotNull String word,
+                                          @NotNull WordIndex.ContextBytes ctx)
+            throws IOException {
+        return this.index.getHits(word, ctx);
+    }
+
+    @Override
+    public void save(@NotNull Path snapshot) throws IOException {
+        this.index.save(snapshot);
+    }
+
+    /**
+     * Refreshes the wrapped index, and drops the cache if new bytes were indexed.
+     *
+     * @return True if new bytes were indexed, false if file didn't grow.
+     * @throws IOException When indexed file can't be read.
+     */
+    @Override
+    public boolean refresh() throws IOException {
+        final boolean refreshed = this.index.refresh();
+        if (refreshed) {
+            final FileStamp current = this.readStamp();
+            synchronized (this.cache) {
+                this.invalidate();
+                this.stamp = current;
+            }
+        }
+        return refreshed;
+    }
+
+    /**
+     * @return Estimated memory usage of the wrapped index, cached results included,
+     * or -1 if wrapped index can't estimate its usage.
+     */
+    @Override
+    public long estimatedMemoryUsage() {
+        final long usage = this.index.estimatedMemoryUsage();
+        if (usage < 0) {
+            return usage;
+        }
+        synchronized (this.cache) {
+            return usage + this.cachedBytes;
+        }
+    }
+
+    /**
+     * Get the statistics of the cache.
+     *
+     * @return Current statistics.
+     */
+    @NotNull
+    public CacheStats cacheStats() {
+        synchronized (this.cache) {
+            return new CacheStats(this.hits.sum(), this.misses.sum(), this.evictions.sum(),
+                    this.cache.size(), this.cachedBytes);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        synchronized (this.cache) {
+            this.invalidate();
+        }
+        this.index.close();
+    }
+
+    /**
+     * Drops the cache, if indexed file changed since the cache was filled.
+     * Must be called holding the cache lock. File is stat'ed before the lock is
+     * taken, so concurrent hits don't wait for each other's file system calls.
+     *
+     * @param current Stamp of the indexed file, or null if file doesn't exist.
+     * @return Current generation of the cache.
+     */
+    private long validate(FileStamp current) {
+        if (current == null) {
+            // Wrapped index reports missing file in its own way.
+            this.invalidate();
+            return this.generation;
+        }
+        if (!current.equals(this.stamp)) {
+            this.invalidate();
+            this.stamp = current;
+        }
+        return this.generation;
+    }
+
+    /**
+     * Drops all cached results. Must be called holding the cache lock.
+     */
+    private void invalidate() {
+        this.cache.clear();
+        this.cachedBytes = 0;
+        this.generation++;
+    }
+
+    /**
+     * Caches the result, and evicts least recently used results until cache fits
+     * in the limit. Result is not cached, if cache was dropped while it was queried.
+     *
+     * @param key        Cache key.
+     * @param words      Result of the query.
+     * @param generation Generation of the cache, when query started.
+     */
+    private void admit(@NotNull Key key, @NotNull List<String> words, long generation) {
+        long bytes = RESULT_OVERHEAD;
+        for (String word : words) {
+            bytes += RESULT_OVERHEAD + 2L * word.length();
+        }
+        if (bytes > this.maxCachedBytes) {
+            return;
+        }
+
+        synchronized (this.cache) {
+            if (generation != this.generation) {
+                return;
+            }
+            final CachedResult previous = this.cache.put(key, new CachedResult(words, bytes));
+            if (previous != null) {
+                this.cachedBytes -= previous.bytes();
+            }
+            this.cachedBytes += bytes;
+
+            final Iterator<CachedResult> eldest = this.cache.values().iterator();
+            while (this.cachedBytes > this.maxCachedBytes) {
+                this.cachedBytes -= eldest.next().bytes();
+                eldest.remove();
+                this.evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * @return Current stamp of the indexed file, or null if file doesn't exist.
+     */
+    private FileStamp currentStamp() {
+        try {
+            return this.readStamp();
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return Current stamp of the indexed file.
+     * @throws FileNotFoundException When file doesn't exist.
+     */
+    @NotNull
+    private FileStamp readStamp() throws FileNotFoundException {
+        try {
+            final BasicFileAttributes attrs = Files.readAttributes(this.path,
+                    BasicFileAttributes.class);
+            return new FileStamp(attrs.size(), attrs.lastModifiedTime().toMillis());
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(this.path.toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Iterates over a cached result.
+     */
+    private static final class CachedContextIterator implements WordContextIterator {
+        private final List<String> words;
+        private final Iterator<String> iterator;
+
+        /**
+         * @param words Cached words with context.
+         */
+        private CachedContextIterator(@NotNull List<String> words) {
+            this.words = words;
+            this.iterator = words.iterator();
+        }
+
+        @Override
+        public Stream<String> stream() {
+            return this.words.stream();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return this.iterator.hasNext();
+        }
+
+        @Override
+        public String next() {
+            return this.iterator.next();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package org.nse.thesis.wordindex;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Buffers of one query to a native index, that are reused through a
+ * {@link BufferPool}. Buffers grow on demand, and are never shrunk.
+ *
+ * @author Niklas Seppälä
+ */
+public final class DirectQueryBuffers {
+    private ByteBuffer read;
+    private byte[] str;
+
+    /**
+     * @param queryBufferSize Initial size of the read buffer.
+     */
+    public DirectQueryBuffers(int queryBufferSize) {
+        this.read = allocate(queryBufferSize);
+        this.str = new byte[0];
+    }
+
+    /**
+     * Get the read buffer, that has at least the size asked for.
+     *
+     * @param minSize Minimum size of the buffer.
+     * @return Direct buffer with native byte-order, rewound to the start.
+     */
+    public @NotNull ByteBuffer read(int minSize) {
+        if (this.read.capacity() < minSize) {
+            this.read = allocate(minSize);
+        }
+        return this.read.clear();
+    }
+
+    /**
+     * Get heap array strings are decoded from, that has room for the longest
+     * string of the query.
+     *
+     * @param minLength Minimum length of the array.
+     * @return Array for string bytes.
+     */
+    public byte @NotNull [] str(int minLength) {
+        if (this.str.length < minLength) {
+            this.str = new byte[minLength];
+        }
+        return this.str;
+    }
+
+    /**
+     * @param size Size of the buffer.
+     * @return Direct buffer with native byte-order.
+     */
+    private static @NotNull ByteBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+}
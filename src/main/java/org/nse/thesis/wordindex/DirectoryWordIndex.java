@@ -5,23 +5,137 @@ import org.nse.thesis.wordindex.analyzers.IndexAnalyzer;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.nio.file.Files;
-import java.nio.file.Path;
+import java.io.IOException;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * WordIndex for files located in directory.
+ * <p>
+ * Files are indexed concurrently, but at most a bounded number of files are
+ * indexed at a time, so native indexes don't run out of file descriptors.
+ * Files that fail to be indexed are left out, and their failures can be
+ * inspected with {@link #failures()}.
+ * </p>
+ * <p>
+ * Whole directory can be queried with {@link #getWords(String, WordIndex.ContextBytes)}
+ * and {@link #streamWords(String, WordIndex.ContextBytes)}, which query all files in
+ * parallel, under the same concurrency limit.
+ * </p>
+ * <p>
+ * With {@link #startWatching()} the directory is watched for changes. New and
+ * modified files are indexed in the background, and deleted files are dropped.
+ * Queries are served from the previous index of a file, until its replacement is
+ * ready. Replaced indexes are closed once the queries using them are done.
+ * </p>
+ * <p>
+ * With {@link LazyResidency}, files are indexed on their first query instead of
+ * eagerly. Resident indexes are bounded by their estimated total memory usage,
+ * and least recently used indexes are evicted and closed, when the bound is
+ * exceeded. Evicted indexes can be saved as snapshots, so they are loaded
+ * instead of indexed again on a later query.
+ * </p>
  *
  * @author Niklas Seppälä
  */
 public class DirectoryWordIndex implements AutoCloseable {
-    private final Map<String, WordIndex> indexMap;
+    /**
+     * Default limit of files indexed at the same time.
+     */
+    public static final int DEFAULT_MAX_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+    // How long close waits for running tasks of the owned executor.
+    private static final long CLOSE_TIMEOUT_SECONDS = 30;
+    private final ConcurrentNavigableMap<String, ResidentIndex> indexMap;
+    private final LazyResidency residency;
+    // Files that can be indexed lazily. Only used with lazy residency.
+    private final NavigableSet<String> knownFiles = new ConcurrentSkipListSet<>();
+    // Resident indexes in access order. Guards residentBytes too.
+    private final LinkedHashMap<String, ResidentIndex> leastRecentlyUsed =
+            new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<ResidentIndex>> loading = new ConcurrentHashMap<>();
+    // Count of changes per file, so that index loaded from an old version isn't admitted.
+    private final Map<String, Integer> changes = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private long residentBytes;
+    private final Map<String, Exception> failures;
     private final String dirPath;
     private final IndexAnalyzer analyzer;
+    private final WordIndex.Provider indexProvider;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final int maxConcurrency;
+    private final Semaphore running;
+    // Files with a pending update. True when file changed again after update started.
+    private final Map<String, Boolean> pendingUpdates = new ConcurrentHashMap<>();
+    private WatchService watchService;
+    private volatile boolean closed;
 
     /**
-     * Constructor
+     * Query result of a single word occurrence, tagged with the file it was found from.
+     *
+     * @param file    File the word was found from.
+     * @param context Word wrapped in context.
+     */
+    public record Hit(@NotNull File file, @NotNull String context) {
+    }
+
+    /**
+     * Lazy residency of file indexes. File is indexed on its first query, and
+     * resident indexes are evicted in least recently used order, when their
+     * estimated memory usage exceeds the limit. When index can't estimate its
+     * memory usage, size of the indexed file is used.
+     *
+     * @param maxResidentBytes  Limit of estimated memory usage of resident indexes.
+     *                          The most recently used index is kept resident, even
+     *                          if it alone exceeds the limit.
+     * @param snapshotDirectory Directory where evicted indexes are saved as snapshots,
+     *                          or null if snapshots are not used.
+     * @param snapshotLoader    Loads indexes from snapshots, or null if snapshots are
+     *                          not used.
+     */
+    public record LazyResidency(long maxResidentBytes, Path snapshotDirectory,
+                                WordIndex.SnapshotLoader snapshotLoader) {
+        /**
+         * Lazy residency without snapshots.
+         *
+         * @param maxResidentBytes Limit of estimated memory usage of resident indexes.
+         */
+        public LazyResidency(long maxResidentBytes) {
+            this(maxResidentBytes, null, null);
+        }
+
+        /**
+         * @return True if evicted indexes are saved as snapshots.
+         */
+        private boolean usesSnapshots() {
+            return this.snapshotDirectory != null && this.snapshotLoader != null;
+        }
+    }
+
+    /**
+     * Statistics of lazy residency. Query of a file counts as a hit, when index
+     * of the file is resident, otherwise as a miss.
+     *
+     * @param hits          Number of queries served by a resident index.
+     * @param misses        Number of queries, that had to index or load the file.
+     * @param evictions     Number of evicted indexes.
+     * @param residentFiles Number of resident indexes.
+     * @param residentBytes Estimated memory usage of resident indexes.
+     */
+    public record ResidencyStats(long hits, long misses, long evictions, int residentFiles,
+                                 long residentBytes) {
+    }
+
+    /**
+     * Constructor. Files are indexed and queried on virtual threads.
+     *
      * @param dirPath Path to directory to be indexed.
      * @param analyzer Analyzer used by indexes.
      * @param indexProvider Method to provide implementation of {@link WordIndex}
@@ -30,6 +144,48 @@ public class DirectoryWordIndex implements AutoCloseable {
     public DirectoryWordIndex(@NotNull String dirPath, @NotNull IndexAnalyzer analyzer,
                               @NotNull WordIndex.Provider indexProvider)
             throws FileNotFoundException {
+        this(dirPath, analyzer, indexProvider, null, DEFAULT_MAX_CONCURRENCY);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param dirPath        Path to directory to be indexed.
+     * @param analyzer       Analyzer used by indexes.
+     * @param indexProvider  Method to provide implementation of {@link WordIndex}
+     * @param executor       Executor that runs indexing and queries of the files,
+     *                       must not be shut down before this index is closed.
+     *                       When null, virtual threads are used.
+     * @param maxConcurrency How many files are indexed or queried at the same time
+     *                       at most.
+     * @throws FileNotFoundException When directory doesn't exist
+     */
+    public DirectoryWordIndex(@NotNull String dirPath, @NotNull IndexAnalyzer analyzer,
+                              @NotNull WordIndex.Provider indexProvider,
+                              Executor executor, int maxConcurrency)
+            throws FileNotFoundException {
+        this(dirPath, analyzer, indexProvider, executor, maxConcurrency, null);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param dirPath        Path to directory to be indexed.
+     * @param analyzer       Analyzer used by indexes.
+     * @param indexProvider  Method to provide implementation of {@link WordIndex}
+     * @param executor       Executor that runs indexing and queries of the files,
+     *                       must not be shut down before this index is closed.
+     *                       When null, virtual threads are used.
+     * @param maxConcurrency How many files are indexed or queried at the same time
+     *                       at most.
+     * @param residency      Lazy residency of the indexes, or null if all files
+     *                       are indexed eagerly, and kept resident.
+     * @throws FileNotFoundException When directory doesn't exist
+     */
+    public DirectoryWordIndex(@NotNull String dirPath, @NotNull IndexAnalyzer analyzer,
+                              @NotNull WordIndex.Provider indexProvider,
+                              Executor executor, int maxConcurrency, LazyResidency residency)
+            throws FileNotFoundException {
         final Path path = Path.of(dirPath);
 
         if (Files.notExists(path)) {
@@ -41,39 +197,91 @@ public class DirectoryWordIndex implements AutoCloseable {
         }
         this.dirPath = path.toAbsolutePath().toString();
         this.analyzer = analyzer;
+        this.indexProvider = indexProvider;
+        this.residency = residency;
         File dir = path.toFile();
 
-        this.indexMap = new HashMap<>();
-        File[] files = dir.listFiles();
-        if (files != null) {
-            indexFilesInDirectory(Arrays.asList(files), indexProvider);
+        this.ownedExecutor = executor == null ? Executors.newVirtualThreadPerTaskExecutor() : null;
+        this.executor = executor == null ? this.ownedExecutor : executor;
+        this.maxConcurrency = Math.max(maxConcurrency, 1);
+        this.running = new Semaphore(this.maxConcurrency);
+
+        // Concurrent maps are safe to publish, and keep being updated in live mode.
+        // Index map is sorted, so files are always merged in name order.
+        this.indexMap = new ConcurrentSkipListMap<>();
+        this.failures = new ConcurrentHashMap<>();
+        File[] files = dir.listFiles(File::isFile);
+        if (files != null && residency != null) {
+            for (File file : files) {
+                this.knownFiles.add(file.getName());
+            }
+        } else if (files != null) {
+            indexFilesInDirectory(Arrays.asList(files));
         }
     }
 
     /**
-     * Indexes all text files in the directory.
+     * Indexes all text files in the directory concurrently, and waits until all
+     * of them are indexed.
      *
      * @param files List of files located in directory
-     * @param indexProvider Method to provide implementation of {@link WordIndex}
      */
-    private void indexFilesInDirectory(@NotNull List<File> files,
-                                       @NotNull WordIndex.Provider indexProvider) {
+    private void indexFilesInDirectory(@NotNull List<File> files) {
         if (files.isEmpty()) {
             return;
         }
 
+        final Semaphore running = this.running;
         for (File file : files) {
             String fileName = file.getName();
-            if (!indexMap.containsKey(fileName)) {
-                try {
-                    WordIndex index =
-                            indexProvider.indexFrom(file.getAbsolutePath(), this.analyzer);
-                    this.indexMap.put(fileName, index);
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
-                }
+            running.acquireUninterruptibly();
+            try {
+                this.executor.execute(() -> {
+                    try {
+                        WordIndex index =
+                                this.indexProvider.indexFrom(file.getAbsolutePath(), this.analyzer);
+                        this.indexMap.put(fileName, new ResidentIndex(index));
+                    } catch (Exception e) {
+                        this.failures.put(fileName, e);
+                    } finally {
+                        running.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                this.failures.put(fileName, e);
+                running.release();
             }
         }
+        // All permits are returned, when every file is done.
+        running.acquireUninterruptibly(this.maxConcurrency);
+        running.release(this.maxConcurrency);
+    }
+
+    /**
+     * Starts watching the directory for changes, on a background thread. Created
+     * and modified files are indexed again, and deleted files are dropped. When
+     * watcher misses events, whole directory is checked again. Watching ends, when
+     * this index is closed.
+     *
+     * @throws IOException When directory can't be watched.
+     */
+    public synchronized void startWatching() throws IOException {
+        if (this.closed) {
+            throw new IllegalStateException("Index is closed");
+        }
+        if (this.watchService != null) {
+            return;
+        }
+        final Path dir = Path.of(this.dirPath);
+        final WatchService watcher = dir.getFileSystem().newWatchService();
+        dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        this.watchService = watcher;
+
+        final Thread thread = new Thread(() -> this.watch(watcher),
+                "DirectoryWordIndex-watcher " + this.dirPath);
+        thread.setDaemon(true);
+        thread.start();
     }
 
     /**
@@ -89,16 +297,21 @@ public class DirectoryWordIndex implements AutoCloseable {
     public Collection<String> getWordsWithContextInFile(@NotNull String path, @NotNull String word,
                                                         @NotNull WordIndex.ContextBytes ctx) {
         String fileName = Path.of(path).getFileName().toString();
-        WordIndex index = this.indexMap.get(fileName);
-        if (index != null) {
-            return index.getWords(word, ctx);
+        ResidentIndex resident = this.acquire(fileName);
+        if (resident != null) {
+            try {
+                return resident.index().getWords(word, ctx);
+            } finally {
+                resident.release();
+            }
         } else {
             return Collections.emptyList();
         }
     }
 
     /**
-     * Queries the index for word occurrences, and iterates the results.
+     * Queries the index for word occurrences, and iterates the results. Index of
+     * the file is kept open until the iterator is exhausted or closed.
      *
      * @param path Path to the file to search word from.
      * @param word Word to search for.
@@ -113,26 +326,143 @@ public class DirectoryWordIndex implements AutoCloseable {
                                                           @NotNull WordIndex.ContextBytes ctx)
             throws FileNotFoundException {
         String fileName = Path.of(path).getFileName().toString();
-        WordIndex index = this.indexMap.get(fileName);
-        if (index != null) {
-            return index.iterateWords(word, ctx);
+        ResidentIndex resident = this.acquire(fileName);
+        if (resident != null) {
+            try {
+                return new ReleasingIterator(resident.index().iterateWords(word, ctx), resident);
+            } catch (FileNotFoundException | RuntimeException e) {
+                resident.release();
+                throw e;
+            }
         } else {
             return Collections.emptyIterator();
         }
     }
 
     /**
-     * Closes all {@link WordIndex}s
+     * Queries all files of the directory in parallel for word occurrences.
+     * Results are in a stable order: files are ordered by their name, and hits
+     * of a file are in the order its index returns them.
+     *
+     * @param word Word to search for.
+     * @param ctx  Context size in bytes.
+     * @return Hits from all files.
+     */
+    @NotNull
+    public List<Hit> getWords(@NotNull String word, @NotNull WordIndex.ContextBytes ctx) {
+        final List<CompletableFuture<List<Hit>>> results = new ArrayList<>();
+        for (String fileName : this.fileNames()) {
+            results.add(this.queryFile(fileName, word, ctx));
+        }
+        final List<Hit> hits = new ArrayList<>();
+        for (CompletableFuture<List<Hit>> result : results) {
+            hits.addAll(joinResult(result));
+        }
+        return hits;
+    }
+
+    /**
+     * Queries all files of the directory in parallel for word occurrences, and
+     * streams the results as soon as each file is done, so hits of fast files are
+     * not held back by slower ones. Files are streamed in the order they complete,
+     * and hits of a file are kept together, in the order its index returns them.
+     *
+     * @param word Word to search for.
+     * @param ctx  Context size in bytes.
+     * @return Stream of hits from all files.
+     */
+    @NotNull
+    public Stream<Hit> streamWords(@NotNull String word, @NotNull WordIndex.ContextBytes ctx) {
+        final BlockingQueue<CompletableFuture<List<Hit>>> completed = new LinkedBlockingQueue<>();
+        int submitted = 0;
+        for (String fileName : this.fileNames()) {
+            final CompletableFuture<List<Hit>> result = this.queryFile(fileName, word, ctx);
+            result.whenComplete((hits, e) -> completed.add(result));
+            submitted++;
+        }
+
+        final int fileCount = submitted;
+        final Iterator<List<Hit>> batches = new Iterator<>() {
+            private int remaining = fileCount;
+
+            @Override
+            public boolean hasNext() {
+                return this.remaining > 0;
+            }
+
+            @Override
+            public List<Hit> next() {
+                if (this.remaining == 0) {
+                    throw new NoSuchElementException();
+                }
+                this.remaining--;
+                try {
+                    return joinResult(completed.take());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for results", e);
+                }
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliterator(batches, fileCount,
+                Spliterator.NONNULL), false).flatMap(List::stream);
+    }
+
+    /**
+     * Closes all {@link WordIndex}s, and stops watching the directory. Indexes
+     * that are being queried are closed once their queries are done. When this
+     * index owns its executor, running tasks are waited for, up to 30 seconds,
+     * before indexes are closed.
      */
     @Override
     public void close() {
-        for (WordIndex index : this.indexMap.values()) {
+        final WatchService watcher;
+        synchronized (this) {
+            this.closed = true;
+            watcher = this.watchService;
+        }
+        if (watcher != null) {
             try {
-                index.close();
-            } catch (Exception e) {
+                watcher.close();
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }
+        if (this.ownedExecutor != null) {
+            // Running updates and loads are let to finish, so their indexes are
+            // retired below, instead of being left open.
+            this.ownedExecutor.shutdown();
+            try {
+                if (!this.ownedExecutor.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    this.ownedExecutor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                this.ownedExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+        // Indexes are admitted under the same lock, so none are admitted after this.
+        synchronized (this.leastRecentlyUsed) {
+            this.leastRecentlyUsed.clear();
+            this.residentBytes = 0;
+            for (String fileName : this.indexMap.keySet()) {
+                final ResidentIndex resident = this.indexMap.remove(fileName);
+                if (resident != null) {
+                    resident.retire();
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the files that failed to be indexed, with the reason of the failure.
+     * In live mode, failure is cleared when the file is indexed successfully.
+     *
+     * @return Failures by file name.
+     */
+    @NotNull
+    public Map<String, Exception> failures() {
+        return Collections.unmodifiableMap(this.failures);
     }
 
     /**
@@ -141,9 +471,577 @@ public class DirectoryWordIndex implements AutoCloseable {
      */
     @NotNull
     public List<File> files() {
-        return this.indexMap.keySet().stream()
-                .map(fileName ->
-                        new File(this.dirPath + File.separator + fileName))
+        return this.fileNames().stream()
+                .map(this::fileOf)
                 .collect(Collectors.toList());
     }
+
+    /**
+     * Get the statistics of lazy residency. Without lazy residency all counters
+     * stay at zero.
+     *
+     * @return Current statistics.
+     */
+    @NotNull
+    public ResidencyStats residencyStats() {
+        synchronized (this.leastRecentlyUsed) {
+            return new ResidencyStats(this.hits.sum(), this.misses.sum(), this.evictions.sum(),
+                    this.leastRecentlyUsed.size(), this.residentBytes);
+        }
+    }
+
+    /**
+     * @return Names of the files, that can be queried, in name order.
+     */
+    @NotNull
+    private NavigableSet<String> fileNames() {
+        return this.residency != null ? this.knownFiles : this.indexMap.keySet();
+    }
+
+    /**
+     * Takes the index of the file into use. Index must be released after use.
+     * With lazy residency, file is indexed, if it isn't resident.
+     *
+     * @param fileName Name of the file.
+     * @return Index of the file, or null if file is not indexed.
+     */
+    private ResidentIndex acquire(@NotNull String fileName) {
+        boolean counted = false;
+        while (true) {
+            ResidentIndex resident = this.indexMap.get(fileName);
+            if (resident != null) {
+                if (resident.acquire()) {
+                    if (this.residency != null) {
+                        if (!counted) {
+                            this.hits.increment();
+                        }
+                        synchronized (this.leastRecentlyUsed) {
+                            // Touch the index, to move it to the end of access order.
+                            this.leastRecentlyUsed.get(fileName);
+                        }
+                    }
+                    return resident;
+                }
+                // Index was just replaced or dropped, look again.
+                Thread.onSpinWait();
+            } else if (this.residency != null && !this.closed
+                    && this.knownFiles.contains(fileName)) {
+                if (!counted) {
+                    this.misses.increment();
+                    counted = true;
+                }
+                final ResidentIndex loaded;
+                try {
+                    loaded = this.load(fileName);
+                } catch (CompletionException e) {
+                    return null;
+                }
+                if (loaded != null) {
+                    return loaded;
+                }
+                // Loaded index was discarded, or evicted before it was acquired, look again.
+            } else {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Loads index of the file, and admits it as resident. Concurrent loads of the
+     * same file are collapsed into one. Loaded index is acquired, when it is admitted,
+     * so it can't be evicted before the caller uses it.
+     *
+     * @param fileName Name of the file.
+     * @return Acquired index, that must be released after use, or null if index was
+     * discarded, or evicted before a concurrent caller could acquire it.
+     * @throws CompletionException When loading failed.
+     */
+    private ResidentIndex load(@NotNull String fileName) {
+        final CompletableFuture<ResidentIndex> result = new CompletableFuture<>();
+        final CompletableFuture<ResidentIndex> existing = this.loading.putIfAbsent(fileName, result);
+        if (existing != null) {
+            final ResidentIndex shared = existing.join();
+            return shared != null && shared.acquire() ? shared : null;
+        }
+
+        ResidentIndex admitted = null;
+        Exception failure = null;
+        try {
+            final int generation = this.changes.getOrDefault(fileName, 0);
+            final WordIndex index = this.openIndex(fileName);
+            final ResidentIndex loaded = new ResidentIndex(index,
+                    estimateMemoryUsage(index, this.fileOf(fileName)));
+            this.failures.remove(fileName);
+            admitted = this.admit(fileName, loaded, generation);
+        } catch (Exception e) {
+            this.failures.put(fileName, e);
+            failure = e;
+        } finally {
+            this.loading.remove(fileName, result);
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(admitted);
+            }
+        }
+        if (failure != null) {
+            throw new CompletionException(failure);
+        }
+        return admitted;
+    }
+
+    /**
+     * Opens index of the file. Snapshot of the file is loaded, if there is one,
+     * and it matches the file. Otherwise file is indexed.
+     *
+     * @param fileName Name of the file.
+     * @return Index of the file.
+     * @throws FileNotFoundException When file doesn't exist.
+     */
+    @NotNull
+    private WordIndex openIndex(@NotNull String fileName) throws FileNotFoundException {
+        final String path = this.fileOf(fileName).getAbsolutePath();
+        if (this.residency.usesSnapshots()) {
+            final Path snapshot = this.snapshotOf(fileName);
+            if (Files.exists(snapshot)) {
+                try {
+                    return this.residency.snapshotLoader().loadFrom(path, this.analyzer, snapshot);
+                } catch (IOException e) {
+                    // Snapshot is stale, index the file again.
+                }
+            }
+        }
+        return this.indexProvider.indexFrom(path, this.analyzer);
+    }
+
+    /**
+     * Admits loaded index as resident, and evicts least recently used indexes until
+     * resident indexes fit in the memory limit. Index is discarded, if file changed
+     * while it was loaded, or this index was closed.
+     *
+     * @param fileName   Name of the file.
+     * @param loaded     Loaded index of the file.
+     * @param generation Change count of the file, when loading started.
+     * @return Admitted index, acquired before it was published, or null if it was
+     * discarded.
+     */
+    private ResidentIndex admit(@NotNull String fileName, @NotNull ResidentIndex loaded,
+                                int generation) {
+        final Map<String, ResidentIndex> evicted = new LinkedHashMap<>();
+        synchronized (this.leastRecentlyUsed) {
+            if (this.closed || this.changes.getOrDefault(fileName, 0) != generation) {
+                loaded.retire();
+                return null;
+            }
+            // Evicted index is closed only after the loader releases it.
+            loaded.acquire();
+            this.indexMap.put(fileName, loaded);
+            this.leastRecentlyUsed.put(fileName, loaded);
+            this.residentBytes += loaded.memoryUsage();
+
+            final Iterator<Map.Entry<String, ResidentIndex>> eldest =
+                    this.leastRecentlyUsed.entrySet().iterator();
+            while (this.residentBytes > this.residency.maxResidentBytes()
+                    && this.leastRecentlyUsed.size() > 1) {
+                final Map.Entry<String, ResidentIndex> entry = eldest.next();
+                eldest.remove();
+                this.indexMap.remove(entry.getKey());
+                this.residentBytes -= entry.getValue().memoryUsage();
+                this.evictions.increment();
+                evicted.put(entry.getKey(), entry.getValue());
+            }
+        }
+        evicted.forEach(this::evict);
+        return loaded;
+    }
+
+    /**
+     * Saves evicted index as a snapshot, if snapshots are used, and retires it.
+     *
+     * @param fileName Name of the file.
+     * @param resident Evicted index of the file.
+     */
+    private void evict(@NotNull String fileName, @NotNull ResidentIndex resident) {
+        if (this.residency.usesSnapshots()) {
+            try {
+                Files.createDirectories(this.residency.snapshotDirectory());
+                resident.index().save(this.snapshotOf(fileName));
+            } catch (IOException | UnsupportedOperationException e) {
+                // Snapshot only speeds up loading, file is indexed again without it.
+            }
+        }
+        resident.retire();
+    }
+
+    /**
+     * Drops resident index of the file, with lazy residency. File is loaded
+     * again on the next query, if it still exists.
+     *
+     * @param fileName Name of the changed file.
+     * @param exists   Does the file still exist.
+     */
+    private void dropResident(@NotNull String fileName, boolean exists) {
+        final ResidentIndex previous;
+        synchronized (this.leastRecentlyUsed) {
+            this.changes.merge(fileName, 1, Integer::sum);
+            if (exists) {
+                this.knownFiles.add(fileName);
+            } else {
+                this.knownFiles.remove(fileName);
+            }
+            previous = this.leastRecentlyUsed.remove(fileName);
+            if (previous != null) {
+                this.indexMap.remove(fileName);
+                this.residentBytes -= previous.memoryUsage();
+            }
+        }
+        if (previous != null) {
+            previous.retire();
+        }
+        if (this.residency.usesSnapshots()) {
+            try {
+                Files.deleteIfExists(this.snapshotOf(fileName));
+            } catch (IOException e) {
+                // Stale snapshot is rejected when it is loaded.
+            }
+        }
+    }
+
+    /**
+     * Estimates memory usage of the index. If index can't estimate it, size of
+     * the indexed file is used.
+     *
+     * @param index Index of the file.
+     * @param file  Indexed file.
+     * @return Estimated memory usage in bytes.
+     */
+    private static long estimateMemoryUsage(@NotNull WordIndex index, @NotNull File file) {
+        final long estimate = index.estimatedMemoryUsage();
+        return estimate >= 0 ? estimate : file.length();
+    }
+
+    /**
+     * Queries index of a single file asynchronously. Query waits for its turn,
+     * if maximum number of files are already being queried.
+     *
+     * @param fileName Name of the file.
+     * @param word     Word to search for.
+     * @param ctx      Context size in bytes.
+     * @return Hits of the file, once the query is done. No hits, if file got
+     * dropped before it was queried.
+     */
+    @NotNull
+    private CompletableFuture<List<Hit>> queryFile(@NotNull String fileName, @NotNull String word,
+                                                   @NotNull WordIndex.ContextBytes ctx) {
+        final File file = this.fileOf(fileName);
+        return CompletableFuture.supplyAsync(() -> {
+            this.running.acquireUninterruptibly();
+            final ResidentIndex resident = this.acquire(fileName);
+            try {
+                if (resident == null) {
+                    return List.of();
+                }
+                final Collection<String> words = resident.index().getWords(word, ctx);
+                final List<Hit> hits = new ArrayList<>(words.size());
+                for (String context : words) {
+                    hits.add(new Hit(file, context));
+                }
+                return hits;
+            } finally {
+                if (resident != null) {
+                    resident.release();
+                }
+                this.running.release();
+            }
+        }, this.executor);
+    }
+
+    /**
+     * Waits for the query result, rethrowing failure of the query.
+     *
+     * @param result Result of a query.
+     * @return Hits of the query.
+     */
+    @NotNull
+    private static List<Hit> joinResult(@NotNull CompletableFuture<List<Hit>> result) {
+        try {
+            return result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Watches the directory, until watch service is closed.
+     *
+     * @param watcher Watch service of the directory.
+     */
+    private void watch(@NotNull WatchService watcher) {
+        try {
+            while (true) {
+                final WatchKey key = watcher.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        this.rescan();
+                    } else {
+                        this.scheduleUpdate(((Path) event.context()).getFileName().toString());
+                    }
+                }
+                if (!key.reset()) {
+                    // Directory is no longer accessible.
+                    return;
+                }
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // Index was closed.
+        }
+    }
+
+    /**
+     * Schedules update of every indexed file, and every file in the directory.
+     */
+    private void rescan() {
+        final Set<String> fileNames = new HashSet<>(this.indexMap.keySet());
+        final String[] current = new File(this.dirPath).list();
+        if (current != null) {
+            fileNames.addAll(Arrays.asList(current));
+        }
+        fileNames.forEach(this::scheduleUpdate);
+    }
+
+    /**
+     * Schedules update of the file. Updates of a single file never run at the
+     * same time, and changes made while file is being updated cause another update.
+     *
+     * @param fileName Name of the changed file.
+     */
+    private void scheduleUpdate(@NotNull String fileName) {
+        if (this.pendingUpdates.put(fileName, Boolean.TRUE) == null) {
+            try {
+                this.executor.execute(() -> this.update(fileName));
+            } catch (RejectedExecutionException e) {
+                this.pendingUpdates.remove(fileName);
+            }
+        }
+    }
+
+    /**
+     * Brings index of the file up to date. Existing file is indexed again, and
+     * the new index is swapped in, when it is ready. Deleted file is dropped.
+     *
+     * @param fileName Name of the changed file.
+     */
+    private void update(@NotNull String fileName) {
+        do {
+            this.pendingUpdates.put(fileName, Boolean.FALSE);
+            final File file = this.fileOf(fileName);
+            if (this.residency != null) {
+                // Lazy index is loaded again on the next query.
+                this.dropResident(fileName, file.isFile());
+                this.failures.remove(fileName);
+                continue;
+            }
+            if (!file.isFile()) {
+                this.swap(fileName, null);
+                this.failures.remove(fileName);
+                continue;
+            }
+
+            this.running.acquireUninterruptibly();
+            try {
+                final WordIndex index = this.indexProvider.indexFrom(file.getAbsolutePath(),
+                        this.analyzer);
+                this.swap(fileName, new ResidentIndex(index));
+                this.failures.remove(fileName);
+            } catch (Exception e) {
+                // Previous index keeps serving queries.
+                this.failures.put(fileName, e);
+            } finally {
+                this.running.release();
+            }
+        } while (!this.pendingUpdates.remove(fileName, Boolean.FALSE));
+    }
+
+    /**
+     * Replaces index of the file atomically. Replaced index is closed, when
+     * queries using it are done.
+     *
+     * @param fileName    Name of the file.
+     * @param replacement New index of the file, or null to drop the file.
+     */
+    private void swap(@NotNull String fileName, ResidentIndex replacement) {
+        final ResidentIndex previous;
+        synchronized (this) {
+            if (this.closed) {
+                previous = replacement;
+            } else if (replacement != null) {
+                previous = this.indexMap.put(fileName, replacement);
+            } else {
+                previous = this.indexMap.remove(fileName);
+            }
+        }
+        if (previous != null) {
+            previous.retire();
+        }
+    }
+
+    /**
+     * @param fileName Name of the file in the directory.
+     * @return File in the indexed directory.
+     */
+    @NotNull
+    private File fileOf(@NotNull String fileName) {
+        return new File(this.dirPath + File.separator + fileName);
+    }
+
+    /**
+     * @param fileName Name of the file in the directory.
+     * @return Path of the snapshot of the file.
+     */
+    @NotNull
+    private Path snapshotOf(@NotNull String fileName) {
+        return this.residency.snapshotDirectory().resolve(fileName + ".widx");
+    }
+
+    /**
+     * Index of a file, that counts queries using it. Retired index is closed,
+     * once the last query releases it.
+     */
+    private static final class ResidentIndex {
+        private final WordIndex index;
+        private final long memoryUsage;
+        private int users;
+        private boolean retired;
+
+        /**
+         * @param index Index of the file.
+         */
+        private ResidentIndex(@NotNull WordIndex index) {
+            this(index, 0);
+        }
+
+        /**
+         * @param index       Index of the file.
+         * @param memoryUsage Estimated memory usage of the index.
+         */
+        private ResidentIndex(@NotNull WordIndex index, long memoryUsage) {
+            this.index = index;
+            this.memoryUsage = memoryUsage;
+        }
+
+        /**
+         * @return Index of the file.
+         */
+        @NotNull
+        private WordIndex index() {
+            return this.index;
+        }
+
+        /**
+         * @return Estimated memory usage of the index.
+         */
+        private long memoryUsage() {
+            return this.memoryUsage;
+        }
+
+        /**
+         * @return True if index was taken into use, false if it is already retired.
+         */
+        private synchronized boolean acquire() {
+            if (this.retired) {
+                return false;
+            }
+            this.users++;
+            return true;
+        }
+
+        /**
+         * Releases index taken into use.
+         */
+        private void release() {
+            final boolean close;
+            synchronized (this) {
+                close = --this.users == 0 && this.retired;
+            }
+            if (close) {
+                this.closeIndex();
+            }
+        }
+
+        /**
+         * Retires the index, it is closed when it's no longer used.
+         */
+        private void retire() {
+            final boolean close;
+            synchronized (this) {
+                close = !this.retired && this.users == 0;
+                this.retired = true;
+            }
+            if (close) {
+                this.closeIndex();
+            }
+        }
+
+        private void closeIndex() {
+            try {
+                this.index.close();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Iterator that releases index of the file, when it is exhausted or closed.
+     */
+    private static final class ReleasingIterator implements WordContextIterator {
+        private final WordContextIterator iterator;
+        private ResidentIndex resident;
+
+        /**
+         * @param iterator Iterator of query results.
+         * @param resident Index the iterator reads from.
+         */
+        private ReleasingIterator(@NotNull WordContextIterator iterator,
+                                  @NotNull ResidentIndex resident) {
+            this.iterator = iterator;
+            this.resident = resident;
+        }
+
+        @Override
+        public boolean hasNext() {
+            final boolean hasNext = this.iterator.hasNext();
+            if (!hasNext) {
+                this.close();
+            }
+            return hasNext;
+        }
+
+        @Override
+        public String next() {
+            return this.iterator.next();
+        }
+
+        @Override
+        public void close() {
+            if (this.resident != null) {
+                try {
+                    this.iterator.close();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                this.resident.release();
+                this.resident = null;
+            }
+        }
+
+        @Override
+        public Stream<String> stream() {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                    this, Spliterator.ORDERED), false);
+        }
+    }
 }
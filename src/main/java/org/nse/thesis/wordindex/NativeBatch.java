@@ -0,0 +1,125 @@
+package org.nse.thesis.wordindex;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Encodes batch queries for native indexes, and decodes their results.
+ * <p>
+ * <b>Query byte protocol</b>
+ * <br>
+ * Words are packed contiguously, each lead by 4 byte integer in native byte-order,
+ * specifying word byte length.
+ * </p>
+ * <p>
+ * <b>Buffer byte protocol</b>
+ * <br>
+ * Each word with context is lead by two 4 byte integers, string byte length and
+ * the ordinal of the queried word it was found by. TERM_BUFFER_MARK == no more
+ * strings left in the buffer.
+ * </p>
+ *
+ * @author Niklas Seppälä
+ */
+public final class NativeBatch {
+    /**
+     * Bytes before each word with context in the buffer.
+     */
+    public static final int ENTRY_HEADER_SIZE = Integer.BYTES << 1;
+
+    private NativeBatch() {
+    }
+
+    /**
+     * Packs words to the query byte protocol.
+     *
+     * @param words Queried words.
+     * @return Packed words.
+     */
+    public static byte @NotNull [] encodeWords(@NotNull List<String> words) {
+        List<byte[]> encoded = new ArrayList<>(words.size());
+        int size = 0;
+        for (String word : words) {
+            byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            size += Integer.BYTES + bytes.length;
+        }
+        ByteBuffer packed = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+        for (byte[] bytes : encoded) {
+            packed.putInt(bytes.length).put(bytes);
+        }
+        return packed.array();
+    }
+
+    /**
+     * Gets the longest word with context, that the query can return.
+     *
+     * @param encodedWords Words packed by {@link #encodeWords(List)}.
+     * @param ctx          The amount of context bytes to surround the words.
+     * @return Maximum string byte length.
+     */
+    public static int maxStringLength(byte @NotNull [] encodedWords,
+                                      @NotNull WordIndex.ContextBytes ctx) {
+        ByteBuffer packed = ByteBuffer.wrap(encodedWords).order(ByteOrder.nativeOrder());
+        int maxWordLength = 0;
+        while (packed.hasRemaining()) {
+            int wordLength = packed.getInt();
+            maxWordLength = Math.max(maxWordLength, wordLength);
+            packed.position(packed.position() + wordLength);
+        }
+        return (ctx.size() << 1) + maxWordLength;
+    }
+
+    /**
+     * Gets the buffer size, that has room for the longest word with context, and
+     * the TERM_BUFFER_MARK.
+     *
+     * @param maxStringLength Length from {@link #maxStringLength(byte[], WordIndex.ContextBytes)}.
+     * @return Minimum buffer size.
+     */
+    public static int minBufferSize(int maxStringLength) {
+        return ENTRY_HEADER_SIZE + maxStringLength + Integer.BYTES;
+    }
+
+    /**
+     * Creates empty results for each queried word.
+     *
+     * @param wordCount Number of queried words.
+     * @return Empty results.
+     */
+    public static @NotNull List<Collection<String>> emptyResults(int wordCount) {
+        List<Collection<String>> results = new ArrayList<>(wordCount);
+        for (int i = 0; i < wordCount; i++) {
+            results.add(new ArrayList<>());
+        }
+        return results;
+    }
+
+    /**
+     * Reads words with context from the buffer, to the results of the words they
+     * were found by. Rewinds the buffer.
+     *
+     * @param buffer  Buffer filled by native code, in native byte-order.
+     * @param str     Room for the longest word with context.
+     * @param results Results of each queried word.
+     */
+    public static void readResults(@NotNull ByteBuffer buffer, byte @NotNull [] str,
+                                   @NotNull List<Collection<String>> results) {
+        while (true) {
+            int length = buffer.getInt();
+            if (length == WordIndex.TERM_BUFFER_MARK) {
+                break;
+            }
+            int ordinal = buffer.getInt();
+            buffer.get(str, 0, length);
+            results.get(ordinal).add(new String(str, 0, length, StandardCharsets.UTF_8));
+        }
+        buffer.rewind();
+    }
+}
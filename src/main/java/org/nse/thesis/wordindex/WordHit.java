@@ -0,0 +1,102 @@
+package org.nse.thesis.wordindex;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Occurrence of a word in the indexed file. Word and its context are views over
+ * the mapped file, so nothing is copied, and context is decoded to a string only
+ * when {@link #toString()} is called.
+ *
+ * @author Niklas Seppälä
+ */
+public final class WordHit {
+    private final ByteBuffer file;
+    private final long position;
+    private final int wordLength;
+    private final int ctx;
+    private String decoded;
+
+    /**
+     * @param file       Mapped file.
+     * @param position   File position of the word.
+     * @param wordLength Word length in bytes.
+     * @param ctx        Context bytes on both sides of the word.
+     */
+    private WordHit(@NotNull ByteBuffer file, long position, int wordLength, int ctx) {
+        this.file = file;
+        this.position = position;
+        this.wordLength = wordLength;
+        this.ctx = ctx;
+    }
+
+    /**
+     * Creates hits of the word at each position.
+     *
+     * @param file       Mapped file, that the positions point to.
+     * @param positions  File positions of the word.
+     * @param wordLength Word length in bytes.
+     * @param ctx        The amount of context bytes to surround the word.
+     * @return Hits in the order of the positions.
+     */
+    public static @NotNull List<WordHit> of(@NotNull ByteBuffer file, long @NotNull [] positions,
+                                            int wordLength, @NotNull WordIndex.ContextBytes ctx) {
+        List<WordHit> hits = new ArrayList<>(positions.length);
+        for (long position : positions) {
+            hits.add(new WordHit(file, position, wordLength, ctx.size()));
+        }
+        return hits;
+    }
+
+    /**
+     * @return File position of the word.
+     */
+    public long position() {
+        return this.position;
+    }
+
+    /**
+     * @return Bytes of the word, as it is in the file.
+     */
+    public @NotNull ByteBuffer word() {
+        return this.slice(this.position, this.position + this.wordLength);
+    }
+
+    /**
+     * Word with context, same bytes {@link WordIndex#getWords(String, WordIndex.ContextBytes)}
+     * would decode. Context is cut short at the beginning and the end of the file.
+     *
+     * @return Bytes of the word with context.
+     */
+    public @NotNull ByteBuffer context() {
+        return this.slice(Math.max(this.position - this.ctx, 0),
+                this.position + this.wordLength + this.ctx);
+    }
+
+    /**
+     * @return Word with context decoded, decoded only once.
+     */
+    @Override
+    public String toString() {
+        if (this.decoded == null) {
+            this.decoded = StandardCharsets.UTF_8.decode(this.context()).toString();
+        }
+        return this.decoded;
+    }
+
+    /**
+     * @param start Start of the slice, in file positions.
+     * @param end   End of the slice, exclusive.
+     * @return Slice of the mapped file, empty when positions are past the mapping.
+     */
+    private @NotNull ByteBuffer slice(long start, long end) {
+        final int limit = this.file.limit();
+        final int from = (int) Math.min(start, limit);
+        final int to = (int) Math.min(end, limit);
+        return this.file.slice(from, to - from);
+    }
+}
@@ -4,7 +4,11 @@ import org.jetbrains.annotations.NotNull;
 import org.nse.thesis.wordindex.analyzers.IndexAnalyzer;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Index that indexes words to their positions in the file.
@@ -30,6 +34,13 @@ public interface WordIndex extends AutoCloseable {
      */
     int MIN_INDEXING_BUFFER_SIZE = 4096;
 
+    /**
+     * Indexing buffer size, that makes native indexes map the indexed file
+     * to memory, instead of reading it through a buffer. File must not be
+     * truncated while such index is open.
+     */
+    int MAPPED_INDEXING = 0;
+
     /**
      * Index hash container is at least this big.
      */
@@ -45,6 +56,57 @@ public interface WordIndex extends AutoCloseable {
      */
     @NotNull Collection<String> getWords(@NotNull String word, @NotNull WordIndex.ContextBytes ctx);
 
+    /**
+     * Query the index for all occurrences of several words at once, with specified
+     * amount of context, on both sides of each word. Native indexes answer the whole
+     * batch with one call to native code.
+     *
+     * @param words Words to search for.
+     * @param ctx   The amount of context bytes to surround the words.
+     * @return Words with context of each queried word, in the order of the words.
+     * Word that was not found has an empty collection.
+     */
+    default @NotNull List<Collection<String>> getWordsBatch(@NotNull List<String> words,
+                                                            @NotNull WordIndex.ContextBytes ctx) {
+        List<Collection<String>> results = new ArrayList<>(words.size());
+        for (String word : words) {
+            results.add(getWords(word, ctx));
+        }
+        return results;
+    }
+
+    /**
+     * Query the index for file positions of all occurrences of the word. No context
+     * is read from the indexed file.
+     *
+     * @param word Word to search for.
+     * @return File positions of the word, in file order.
+     * @throws UnsupportedOperationException When index doesn't support positions-only
+     *                                       queries.
+     */
+    default long @NotNull [] getPositions(@NotNull String word) {
+        throw new UnsupportedOperationException(getClass().getSimpleName()
+                + " doesn't support positions-only queries");
+    }
+
+    /**
+     * Query the index for all occurrences of the word, as views over the mapped
+     * indexed file. Context bytes are neither copied nor decoded, until the hit is
+     * asked for them.
+     *
+     * @param word Word to search for.
+     * @param ctx  The amount of context bytes to surround the word.
+     * @return Hits of the word, in file order.
+     * @throws IOException                   When indexed file can't be mapped.
+     * @throws UnsupportedOperationException When index doesn't support hit views.
+     */
+    default @NotNull List<WordHit> getHits(@NotNull String word,
+                                           @NotNull WordIndex.ContextBytes ctx)
+            throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName()
+                + " doesn't support hit views");
+    }
+
     /**
      * Queries the index with word with context, results can be accessed through an
      * iterator.
@@ -59,6 +121,45 @@ public interface WordIndex extends AutoCloseable {
                                               @NotNull WordIndex.ContextBytes ctx)
             throws FileNotFoundException;
 
+    /**
+     * Saves the index to a snapshot file. Snapshot can be loaded instead of indexing
+     * the file again, as long as size and modification time of the indexed file
+     * stay the same.
+     *
+     * @param snapshot Path of the snapshot file.
+     * @throws IOException                   When snapshot can't be written.
+     * @throws UnsupportedOperationException When index doesn't support snapshots.
+     */
+    default void save(@NotNull Path snapshot) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName()
+                + " doesn't support snapshots");
+    }
+
+    /**
+     * Indexes bytes appended to the indexed file since the last indexing. Only the
+     * appended tail is tokenized, and a word that was cut off at the previous end
+     * of the file is indexed as a whole. File is expected to only grow, like a log
+     * file does.
+     *
+     * @return True if new bytes were indexed, false if file didn't grow.
+     * @throws IOException                   When indexed file can't be read.
+     * @throws UnsupportedOperationException When index doesn't support refreshing.
+     */
+    default boolean refresh() throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName()
+                + " doesn't support refreshing");
+    }
+
+    /**
+     * Estimates how much memory the index holds, not counting the indexed file
+     * or its mapping.
+     *
+     * @return Estimated memory usage in bytes, or -1 if index can't estimate it.
+     */
+    default long estimatedMemoryUsage() {
+        return -1;
+    }
+
     /**
      * Context used in {@link WordIndex} queries, to specify the amount of leading
      * and trailing bytes surrounding the queried word.
@@ -111,4 +212,23 @@ public interface WordIndex extends AutoCloseable {
          */
         WordIndex indexFrom(String path, IndexAnalyzer analyzer) throws FileNotFoundException;
     }
+
+    /**
+     * Loads {@link WordIndex} implementation from a snapshot.
+     */
+    @FunctionalInterface
+    interface SnapshotLoader {
+        /**
+         * Loads index of specified file from a snapshot.
+         *
+         * @param path Path to the indexed file.
+         * @param analyzer Analyzer the snapshot was indexed with.
+         * @param snapshot Path to the snapshot, written by {@link #save(Path)}.
+         * @return Word index for specified file.
+         *
+         * @throws IOException When snapshot can't be read, or it doesn't match
+         *                     the current state of the file.
+         */
+        WordIndex loadFrom(String path, IndexAnalyzer analyzer, Path snapshot) throws IOException;
+    }
 }
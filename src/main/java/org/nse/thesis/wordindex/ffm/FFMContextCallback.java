@@ -0,0 +1,106 @@
+package org.nse.thesis.wordindex.ffm;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.foreign.MemoryAddress;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.function.Consumer;
+
+/**
+ * Target of the upcall stub, that native library calls once for each word with
+ * context of a callback query. Upcall stub is created once, when the library is
+ * loaded, so the consumer of the running query is looked up from the calling
+ * thread. Native library calls back on the thread that made the query.
+ *
+ * @author Niklas Seppälä
+ */
+final class FFMContextCallback {
+    private static final ThreadLocal<FFMContextCallback> CURRENT = new ThreadLocal<>();
+
+    private final Consumer<MemorySegment> consumer;
+    private Throwable failure;
+
+    private FFMContextCallback(@NotNull Consumer<MemorySegment> consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * @return Handle to {@link #accept(MemoryAddress, long, MemoryAddress)}, that
+     * upcall stub is created for.
+     */
+    static @NotNull MethodHandle target() {
+        try {
+            return MethodHandles.lookup().findStatic(FFMContextCallback.class, "accept",
+                    MethodType.methodType(boolean.class, MemoryAddress.class, long.class,
+                            MemoryAddress.class));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            throw new RuntimeException("Failed to find context callback", e);
+        }
+    }
+
+    /**
+     * Queries the index, and passes each word with context to the consumer, as
+     * read-only segment. Segments are valid only until the consumer returns, after
+     * that, accessing them throws {@link IllegalStateException}. Native library
+     * reuses the memory for the next word, when file is not mapped.
+     *
+     * @param handle   Native WordIndex handle.
+     * @param word     Native memory, that holds the word.
+     * @param wordLen  Length of the word in bytes.
+     * @param ctx      Context bytes on both sides of the word.
+     * @param consumer Consumer of the words with context.
+     * @return Number of words passed to the consumer.
+     * @throws Throwable When query fails, or consumer throws.
+     */
+    static long query(@NotNull MemoryAddress handle, @NotNull MemorySegment word, int wordLen,
+                      int ctx, @NotNull Consumer<MemorySegment> consumer) throws Throwable {
+        final FFMNativeHandles handles = FFMNativeHandles.get();
+        // Consumer may query again on the same thread, so the outer query is restored.
+        final FFMContextCallback outer = CURRENT.get();
+        try {
+            final FFMContextCallback callback = new FFMContextCallback(consumer);
+            CURRENT.set(callback);
+            final long called = (long) handles.queryCallback().invoke(handle, word,
+                    (long) wordLen, (long) ctx, handles.contextCallback(), MemoryAddress.NULL);
+            if (callback.failure != null) {
+                throw callback.failure;
+            }
+            return called;
+        } finally {
+            if (outer == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(outer);
+            }
+        }
+    }
+
+    /**
+     * Called by native library for each word with context.
+     *
+     * @param context Word with context.
+     * @param length  Length of the word with context.
+     * @param data    Unused query data.
+     * @return True to continue the query, false to stop it.
+     */
+    private static boolean accept(MemoryAddress context, long length, MemoryAddress data) {
+        final FFMContextCallback callback = CURRENT.get();
+        // Each word gets its own session, that is closed when the consumer returns,
+        // so segment kept by the consumer can't see the next word written over it.
+        try (MemorySession session = MemorySession.openConfined()) {
+            // Context may point to the read-only mapping of the file.
+            callback.consumer.accept(
+                    MemorySegment.ofAddress(context, length, session).asReadOnly());
+            return true;
+        } catch (Throwable e) {
+            // Exception can't be thrown through native frames, so query is stopped,
+            // and the exception is thrown after it.
+            callback.failure = e;
+            return false;
+        }
+    }
+}
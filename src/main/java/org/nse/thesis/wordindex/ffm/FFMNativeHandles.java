@@ -22,14 +22,33 @@ import java.nio.file.Path;
  * @param closeIndex    Close index function-handle
  * @param closeIterator Close iterator function-handle
  * @param query         query function-handle
+ * @param loadIndex     Load index from snapshot function-handle
+ * @param saveIndex     Save index to snapshot function-handle
+ * @param refreshIndex  Refresh index function-handle
+ * @param queryBatch    Batch query function-handle
+ * @param closeBatchIterator Close batch iterator function-handle
+ * @param readPositions Read positions function-handle
+ * @param queryCallback Callback query function-handle
+ * @param contextCallback Upcall stub, that callback query calls for each word
  * @author Niklas Seppälä
  */
 public record FFMNativeHandles(MethodHandle openIndex, MethodHandle closeIndex,
-                               MethodHandle closeIterator, MethodHandle query) {
+                               MethodHandle closeIterator, MethodHandle query,
+                               MethodHandle loadIndex, MethodHandle saveIndex,
+                               MethodHandle refreshIndex, MethodHandle queryBatch,
+                               MethodHandle closeBatchIterator, MethodHandle readPositions,
+                               MethodHandle queryCallback, MemorySegment contextCallback) {
     public static final String NATIVE_FUNCTION_OPEN_NAME = "file_word_index_open";
+    public static final String NATIVE_FUNCTION_LOAD_NAME = "file_word_index_load";
+    public static final String NATIVE_FUNCTION_SAVE_NAME = "file_word_index_save";
+    public static final String NATIVE_FUNCTION_REFRESH_NAME = "file_word_index_refresh";
     public static final String NATIVE_FUNCTION_CLOSE_NAME = "file_word_index_close";
     public static final String NATIVE_FUNCTION_CONTEXT_QUERY_NAME = "file_word_index_read_with_context_buffered";
     public static final String NATIVE_FUNCTION_ITERATOR_CLOSE = "file_word_index_close_iterator";
+    public static final String NATIVE_FUNCTION_BATCH_QUERY_NAME = "file_word_index_read_batch_with_context_buffered";
+    public static final String NATIVE_FUNCTION_BATCH_ITERATOR_CLOSE = "file_word_index_close_batch_iterator";
+    public static final String NATIVE_FUNCTION_POSITIONS_NAME = "file_word_index_read_positions";
+    public static final String NATIVE_FUNCTION_CALLBACK_QUERY_NAME = "file_word_index_read_with_context_callback";
 
     private volatile static FFMNativeHandles INSTANCE;
 
@@ -73,8 +92,18 @@ public record FFMNativeHandles(MethodHandle openIndex, MethodHandle closeIndex,
                     MethodHandle closeIndex = getCloseIndexMethodHandle(linker, lookup);
                     MethodHandle closeIterator = getCloseIteratorMethodHandle(linker, lookup);
                     MethodHandle query = getQueryMethodHandle(linker, lookup);
+                    MethodHandle loadIndex = getLoadIndexMethodHandle(linker, lookup);
+                    MethodHandle saveIndex = getSaveIndexMethodHandle(linker, lookup);
+                    MethodHandle refreshIndex = getRefreshIndexMethodHandle(linker, lookup);
+                    MethodHandle queryBatch = getQueryBatchMethodHandle(linker, lookup);
+                    MethodHandle closeBatchIterator = getCloseBatchIteratorMethodHandle(linker, lookup);
+                    MethodHandle readPositions = getReadPositionsMethodHandle(linker, lookup);
+                    MethodHandle queryCallback = getQueryCallbackMethodHandle(linker, lookup);
+                    MemorySegment contextCallback = getContextCallbackStub(linker);
 
-                    INSTANCE = new FFMNativeHandles(openIndex, closeIndex, closeIterator, query);
+                    INSTANCE = new FFMNativeHandles(openIndex, closeIndex, closeIterator, query,
+                            loadIndex, saveIndex, refreshIndex, queryBatch, closeBatchIterator,
+                            readPositions, queryCallback, contextCallback);
                 }
             }
         }
@@ -95,6 +124,75 @@ public record FFMNativeHandles(MethodHandle openIndex, MethodHandle closeIndex,
         );
     }
 
+    /**
+     * @param linker Linker used in getting a handle to function
+     * @param lookup Lookup
+     * @return Handle to the batch query function,
+     */
+    private static MethodHandle getQueryBatchMethodHandle(Linker linker, SymbolLookup lookup) {
+        MemorySegment readAddress = lookup.lookup(NATIVE_FUNCTION_BATCH_QUERY_NAME).orElseThrow();
+        return linker.downcallHandle(
+                readAddress, FunctionDescriptor.of(ValueLayout.ADDRESS,
+                        ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG,
+                        ValueLayout.ADDRESS, ValueLayout.JAVA_LONG,
+                        ValueLayout.JAVA_LONG, ValueLayout.ADDRESS)
+        );
+    }
+
+    /**
+     * @param linker Linker used in getting a handle to the function
+     * @param lookup Lookup
+     * @return Handle to the read_positions function
+     */
+    private static MethodHandle getReadPositionsMethodHandle(Linker linker, SymbolLookup lookup) {
+        MemorySegment positionsAddress = lookup.lookup(NATIVE_FUNCTION_POSITIONS_NAME).orElseThrow();
+        return linker.downcallHandle(
+                positionsAddress, FunctionDescriptor.of(ValueLayout.JAVA_LONG,
+                        ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG,
+                        ValueLayout.JAVA_LONG, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG)
+        );
+    }
+
+    /**
+     * @param linker Linker used in getting a handle to the function
+     * @param lookup Lookup
+     * @return Handle to the read_with_context_callback function
+     */
+    private static MethodHandle getQueryCallbackMethodHandle(Linker linker, SymbolLookup lookup) {
+        MemorySegment callbackAddress = lookup.lookup(NATIVE_FUNCTION_CALLBACK_QUERY_NAME).orElseThrow();
+        return linker.downcallHandle(
+                callbackAddress, FunctionDescriptor.of(ValueLayout.JAVA_LONG,
+                        ValueLayout.ADDRESS, ValueLayout.ADDRESS, ValueLayout.JAVA_LONG,
+                        ValueLayout.JAVA_LONG, ValueLayout.ADDRESS, ValueLayout.ADDRESS)
+        );
+    }
+
+    /**
+     * Upcall stub lives as long as the library, so it's created once, in the
+     * global session.
+     *
+     * @param linker Linker used in creating the upcall stub
+     * @return Upcall stub of the word_context_callback
+     */
+    private static MemorySegment getContextCallbackStub(Linker linker) {
+        return linker.upcallStub(FFMContextCallback.target(),
+                FunctionDescriptor.of(ValueLayout.JAVA_BOOLEAN,
+                        ValueLayout.ADDRESS, ValueLayout.JAVA_LONG, ValueLayout.ADDRESS),
+                MemorySession.global());
+    }
+
+    /**
+     * @param linker Linker used in getting a handle to the function
+     * @param lookup Lookup
+     * @return Handle to the close_batch_iterator function
+     */
+    private static MethodHandle getCloseBatchIteratorMethodHandle(Linker linker, SymbolLookup lookup) {
+        MemorySegment closeIteratorAddress = lookup.lookup(NATIVE_FUNCTION_BATCH_ITERATOR_CLOSE).orElseThrow();
+        return linker.downcallHandle(
+                closeIteratorAddress, FunctionDescriptor.ofVoid(ValueLayout.ADDRESS)
+        );
+    }
+
     /**
      * @param linker Linker used in getting a handle to the function
      * @param lookup Lookup
@@ -134,7 +232,56 @@ public record FFMNativeHandles(MethodHandle openIndex, MethodHandle closeIndex,
                         ValueLayout.JAVA_INT,
                         ValueLayout.JAVA_LONG,
                         ValueLayout.JAVA_LONG,
+                        ValueLayout.JAVA_LONG,
                         ValueLayout.JAVA_BOOLEAN)
         );
     }
+
+    /**
+     * @param linker Linker used in getting a handle to the function.
+     * @param lookup Lookup
+     * @return Handle to the load_index function.
+     */
+    private static MethodHandle getLoadIndexMethodHandle(Linker linker, SymbolLookup lookup) {
+        MemorySegment loadAddress = lookup.lookup(NATIVE_FUNCTION_LOAD_NAME).orElseThrow();
+        return linker.downcallHandle(
+                loadAddress,
+                FunctionDescriptor.of(
+                        ValueLayout.ADDRESS,
+                        ValueLayout.ADDRESS,
+                        ValueLayout.ADDRESS,
+                        ValueLayout.JAVA_INT)
+        );
+    }
+
+    /**
+     * @param linker Linker used in getting a handle to the function.
+     * @param lookup Lookup
+     * @return Handle to the save_index function.
+     */
+    private static MethodHandle getSaveIndexMethodHandle(Linker linker, SymbolLookup lookup) {
+        MemorySegment saveAddress = lookup.lookup(NATIVE_FUNCTION_SAVE_NAME).orElseThrow();
+        return linker.downcallHandle(
+                saveAddress,
+                FunctionDescriptor.of(
+                        ValueLayout.JAVA_BOOLEAN,
+                        ValueLayout.ADDRESS,
+                        ValueLayout.ADDRESS)
+        );
+    }
+
+    /**
+     * @param linker Linker used in getting a handle to the function.
+     * @param lookup Lookup
+     * @return Handle to the refresh_index function.
+     */
+    private static MethodHandle getRefreshIndexMethodHandle(Linker linker, SymbolLookup lookup) {
+        MemorySegment refreshAddress = lookup.lookup(NATIVE_FUNCTION_REFRESH_NAME).orElseThrow();
+        return linker.downcallHandle(
+                refreshAddress,
+                FunctionDescriptor.of(
+                        ValueLayout.JAVA_LONG,
+                        ValueLayout.ADDRESS)
+        );
+    }
 }
@@ -0,0 +1,132 @@
+package org.nse.thesis.wordindex.ffm;
+
+import org.jetbrains.annotations.NotNull;
+import org.nse.thesis.wordindex.BufferPool;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.MemorySession;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Native buffers of one {@link FFMWordIndex} query, that are reused through a
+ * {@link BufferPool}. Each segment has an implicit session of its own, so a segment
+ * that is replaced by a bigger one gets freed on its own, and so do buffers that
+ * don't fit back to the pool.
+ *
+ * @author Niklas Seppälä
+ */
+final class FFMQueryBuffers {
+    private MemorySegment read;
+    private ByteBuffer readView;
+    private MemorySegment word;
+    private byte[] str;
+
+    /**
+     * @param queryBufferSize Initial size of the read buffer.
+     */
+    FFMQueryBuffers(int queryBufferSize) {
+        this.read = allocate(queryBufferSize);
+        this.readView = view(this.read);
+        this.word = allocate(Long.BYTES << 3);
+        this.str = new byte[0];
+    }
+
+    /**
+     * Get the read buffer, that has at least the size asked for.
+     *
+     * @param minSize Minimum size of the buffer.
+     * @return Read buffer.
+     */
+    @NotNull MemorySegment read(long minSize) {
+        if (this.read.byteSize() < minSize) {
+            this.read = allocate(minSize);
+            this.readView = view(this.read);
+        }
+        return this.read;
+    }
+
+    /**
+     * @return View of the read buffer in native byte-order, rewound to the start.
+     */
+    @NotNull ByteBuffer readView() {
+        return this.readView.clear();
+    }
+
+    /**
+     * Get the word buffer, that has at least the size asked for.
+     *
+     * @param minSize Minimum size of the buffer.
+     * @return Word buffer.
+     */
+    @NotNull MemorySegment word(long minSize) {
+        if (this.word.byteSize() < minSize) {
+            this.word = allocate(Math.max(minSize, this.word.byteSize() << 1));
+        }
+        return this.word;
+    }
+
+    /**
+     * Encodes the word as UTF-8 into the word buffer. ASCII words are written
+     * directly, without encoding them on heap first.
+     *
+     * @param word Word to encode.
+     * @return Length of the encoded word in bytes.
+     */
+    int encodeWord(@NotNull String word) {
+        final int length = word.length();
+        final MemorySegment segment = this.word(length);
+        for (int i = 0; i < length; i++) {
+            final char c = word.charAt(i);
+            if (c >= 0x80) {
+                return this.copyWord(word.getBytes(StandardCharsets.UTF_8));
+            }
+            segment.set(ValueLayout.JAVA_BYTE, i, (byte) c);
+        }
+        return length;
+    }
+
+    /**
+     * Copies bytes into the word buffer.
+     *
+     * @param bytes Bytes to copy.
+     * @return Number of bytes copied.
+     */
+    int copyWord(byte @NotNull [] bytes) {
+        MemorySegment.copy(bytes, 0, this.word(bytes.length), ValueLayout.JAVA_BYTE, 0,
+                bytes.length);
+        return bytes.length;
+    }
+
+    /**
+     * Get heap array strings are decoded from, that has room for the longest
+     * string of the query.
+     *
+     * @param minLength Minimum length of the array.
+     * @return Array for string bytes.
+     */
+    byte @NotNull [] str(int minLength) {
+        if (this.str.length < minLength) {
+            this.str = new byte[minLength];
+        }
+        return this.str;
+    }
+
+    /**
+     * @param size Size of the segment.
+     * @return Native segment, freed when it's not reachable anymore.
+     */
+    private static @NotNull MemorySegment allocate(long size) {
+        return MemorySegment.allocateNative(size, MemorySession.openImplicit());
+    }
+
+    /**
+     * @param segment Segment to view.
+     * @return View of the segment in native byte-order.
+     */
+    private static @NotNull ByteBuffer view(@NotNull MemorySegment segment) {
+        return segment.asByteBuffer().order(ByteOrder.nativeOrder());
+    }
+}
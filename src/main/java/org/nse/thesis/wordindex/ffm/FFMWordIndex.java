@@ -1,11 +1,16 @@
 package org.nse.thesis.wordindex.ffm;
 
 import org.jetbrains.annotations.NotNull;
+import org.nse.thesis.wordindex.BufferPool;
+import org.nse.thesis.wordindex.NativeBatch;
 import org.nse.thesis.wordindex.WordContextIterator;
+import org.nse.thesis.wordindex.WordHit;
 import org.nse.thesis.wordindex.WordIndex;
 import org.nse.thesis.wordindex.analyzers.IndexAnalyzer;
+import org.nse.thesis.wordindex.pojo.MappedFile;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.lang.foreign.MemoryAddress;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.MemorySession;
@@ -17,8 +22,10 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Spliterator;
 import java.util.Spliterators;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -32,6 +39,8 @@ public class FFMWordIndex implements WordIndex {
     private final MemoryAddress handle;
     private final String filepath;
     private final int queryBufferSize;
+    private final BufferPool<FFMQueryBuffers> buffers;
+    private final MappedFile.Lazy hitsFile;
 
     /**
      * Create Java object that acts as a proxy for native WordIndex.
@@ -41,7 +50,8 @@ public class FFMWordIndex implements WordIndex {
      * @param path                 Path to text file to be indexed.
      * @param analyzer             Analyzer used in tokenizing words from text.
      * @param wordCapacityEstimate Estimate how many unique words file might contain.
-     * @param indexingBufferSize   Suggested size of buffer that's used when indexing the file.
+     * @param indexingBufferSize   Suggested size of buffer that's used when indexing the file,
+     *                             or {@link #MAPPED_INDEXING} to map the file to memory.
      * @param queryBufferSize      Suggested size of buffer that's used when querying
      *                             this index.
      * @param shouldCompact        Should index be compacted after indexing is done.
@@ -53,18 +63,49 @@ public class FFMWordIndex implements WordIndex {
                         long wordCapacityEstimate,
                         long indexingBufferSize, int queryBufferSize,
                         final boolean shouldCompact) throws FileNotFoundException {
+        this(path, analyzer, wordCapacityEstimate, indexingBufferSize, 1, queryBufferSize,
+                shouldCompact);
+    }
+
+    /**
+     * Create Java object that acts as a proxy for native WordIndex.
+     * It is crucial that this object is closed when no longer used,
+     * or Exception is thrown.
+     *
+     * @param path                 Path to text file to be indexed.
+     * @param analyzer             Analyzer used in tokenizing words from text.
+     * @param wordCapacityEstimate Estimate how many unique words file might contain.
+     * @param indexingBufferSize   Suggested size of buffer that's used when indexing the file,
+     *                             or {@link #MAPPED_INDEXING} to map the file to memory.
+     * @param indexingThreads      Maximum number of threads used in indexing the file.
+     *                             Large files are split to parts, that are indexed
+     *                             in parallel.
+     * @param queryBufferSize      Suggested size of buffer that's used when querying
+     *                             this index.
+     * @param shouldCompact        Should index be compacted after indexing is done.
+     *                             This will save memory on the long term, with initial
+     *                             time cost.
+     * @throws FileNotFoundException When file path is invalid.
+     */
+    public FFMWordIndex(@NotNull final String path, @NotNull IndexAnalyzer analyzer,
+                        long wordCapacityEstimate,
+                        long indexingBufferSize, int indexingThreads, int queryBufferSize,
+                        final boolean shouldCompact) throws FileNotFoundException {
 
         if (Files.notExists(Path.of(path))) {
             throw new FileNotFoundException(path);
         }
         this.filepath = path;
+        this.hitsFile = new MappedFile.Lazy(path);
         this.queryBufferSize = Math.max(queryBufferSize, MIN_QUERY_BUFFER_SIZE);
+        final int bufferSize = this.queryBufferSize;
+        this.buffers = new BufferPool<>(() -> new FFMQueryBuffers(bufferSize));
 
         if (wordCapacityEstimate < MIN_WORD_CAPACITY_ESTIMATE) {
             wordCapacityEstimate = MIN_WORD_CAPACITY_ESTIMATE;
         }
 
-        if (indexingBufferSize < MIN_INDEXING_BUFFER_SIZE) {
+        if (indexingBufferSize != MAPPED_INDEXING && indexingBufferSize < MIN_INDEXING_BUFFER_SIZE) {
             indexingBufferSize = MIN_INDEXING_BUFFER_SIZE;
         }
 
@@ -74,13 +115,51 @@ public class FFMWordIndex implements WordIndex {
                     nativeFilePath,
                     analyzer.asNative(),
                     wordCapacityEstimate,
-                    indexingBufferSize, shouldCompact);
+                    indexingBufferSize, (long) Math.max(indexingThreads, 1), shouldCompact);
         } catch (Throwable e) {
             throw new RuntimeException(e);
         }
     }
 
 
+    /**
+     * Loads native WordIndex from a snapshot, instead of indexing the file again.
+     * It is crucial that this object is closed when no longer used,
+     * or Exception is thrown.
+     *
+     * @param path            Path to indexed text file.
+     * @param analyzer        Analyzer the snapshot was indexed with.
+     * @param snapshot        Path to snapshot, written by {@link #save(Path)}.
+     * @param queryBufferSize Suggested size of buffer that's used when querying
+     *                        this index.
+     * @throws FileNotFoundException When file path is invalid.
+     * @throws IOException           When snapshot is invalid, or doesn't match the
+     *                               current state of the file.
+     */
+    public FFMWordIndex(@NotNull final String path, @NotNull IndexAnalyzer analyzer,
+                        @NotNull Path snapshot, int queryBufferSize) throws IOException {
+        if (Files.notExists(Path.of(path))) {
+            throw new FileNotFoundException(path);
+        }
+        this.filepath = path;
+        this.hitsFile = new MappedFile.Lazy(path);
+        this.queryBufferSize = Math.max(queryBufferSize, MIN_QUERY_BUFFER_SIZE);
+        final int bufferSize = this.queryBufferSize;
+        this.buffers = new BufferPool<>(() -> new FFMQueryBuffers(bufferSize));
+
+        try (MemorySession session = MemorySession.openConfined()) {
+            MemorySegment nativeSnapshotPath = session.allocateUtf8String(snapshot.toString());
+            MemorySegment nativeFilePath = session.allocateUtf8String(path);
+            handle = (MemoryAddress) FFMNativeHandles.get().loadIndex().invoke(
+                    nativeSnapshotPath, nativeFilePath, analyzer.asNative());
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+        if (handle.equals(MemoryAddress.NULL)) {
+            throw new IOException("Failed to load snapshot " + snapshot);
+        }
+    }
+
     /**
      * Query the index for all occurrences of words from indexed file, with specified
      * amount of context, on both sides of the word.
@@ -96,18 +175,17 @@ public class FFMWordIndex implements WordIndex {
     public @NotNull Collection<String> getWords(@NotNull String word, @NotNull ContextBytes ctx) {
         MemoryAddress nativeResultIteratorPointer = MemoryAddress.NULL;
 
-        int wordBytesLength = word.getBytes(StandardCharsets.UTF_8).length;
-        byte[] strBytes = new byte[(ctx.size() << 1) + wordBytesLength];
-
         Collection<String> results = new ArrayList<>();
-        try (MemorySession session = MemorySession.openConfined()) {
-
-            // Allocate native memory, tied to session, and scope.
-            MemorySegment nativeWord = session.allocateUtf8String(word);
-            MemorySegment readBuffer = session.allocateArray(ValueLayout.JAVA_BYTE,
-                    this.queryBufferSize);
-            ByteBuffer bb = readBuffer.asByteBuffer();
-            bb.order(ByteOrder.nativeOrder());
+        // Native memory is borrowed from the pool, instead of allocating it per query.
+        FFMQueryBuffers buffers = this.buffers.acquire();
+        try {
+            int wordBytesLength = buffers.encodeWord(word);
+            int maxStrLength = (ctx.size() << 1) + wordBytesLength;
+            byte[] strBytes = buffers.str(maxStrLength);
+            // Room for one entry: its length, the string, and the terminating mark.
+            MemorySegment readBuffer = buffers.read(maxStrLength + 2 * Integer.BYTES);
+            MemorySegment nativeWord = buffers.word(wordBytesLength);
+            ByteBuffer bb = buffers.readView();
 
             do {
                 nativeResultIteratorPointer = (MemoryAddress) FFMNativeHandles.get().query().invoke(
@@ -120,24 +198,233 @@ public class FFMWordIndex implements WordIndex {
                     if (offset == TERM_BUFFER_MARK) {
                         break;
                     }
-                    int length = 0;
-                    for (; length < offset; length++) {
-                        strBytes[length] = bb.get();
-                    }
-                    String s = new String(strBytes, 0, length, StandardCharsets.UTF_8);
-                    results.add(s);
+                    bb.get(strBytes, 0, offset);
+                    results.add(new String(strBytes, 0, offset, StandardCharsets.UTF_8));
                 }
                 bb.rewind();
             } while (!nativeResultIteratorPointer.equals(MemoryAddress.NULL));
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (!nativeResultIteratorPointer.equals(MemoryAddress.NULL)) {
+                // Query was abandoned on a failure, before native side freed the iterator.
+                try {
+                    FFMNativeHandles.get().closeIterator().invoke(nativeResultIteratorPointer);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+            this.buffers.release(buffers);
+        }
+        return results;
+    }
 
+    /**
+     * Query the index for all occurrences of the word, and pass each word with context
+     * to the consumer, as native library finds it. Native library calls back once per
+     * word, so no query buffer size has to be guessed, nor results collected.
+     * <p>
+     * Segments are read-only views, that are valid only until the consumer returns,
+     * accessing them later throws {@link IllegalStateException}. When the file is
+     * mapped, they point straight to the mapping.
+     * </p>
+     *
+     * @param word     Word to search for.
+     * @param ctx      The amount of context bytes to surround the word.
+     * @param consumer Consumer of the words with context.
+     * @return Number of words passed to the consumer.
+     */
+    public long forEachHit(@NotNull String word, @NotNull ContextBytes ctx,
+                           @NotNull Consumer<MemorySegment> consumer) {
+        FFMQueryBuffers buffers = this.buffers.acquire();
+        try {
+            return this.queryCallback(buffers, buffers.encodeWord(word), ctx, consumer);
+        } finally {
+            this.buffers.release(buffers);
+        }
+    }
+
+    /**
+     * Query the index for all occurrences of the word, and pass each word with context
+     * to the consumer, decoded to String, as native library finds it.
+     *
+     * @param word     Word to search for.
+     * @param ctx      The amount of context bytes to surround the word.
+     * @param consumer Consumer of the words with context.
+     * @return Number of words passed to the consumer.
+     * @see #forEachHit(String, ContextBytes, Consumer)
+     */
+    public long forEachWord(@NotNull String word, @NotNull ContextBytes ctx,
+                            @NotNull Consumer<String> consumer) {
+        FFMQueryBuffers buffers = this.buffers.acquire();
+        try {
+            int wordBytesLength = buffers.encodeWord(word);
+            // Hit is at most the word with context on both sides.
+            byte[] strBytes = buffers.str((ctx.size() << 1) + wordBytesLength);
+            return this.queryCallback(buffers, wordBytesLength, ctx, hit -> {
+                int length = (int) hit.byteSize();
+                MemorySegment.copy(hit, ValueLayout.JAVA_BYTE, 0, strBytes, 0, length);
+                consumer.accept(new String(strBytes, 0, length, StandardCharsets.UTF_8));
+            });
+        } finally {
+            this.buffers.release(buffers);
+        }
+    }
 
-            // Native memory gets freed.
+    /**
+     * Runs callback query, with the word encoded to the pooled buffers.
+     *
+     * @param buffers         Buffers of the query, holding the encoded word.
+     * @param wordBytesLength Length of the encoded word.
+     * @param ctx             The amount of context bytes to surround the word.
+     * @param consumer        Consumer of the words with context.
+     * @return Number of words passed to the consumer.
+     */
+    private long queryCallback(@NotNull FFMQueryBuffers buffers, int wordBytesLength,
+                               @NotNull ContextBytes ctx,
+                               @NotNull Consumer<MemorySegment> consumer) {
+        try {
+            return FFMContextCallback.query(this.handle, buffers.word(wordBytesLength),
+                    wordBytesLength, ctx.size(), consumer);
+        } catch (RuntimeException | Error e) {
+            // Consumer's exceptions are thrown as they are.
+            throw e;
         } catch (Throwable e) {
             throw new RuntimeException(e);
         }
+    }
+
+    /**
+     * Query the index for all occurrences of several words, with one native call per
+     * filled query buffer.
+     *
+     * @param words Words to search for.
+     * @param ctx   The amount of context bytes to surround the words.
+     * @return Words with context of each queried word, in the order of the words.
+     */
+    @Override
+    public @NotNull List<Collection<String>> getWordsBatch(@NotNull List<String> words,
+                                                           @NotNull ContextBytes ctx) {
+        MemoryAddress nativeBatchIteratorPointer = MemoryAddress.NULL;
+
+        byte[] encodedWords = NativeBatch.encodeWords(words);
+        int maxStrLength = NativeBatch.maxStringLength(encodedWords, ctx);
+
+        List<Collection<String>> results = NativeBatch.emptyResults(words.size());
+        FFMQueryBuffers buffers = this.buffers.acquire();
+        try {
+            int wordsSize = buffers.copyWord(encodedWords);
+            MemorySegment nativeWords = buffers.word(wordsSize);
+            byte[] strBytes = buffers.str(maxStrLength);
+            MemorySegment readBuffer = buffers.read(NativeBatch.minBufferSize(maxStrLength));
+            ByteBuffer bb = buffers.readView();
+
+            do {
+                nativeBatchIteratorPointer = (MemoryAddress) FFMNativeHandles.get().queryBatch().invoke(
+                        this.handle,
+                        readBuffer, readBuffer.byteSize(), nativeWords, wordsSize,
+                        ctx.size(),
+                        nativeBatchIteratorPointer);
+                NativeBatch.readResults(bb, strBytes, results);
+            } while (!nativeBatchIteratorPointer.equals(MemoryAddress.NULL));
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (!nativeBatchIteratorPointer.equals(MemoryAddress.NULL)) {
+                // Batch was abandoned on a failure, before native side freed it.
+                try {
+                    FFMNativeHandles.get().closeBatchIterator().invoke(nativeBatchIteratorPointer);
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+            this.buffers.release(buffers);
+        }
         return results;
     }
 
+    /**
+     * Query the index for file positions of all occurrences of the word.
+     *
+     * @param word Word to search for.
+     * @return File positions of the word, in file order.
+     */
+    @Override
+    public long @NotNull [] getPositions(@NotNull String word) {
+        FFMQueryBuffers buffers = this.buffers.acquire();
+        try {
+            int wordBytesLength = buffers.encodeWord(word);
+            MemorySegment nativeWord = buffers.word(wordBytesLength);
+            // Positions are read into the read buffer, and copied to heap from there.
+            MemorySegment positions = buffers.read(Long.BYTES);
+            long capacity = positions.byteSize() / Long.BYTES;
+            long total = (long) FFMNativeHandles.get().readPositions().invoke(this.handle,
+                    nativeWord, (long) wordBytesLength, 0L, positions, capacity);
+            if (total > capacity) {
+                positions = buffers.read(total * Long.BYTES);
+                FFMNativeHandles.get().readPositions().invoke(this.handle,
+                        nativeWord, (long) wordBytesLength, 0L, positions, total);
+            }
+            return positions.asSlice(0, total * Long.BYTES).toArray(ValueLayout.JAVA_LONG);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        } finally {
+            this.buffers.release(buffers);
+        }
+    }
+
+    /**
+     * Query the index for file positions of all occurrences of the word, into native
+     * memory. Positions are not copied to heap, and segment gets filled with a
+     * second call only if the word has more positions than fit the query buffer.
+     *
+     * @param word    Word to search for.
+     * @param session Session the positions are allocated from.
+     * @return Segment of positions as longs, in file order.
+     */
+    public @NotNull MemorySegment getPositions(@NotNull String word,
+                                               @NotNull MemorySession session) {
+        int wordBytesLength = word.getBytes(StandardCharsets.UTF_8).length;
+        long capacity = Math.max(this.queryBufferSize / Long.BYTES, 1);
+        try {
+            MemorySegment nativeWord = session.allocateUtf8String(word);
+            MemorySegment positions = session.allocateArray(ValueLayout.JAVA_LONG, capacity);
+            long total = (long) FFMNativeHandles.get().readPositions().invoke(this.handle,
+                    nativeWord, (long) wordBytesLength, 0L, positions, capacity);
+            if (total <= capacity) {
+                return positions.asSlice(0, total * Long.BYTES);
+            }
+            MemorySegment all = session.allocateArray(ValueLayout.JAVA_LONG, total);
+            all.copyFrom(positions);
+            FFMNativeHandles.get().readPositions().invoke(this.handle,
+                    nativeWord, (long) wordBytesLength, capacity,
+                    all.asSlice(capacity * Long.BYTES), total - capacity);
+            return all;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Query the index for all occurrences of the word, as views over the mapped
+     * file. File is mapped on the first call.
+     *
+     * @param word Word to search for.
+     * @param ctx  The amount of context bytes to surround the word.
+     * @return Hits of the word, in file order.
+     * @throws IOException When file can't be mapped.
+     */
+    @Override
+    public @NotNull List<WordHit> getHits(@NotNull String word, @NotNull ContextBytes ctx)
+            throws IOException {
+        long[] positions = this.getPositions(word);
+        if (positions.length == 0) {
+            return List.of();
+        }
+        return WordHit.of(this.hitsFile.get().buffer(), positions,
+                word.getBytes(StandardCharsets.UTF_8).length, ctx);
+    }
+
     /**
      * Queries the index with word with context, results can be accessed trough lazy
      * iterator.
@@ -152,12 +439,57 @@ public class FFMWordIndex implements WordIndex {
         if (Files.notExists(Path.of(this.filepath))) {
             throw new FileNotFoundException(filepath);
         }
-        return new NativeWordContextIterator(this.handle, word, ctx,
-                this.queryBufferSize);
+        return new NativeWordContextIterator(this.handle, word, ctx, this.buffers);
+    }
+
+    /**
+     * Saves the native index to a snapshot file.
+     *
+     * @param snapshot Path of the snapshot file.
+     * @throws IOException When snapshot can't be written.
+     */
+    @Override
+    public void save(@NotNull Path snapshot) throws IOException {
+        final boolean saved;
+        try (MemorySession session = MemorySession.openConfined()) {
+            MemorySegment nativeSnapshotPath = session.allocateUtf8String(snapshot.toString());
+            saved = (boolean) FFMNativeHandles.get().saveIndex().invoke(handle,
+                    nativeSnapshotPath);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+        if (!saved) {
+            throw new IOException("Failed to save snapshot " + snapshot);
+        }
+    }
+
+    /**
+     * Indexes bytes appended to the indexed file since the last indexing. Waits
+     * until running queries are done, and open iterators are read to the end or
+     * closed, so a thread must not refresh the index while it holds an iterator
+     * of it.
+     *
+     * @return True if new bytes were indexed, false if file didn't grow.
+     * @throws IOException When file can't be read, got shorter, or index was loaded
+     *                     from a snapshot.
+     */
+    @Override
+    public boolean refresh() throws IOException {
+        final long indexed;
+        try {
+            indexed = (long) FFMNativeHandles.get().refreshIndex().invoke(handle);
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+        if (indexed < 0) {
+            throw new IOException("Failed to refresh index of " + this.filepath);
+        }
+        return indexed > 0;
     }
 
     @Override
     public void close() {
+        this.hitsFile.close();
         try {
             FFMNativeHandles.get().closeIndex().invoke(handle);
         } catch (Throwable e) {
@@ -172,7 +504,8 @@ public class FFMWordIndex implements WordIndex {
     private static class NativeWordContextIterator implements WordContextIterator {
         private final byte[] str;
 
-        private final MemorySession session;
+        private final BufferPool<FFMQueryBuffers> pool;
+        private FFMQueryBuffers buffers;
         private final MemorySegment underlyingBuffer;
         private final ByteBuffer buffer;
         private final MemorySegment wordSegment;
@@ -183,36 +516,41 @@ public class FFMWordIndex implements WordIndex {
 
 
         private NativeWordContextIterator(MemoryAddress indexHandle, @NotNull String word,
-                                          @NotNull WordIndex.ContextBytes ctx, int queryBufferSize) {
+                                          @NotNull WordIndex.ContextBytes ctx,
+                                          @NotNull BufferPool<FFMQueryBuffers> pool) {
             if (indexHandle.equals(MemoryAddress.NULL)) {
                 throw new IllegalStateException("Index is closed");
             }
             this.ctx = ctx;
             this.indexHandle = indexHandle;
             this.iteratorHandle = MemoryAddress.NULL;
-            this.wordLen = word.getBytes(StandardCharsets.UTF_8).length;
-            this.str = new byte[(this.ctx.size() << 1) + wordLen];
-            this.session = MemorySession.openConfined();
-            this.underlyingBuffer = session.allocateArray(ValueLayout.JAVA_BYTE,
-                    queryBufferSize);
-            this.wordSegment = session.allocateUtf8String(word);
-            this.buffer = underlyingBuffer.asByteBuffer();
-            this.buffer.order(ByteOrder.nativeOrder());
-
+            // Buffers are held until the iterator is closed.
+            this.pool = pool;
+            this.buffers = pool.acquire();
             try {
+                this.wordLen = buffers.encodeWord(word);
+                this.str = buffers.str((this.ctx.size() << 1) + wordLen);
+                this.underlyingBuffer = buffers.read((this.ctx.size() << 1) + wordLen
+                        + 2 * Integer.BYTES);
+                this.wordSegment = buffers.word(wordLen);
+                this.buffer = buffers.readView();
                 this.readIntoBuffer();
+            } catch (RuntimeException | Error e) {
+                // Iterator is never returned, so caller can't close it.
+                this.close();
+                throw e;
             } catch (Throwable t) {
+                this.close();
                 throw new RuntimeException(t);
             }
         }
 
         /**
-         * Closes this iterator, releasing native resources.
+         * Closes this iterator, releasing native resources, and giving buffers back
+         * to the pool.
          */
         @Override
         public void close() {
-            // Free read buffer memory
-            this.session.close();
             // If native method returned NULL_PTR, it already freed
             // existing iterator, or it never existed.
             if (!this.iteratorHandle.equals(MemoryAddress.NULL)) {
@@ -221,6 +559,11 @@ public class FFMWordIndex implements WordIndex {
                 } catch (Throwable e) {
                     throw new RuntimeException(e);
                 }
+                this.iteratorHandle = MemoryAddress.NULL;
+            }
+            if (this.buffers != null) {
+                this.pool.release(this.buffers);
+                this.buffers = null;
             }
         }
 
@@ -269,7 +612,7 @@ public class FFMWordIndex implements WordIndex {
         private void readIntoBuffer() throws Throwable {
             this.iteratorHandle =
                     (MemoryAddress) FFMNativeHandles.get().query().invoke(this.indexHandle,
-                            this.underlyingBuffer, this.buffer.capacity(), wordSegment,
+                            this.underlyingBuffer, this.underlyingBuffer.byteSize(), wordSegment,
                             wordLen,
                             ctx.size(),
                             this.iteratorHandle);
@@ -0,0 +1,167 @@
+package org.nse.thesis.wordindex.jna;
+
+import com.sun.jna.Memory;
+import org.jetbrains.annotations.NotNull;
+import org.nse.thesis.wordindex.analyzers.IndexAnalyzer;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Index that indexes words to their positions in the file. File is indexed, and queried
+ * using native library, through JNA direct mapped {@link JNADirectWordIndexLibrary}.
+ * Words are passed to native side already encoded, in pooled native memory.
+ *
+ * @author Niklas Seppälä
+ */
+public class JNADirectWordIndex extends JNAWordIndexBase {
+
+    private final long nativeHandle;
+
+    /**
+     * Create Java object that acts as a proxy for native WordIndex.
+     * It is crucial that this object is closed when no longer used,
+     * or Exception is thrown.
+     *
+     * @param path                 Path to text file to be indexed.
+     * @param analyzer             Analyzer use in tokenizing words from text.
+     * @param wordCapacityEstimate Estimate how many unique words file might contain.
+     * @param indexingBufferSize   Suggested size of buffer that's used when indexing the file,
+     *                             or {@link #MAPPED_INDEXING} to map the file to memory.
+     * @param queryBufferSize      Suggested size of buffer that's used when querying
+     *                             this index.
+     * @param shouldCompact        Should index be compacted after indexing is done.
+     *                             This will save memory on the long term, with initial
+     *                             time cost.
+     * @throws FileNotFoundException When file path is invalid.
+     */
+    public JNADirectWordIndex(@NotNull final String path, @NotNull IndexAnalyzer analyzer,
+                              long wordCapacityEstimate,
+                              long indexingBufferSize, int queryBufferSize,
+                              final boolean shouldCompact) throws FileNotFoundException {
+        this(path, analyzer, wordCapacityEstimate, indexingBufferSize, 1, queryBufferSize,
+                shouldCompact);
+    }
+
+    /**
+     * Create Java object that acts as a proxy for native WordIndex.
+     * It is crucial that this object is closed when no longer used,
+     * or Exception is thrown.
+     *
+     * @param path                 Path to text file to be indexed.
+     * @param analyzer             Analyzer use in tokenizing words from text.
+     * @param wordCapacityEstimate Estimate how many unique words file might contain.
+     * @param indexingBufferSize   Suggested size of buffer that's used when indexing the file,
+     *                             or {@link #MAPPED_INDEXING} to map the file to memory.
+     * @param indexingThreads      Maximum number of threads used in indexing the file.
+     *                             Large files are split to parts, that are indexed
+     *                             in parallel.
+     * @param queryBufferSize      Suggested size of buffer that's used when querying
+     *                             this index.
+     * @param shouldCompact        Should index be compacted after indexing is done.
+     *                             This will save memory on the long term, with initial
+     *                             time cost.
+     * @throws FileNotFoundException When file path is invalid.
+     */
+    public JNADirectWordIndex(@NotNull final String path, @NotNull IndexAnalyzer analyzer,
+                              long wordCapacityEstimate,
+                              long indexingBufferSize, int indexingThreads,
+                              int queryBufferSize,
+                              final boolean shouldCompact) throws FileNotFoundException {
+        super(path, queryBufferSize);
+
+        if (wordCapacityEstimate < MIN_WORD_CAPACITY_ESTIMATE) {
+            wordCapacityEstimate = MIN_WORD_CAPACITY_ESTIMATE;
+        }
+
+        if (indexingBufferSize != MAPPED_INDEXING && indexingBufferSize < MIN_INDEXING_BUFFER_SIZE) {
+            indexingBufferSize = MIN_INDEXING_BUFFER_SIZE;
+        }
+
+        this.nativeHandle = JNADirectWordIndexLibrary.file_word_index_open(path,
+                analyzer.asNative(),
+                wordCapacityEstimate,
+                indexingBufferSize,
+                Math.max(indexingThreads, 1),
+                shouldCompact);
+    }
+
+    /**
+     * Loads native WordIndex from a snapshot, instead of indexing the file again.
+     * It is crucial that this object is closed when no longer used,
+     * or Exception is thrown.
+     *
+     * @param path            Path to indexed text file.
+     * @param analyzer        Analyzer the snapshot was indexed with.
+     * @param snapshot        Path to snapshot, written by {@link #save(Path)}.
+     * @param queryBufferSize Suggested size of buffer that's used when querying
+     *                        this index.
+     * @throws FileNotFoundException When file path is invalid.
+     * @throws IOException           When snapshot is invalid, or doesn't match the
+     *                               current state of the file.
+     */
+    public JNADirectWordIndex(@NotNull final String path, @NotNull IndexAnalyzer analyzer,
+                              @NotNull Path snapshot, int queryBufferSize)
+            throws IOException {
+        super(path, queryBufferSize);
+        this.nativeHandle = JNADirectWordIndexLibrary.file_word_index_load(
+                snapshot.toString(), path, analyzer.asNative());
+        if (this.nativeHandle == NULL_PTR) {
+            throw new IOException("Failed to load snapshot " + snapshot);
+        }
+    }
+
+    @Override
+    boolean isOpen() {
+        return this.nativeHandle != NULL_PTR;
+    }
+
+    @Override
+    long readWithContext(@NotNull Memory readBuffer, @NotNull Memory word, int wordLength,
+                         int context, long wordIterator) {
+        return JNADirectWordIndexLibrary.file_word_index_read_with_context_buffered(
+                this.nativeHandle, readBuffer, readBuffer.size(), word, wordLength, context,
+                wordIterator);
+    }
+
+    @Override
+    long readBatchWithContext(@NotNull Memory readBuffer, @NotNull Memory words,
+                              int wordsSize, int context, long batchIterator) {
+        return JNADirectWordIndexLibrary.file_word_index_read_batch_with_context_buffered(
+                this.nativeHandle, readBuffer, readBuffer.size(), words, wordsSize, context,
+                batchIterator);
+    }
+
+    @Override
+    long readPositions(@NotNull Memory word, int wordLength, long offset,
+                       @NotNull Memory positions, long capacity) {
+        return JNADirectWordIndexLibrary.file_word_index_read_positions(this.nativeHandle,
+                word, wordLength, offset, positions, capacity);
+    }
+
+    @Override
+    void closeIterator(long wordIterator) {
+        JNADirectWordIndexLibrary.file_word_index_close_iterator(wordIterator);
+    }
+
+    @Override
+    void closeBatchIterator(long batchIterator) {
+        JNADirectWordIndexLibrary.file_word_index_close_batch_iterator(batchIterator);
+    }
+
+    @Override
+    boolean saveIndex(@NotNull String snapshotPath) {
+        return JNADirectWordIndexLibrary.file_word_index_save(this.nativeHandle, snapshotPath) != 0;
+    }
+
+    @Override
+    long refreshIndex() {
+        return JNADirectWordIndexLibrary.file_word_index_refresh(this.nativeHandle);
+    }
+
+    @Override
+    void closeIndex() {
+        JNADirectWordIndexLibrary.file_word_index_close(this.nativeHandle);
+    }
+}
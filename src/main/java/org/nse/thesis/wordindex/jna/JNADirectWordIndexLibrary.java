@@ -0,0 +1,175 @@
+package org.nse.thesis.wordindex.jna;
+
+import com.sun.jna.Native;
+import com.sun.jna.Pointer;
+
+/**
+ * JNA direct mapped bindings to native word index shared library. Unlike
+ * {@link JNAWordIndexLibrary}, calls don't go through an interface proxy, but are
+ * bound straight to the native functions, so arguments are converted without
+ * reflection. Native WordIndex and iterator handles are passed as plain addresses,
+ * NULL being 0.
+ * <p>
+ * Call {@link JNADirectWordIndexLibrary#load(String)} before accessing
+ * any of the native library methods.
+ * </p>
+ *
+ * @author Niklas Seppälä
+ */
+public final class JNADirectWordIndexLibrary {
+    private static volatile boolean loaded = false;
+
+    private JNADirectWordIndexLibrary() {
+    }
+
+    /**
+     * Loads the native library, and binds the native methods of this class to it.
+     *
+     * @param libPath Path to shared native library.
+     */
+    public static void load(String libPath) {
+        if (!loaded) {
+            synchronized (JNADirectWordIndexLibrary.class) {
+                if (!loaded) {
+                    Native.register(JNADirectWordIndexLibrary.class, libPath);
+                    loaded = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a native word index for specified file.
+     * Remember to close it!
+     *
+     * @param filepath   Path to text file to be indexed.
+     * @param analyzer   Analyzer used in tokenizing words from text.
+     * @param capacity   Estimate how many unique words file might contain.
+     * @param bufferSize Suggested size of buffer that's used when indexing the file.
+     * @param threads    Maximum number of threads used in indexing the file.
+     * @param compact    Should index be compacted after indexing is done.
+     * @return Handle to native WordIndex
+     */
+    public static native long file_word_index_open(String filepath, int analyzer,
+                                                   long capacity, long bufferSize,
+                                                   long threads, boolean compact);
+
+    /**
+     * Loads a native word index from a snapshot, written by
+     * {@link #file_word_index_save(long, String)}. Remember to close it!
+     *
+     * @param snapshotPath Path to the snapshot.
+     * @param filepath     Path to the indexed text file.
+     * @param analyzer     Analyzer, that must be the one snapshot was indexed with.
+     * @return Handle to native WordIndex, or NULL (0) if snapshot is invalid or
+     * doesn't match the current state of the file.
+     */
+    public static native long file_word_index_load(String snapshotPath, String filepath,
+                                                   int analyzer);
+
+    /**
+     * Saves native word index to a snapshot file.
+     *
+     * @param handle       Handle to native WordIndex
+     * @param snapshotPath Path of the snapshot file.
+     * @return Non-zero if snapshot was written. C bool is a single byte, while JNA
+     * maps boolean to a 32-bit int, so it is returned as byte.
+     */
+    public static native byte file_word_index_save(long handle, String snapshotPath);
+
+    /**
+     * Indexes bytes appended to the indexed file since the last indexing.
+     *
+     * @param handle Handle to native WordIndex
+     * @return Number of new bytes indexed, or -1 if refreshing failed.
+     */
+    public static native long file_word_index_refresh(long handle);
+
+    /**
+     * Reads words with context from indexed file in buffered manner, with the
+     * buffer protocol of
+     * {@link JNAWordIndexLibrary#file_word_index_read_with_context_buffered(Pointer, Pointer, long, Pointer, long, long, Pointer)}.
+     *
+     * @param handle         Native WordIndex handle
+     * @param readBuffer     Native buffer to read result into
+     * @param readBufferSize Native buffer size
+     * @param word           UTF-8 bytes of the word to search for
+     * @param wordLength     Length of the word in bytes
+     * @param context        Context surrounding the word in indexed file
+     * @param wordIterator   Word file position iterator. Initially should be NULL (0),
+     *                       after that, it should be the return value of this method.
+     * @return Word file position iterator.
+     */
+    public static native long file_word_index_read_with_context_buffered(long handle,
+                                                                         Pointer readBuffer,
+                                                                         long readBufferSize,
+                                                                         Pointer word,
+                                                                         long wordLength,
+                                                                         long context,
+                                                                         long wordIterator);
+
+    /**
+     * Copies file positions of the word, without reading any context from the
+     * indexed file.
+     *
+     * @param handle     Native WordIndex handle
+     * @param word       UTF-8 bytes of the word to search for
+     * @param wordLength Length of the word in bytes
+     * @param offset     Index of the first position to copy
+     * @param positions  Native buffer to copy positions into
+     * @param capacity   Number of positions that fit into the buffer
+     * @return Total number of positions of the word, 0 if word was not found.
+     */
+    public static native long file_word_index_read_positions(long handle, Pointer word,
+                                                             long wordLength, long offset,
+                                                             Pointer positions,
+                                                             long capacity);
+
+    /**
+     * Reads words with context of several words from indexed file in buffered
+     * manner, with the buffer protocol of
+     * {@link JNAWordIndexLibrary#file_word_index_read_batch_with_context_buffered(Pointer, Pointer, long, Pointer, long, long, Pointer)}.
+     *
+     * @param handle         Native WordIndex handle
+     * @param readBuffer     Native buffer to read result into
+     * @param readBufferSize Native buffer size
+     * @param words          Native buffer of words to search for, each lead by 4 byte
+     *                       integer in native byte-order, specifying word byte length.
+     * @param wordsSize      Size of the words in bytes
+     * @param context        Context surrounding the words in indexed file
+     * @param batchIterator  Batch iterator. Initially should be NULL (0), after that,
+     *                       it should be the return value of this method.
+     * @return Batch iterator.
+     */
+    public static native long file_word_index_read_batch_with_context_buffered(long handle,
+                                                                               Pointer readBuffer,
+                                                                               long readBufferSize,
+                                                                               Pointer words,
+                                                                               long wordsSize,
+                                                                               long context,
+                                                                               long batchIterator);
+
+    /**
+     * Closes native batch iterator, releasing its resources. Must be called, IF the
+     * iterator was not exhausted.
+     *
+     * @param batchIterator Batch iterator.
+     */
+    public static native void file_word_index_close_batch_iterator(long batchIterator);
+
+    /**
+     * Closes native WordIndex, releasing all native resources.
+     *
+     * @param handle Handle to native WordIndex
+     */
+    public static native void file_word_index_close(long handle);
+
+    /**
+     * Closes native iterator, releasing its resources. Not closing it will cause a
+     * memory leak, IF the iterator was not exhausted. So if you give up on reading, when
+     * there's still results remaining, call this method!
+     *
+     * @param iterator WordIndex word file position iterator.
+     */
+    public static native void file_word_index_close_iterator(long iterator);
+}
@@ -0,0 +1,90 @@
+package org.nse.thesis.wordindex.jna;
+
+import com.sun.jna.Memory;
+import org.jetbrains.annotations.NotNull;
+import org.nse.thesis.wordindex.BufferPool;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Native buffers of one {@link JNAWordIndex} or {@link JNADirectWordIndex} query,
+ * that are reused through a {@link BufferPool}. Buffers grow on demand, and are
+ * never shrunk. Replaced {@link Memory}, and buffers that don't fit back to the
+ * pool, are freed when they get garbage collected.
+ *
+ * @author Niklas Seppälä
+ */
+final class JNAQueryBuffers {
+    private Memory read;
+    private ByteBuffer readView;
+    private Memory word;
+    private byte[] str;
+
+    /**
+     * @param queryBufferSize Initial size of the read buffer.
+     */
+    JNAQueryBuffers(int queryBufferSize) {
+        this.read = new Memory(queryBufferSize);
+        this.readView = view(this.read);
+        this.word = new Memory(Long.BYTES << 3);
+        this.str = new byte[0];
+    }
+
+    /**
+     * Get the read buffer, that has at least the size asked for.
+     *
+     * @param minSize Minimum size of the buffer.
+     * @return Read buffer.
+     */
+    @NotNull Memory read(long minSize) {
+        if (this.read.size() < minSize) {
+            this.read = new Memory(minSize);
+            this.readView = view(this.read);
+        }
+        return this.read;
+    }
+
+    /**
+     * @return View of the read buffer in native byte-order, rewound to the start.
+     */
+    @NotNull ByteBuffer readView() {
+        return this.readView.clear();
+    }
+
+    /**
+     * Copies bytes into the word buffer, that grows to fit them.
+     *
+     * @param bytes Bytes to copy.
+     * @return Word buffer.
+     */
+    @NotNull Memory word(byte @NotNull [] bytes) {
+        if (this.word.size() < bytes.length) {
+            this.word = new Memory(Math.max(bytes.length, this.word.size() << 1));
+        }
+        this.word.write(0, bytes, 0, bytes.length);
+        return this.word;
+    }
+
+    /**
+     * Get heap array strings are decoded from, that has room for the longest
+     * string of the query.
+     *
+     * @param minLength Minimum length of the array.
+     * @return Array for string bytes.
+     */
+    byte @NotNull [] str(int minLength) {
+        if (this.str.length < minLength) {
+            this.str = new byte[minLength];
+        }
+        return this.str;
+    }
+
+    /**
+     * @param memory Memory to view.
+     * @return View of the memory in native byte-order.
+     */
+    private static @NotNull ByteBuffer view(@NotNull Memory memory) {
+        return memory.getByteBuffer(0, memory.size()).order(ByteOrder.nativeOrder());
+    }
+}
@@ -1,24 +1,13 @@
 package org.nse.thesis.wordindex.jna;
 
-import com.sun.jna.Native;
+import com.sun.jna.Memory;
 import com.sun.jna.Pointer;
 import org.jetbrains.annotations.NotNull;
-import org.nse.thesis.wordindex.WordContextIterator;
-import org.nse.thesis.wordindex.WordIndex;
 import org.nse.thesis.wordindex.analyzers.IndexAnalyzer;
 
 import java.io.FileNotFoundException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
+import java.io.IOException;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Spliterator;
-import java.util.Spliterators;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
 /**
  * Index that indexes words to their positions in the file. File is indexed, and queried
@@ -26,11 +15,9 @@ import java.util.stream.StreamSupport;
  *
  * @author Niklas Seppälä
  */
-public class JNAWordIndex implements WordIndex {
+public class JNAWordIndex extends JNAWordIndexBase {
 
     private final Pointer nativeHandle;
-    private final String filepath;
-    private final int queryBufferSize;
 
     /**
      * Create Java object that acts as a proxy for native WordIndex.
@@ -40,7 +27,8 @@ public class JNAWordIndex implements WordIndex {
      * @param path                 Path to text file to be indexed.
      * @param analyzer             Analyzer use in tokenizing words from text.
      * @param wordCapacityEstimate Estimate how many unique words file might contain.
-     * @param indexingBufferSize   Suggested size of buffer that's used when indexing the file.
+     * @param indexingBufferSize   Suggested size of buffer that's used when indexing the file,
+     *                             or {@link #MAPPED_INDEXING} to map the file to memory.
      * @param queryBufferSize      Suggested size of buffer that's used when querying
      *                             this index.
      * @param shouldCompact        Should index be compacted after indexing is done.
@@ -52,207 +40,134 @@ public class JNAWordIndex implements WordIndex {
                         long wordCapacityEstimate,
                         long indexingBufferSize, int queryBufferSize,
                         final boolean shouldCompact) throws FileNotFoundException {
+        this(path, analyzer, wordCapacityEstimate, indexingBufferSize, 1, queryBufferSize,
+                shouldCompact);
+    }
 
-        if (Files.notExists(Path.of(path))) {
-            throw new FileNotFoundException(path);
-        }
-        this.filepath = path;
-        this.queryBufferSize = Math.max(queryBufferSize, MIN_QUERY_BUFFER_SIZE);
+    /**
+     * Create Java object that acts as a proxy for native WordIndex.
+     * It is crucial that this object is closed when no longer used,
+     * or Exception is thrown.
+     *
+     * @param path                 Path to text file to be indexed.
+     * @param analyzer             Analyzer use in tokenizing words from text.
+     * @param wordCapacityEstimate Estimate how many unique words file might contain.
+     * @param indexingBufferSize   Suggested size of buffer that's used when indexing the file,
+     *                             or {@link #MAPPED_INDEXING} to map the file to memory.
+     * @param indexingThreads      Maximum number of threads used in indexing the file.
+     *                             Large files are split to parts, that are indexed
+     *                             in parallel.
+     * @param queryBufferSize      Suggested size of buffer that's used when querying
+     *                             this index.
+     * @param shouldCompact        Should index be compacted after indexing is done.
+     *                             This will save memory on the long term, with initial
+     *                             time cost.
+     * @throws FileNotFoundException When file path is invalid.
+     */
+    public JNAWordIndex(@NotNull final String path, @NotNull IndexAnalyzer analyzer,
+                        long wordCapacityEstimate,
+                        long indexingBufferSize, int indexingThreads, int queryBufferSize,
+                        final boolean shouldCompact) throws FileNotFoundException {
+        super(path, queryBufferSize);
 
         if (wordCapacityEstimate < MIN_WORD_CAPACITY_ESTIMATE) {
             wordCapacityEstimate = MIN_WORD_CAPACITY_ESTIMATE;
         }
 
-        if (indexingBufferSize < MIN_INDEXING_BUFFER_SIZE) {
+        if (indexingBufferSize != MAPPED_INDEXING && indexingBufferSize < MIN_INDEXING_BUFFER_SIZE) {
             indexingBufferSize = MIN_INDEXING_BUFFER_SIZE;
         }
 
         this.nativeHandle = JNAWordIndexLibrary.Impl.get().file_word_index_open(path, analyzer.asNative(),
                 wordCapacityEstimate,
                 indexingBufferSize,
+                Math.max(indexingThreads, 1),
                 shouldCompact);
     }
 
     /**
-     * @param preferredSize Size asked for
-     * @param minSize       guarantee that buffer has ATLEAST this much room.
-     * @return Direct buffer with native byte-order.
+     * Loads native WordIndex from a snapshot, instead of indexing the file again.
+     * It is crucial that this object is closed when no longer used,
+     * or Exception is thrown.
+     *
+     * @param path            Path to indexed text file.
+     * @param analyzer        Analyzer the snapshot was indexed with.
+     * @param snapshot        Path to snapshot, written by {@link #save(Path)}.
+     * @param queryBufferSize Suggested size of buffer that's used when querying
+     *                        this index.
+     * @throws FileNotFoundException When file path is invalid.
+     * @throws IOException           When snapshot is invalid, or doesn't match the
+     *                               current state of the file.
      */
-    @NotNull
-    private static ByteBuffer getNativeBuffer(int preferredSize, int minSize) {
-        ByteBuffer readBuffer = ByteBuffer.allocateDirect(
-                Math.max(preferredSize, minSize));
-        readBuffer.order(ByteOrder.nativeOrder());
-        return readBuffer;
+    public JNAWordIndex(@NotNull final String path, @NotNull IndexAnalyzer analyzer,
+                        @NotNull Path snapshot, int queryBufferSize) throws IOException {
+        super(path, queryBufferSize);
+        this.nativeHandle = JNAWordIndexLibrary.Impl.get().file_word_index_load(snapshot.toString(),
+                path, analyzer.asNative());
+        if (this.nativeHandle == Pointer.NULL) {
+            throw new IOException("Failed to load snapshot " + snapshot);
+        }
     }
 
-    /**
-     * Query the index for all occurrences of words from indexed file, with specified
-     * amount of context, on both sides of the word.
-     * <pre>
-     *     [ctx word ctx]
-     * </pre>
-     *
-     * @param word Word to search for
-     * @param ctx  The amount of context bytes to surround the word.
-     * @return Collection of words with context.
-     */
     @Override
-    @NotNull
-    public Collection<String> getWords(@NotNull String word,
-                                       @NotNull WordIndex.ContextBytes ctx) {
-        Pointer nativeIterHandle = Pointer.NULL;
-
-        int wordBytesLength = word.getBytes(StandardCharsets.UTF_8).length;
-        int maxStrLength = (ctx.size() << 1) + wordBytesLength;
-        byte[] str = new byte[maxStrLength];
-        ByteBuffer readBuffer = getNativeBuffer(this.queryBufferSize,
-                maxStrLength + Integer.BYTES);
-
-        Collection<String> results = new ArrayList<>();
-        do {
-            nativeIterHandle = JNAWordIndexLibrary.Impl.get().file_word_index_read_with_context_buffered(
-                    this.nativeHandle,
-                    Native.getDirectBufferPointer(readBuffer), readBuffer.capacity(), word, wordBytesLength, ctx.size(),
-                    nativeIterHandle);
-            while (true) {
-                int offset = readBuffer.getInt();
-                if (offset == TERM_BUFFER_MARK) {
-                    break;
-                }
-                int length = 0;
-                for (; length < offset; length++) {
-                    str[length] = readBuffer.get();
-                }
-                String s = new String(str, 0, length, StandardCharsets.UTF_8);
-                results.add(s);
-            }
-            readBuffer.rewind();
-        } while (nativeIterHandle != Pointer.NULL);
-
-        return results;
+    boolean isOpen() {
+        return this.nativeHandle != Pointer.NULL;
     }
 
-    /**
-     * Queries the index with word with context, results can be accessed trough lazy
-     * iterator.
-     *
-     * @param word Word to search for
-     * @param ctx  The amount of context to surround the word.
-     * @return Lazy iterator for query results.
-     */
     @Override
-    @NotNull
-    public WordContextIterator iterateWords(@NotNull String word,
-                                            @NotNull WordIndex.ContextBytes ctx)
-            throws FileNotFoundException {
-        if (Files.notExists(Path.of(this.filepath))) {
-            throw new FileNotFoundException(filepath);
-        }
-        return new NativeWordContextIterator(this.nativeHandle, word, ctx,
-                this.queryBufferSize);
+    long readWithContext(@NotNull Memory readBuffer, @NotNull Memory word, int wordLength,
+                         int context, long wordIterator) {
+        return Pointer.nativeValue(JNAWordIndexLibrary.Impl.get().file_word_index_read_with_context_buffered(
+                this.nativeHandle, readBuffer, readBuffer.size(), word, wordLength, context,
+                pointer(wordIterator)));
     }
 
-    /**
-     * Closes the index, releases native resources.
-     */
     @Override
-    public void close() {
-        JNAWordIndexLibrary.Impl.get().file_word_index_close(this.nativeHandle);
+    long readBatchWithContext(@NotNull Memory readBuffer, @NotNull Memory words,
+                              int wordsSize, int context, long batchIterator) {
+        return Pointer.nativeValue(JNAWordIndexLibrary.Impl.get().file_word_index_read_batch_with_context_buffered(
+                this.nativeHandle, readBuffer, readBuffer.size(), words, wordsSize, context,
+                pointer(batchIterator)));
     }
 
-    /**
-     * Reads query results lazily from off-heap memory and instantiates
-     * String objects when required to do so.
-     */
-    private static class NativeWordContextIterator implements WordContextIterator {
-        private final byte[] str;
-        private final ByteBuffer buffer;
-        private final String word;
-        private final int wordLen;
-        private final ContextBytes ctx;
-        private final Pointer indexHandle;
-        private Pointer iteratorHandle;
-
-
-        private NativeWordContextIterator(Pointer indexHandle, @NotNull String word,
-                                          @NotNull WordIndex.ContextBytes ctx, int queryBufferSize) {
-            if (indexHandle == Pointer.NULL) {
-                throw new IllegalStateException("Index is closed");
-            }
-            this.word = word;
-            this.ctx = ctx;
-            this.indexHandle = indexHandle;
-            this.iteratorHandle = Pointer.NULL;
-            this.wordLen = word.getBytes(StandardCharsets.UTF_8).length;
-            this.str = new byte[(this.ctx.size() << 1) + wordLen];
-            this.buffer = getNativeBuffer(queryBufferSize, str.length + Integer.BYTES);
-            this.readIntoBuffer();
-        }
+    @Override
+    long readPositions(@NotNull Memory word, int wordLength, long offset,
+                       @NotNull Memory positions, long capacity) {
+        return JNAWordIndexLibrary.Impl.get().file_word_index_read_positions(this.nativeHandle,
+                word, wordLength, offset, positions, capacity);
+    }
 
-        /**
-         * Closes this iterator, releasing native resources.
-         */
-        @Override
-        public void close() {
-            // If native method returned NULL_PTR, it already freed
-            // existing iterator, or it never existed.
-            if (this.iteratorHandle != Pointer.NULL) {
-                JNAWordIndexLibrary.Impl.get().file_word_index_close_iterator(this.iteratorHandle);
-            }
-        }
+    @Override
+    void closeIterator(long wordIterator) {
+        JNAWordIndexLibrary.Impl.get().file_word_index_close_iterator(pointer(wordIterator));
+    }
 
-        @Override
-        public boolean hasNext() {
-            if (this.bufferHasNext()) {
-                return true;
-            } else {
-                if (this.iteratorHandle != Pointer.NULL) {
-                    readIntoBuffer();
-                    return this.bufferHasNext();
-                } else {
-                    return false;
-                }
-            }
-        }
+    @Override
+    void closeBatchIterator(long batchIterator) {
+        JNAWordIndexLibrary.Impl.get().file_word_index_close_batch_iterator(pointer(batchIterator));
+    }
 
-        @Override
-        public String next() {
-            final int offset = buffer.getInt();
-            int length = 0;
-            for (; length < offset; length++) {
-                this.str[length] = this.buffer.get();
-            }
-            return new String(this.str, 0, length, StandardCharsets.UTF_8);
-        }
+    @Override
+    boolean saveIndex(@NotNull String snapshotPath) {
+        return JNAWordIndexLibrary.Impl.get().file_word_index_save(this.nativeHandle,
+                snapshotPath) != 0;
+    }
 
-        /**
-         * @return True if current buffer has a string to read.
-         */
-        private boolean bufferHasNext() {
-            buffer.mark();
-            int nextStringLength = buffer.getInt();
-            buffer.reset();
-            return nextStringLength != TERM_BUFFER_MARK;
-        }
+    @Override
+    long refreshIndex() {
+        return JNAWordIndexLibrary.Impl.get().file_word_index_refresh(this.nativeHandle);
+    }
 
-        /**
-         * Reads words with context into buffer from native code.
-         * Resets the buffer position to ZERO.
-         */
-        private void readIntoBuffer() {
-            this.iteratorHandle =
-                    JNAWordIndexLibrary.Impl.get().file_word_index_read_with_context_buffered(this.indexHandle,
-                            Native.getDirectBufferPointer(this.buffer), this.buffer.capacity(), word, wordLen,
-                            ctx.size(),
-                            this.iteratorHandle);
-            buffer.rewind();
-        }
+    @Override
+    void closeIndex() {
+        JNAWordIndexLibrary.Impl.get().file_word_index_close(this.nativeHandle);
+    }
 
-        @Override
-        public Stream<String> stream() {
-            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
-                    this, Spliterator.ORDERED), false);
-        }
+    /**
+     * @param address Address of native iterator, or NULL (0).
+     * @return Pointer to the address, or {@link Pointer#NULL}.
+     */
+    private static Pointer pointer(long address) {
+        return address == NULL_PTR ? Pointer.NULL : new Pointer(address);
     }
 }
@@ -0,0 +1,449 @@
+package org.nse.thesis.wordindex.jna;
+
+import com.sun.jna.Memory;
+import org.jetbrains.annotations.NotNull;
+import org.nse.thesis.wordindex.BufferPool;
+import org.nse.thesis.wordindex.NativeBatch;
+import org.nse.thesis.wordindex.WordContextIterator;
+import org.nse.thesis.wordindex.WordHit;
+import org.nse.thesis.wordindex.WordIndex;
+import org.nse.thesis.wordindex.pojo.MappedFile;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Queries of a native WordIndex through JNA, that are shared by
+ * {@link JNAWordIndex} and {@link JNADirectWordIndex}. Words are passed to native
+ * side already encoded, in pooled native memory. Subclasses only bind the native
+ * calls, iterator handles being plain addresses, NULL being 0.
+ *
+ * @author Niklas Seppälä
+ */
+abstract class JNAWordIndexBase implements WordIndex {
+
+    static final long NULL_PTR = 0;
+
+    private final String filepath;
+    private final BufferPool<JNAQueryBuffers> buffers;
+    private final MappedFile.Lazy hitsFile;
+
+    /**
+     * @param path            Path to indexed text file.
+     * @param queryBufferSize Suggested size of buffer that's used when querying
+     *                        this index.
+     * @throws FileNotFoundException When file path is invalid.
+     */
+    JNAWordIndexBase(@NotNull String path, int queryBufferSize) throws FileNotFoundException {
+        if (Files.notExists(Path.of(path))) {
+            throw new FileNotFoundException(path);
+        }
+        this.filepath = path;
+        this.hitsFile = new MappedFile.Lazy(path);
+        final int bufferSize = Math.max(queryBufferSize, MIN_QUERY_BUFFER_SIZE);
+        this.buffers = new BufferPool<>(() -> new JNAQueryBuffers(bufferSize));
+    }
+
+    /**
+     * @return True if native WordIndex was opened.
+     */
+    abstract boolean isOpen();
+
+    /**
+     * Reads words with context of the word into read buffer, with the buffer protocol
+     * of {@link JNAWordIndexLibrary#file_word_index_read_with_context_buffered}.
+     *
+     * @param readBuffer   Native buffer to read result into
+     * @param word         UTF-8 bytes of the word to search for
+     * @param wordLength   Length of the word in bytes
+     * @param context      Context surrounding the word in indexed file
+     * @param wordIterator Word file position iterator, NULL (0) on the first call.
+     * @return Word file position iterator, NULL (0) when all results were read.
+     */
+    abstract long readWithContext(@NotNull Memory readBuffer, @NotNull Memory word,
+                                  int wordLength, int context, long wordIterator);
+
+    /**
+     * Reads words with context of several words into read buffer, with the buffer
+     * protocol of {@link NativeBatch}.
+     *
+     * @param readBuffer    Native buffer to read result into
+     * @param words         Words to search for, each lead by 4 byte integer in native
+     *                      byte-order, specifying word byte length.
+     * @param wordsSize     Size of the words in bytes
+     * @param context       Context surrounding the words in indexed file
+     * @param batchIterator Batch iterator, NULL (0) on the first call.
+     * @return Batch iterator, NULL (0) when all results were read.
+     */
+    abstract long readBatchWithContext(@NotNull Memory readBuffer, @NotNull Memory words,
+                                       int wordsSize, int context, long batchIterator);
+
+    /**
+     * Copies file positions of the word.
+     *
+     * @param word       UTF-8 bytes of the word to search for
+     * @param wordLength Length of the word in bytes
+     * @param offset     Index of the first position to copy
+     * @param positions  Native buffer to copy positions into
+     * @param capacity   Number of positions that fit into the buffer
+     * @return Total number of positions of the word, 0 if word was not found.
+     */
+    abstract long readPositions(@NotNull Memory word, int wordLength, long offset,
+                                @NotNull Memory positions, long capacity);
+
+    /**
+     * @param wordIterator Word file position iterator, that was not exhausted.
+     */
+    abstract void closeIterator(long wordIterator);
+
+    /**
+     * @param batchIterator Batch iterator, that was not exhausted.
+     */
+    abstract void closeBatchIterator(long batchIterator);
+
+    /**
+     * @param snapshotPath Path of the snapshot file.
+     * @return True if snapshot was written.
+     */
+    abstract boolean saveIndex(@NotNull String snapshotPath);
+
+    /**
+     * @return Number of new bytes indexed, or -1 if refreshing failed.
+     */
+    abstract long refreshIndex();
+
+    /**
+     * Closes native WordIndex, releasing all native resources.
+     */
+    abstract void closeIndex();
+
+    /**
+     * Query the index for all occurrences of words from indexed file, with specified
+     * amount of context, on both sides of the word.
+     * <pre>
+     *     [ctx word ctx]
+     * </pre>
+     *
+     * @param word Word to search for
+     * @param ctx  The amount of context bytes to surround the word.
+     * @return Collection of words with context.
+     */
+    @Override
+    @NotNull
+    public Collection<String> getWords(@NotNull String word,
+                                       @NotNull WordIndex.ContextBytes ctx) {
+        long nativeIterHandle = NULL_PTR;
+
+        byte[] wordBytes = word.getBytes(StandardCharsets.UTF_8);
+        int maxStrLength = (ctx.size() << 1) + wordBytes.length;
+
+        Collection<String> results = new ArrayList<>();
+        // Native memory is borrowed from the pool, instead of allocating it per query.
+        JNAQueryBuffers buffers = this.buffers.acquire();
+        try {
+            byte[] str = buffers.str(maxStrLength);
+            // Word is copied to native memory once, not on every call.
+            Memory wordMemory = buffers.word(wordBytes);
+            // Room for one entry: its length, the string, and the terminating mark.
+            Memory readMemory = buffers.read(maxStrLength + 2 * Integer.BYTES);
+            ByteBuffer readBuffer = buffers.readView();
+            do {
+                nativeIterHandle = this.readWithContext(readMemory, wordMemory,
+                        wordBytes.length, ctx.size(), nativeIterHandle);
+                while (true) {
+                    int offset = readBuffer.getInt();
+                    if (offset == TERM_BUFFER_MARK) {
+                        break;
+                    }
+                    int length = 0;
+                    for (; length < offset; length++) {
+                        str[length] = readBuffer.get();
+                    }
+                    String s = new String(str, 0, length, StandardCharsets.UTF_8);
+                    results.add(s);
+                }
+                readBuffer.rewind();
+            } while (nativeIterHandle != NULL_PTR);
+        } finally {
+            if (nativeIterHandle != NULL_PTR) {
+                // Query was abandoned on a failure, before native side freed the iterator.
+                this.closeIterator(nativeIterHandle);
+            }
+            this.buffers.release(buffers);
+        }
+        return results;
+    }
+
+    /**
+     * Query the index for all occurrences of several words, with one native call per
+     * filled query buffer.
+     *
+     * @param words Words to search for.
+     * @param ctx   The amount of context bytes to surround the words.
+     * @return Words with context of each queried word, in the order of the words.
+     */
+    @Override
+    @NotNull
+    public List<Collection<String>> getWordsBatch(@NotNull List<String> words,
+                                                  @NotNull WordIndex.ContextBytes ctx) {
+        byte[] encodedWords = NativeBatch.encodeWords(words);
+        int maxStrLength = NativeBatch.maxStringLength(encodedWords, ctx);
+
+        List<Collection<String>> results = NativeBatch.emptyResults(words.size());
+        long nativeIterHandle = NULL_PTR;
+        JNAQueryBuffers buffers = this.buffers.acquire();
+        try {
+            byte[] str = buffers.str(maxStrLength);
+            // Words are copied to native memory once, not on every call.
+            Memory wordsMemory = buffers.word(encodedWords);
+            Memory readMemory = buffers.read(NativeBatch.minBufferSize(maxStrLength));
+            ByteBuffer readBuffer = buffers.readView();
+            do {
+                nativeIterHandle = this.readBatchWithContext(readMemory, wordsMemory,
+                        encodedWords.length, ctx.size(), nativeIterHandle);
+                NativeBatch.readResults(readBuffer, str, results);
+            } while (nativeIterHandle != NULL_PTR);
+        } finally {
+            if (nativeIterHandle != NULL_PTR) {
+                // Batch was abandoned on a failure, before native side freed it.
+                this.closeBatchIterator(nativeIterHandle);
+            }
+            this.buffers.release(buffers);
+        }
+        return results;
+    }
+
+    /**
+     * Query the index for file positions of all occurrences of the word. Positions
+     * are copied through the pooled read buffer, one buffer full per call.
+     *
+     * @param word Word to search for.
+     * @return File positions of the word, in file order.
+     */
+    @Override
+    public long @NotNull [] getPositions(@NotNull String word) {
+        byte[] wordBytes = word.getBytes(StandardCharsets.UTF_8);
+        JNAQueryBuffers buffers = this.buffers.acquire();
+        try {
+            Memory wordMemory = buffers.word(wordBytes);
+            Memory readMemory = buffers.read(Long.BYTES);
+            int capacity = (int) (readMemory.size() / Long.BYTES);
+            long[] positions = null;
+            int copied = 0;
+            do {
+                long total = this.readPositions(wordMemory, wordBytes.length, copied,
+                        readMemory, capacity);
+                if (positions == null) {
+                    positions = new long[Math.toIntExact(total)];
+                }
+                int count = Math.min(capacity, positions.length - copied);
+                readMemory.read(0, positions, copied, count);
+                copied += count;
+            } while (copied < positions.length);
+            return positions;
+        } finally {
+            this.buffers.release(buffers);
+        }
+    }
+
+    /**
+     * Query the index for all occurrences of the word, as views over the mapped
+     * file. File is mapped on the first call.
+     *
+     * @param word Word to search for.
+     * @param ctx  The amount of context bytes to surround the word.
+     * @return Hits of the word, in file order.
+     * @throws IOException When file can't be mapped.
+     */
+    @Override
+    @NotNull
+    public List<WordHit> getHits(@NotNull String word, @NotNull WordIndex.ContextBytes ctx)
+            throws IOException {
+        long[] positions = this.getPositions(word);
+        if (positions.length == 0) {
+            return List.of();
+        }
+        return WordHit.of(this.hitsFile.get().buffer(), positions,
+                word.getBytes(StandardCharsets.UTF_8).length, ctx);
+    }
+
+    /**
+     * Queries the index with word with context, results can be accessed trough lazy
+     * iterator.
+     *
+     * @param word Word to search for
+     * @param ctx  The amount of context to surround the word.
+     * @return Lazy iterator for query results.
+     */
+    @Override
+    @NotNull
+    public WordContextIterator iterateWords(@NotNull String word,
+                                            @NotNull WordIndex.ContextBytes ctx)
+            throws FileNotFoundException {
+        if (Files.notExists(Path.of(this.filepath))) {
+            throw new FileNotFoundException(filepath);
+        }
+        return new NativeWordContextIterator(word, ctx);
+    }
+
+    /**
+     * Saves the native index to a snapshot file.
+     *
+     * @param snapshot Path of the snapshot file.
+     * @throws IOException When snapshot can't be written.
+     */
+    @Override
+    public void save(@NotNull Path snapshot) throws IOException {
+        if (!this.saveIndex(snapshot.toString())) {
+            throw new IOException("Failed to save snapshot " + snapshot);
+        }
+    }
+
+    /**
+     * Indexes bytes appended to the indexed file since the last indexing. Waits
+     * until running queries are done, and open iterators are read to the end or
+     * closed, so a thread must not refresh the index while it holds an iterator
+     * of it.
+     *
+     * @return True if new bytes were indexed, false if file didn't grow.
+     * @throws IOException When file can't be read, got shorter, or index was loaded
+     *                     from a snapshot.
+     */
+    @Override
+    public boolean refresh() throws IOException {
+        final long indexed = this.refreshIndex();
+        if (indexed < 0) {
+            throw new IOException("Failed to refresh index of " + this.filepath);
+        }
+        return indexed > 0;
+    }
+
+    /**
+     * Closes the index, releases native resources.
+     */
+    @Override
+    public void close() {
+        this.hitsFile.close();
+        this.closeIndex();
+    }
+
+    /**
+     * Reads query results lazily from off-heap memory and instantiates
+     * String objects when required to do so.
+     */
+    private final class NativeWordContextIterator implements WordContextIterator {
+        private final byte[] str;
+        private JNAQueryBuffers buffers;
+        private final Memory wordMemory;
+        private final Memory readMemory;
+        private final ByteBuffer buffer;
+        private final int wordLen;
+        private final ContextBytes ctx;
+        private long iteratorHandle;
+
+
+        private NativeWordContextIterator(@NotNull String word,
+                                          @NotNull WordIndex.ContextBytes ctx) {
+            if (!JNAWordIndexBase.this.isOpen()) {
+                throw new IllegalStateException("Index is closed");
+            }
+            byte[] wordBytes = word.getBytes(StandardCharsets.UTF_8);
+            this.ctx = ctx;
+            this.iteratorHandle = NULL_PTR;
+            this.wordLen = wordBytes.length;
+            // Buffers are held until the iterator is closed.
+            this.buffers = JNAWordIndexBase.this.buffers.acquire();
+            try {
+                this.str = buffers.str((this.ctx.size() << 1) + wordLen);
+                this.wordMemory = buffers.word(wordBytes);
+                this.readMemory = buffers.read((this.ctx.size() << 1) + wordLen
+                        + 2 * Integer.BYTES);
+                this.buffer = buffers.readView();
+                this.readIntoBuffer();
+            } catch (RuntimeException | Error e) {
+                // Iterator is never returned, so caller can't close it.
+                this.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Closes this iterator, releasing native resources, and giving buffers back
+         * to the pool.
+         */
+        @Override
+        public void close() {
+            // If native method returned NULL_PTR, it already freed
+            // existing iterator, or it never existed.
+            if (this.iteratorHandle != NULL_PTR) {
+                JNAWordIndexBase.this.closeIterator(this.iteratorHandle);
+                this.iteratorHandle = NULL_PTR;
+            }
+            if (this.buffers != null) {
+                JNAWordIndexBase.this.buffers.release(this.buffers);
+                this.buffers = null;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (this.bufferHasNext()) {
+                return true;
+            } else {
+                if (this.iteratorHandle != NULL_PTR) {
+                    readIntoBuffer();
+                    return this.bufferHasNext();
+                } else {
+                    return false;
+                }
+            }
+        }
+
+        @Override
+        public String next() {
+            final int offset = buffer.getInt();
+            int length = 0;
+            for (; length < offset; length++) {
+                this.str[length] = this.buffer.get();
+            }
+            return new String(this.str, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return True if current buffer has a string to read.
+         */
+        private boolean bufferHasNext() {
+            buffer.mark();
+            int nextStringLength = buffer.getInt();
+            buffer.reset();
+            return nextStringLength != TERM_BUFFER_MARK;
+        }
+
+        /**
+         * Reads words with context into buffer from native code.
+         * Resets the buffer position to ZERO.
+         */
+        private void readIntoBuffer() {
+            this.iteratorHandle = JNAWordIndexBase.this.readWithContext(this.readMemory,
+                    this.wordMemory, wordLen, ctx.size(), this.iteratorHandle);
+            buffer.rewind();
+        }
+
+        @Override
+        public Stream<String> stream() {
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                    this, Spliterator.ORDERED), false);
+        }
+    }
+}
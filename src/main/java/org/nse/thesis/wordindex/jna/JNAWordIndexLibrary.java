@@ -20,10 +20,42 @@ public interface JNAWordIndexLibrary extends Library {
      * @param analyzer   Analyzer used in tokenizing words from text.
      * @param capacity   Estimate how many unique words file might contain.
      * @param bufferSize Suggested size of buffer that's used when indexing the file.
+     * @param threads    Maximum number of threads used in indexing the file.
      * @param compact    Should index be compacted after indexing is done.
      * @return Handle to native WordIndex
      */
-    Pointer file_word_index_open(String filepath, int analyzer, long capacity, long bufferSize, boolean compact);
+    Pointer file_word_index_open(String filepath, int analyzer, long capacity, long bufferSize,
+                                 long threads, boolean compact);
+
+    /**
+     * Loads a native word index from a snapshot, written by
+     * {@link #file_word_index_save(Pointer, String)}. Remember to close it!
+     *
+     * @param snapshotPath Path to the snapshot.
+     * @param filepath     Path to the indexed text file.
+     * @param analyzer     Analyzer, that must be the one snapshot was indexed with.
+     * @return Handle to native WordIndex, or NULL if snapshot is invalid or doesn't
+     * match the current state of the file.
+     */
+    Pointer file_word_index_load(String snapshotPath, String filepath, int analyzer);
+
+    /**
+     * Saves native word index to a snapshot file.
+     *
+     * @param handle       Handle to native WordIndex
+     * @param snapshotPath Path of the snapshot file.
+     * @return Non-zero if snapshot was written. C bool is a single byte, while JNA
+     * maps boolean to a 32-bit int, so it is returned as byte.
+     */
+    byte file_word_index_save(Pointer handle, String snapshotPath);
+
+    /**
+     * Indexes bytes appended to the indexed file since the last indexing.
+     *
+     * @param handle Handle to native WordIndex
+     * @return Number of new bytes indexed, or -1 if refreshing failed.
+     */
+    long file_word_index_refresh(Pointer handle);
 
     /**
      * Reads words with context from indexed file in buffered manner. If buffer was not
@@ -44,7 +76,8 @@ public interface JNAWordIndexLibrary extends Library {
      * @param handle         Native WordIndex handle
      * @param readBuffer     Native buffer to read result into
      * @param readBufferSize Native buffer size
-     * @param word           To search for
+     * @param word           Native memory, that holds UTF-8 bytes of the word to
+     *                       search for
      * @param wordLength     Length of the word in bytes
      * @param context        Context surrounding the word in indexed file
      * @param wordIterator   Word file position iterator. Initially should be NULL (0),
@@ -52,10 +85,61 @@ public interface JNAWordIndexLibrary extends Library {
      * @return Word file position iterator.
      */
     Pointer file_word_index_read_with_context_buffered(Pointer handle, Pointer readBuffer,
-                                                       long readBufferSize, String word,
+                                                       long readBufferSize, Pointer word,
                                                        long wordLength, long context,
                                                        Pointer wordIterator);
 
+    /**
+     * Copies file positions of the word, without reading any context from the
+     * indexed file.
+     *
+     * @param handle     Native WordIndex handle
+     * @param word       Native memory, that holds UTF-8 bytes of the word to search for
+     * @param wordLength Length of the word in bytes
+     * @param offset     Index of the first position to copy
+     * @param positions  Native buffer to copy positions into
+     * @param capacity   Number of positions that fit into the buffer
+     * @return Total number of positions of the word, 0 if word was not found.
+     */
+    long file_word_index_read_positions(Pointer handle, Pointer word, long wordLength,
+                                        long offset, Pointer positions, long capacity);
+
+    /**
+     * Reads words with context of several words from indexed file in buffered
+     * manner, with one native call per filled buffer. If buffer was not big enough
+     * to read all results, iterator handle is returned. Next call to this method
+     * should use that iterator as a parameter to continue where previous call left.
+     * <p>
+     * <b>Buffer byte protocol</b>
+     * Strings are written to read buffer as contiguous span of bytes, lead by 4 byte
+     * integer, specifying string byte length, and 4 byte ordinal of the word it was
+     * found by. TERM_BUFFER_MARK == no more strings left in the buffer.
+     *
+     * @param handle         Native WordIndex handle
+     * @param readBuffer     Native buffer to read result into
+     * @param readBufferSize Native buffer size
+     * @param words          Native memory, that holds words to search for, each lead
+     *                       by 4 byte integer in native byte-order, specifying word
+     *                       byte length.
+     * @param wordsSize      Size of the words in bytes
+     * @param context        Context surrounding the words in indexed file
+     * @param batchIterator  Batch iterator. Initially should be NULL (0), after that,
+     *                       it should be the return value of this method.
+     * @return Batch iterator.
+     */
+    Pointer file_word_index_read_batch_with_context_buffered(Pointer handle, Pointer readBuffer,
+                                                             long readBufferSize, Pointer words,
+                                                             long wordsSize, long context,
+                                                             Pointer batchIterator);
+
+    /**
+     * Closes native batch iterator, releasing its resources. Must be called, IF the
+     * iterator was not exhausted.
+     *
+     * @param batchIterator Batch iterator.
+     */
+    void file_word_index_close_batch_iterator(Pointer batchIterator);
+
     /**
      * Closes native WordIndex, releasing all native resources.
      *
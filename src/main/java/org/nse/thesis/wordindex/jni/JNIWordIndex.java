@@ -1,18 +1,25 @@
 package org.nse.thesis.wordindex.jni;
 
 import org.jetbrains.annotations.NotNull;
+import org.nse.thesis.wordindex.BufferPool;
+import org.nse.thesis.wordindex.DirectQueryBuffers;
+import org.nse.thesis.wordindex.NativeBatch;
 import org.nse.thesis.wordindex.WordContextIterator;
+import org.nse.thesis.wordindex.WordHit;
 import org.nse.thesis.wordindex.WordIndex;
 import org.nse.thesis.wordindex.analyzers.IndexAnalyzer;
+import org.nse.thesis.wordindex.pojo.MappedFile;
 
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.stream.Stream;
@@ -31,6 +38,8 @@ public class JNIWordIndex implements WordIndex {
     private final long nativeHandle;
     private final String filepath;
     private final int queryBufferSize;
+    private final BufferPool<DirectQueryBuffers> buffers;
+    private final MappedFile.Lazy hitsFile;
 
     /**
      * Create Java object that acts as a proxy for native WordIndex.
@@ -40,7 +49,8 @@ public class JNIWordIndex implements WordIndex {
      * @param path                 Path to text file to be indexed.
      * @param analyzer             Analyzer used in tokenizing words from text.
      * @param wordCapacityEstimate Estimate how many unique words file might contain.
-     * @param indexingBufferSize   Suggested size of buffer that's used when indexing the file.
+     * @param indexingBufferSize   Suggested size of buffer that's used when indexing the file,
+     *                             or {@link #MAPPED_INDEXING} to map the file to memory.
      * @param queryBufferSize      Suggested size of buffer that's used when querying
      *                             this index.
      * @param shouldCompact        Should index be compacted after indexing is done.
@@ -52,38 +62,88 @@ public class JNIWordIndex implements WordIndex {
                         long wordCapacityEstimate,
                         long indexingBufferSize, int queryBufferSize,
                         final boolean shouldCompact) throws FileNotFoundException {
+        this(path, analyzer, wordCapacityEstimate, indexingBufferSize, 1, queryBufferSize,
+                shouldCompact);
+    }
+
+    /**
+     * Create Java object that acts as a proxy for native WordIndex.
+     * It is crucial that this object is closed when no longer used,
+     * or Exception is thrown.
+     *
+     * @param path                 Path to text file to be indexed.
+     * @param analyzer             Analyzer used in tokenizing words from text.
+     * @param wordCapacityEstimate Estimate how many unique words file might contain.
+     * @param indexingBufferSize   Suggested size of buffer that's used when indexing the file,
+     *                             or {@link #MAPPED_INDEXING} to map the file to memory.
+     * @param indexingThreads      Maximum number of threads used in indexing the file.
+     *                             Large files are split to parts, that are indexed
+     *                             in parallel.
+     * @param queryBufferSize      Suggested size of buffer that's used when querying
+     *                             this index.
+     * @param shouldCompact        Should index be compacted after indexing is done.
+     *                             This will save memory on the long term, with initial
+     *                             time cost.
+     * @throws FileNotFoundException When file path is invalid.
+     */
+    public JNIWordIndex(@NotNull final String path, @NotNull IndexAnalyzer analyzer,
+                        long wordCapacityEstimate,
+                        long indexingBufferSize, int indexingThreads, int queryBufferSize,
+                        final boolean shouldCompact) throws FileNotFoundException {
 
         if (Files.notExists(Path.of(path))) {
             throw new FileNotFoundException(path);
         }
         this.filepath = path;
+        this.hitsFile = new MappedFile.Lazy(path);
         this.queryBufferSize = Math.max(queryBufferSize, MIN_QUERY_BUFFER_SIZE);
+        final int bufferSize = this.queryBufferSize;
+        this.buffers = new BufferPool<>(() -> new DirectQueryBuffers(bufferSize));
 
         if (wordCapacityEstimate < MIN_WORD_CAPACITY_ESTIMATE) {
             wordCapacityEstimate = MIN_WORD_CAPACITY_ESTIMATE;
         }
 
-        if (indexingBufferSize < MIN_INDEXING_BUFFER_SIZE) {
+        if (indexingBufferSize != MAPPED_INDEXING && indexingBufferSize < MIN_INDEXING_BUFFER_SIZE) {
             indexingBufferSize = MIN_INDEXING_BUFFER_SIZE;
         }
 
         this.nativeHandle = JNIWordIndexBindings.wordIndexOpen(path, analyzer.asNative(),
                 wordCapacityEstimate,
                 indexingBufferSize,
+                Math.max(indexingThreads, 1),
                 shouldCompact);
     }
 
     /**
-     * @param preferredSize Size asked for
-     * @param minSize       guarantee that buffer has ATLEAST this much room.
-     * @return Direct buffer with native byte-order.
+     * Loads native WordIndex from a snapshot, instead of indexing the file again.
+     * It is crucial that this object is closed when no longer used,
+     * or Exception is thrown.
+     *
+     * @param path            Path to indexed text file.
+     * @param analyzer        Analyzer the snapshot was indexed with.
+     * @param snapshot        Path to snapshot, written by {@link #save(Path)}.
+     * @param queryBufferSize Suggested size of buffer that's used when querying
+     *                        this index.
+     * @throws FileNotFoundException When file path is invalid.
+     * @throws IOException           When snapshot is invalid, or doesn't match the
+     *                               current state of the file.
      */
-    @NotNull
-    private static ByteBuffer getNativeBuffer(int preferredSize, int minSize) {
-        ByteBuffer readBuffer = ByteBuffer.allocateDirect(
-                Math.max(preferredSize, minSize));
-        readBuffer.order(ByteOrder.nativeOrder());
-        return readBuffer;
+    public JNIWordIndex(@NotNull final String path, @NotNull IndexAnalyzer analyzer,
+                        @NotNull Path snapshot, int queryBufferSize) throws IOException {
+        if (Files.notExists(Path.of(path))) {
+            throw new FileNotFoundException(path);
+        }
+        this.filepath = path;
+        this.hitsFile = new MappedFile.Lazy(path);
+        this.queryBufferSize = Math.max(queryBufferSize, MIN_QUERY_BUFFER_SIZE);
+        final int bufferSize = this.queryBufferSize;
+        this.buffers = new BufferPool<>(() -> new DirectQueryBuffers(bufferSize));
+        this.nativeHandle = JNIWordIndexBindings.wordIndexLoad(snapshot.toString(), path,
+                analyzer.asNative());
+        if (this.nativeHandle == NULL_PTR) {
+            throw new IOException("Failed to load snapshot " + snapshot);
+        }
     }
 
     /**
@@ -103,36 +163,129 @@ public class JNIWordIndex implements WordIndex {
                                        @NotNull WordIndex.ContextBytes ctx) {
         long nativeIterHandle = NULL_PTR;
 
-        int wordBytesLength = word.getBytes(StandardCharsets.UTF_8).length;
+        // Word is encoded once, and native side reads the bytes from the read buffer.
+        byte[] wordBytes = word.getBytes(StandardCharsets.UTF_8);
+        int wordBytesLength = wordBytes.length;
         int maxStrLength = (ctx.size() << 1) + wordBytesLength;
-        byte[] str = new byte[maxStrLength];
-        ByteBuffer readBuffer = getNativeBuffer(this.queryBufferSize,
-                maxStrLength + Integer.BYTES);
 
         Collection<String> results = new ArrayList<>();
-        do {
-            nativeIterHandle = JNIWordIndexBindings.wordIndexReadWithContextBuffered(
-                    this.nativeHandle,
-                    readBuffer, readBuffer.capacity(), word, wordBytesLength, ctx.size(),
-                    nativeIterHandle);
-            while (true) {
-                int offset = readBuffer.getInt();
-                if (offset == TERM_BUFFER_MARK) {
-                    break;
+        // Direct memory is borrowed from the pool, instead of allocating it per query.
+        DirectQueryBuffers buffers = this.buffers.acquire();
+        try {
+            byte[] str = buffers.str(maxStrLength);
+            // Room for one entry: its length, the string, and the terminating mark.
+            ByteBuffer readBuffer = buffers.read(maxStrLength + 2 * Integer.BYTES);
+            readBuffer.put(0, wordBytes);
+            do {
+                nativeIterHandle = JNIWordIndexBindings.wordIndexReadEncodedWithContextBuffered(
+                        this.nativeHandle,
+                        readBuffer, readBuffer.capacity(), wordBytesLength, ctx.size(),
+                        nativeIterHandle);
+                while (true) {
+                    int offset = readBuffer.getInt();
+                    if (offset == TERM_BUFFER_MARK) {
+                        break;
+                    }
+                    int length = 0;
+                    for (; length < offset; length++) {
+                        str[length] = readBuffer.get();
+                    }
+                    String s = new String(str, 0, length, StandardCharsets.UTF_8);
+                    results.add(s);
                 }
-                int length = 0;
-                for (; length < offset; length++) {
-                    str[length] = readBuffer.get();
-                }
-                String s = new String(str, 0, length, StandardCharsets.UTF_8);
-                results.add(s);
+                readBuffer.rewind();
+            } while (nativeIterHandle != NULL_PTR);
+        } finally {
+            if (nativeIterHandle != NULL_PTR) {
+                // Query was abandoned on a failure, before native side freed the iterator.
+                JNIWordIndexBindings.wordIndexCloseIterator(nativeIterHandle);
             }
-            readBuffer.rewind();
-        } while (nativeIterHandle != NULL_PTR);
+            this.buffers.release(buffers);
+        }
+        return results;
+    }
+
+    /**
+     * Query the index for all occurrences of several words, with one native call per
+     * filled query buffer.
+     *
+     * @param words Words to search for.
+     * @param ctx   The amount of context bytes to surround the words.
+     * @return Words with context of each queried word, in the order of the words.
+     */
+    @Override
+    @NotNull
+    public List<Collection<String>> getWordsBatch(@NotNull List<String> words,
+                                                  @NotNull WordIndex.ContextBytes ctx) {
+        byte[] encodedWords = NativeBatch.encodeWords(words);
+        int maxStrLength = NativeBatch.maxStringLength(encodedWords, ctx);
 
+        List<Collection<String>> results = NativeBatch.emptyResults(words.size());
+        long nativeIterHandle = NULL_PTR;
+        DirectQueryBuffers buffers = this.buffers.acquire();
+        try {
+            byte[] str = buffers.str(maxStrLength);
+            ByteBuffer readBuffer = buffers.read(NativeBatch.minBufferSize(maxStrLength));
+            do {
+                nativeIterHandle = JNIWordIndexBindings.wordIndexReadBatchWithContextBuffered(
+                        this.nativeHandle, readBuffer, readBuffer.capacity(), encodedWords,
+                        ctx.size(), nativeIterHandle);
+                NativeBatch.readResults(readBuffer, str, results);
+            } while (nativeIterHandle != NULL_PTR);
+        } finally {
+            if (nativeIterHandle != NULL_PTR) {
+                // Batch was abandoned on a failure, before native side freed it.
+                JNIWordIndexBindings.wordIndexCloseBatchIterator(nativeIterHandle);
+            }
+            this.buffers.release(buffers);
+        }
         return results;
     }
 
+    /**
+     * Query the index for file positions of all occurrences of the word. Positions
+     * are copied straight to the returned array, and the array gets filled with a
+     * second call only if the word has more positions than fit the query buffer.
+     *
+     * @param word Word to search for.
+     * @return File positions of the word, in file order.
+     */
+    @Override
+    public long @NotNull [] getPositions(@NotNull String word) {
+        byte[] wordBytes = word.getBytes(StandardCharsets.UTF_8);
+        long[] positions = new long[Math.max(this.queryBufferSize / Long.BYTES, 1)];
+        int read = positions.length;
+        long total = JNIWordIndexBindings.wordIndexReadPositions(this.nativeHandle, wordBytes,
+                positions, 0);
+        positions = Arrays.copyOf(positions, Math.toIntExact(total));
+        if (total > read) {
+            JNIWordIndexBindings.wordIndexReadPositions(this.nativeHandle, wordBytes,
+                    positions, read);
+        }
+        return positions;
+    }
+
+    /**
+     * Query the index for all occurrences of the word, as views over the mapped
+     * file. File is mapped on the first call.
+     *
+     * @param word Word to search for.
+     * @param ctx  The amount of context bytes to surround the word.
+     * @return Hits of the word, in file order.
+     * @throws IOException When file can't be mapped.
+     */
+    @Override
+    @NotNull
+    public List<WordHit> getHits(@NotNull String word, @NotNull WordIndex.ContextBytes ctx)
+            throws IOException {
+        long[] positions = this.getPositions(word);
+        if (positions.length == 0) {
+            return List.of();
+        }
+        return WordHit.of(this.hitsFile.get().buffer(), positions,
+                word.getBytes(StandardCharsets.UTF_8).length, ctx);
+    }
+
     /**
      * Queries the index with word with context, results can be accessed trough lazy
      * iterator.
@@ -149,8 +302,39 @@ public class JNIWordIndex implements WordIndex {
         if (Files.notExists(Path.of(this.filepath))) {
             throw new FileNotFoundException(filepath);
         }
-        return new NativeWordContextIterator(this.nativeHandle, word, ctx,
-                this.queryBufferSize);
+        return new NativeWordContextIterator(this.nativeHandle, word, ctx, this.buffers);
+    }
+
+    /**
+     * Saves the native index to a snapshot file.
+     *
+     * @param snapshot Path of the snapshot file.
+     * @throws IOException When snapshot can't be written.
+     */
+    @Override
+    public void save(@NotNull Path snapshot) throws IOException {
+        if (!JNIWordIndexBindings.wordIndexSave(this.nativeHandle, snapshot.toString())) {
+            throw new IOException("Failed to save snapshot " + snapshot);
+        }
+    }
+
+    /**
+     * Indexes bytes appended to the indexed file since the last indexing. Waits
+     * until running queries are done, and open iterators are read to the end or
+     * closed, so a thread must not refresh the index while it holds an iterator
+     * of it.
+     *
+     * @return True if new bytes were indexed, false if file didn't grow.
+     * @throws IOException When file can't be read, got shorter, or index was loaded
+     *                     from a snapshot.
+     */
+    @Override
+    public boolean refresh() throws IOException {
+        final long indexed = JNIWordIndexBindings.wordIndexRefresh(this.nativeHandle);
+        if (indexed < 0) {
+            throw new IOException("Failed to refresh index of " + this.filepath);
+        }
+        return indexed > 0;
     }
 
     /**
@@ -158,6 +342,7 @@ public class JNIWordIndex implements WordIndex {
      */
     @Override
     public void close() {
+        this.hitsFile.close();
         JNIWordIndexBindings.wordIndexClose(this.nativeHandle);
     }
 
@@ -167,8 +352,9 @@ public class JNIWordIndex implements WordIndex {
      */
     private static class NativeWordContextIterator implements WordContextIterator {
         private final byte[] str;
+        private final BufferPool<DirectQueryBuffers> pool;
+        private DirectQueryBuffers buffers;
         private final ByteBuffer buffer;
-        private final String word;
         private final int wordLen;
         private final ContextBytes ctx;
         private final long indexHandle;
@@ -176,22 +362,36 @@ public class JNIWordIndex implements WordIndex {
 
 
         private NativeWordContextIterator(long indexHandle, @NotNull String word,
-                                          @NotNull WordIndex.ContextBytes ctx, int queryBufferSize) {
+                                          @NotNull WordIndex.ContextBytes ctx,
+                                          @NotNull BufferPool<DirectQueryBuffers> pool) {
             if (indexHandle == NULL_PTR) {
                 throw new IllegalStateException("Index is closed");
             }
-            this.word = word;
+            byte[] wordBytes = word.getBytes(StandardCharsets.UTF_8);
             this.ctx = ctx;
             this.indexHandle = indexHandle;
             this.iteratorHandle = NULL_PTR;
-            this.wordLen = word.getBytes(StandardCharsets.UTF_8).length;
-            this.str = new byte[(this.ctx.size() << 1) + wordLen];
-            this.buffer = getNativeBuffer(queryBufferSize, str.length + Integer.BYTES);
-            this.readIntoBuffer();
+            this.wordLen = wordBytes.length;
+            // Buffers are held until the iterator is closed.
+            this.pool = pool;
+            this.buffers = pool.acquire();
+            try {
+                this.str = buffers.str((this.ctx.size() << 1) + wordLen);
+                this.buffer = buffers.read((this.ctx.size() << 1) + wordLen
+                        + 2 * Integer.BYTES);
+                // Only the first read needs the word, later reads continue from the iterator.
+                this.buffer.put(0, wordBytes);
+                this.readIntoBuffer();
+            } catch (RuntimeException | Error e) {
+                // Iterator is never returned, so caller can't close it.
+                this.close();
+                throw e;
+            }
         }
 
         /**
-         * Closes this iterator, releasing native resources.
+         * Closes this iterator, releasing native resources, and giving buffers back
+         * to the pool.
          */
         @Override
         public void close() {
@@ -199,6 +399,11 @@ public class JNIWordIndex implements WordIndex {
             // existing iterator, or it never existed.
             if (this.iteratorHandle != NULL_PTR) {
                 JNIWordIndexBindings.wordIndexCloseIterator(this.iteratorHandle);
+                this.iteratorHandle = NULL_PTR;
+            }
+            if (this.buffers != null) {
+                this.pool.release(this.buffers);
+                this.buffers = null;
             }
         }
 
@@ -242,8 +447,8 @@ public class JNIWordIndex implements WordIndex {
          */
         private void readIntoBuffer() {
             this.iteratorHandle =
-                    JNIWordIndexBindings.wordIndexReadWithContextBuffered(this.indexHandle,
-                            this.buffer, this.buffer.capacity(), word, wordLen,
+                    JNIWordIndexBindings.wordIndexReadEncodedWithContextBuffered(
+                            this.indexHandle, this.buffer, this.buffer.capacity(), wordLen,
                             ctx.size(),
                             this.iteratorHandle);
             buffer.rewind();
@@ -34,11 +34,41 @@ public class JNIWordIndexBindings {
      * @param analyzer   Analyzer used in tokenizing words from text.
      * @param capacity   Estimate how many unique words file might contain.
      * @param bufferSize Suggested size of buffer that's used when indexing the file.
+     * @param threads    Maximum number of threads used in indexing the file.
      * @param compact    Should index be compacted after indexing is done.
      * @return Handle to native WordIndex
      */
     public static native long wordIndexOpen(String filepath, int analyzer, long capacity,
-                                            long bufferSize, boolean compact);
+                                            long bufferSize, int threads, boolean compact);
+
+    /**
+     * Loads a native word index from a snapshot, written by
+     * {@link #wordIndexSave(long, String)}. Remember to close it!
+     *
+     * @param snapshotPath Path to the snapshot.
+     * @param filepath     Path to the indexed text file.
+     * @param analyzer     Analyzer, that must be the one snapshot was indexed with.
+     * @return Handle to native WordIndex, or NULL (0) if snapshot is invalid or
+     * doesn't match the current state of the file.
+     */
+    public static native long wordIndexLoad(String snapshotPath, String filepath, int analyzer);
+
+    /**
+     * Saves native word index to a snapshot file.
+     *
+     * @param handle       Handle to native WordIndex
+     * @param snapshotPath Path of the snapshot file.
+     * @return True if snapshot was written.
+     */
+    public static native boolean wordIndexSave(long handle, String snapshotPath);
+
+    /**
+     * Indexes bytes appended to the indexed file since the last indexing.
+     *
+     * @param handle Handle to native WordIndex
+     * @return Number of new bytes indexed, or -1 if refreshing failed.
+     */
+    public static native long wordIndexRefresh(long handle);
 
     /**
      * Closes native WordIndex, releasing all native resources.
@@ -53,7 +83,11 @@ public class JNIWordIndexBindings {
      * big enough to read all results, iterator handle is returned. Next call to this
      * method should use that iterator as a parameter to continue where previous call
      * left.
-     * <br>
+     * </p>
+     * <p>
+     * On the first call, the UTF-8 bytes of the word must be at the start of the read
+     * buffer. Native side reads the word in place, before any results are written
+     * over it. Calls continuing from an iterator don't read the word.
      * </p>
      * <b>Buffer byte protocol</b>
      * <p>
@@ -68,21 +102,74 @@ public class JNIWordIndexBindings {
      * </pre>
      *
      * @param handle         Native WordIndex handle
-     * @param readBuffer     Native buffer to read result into
+     * @param readBuffer     Native buffer, that holds the word, and to read result into
      * @param readBufferSize Native buffer size
-     * @param word           To search for
      * @param wordLen        Length of the word in bytes
      * @param context        Context surrounding the word in indexed file
      * @param wordIterator   Word file position iterator. Initially should be NULL (0),
      *                       after that, it should be the return value of this method.
      * @return Word file position iterator.
      */
-    public static native long wordIndexReadWithContextBuffered(long handle,
-                                                               ByteBuffer readBuffer,
-                                                               long readBufferSize,
-                                                               String word, int wordLen,
-                                                               int context,
-                                                               long wordIterator);
+    public static native long wordIndexReadEncodedWithContextBuffered(long handle,
+                                                                      ByteBuffer readBuffer,
+                                                                      long readBufferSize,
+                                                                      int wordLen,
+                                                                      int context,
+                                                                      long wordIterator);
+
+    /**
+     * Copies file positions of the word, without reading any context from the
+     * indexed file. Positions are copied to the array starting from index
+     * <code>from</code>, which is also the index of the first position copied.
+     *
+     * @param handle    Native WordIndex handle
+     * @param word      UTF-8 bytes of the word to search for
+     * @param positions Array to copy positions into
+     * @param from      Index of the first position to copy
+     * @return Total number of positions of the word, 0 if word was not found.
+     */
+    public static native long wordIndexReadPositions(long handle, byte[] word,
+                                                     long[] positions, int from);
+
+    /**
+     * <p>
+     * Reads words with context of several words from indexed file in buffered
+     * manner, with one native call per filled buffer. If buffer was not big enough
+     * to read all results, iterator handle is returned. Next call to this method
+     * should use that iterator as a parameter to continue where previous call left.
+     * </p>
+     * <b>Buffer byte protocol</b>
+     * <p>
+     * Strings are written to read buffer as contiguous span of bytes, lead by 4 byte
+     * integer, specifying string byte length, and 4 byte ordinal of the word it was
+     * found by. TERM_BUFFER_MARK == no more strings left in the buffer.
+     * </p>
+     *
+     * @param handle         Native WordIndex handle
+     * @param readBuffer     Native buffer to read result into
+     * @param readBufferSize Native buffer size
+     * @param words          Words to search for, each lead by 4 byte integer in
+     *                       native byte-order, specifying word byte length.
+     * @param context        Context surrounding the words in indexed file
+     * @param batchIterator  Batch iterator. Initially should be NULL (0), after that,
+     *                       it should be the return value of this method.
+     * @return Batch iterator.
+     */
+    public static native long wordIndexReadBatchWithContextBuffered(long handle,
+                                                                    ByteBuffer readBuffer,
+                                                                    long readBufferSize,
+                                                                    byte[] words,
+                                                                    int context,
+                                                                    long batchIterator);
+
+    /**
+     * Closes native batch iterator, releasing its resources. Must be called, IF the
+     * iterator was not exhausted.
+     *
+     * @param batchIterator Iterator returned by
+     *                      {@link #wordIndexReadBatchWithContextBuffered(long, ByteBuffer, long, byte[], int, long)}.
+     */
+    public static native void wordIndexCloseBatchIterator(long batchIterator);
 
     /**
      * Closes native iterator, releasing its resources. Not closing it will cause a
@@ -2,28 +2,65 @@ package org.nse.thesis.wordindex.pojo;
 
 import org.jetbrains.annotations.NotNull;
 import org.nse.thesis.wordindex.WordContextIterator;
+import org.nse.thesis.wordindex.WordHit;
 import org.nse.thesis.wordindex.WordIndex;
 import org.nse.thesis.wordindex.analyzers.IndexAnalyzer;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntUnaryOperator;
+
+import static org.nse.thesis.wordindex.pojo.JavaWordContextIterator.getActualReadLength;
+import static org.nse.thesis.wordindex.pojo.JavaWordContextIterator.withContext;
 
 /**
  * Same as functionality as {@link JavaWordIndex}, but indexing is
  * improved by using buffered reading of the file.
+ * <p>
+ * File can also be indexed in parallel. File is split into chunks that end
+ * at word boundaries, chunks are tokenized concurrently into partial indexes,
+ * and partial indexes are merged in file order. Result is identical to the
+ * sequential build.
+ * </p>
+ * Words are stored in a {@link TermTable}, keyed by their normalized UTF-8 bytes,
+ * so indexing a repeated word doesn't allocate.
+ * <p>
+ * Index remembers how far the file has been indexed, so a growing file can be
+ * brought up to date with {@link #refresh()}, which tokenizes only the appended
+ * tail. Refreshed state is published as a whole, so queries running at the same
+ * time see either the old or the new state. Refresh doesn't copy the index, it
+ * shares the previous index and only rebuilds the tail indexed by refreshes, see
+ * {@link IndexSegments}.
+ * </p>
+ * <p>
+ * File positions are stored as ints, so files over 2 GiB can't be indexed.
+ * </p>
  */
 public class BufferedJavaWordIndex implements WordIndex {
-    private static final String READ_MODE = "r";
+    /**
+     * Default size of a file chunk, that is indexed by a single task
+     * when file is indexed in parallel.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 24;
     private final String path;
-    private final Map<@NotNull String, @NotNull WordEntry> index;
     private final IndexAnalyzer analyzer;
+    private final MappedFile mappedFile;
+    private final SharedFileChannel fileChannel;
+    private final MappedFile.Lazy hitsFile;
+    private final int parallelism;
+    private final int chunkSize;
+    private volatile IndexState state;
 
     /**
      * Creates Word index over specified text file.
@@ -36,25 +73,63 @@ public class BufferedJavaWordIndex implements WordIndex {
     public BufferedJavaWordIndex(@NotNull String path, @NotNull IndexAnalyzer analyzer,
                                  int wordEstimate)
             throws FileNotFoundException {
-        if (Files.notExists(Path.of(path))) {
-            throw new FileNotFoundException(path);
-        }
-        this.path = path;
-        this.analyzer = analyzer;
-        this.index = new HashMap<>(wordEstimate);
-        this.doIndexing();
+        this(path, analyzer, wordEstimate, false);
+    }
+
+    /**
+     * Creates Word index over specified text file.
+     *
+     * @param path         Path to text file to be indexed.
+     * @param analyzer     Analyzer used in tokenizing text into words.
+     * @param wordEstimate Estimated word count of the file
+     * @param mapFile      Should indexed file be mapped to memory. Context windows
+     *                     are then read from the mapping, instead of the file.
+     * @throws FileNotFoundException When file path is invalid
+     */
+    public BufferedJavaWordIndex(@NotNull String path, @NotNull IndexAnalyzer analyzer,
+                                 int wordEstimate, boolean mapFile)
+            throws FileNotFoundException {
+        this(path, analyzer, wordEstimate, mapFile, 1, DEFAULT_CHUNK_SIZE);
     }
 
     /**
-     * Finds position in a file, when search context size
-     * is calculated.
+     * Creates Word index over specified text file.
      *
-     * @param pos Word position.
-     * @param ctx Context size in bytes.
-     * @return File position from word, with context. No value less than zero is returned.
+     * @param path         Path to text file to be indexed.
+     * @param analyzer     Analyzer used in tokenizing text into words.
+     * @param wordEstimate Estimated word count of the file
+     * @param mapFile      Should indexed file be mapped to memory. Context windows
+     *                     are then read from the mapping, instead of the file.
+     * @param parallelism  How many threads are used in indexing. When one, file
+     *                     is indexed sequentially on the calling thread.
+     * @param chunkSize    Size of a file chunk in bytes, that is indexed by a single
+     *                     task. Chunks are extended to the next word boundary.
+     * @throws FileNotFoundException When file path is invalid
      */
-    private static int withContext(int pos, @NotNull WordIndex.ContextBytes ctx) {
-        return Math.max(pos - ctx.size(), 0);
+    public BufferedJavaWordIndex(@NotNull String path, @NotNull IndexAnalyzer analyzer,
+                                 int wordEstimate, boolean mapFile, int parallelism,
+                                 int chunkSize)
+            throws FileNotFoundException {
+        if (Files.notExists(Path.of(path))) {
+            throw new FileNotFoundException(path);
+        }
+        this.path = path;
+        this.analyzer = analyzer;
+        this.parallelism = Math.max(parallelism, 1);
+        this.chunkSize = Math.max(chunkSize, MIN_INDEXING_BUFFER_SIZE);
+        try (final FileChannel channel = FileChannel.open(Path.of(this.path),
+                StandardOpenOption.READ)) {
+            this.state = this.doIndexing(channel, wordEstimate);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to index file", e);
+        }
+        try {
+            this.mappedFile = mapFile ? new MappedFile(path) : null;
+            this.fileChannel = mapFile ? null : new SharedFileChannel(path);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open file", e);
+        }
+        this.hitsFile = mapFile ? new MappedFile.Lazy(this.mappedFile) : new MappedFile.Lazy(path);
     }
 
     /**
@@ -71,21 +146,25 @@ public class BufferedJavaWordIndex implements WordIndex {
     @Override
     public @NotNull Collection<String> getWords(@NotNull String word,
                                                 @NotNull WordIndex.ContextBytes ctx) {
-        WordEntry entry = this.index.get(JavaWordIndex.normalize(word, this.analyzer));
-        if (entry == null) {
+        final IndexSegments index = this.state.index();
+        final int term = this.lookup(index, word);
+        if (term == TermTable.NOT_FOUND) {
             return List.of();
         }
 
         List<String> results = new ArrayList<>();
-        try (final RandomAccessFile file = new RandomAccessFile(this.path, READ_MODE)) {
-            byte[] buffer = new byte[(ctx.size() << 1) + entry.getWord().length()];
-            for (Integer pos : entry.getFilePositions()) {
+        try (final ContextReader reader = this.openReader()) {
+            byte[] buffer = new byte[(ctx.size() << 1) + index.length(term)];
+            final IntUnaryOperator positions = index.positions(term);
+            final int count = index.count(term);
+            for (int i = 0; i < count; i++) {
+                final int pos = positions.applyAsInt(i);
                 int actualReadLength = getActualReadLength(ctx, pos, buffer.length);
 
-                file.seek(withContext(pos, ctx));
-                final int readBytes = file.read(buffer);
+                final int readBytes = reader.read(withContext(pos, ctx), buffer);
 
-                final String str = new String(buffer, 0, Math.min(readBytes, actualReadLength),
+                final String str = new String(buffer, 0,
+                        Math.max(Math.min(readBytes, actualReadLength), 0),
                         StandardCharsets.UTF_8);
                 results.add(str);
             }
@@ -95,6 +174,40 @@ public class BufferedJavaWordIndex implements WordIndex {
         return results;
     }
 
+    /**
+     * Query the index for file positions of all occurrences of the word.
+     *
+     * @param word Word to search for.
+     * @return File positions of the word, in file order.
+     */
+    @Override
+    public long @NotNull [] getPositions(@NotNull String word) {
+        final IndexSegments index = this.state.index();
+        return positions(index, this.lookup(index, word));
+    }
+
+    /**
+     * Query the index for all occurrences of the word, as views over the mapped
+     * file. If index doesn't map the file, it is mapped on the first call.
+     *
+     * @param word Word to search for.
+     * @param ctx  The amount of context bytes to surround the word.
+     * @return Hits of the word, in file order.
+     * @throws IOException When file can't be mapped.
+     */
+    @Override
+    public @NotNull List<WordHit> getHits(@NotNull String word,
+                                          @NotNull WordIndex.ContextBytes ctx)
+            throws IOException {
+        final IndexSegments index = this.state.index();
+        final int term = this.lookup(index, word);
+        if (term == TermTable.NOT_FOUND) {
+            return List.of();
+        }
+        return WordHit.of(this.hitsFile.get().buffer(), positions(index, term),
+                index.length(term), ctx);
+    }
+
     /**
      * Queries the index with word with context, results can be accessed through an
      * iterator.
@@ -108,130 +221,415 @@ public class BufferedJavaWordIndex implements WordIndex {
     public @NotNull WordContextIterator iterateWords(@NotNull String word,
                                                      @NotNull WordIndex.ContextBytes ctx)
             throws FileNotFoundException {
-        WordEntry entry = this.index.get(JavaWordIndex.normalize(word, this.analyzer));
-        if (entry == null) {
+        final IndexSegments index = this.state.index();
+        final int term = this.lookup(index, word);
+        if (term == TermTable.NOT_FOUND) {
             return (WordContextIterator) (Object) Collections.emptyIterator();
         }
-        return new JavaWordContextIterator(new RandomAccessFile(this.path, READ_MODE),
-                ctx,
-                entry);
+        return new JavaWordContextIterator(this.openReader(), ctx, index.length(term), 0,
+                index.count(term), index.positions(term));
 
     }
 
+    /**
+     * Saves the index to a snapshot file, that can be loaded with {@link SnapshotWordIndex}.
+     *
+     * @param snapshot Path of the snapshot file.
+     * @throws IOException When snapshot can't be written.
+     */
+    @Override
+    public void save(@NotNull Path snapshot) throws IOException {
+        final IndexState state = this.state;
+        final IndexSegments index = state.index().compact();
+        IndexSnapshot.write(snapshot, state.source(), this.analyzer, index.terms(), index.postings());
+    }
+
+    /**
+     * Indexes bytes appended to the file since the last indexing. Tokenizing starts
+     * from the last word of the previously indexed part, if that part didn't end at
+     * a word boundary, so a word that was cut off is indexed as a whole. Positions
+     * of the cut off word are dropped, when posting lists are extended.
+     * <p>
+     * Refresh costs the size of the appended part, and the size of the tail
+     * indexed by earlier refreshes, which is kept to a fraction of the index.
+     * Index built by the constructor is shared, not copied.
+     * </p>
+     * <p>
+     * If the file got shorter, it wasn't only appended to, and it is indexed again
+     * from the start, with the parallelism and chunk size the index was created with.
+     * </p>
+     *
+     * @return True if new bytes were indexed, false if file didn't grow.
+     * @throws FileNotFoundException When indexed file got deleted.
+     * @throws IOException           When indexed file can't be read.
+     */
+    @Override
+    public synchronized boolean refresh() throws IOException {
+        if (Files.notExists(Path.of(this.path))) {
+            throw new FileNotFoundException(this.path);
+        }
+        final IndexState current = this.state;
+        try (final FileChannel channel = FileChannel.open(Path.of(this.path),
+                StandardOpenOption.READ)) {
+            final long size = this.indexableSize(channel);
+            if (size == current.indexedTo()) {
+                return false;
+            }
+            if (size < current.indexedTo()) {
+                this.state = this.doIndexing(channel, current.index().size());
+                return true;
+            }
+
+            final IndexSnapshot.SourceStamp source = IndexSnapshot.SourceStamp.of(Path.of(this.path));
+            // Tail is indexed separately, and appended to a new index, so queries
+            // using the current state are not affected.
+            final TermTable terms = new TermTable(0);
+            final List<WordEntry> appended = new ArrayList<>();
+            indexRange(channel, current.tailStart(), size, terms, appended, this.analyzer);
+            final IndexSegments index = current.index().append(
+                    Math.toIntExact(current.tailStart()), terms, appended);
+            this.state = new IndexState(index, source, size, tailStart(channel, size));
+            return true;
+        }
+    }
+
+    @Override
+    public long estimatedMemoryUsage() {
+        return this.state.index().memoryUsage();
+    }
+
     @Override
     public void close() {
-        // NOP
+        if (this.mappedFile != null) {
+            this.mappedFile.close();
+        }
+        this.hitsFile.close();
+        if (this.fileChannel != null) {
+            try {
+                this.fileChannel.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to close file", e);
+            }
+        }
     }
 
     @Override
     public String toString() {
-        return index.toString();
+        final IndexSegments index = this.state.index();
+        final StringJoiner joiner = new StringJoiner(", ", "[", "]");
+        for (int term = 0; term < index.size(); term++) {
+            final int count = index.count(term);
+            if (count > 0) {
+                joiner.add("{\"" + index.word(term) + "\" " + count + '}');
+            }
+        }
+        return joiner.toString();
+    }
+
+    /**
+     * Finds the term number of the word from the index.
+     *
+     * @param index Terms and positions of the index.
+     * @param word  Word to search for, normalized before the lookup.
+     * @return Term number of the word, or {@link TermTable#NOT_FOUND} if word is not indexed.
+     */
+    private int lookup(@NotNull IndexSegments index, @NotNull String word) {
+        final byte[] normalized = JavaWordIndex.normalize(word, this.analyzer)
+                .getBytes(StandardCharsets.UTF_8);
+        return index.find(normalized, 0, normalized.length);
+    }
+
+    /**
+     * Copies file positions of the term.
+     *
+     * @param index Index, that the term was looked up from.
+     * @param term  Term number, or {@link TermTable#NOT_FOUND}.
+     * @return File positions of the term, in file order.
+     */
+    private static long @NotNull [] positions(@NotNull IndexSegments index, int term) {
+        if (term == TermTable.NOT_FOUND) {
+            return new long[0];
+        }
+        final IntUnaryOperator termPositions = index.positions(term);
+        final long[] positions = new long[index.count(term)];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = termPositions.applyAsInt(i);
+        }
+        return positions;
+    }
+
+    /**
+     * Opens reader for reading words with context. If file is mapped, words are
+     * read from the mapping, otherwise from the shared file channel.
+     *
+     * @return Reader, that must be closed.
+     * @throws FileNotFoundException When indexed file got deleted, and it is mapped.
+     */
+    private @NotNull ContextReader openReader() throws FileNotFoundException {
+        if (this.mappedFile != null) {
+            return this.mappedFile.reader();
+        }
+        return this.fileChannel.reader();
     }
 
     /**
      * Tokenizes the file to words, and indexes them by mapping file positions
      * to words.
+     *
+     * @param channel      Indexed file.
+     * @param wordEstimate Estimated word count of the file.
+     * @return State of the whole file.
      */
-    private void doIndexing() {
-        try (final RandomAccessFile file = new RandomAccessFile(path, READ_MODE)) {
-            final byte[] readBuffer = new byte[4096];
-            int position = 0;
-            int nBytes;
-            int truncatedBytes = 0;
-            while ((nBytes = file.read(readBuffer, truncatedBytes, readBuffer.length - truncatedBytes)) > 0) {
-                final int bufferContentLength = nBytes + truncatedBytes;
-                final BufferedWordTokenizer tokenizer = new BufferedWordTokenizer(readBuffer, bufferContentLength, this.analyzer);
-                for (WordToken token : tokenizer) {
-                    WordEntry existing = this.index.get(token.word());
-                    if (existing != null) {
-                        existing.addFilePosition(position + token.position());
-                    } else {
-                        this.index.put(token.word(), new WordEntry(token.word(),
-                                position + token.position()));
-                    }
-                }
-                truncatedBytes = tokenizer.getTruncatedBytes();
-                position += nBytes;
+    private @NotNull IndexState doIndexing(@NotNull FileChannel channel, int wordEstimate)
+            throws IOException {
+        // Stamp is taken before indexing, so changes made during indexing
+        // make the snapshot stale.
+        final IndexSnapshot.SourceStamp source = IndexSnapshot.SourceStamp.of(Path.of(this.path));
+        final TermTable terms = new TermTable(wordEstimate);
+        final List<WordEntry> entries = new ArrayList<>(wordEstimate);
+        final long size = this.indexableSize(channel);
+        if (this.parallelism == 1 || size <= this.chunkSize) {
+            indexRange(channel, 0, size, terms, entries, this.analyzer);
+        } else {
+            try {
+                mergePartialIndexes(indexChunksInParallel(channel, size),
+                        terms, entries);
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException("Failed to index file", e);
             }
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to index file", e);
         }
+        // Entries are in term order, so term numbers of postings match the term table.
+        return new IndexState(new IndexSegments(terms, PostingLists.freeze(entries)), source,
+                size, tailStart(channel, size));
     }
 
     /**
-     * Basic case for read length is ctx + word + ctx.
-     * When there is not enough leading or trailing bytes to satisfy this case,
-     * we read what we have.
+     * Gets the size of the file, that must fit int file positions. Positions past
+     * 2 GiB would otherwise wrap around silently.
      *
-     * @param ctx        Context size in bytes
-     * @param pos        file position
-     * @param bufferSize Size of the buffer (basic case)
-     * @return How many bytes we should actually read.
+     * @param channel Indexed file.
+     * @return Size of the file.
+     * @throws IOException When file can't be read, or it's too large to index.
      */
-    private int getActualReadLength(@NotNull ContextBytes ctx, Integer pos,
-                                    int bufferSize) {
-        int truncateBeginning = pos - ctx.size();
-        int actualReadLength = bufferSize;
-        if (truncateBeginning < 0) {
-            actualReadLength += truncateBeginning;
+    private long indexableSize(@NotNull FileChannel channel) throws IOException {
+        final long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("File " + this.path + " is too large to index, size "
+                    + size + " is over " + Integer.MAX_VALUE + " bytes");
         }
-        return actualReadLength;
+        return size;
     }
 
     /**
-     * Iterator that iterates over word's file positions, and returns result
-     * strings containing the word + context.
+     * Splits the file into chunks and indexes them concurrently, each into its own
+     * partial index.
+     *
+     * @param channel Indexed file.
+     * @param size    Size of the file.
+     * @return Partial indexes in file order.
      */
-    private static class JavaWordContextIterator implements WordContextIterator {
-
-        private final RandomAccessFile file;
-        private final ContextBytes ctx;
-        private final Iterator<Integer> positions;
-        private final byte[] buffer;
+    private @NotNull List<PartialIndex> indexChunksInParallel(@NotNull FileChannel channel,
+                                                              long size)
+            throws IOException, InterruptedException, ExecutionException {
+        final long[] boundaries = chunkBoundaries(channel, size, this.chunkSize);
+        final List<Callable<PartialIndex>> tasks = new ArrayList<>();
+        for (int i = 0; i < boundaries.length - 1; i++) {
+            final long start = boundaries[i];
+            final long end = boundaries[i + 1];
+            tasks.add(() -> {
+                PartialIndex partial = new PartialIndex(new TermTable(0), new ArrayList<>());
+                indexRange(channel, start, end, partial.terms(), partial.entries(), this.analyzer);
+                return partial;
+            });
+        }
 
-        /**
-         * @param file  Indexed file.
-         * @param ctx   Search context size in bytes.
-         * @param entry Word file Positions to iterate over.
-         */
-        protected JavaWordContextIterator(@NotNull RandomAccessFile file, @NotNull WordIndex.ContextBytes ctx,
-                                          @NotNull WordEntry entry) {
-            this.file = file;
-            this.ctx = ctx;
-            this.positions = entry.getFilePositions().iterator();
-            this.buffer = new byte[(ctx.size() << 1) + entry.getWord().length()];
+        final ForkJoinPool pool = new ForkJoinPool(this.parallelism);
+        try {
+            final List<PartialIndex> partials = new ArrayList<>(tasks.size());
+            for (Future<PartialIndex> result : pool.invokeAll(tasks)) {
+                partials.add(result.get());
+            }
+            return partials;
+        } finally {
+            pool.shutdown();
         }
+    }
 
-        @Override
-        public boolean hasNext() {
-            return positions.hasNext();
+    /**
+     * Merges partial indexes to a single index. Partial indexes are in file order, so
+     * appending their positions keeps positions in ascending order.
+     *
+     * @param partials Partial indexes in file order.
+     * @param terms    Term table to merge terms to.
+     * @param entries  Entries of the terms, in term order.
+     */
+    private static void mergePartialIndexes(@NotNull List<PartialIndex> partials,
+                                            @NotNull TermTable terms,
+                                            @NotNull List<WordEntry> entries) {
+        for (PartialIndex partial : partials) {
+            final int[] mapping = terms.addAll(partial.terms());
+            for (int term = 0; term < mapping.length; term++) {
+                if (mapping[term] == entries.size()) {
+                    entries.add(partial.entries().get(term));
+                } else {
+                    entries.get(mapping[term]).addFilePositions(partial.entries().get(term));
+                }
+            }
         }
+    }
 
-        @Override
-        public String next() {
-            int pos = this.positions.next();
-            try {
-                this.file.seek(withContext(pos, ctx));
-                int readBytes = this.file.read(buffer);
-                return new String(buffer, 0, readBytes, StandardCharsets.UTF_8);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+    /**
+     * Finds chunk boundaries of the file. Every chunk is at least chunkSize
+     * bytes long, and ends right after a word boundary, so no word is split
+     * between chunks.
+     *
+     * @param channel   Indexed file.
+     * @param size      Size of the file.
+     * @param chunkSize Minimum size of a chunk.
+     * @return File positions where chunks start, followed by the file size.
+     */
+    private static long @NotNull [] chunkBoundaries(@NotNull FileChannel channel, long size,
+                                                    int chunkSize) throws IOException {
+        final ByteBuffer scanBuffer = ByteBuffer.allocate(MIN_INDEXING_BUFFER_SIZE);
+        final List<Long> boundaries = new ArrayList<>();
+        boundaries.add(0L);
+        long position = chunkSize;
+        while (position < size) {
+            scanBuffer.clear();
+            int nBytes = channel.read(scanBuffer, position);
+            if (nBytes <= 0) {
+                break;
             }
+            int i = 0;
+            while (i < nBytes && !ByteWordTokenizer.isWordBoundary(scanBuffer.get(i))) {
+                i++;
+            }
+            if (i == nBytes) {
+                // Still inside a word, keep scanning.
+                position += nBytes;
+                continue;
+            }
+            final long boundary = position + i + 1;
+            if (boundary < size) {
+                boundaries.add(boundary);
+            }
+            position = boundary + chunkSize;
         }
+        boundaries.add(size);
+        return boundaries.stream().mapToLong(Long::longValue).toArray();
+    }
 
-        @Override
-        public void close() {
-            try {
-                this.file.close();
-            } catch (IOException e) {
-                e.printStackTrace();
+    /**
+     * Finds where the last word of the file starts. If file ends at a word boundary,
+     * there is no last word to finish, and the end of the file is returned.
+     *
+     * @param channel Indexed file.
+     * @param end     End of the indexed part of the file.
+     * @return Position right after the last word boundary before end, or zero if
+     * there is none.
+     */
+    private static long tailStart(@NotNull FileChannel channel, long end) throws IOException {
+        final ByteBuffer scanBuffer = ByteBuffer.allocate(MIN_INDEXING_BUFFER_SIZE);
+        long position = end;
+        while (position > 0) {
+            final int length = (int) Math.min(scanBuffer.capacity(), position);
+            final long start = position - length;
+            scanBuffer.clear().limit(length);
+            while (scanBuffer.hasRemaining()
+                    && channel.read(scanBuffer, start + scanBuffer.position()) > 0) {
+                // Fill the whole range.
             }
+            for (int i = scanBuffer.position() - 1; i >= 0; i--) {
+                if (ByteWordTokenizer.isWordBoundary(scanBuffer.get(i))) {
+                    return start + i + 1;
+                }
+            }
+            position = start;
         }
+        return 0;
+    }
 
-        @Override
-        public Stream<String> stream() {
-            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
-                    this, Spliterator.ORDERED), false);
+    /**
+     * Tokenizes the range of the file to words, and indexes them.
+     *
+     * @param channel  Indexed file.
+     * @param start    Start of the range. Must be at the start of the file,
+     *                 or right after a word boundary.
+     * @param end      End of the range. Must be at the end of the file, or
+     *                 right after a word boundary.
+     * @param terms    Term table to store words to.
+     * @param entries  Entries of the terms, in term order. Entry may be null, when
+     *                 term has no positions in this range yet.
+     * @param analyzer Analyzer used in tokenization.
+     */
+    private static void indexRange(@NotNull FileChannel channel, long start, long end,
+                                   @NotNull TermTable terms, @NotNull List<WordEntry> entries,
+                                   @NotNull IndexAnalyzer analyzer) throws IOException {
+        final byte[] readBuffer = new byte[MIN_INDEXING_BUFFER_SIZE];
+        final ByteBuffer readTarget = ByteBuffer.wrap(readBuffer);
+        final ByteWordTokenizer tokenizer = new ByteWordTokenizer(analyzer);
+        final ByteWordTokenizer.TokenVisitor visitor = (buffer, wordStart, length, filePosition) -> {
+            final int term = terms.add(buffer, wordStart, length);
+            final WordEntry entry = term < entries.size() ? entries.get(term) : null;
+            if (entry != null) {
+                entry.addFilePosition(filePosition);
+            } else if (term < entries.size()) {
+                entries.set(term, new WordEntry(terms.word(term), filePosition));
+            } else {
+                // First occurrence of the word, only now the word is materialized.
+                entries.add(new WordEntry(terms.word(term), filePosition));
+            }
+        };
+
+        // File position of the first byte in read buffer.
+        int position = Math.toIntExact(start);
+        long next = start;
+        int truncatedBytes = 0;
+        while (next < end) {
+            readTarget.limit((int) Math.min(readBuffer.length, truncatedBytes + (end - next)));
+            readTarget.position(truncatedBytes);
+            while (readTarget.hasRemaining()) {
+                if (channel.read(readTarget, next + (readTarget.position() - truncatedBytes)) < 0) {
+                    break;
+                }
+            }
+            final int nBytes = readTarget.position() - truncatedBytes;
+            if (nBytes <= 0) {
+                // File got shorter while indexing.
+                tokenizer.tokenize(readBuffer, truncatedBytes, true, position, visitor);
+                break;
+            }
+            next += nBytes;
+
+            final int bufferContentLength = nBytes + truncatedBytes;
+            truncatedBytes = tokenizer.tokenize(readBuffer, bufferContentLength, next >= end,
+                    position, visitor);
+            // Truncated bytes were moved to start of the buffer.
+            position += bufferContentLength - truncatedBytes;
         }
     }
+
+    /**
+     * Indexed state of the file. State is replaced as a whole, so the index and
+     * the indexed part of the file always match each other.
+     *
+     * @param index     Terms and positions of the index.
+     * @param source    Stamp of the indexed file, taken before indexing.
+     * @param indexedTo File position up to which the file is indexed.
+     * @param tailStart Start of the last indexed word, when indexed part doesn't
+     *                  end at a word boundary. Otherwise same as indexedTo.
+     */
+    private record IndexState(@NotNull IndexSegments index,
+                              @NotNull IndexSnapshot.SourceStamp source, long indexedTo,
+                              long tailStart) {
+    }
+
+    /**
+     * Index of a single file chunk, built by a parallel indexing task.
+     *
+     * @param terms   Terms of the chunk.
+     * @param entries Entries of the terms, in term order.
+     */
+    private record PartialIndex(@NotNull TermTable terms, @NotNull List<WordEntry> entries) {
+    }
 }
@@ -33,7 +33,8 @@ public class BufferedWordTokenizer implements Iterable<WordToken> {
                 // In that case, we are at the end of the whole text read.
                 // Don't check for whitespace.
                 if (nBytes < buffer.length) {
-                    wordStart = storeToken(buffer, wordStart, wordEnd + 1);
+                    final int end = isWhitespace(buffer[wordEnd]) ? wordEnd : wordEnd + 1;
+                    wordStart = storeToken(buffer, wordStart, end);
                 } else if (!isWhitespace(buffer[wordEnd])) {
                     this.truncate = (wordEnd - wordStart) + 1;
                     System.arraycopy(buffer, wordStart, buffer, 0, this.truncate);
@@ -54,7 +55,7 @@ public class BufferedWordTokenizer implements Iterable<WordToken> {
      * @return True if byte is whitespace character.
      */
     private boolean isWhitespace(byte b) {
-        return Character.isWhitespace((char) b);
+        return ByteWordTokenizer.isWordBoundary(b);
     }
 
     /**
@@ -0,0 +1,154 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.jetbrains.annotations.NotNull;
+import org.nse.thesis.wordindex.analyzers.IndexAnalyzer;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming tokenizer that extracts normalized words straight from a byte buffer.
+ * Unlike {@link BufferedWordTokenizer}, no objects are created per word. Words are
+ * normalized in place, and pushed to {@link TokenVisitor} as a slice of the buffer.
+ * <p>
+ * Words break at whitespace, and are normalized like {@link JavaWordIndex#normalize}
+ * does: word is cut at the first analyzer delimiter and lowercased.
+ * Words that contain non ASCII bytes are normalized through {@link String}.
+ * </p>
+ *
+ * @author Niklas Seppälä
+ */
+public class ByteWordTokenizer {
+    private static final boolean[] WORD_BOUNDARIES = new boolean[256];
+    private static final int ASCII = 128;
+
+    static {
+        for (int b = 0; b < WORD_BOUNDARIES.length; b++) {
+            WORD_BOUNDARIES[b] = Character.isWhitespace((char) (byte) b);
+        }
+    }
+
+    private final IndexAnalyzer analyzer;
+    private final boolean[] delimiters = new boolean[ASCII];
+
+    /**
+     * Receives words from the tokenizer. Word bytes are valid only during the call.
+     */
+    @FunctionalInterface
+    public interface TokenVisitor {
+        /**
+         * Called for each normalized word.
+         *
+         * @param buffer       Buffer holding the word.
+         * @param start        Start of the word in the buffer.
+         * @param length       Length of the normalized word in bytes.
+         * @param filePosition Position of the word in the file.
+         */
+        void visit(byte @NotNull [] buffer, int start, int length, int filePosition);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param analyzer Analyzer used in tokenization.
+     */
+    public ByteWordTokenizer(@NotNull IndexAnalyzer analyzer) {
+        this.analyzer = analyzer;
+        for (int c = 0; c < ASCII; c++) {
+            this.delimiters[c] = analyzer.breakAt((char) c);
+        }
+    }
+
+    /**
+     * Check if byte ends a word token. Tokenizer splits words only
+     * at these bytes.
+     *
+     * @param b Byte to check
+     * @return True if byte is whitespace character.
+     */
+    public static boolean isWordBoundary(byte b) {
+        return WORD_BOUNDARIES[b & 0xFF];
+    }
+
+    /**
+     * Tokenizes words from the buffer. If buffer ends in the middle of the word, bytes of
+     * that word are moved to the start of the buffer, so caller can continue filling the
+     * buffer after them. Word that fills the whole buffer is split.
+     *
+     * @param buffer       Buffer to tokenize words from. Words are normalized in place.
+     * @param length       Number of bytes in the buffer.
+     * @param endOfInput   Is this the last buffer of the input.
+     * @param filePosition File position of the first byte in the buffer.
+     * @param visitor      Visitor that receives the words.
+     * @return Number of bytes moved to the start of the buffer.
+     */
+    public int tokenize(byte @NotNull [] buffer, int length, boolean endOfInput,
+                        int filePosition, @NotNull TokenVisitor visitor) {
+        int wordStart = 0;
+        for (int i = 0; i < length; i++) {
+            if (isWordBoundary(buffer[i])) {
+                if (i > wordStart) {
+                    visitWord(buffer, wordStart, i - wordStart, filePosition, visitor);
+                }
+                wordStart = i + 1;
+            }
+        }
+        if (wordStart == length) {
+            return 0;
+        }
+        if (endOfInput || (wordStart == 0 && length == buffer.length)) {
+            visitWord(buffer, wordStart, length - wordStart, filePosition, visitor);
+            return 0;
+        }
+        final int truncated = length - wordStart;
+        System.arraycopy(buffer, wordStart, buffer, 0, truncated);
+        return truncated;
+    }
+
+    /**
+     * Normalizes the word in place, and passes it to visitor.
+     *
+     * @param buffer       Buffer holding the word.
+     * @param start        Start of the word.
+     * @param length       Length of the word.
+     * @param filePosition File position of the buffer.
+     * @param visitor      Visitor that receives the word.
+     */
+    private void visitWord(byte @NotNull [] buffer, int start, int length, int filePosition,
+                           @NotNull TokenVisitor visitor) {
+        int normalized = 0;
+        for (; normalized < length; normalized++) {
+            final byte b = buffer[start + normalized];
+            if (b < 0) {
+                visitNonAsciiWord(buffer, start, length, filePosition, visitor);
+                return;
+            }
+            if (this.delimiters[b]) {
+                break;
+            }
+            if (b >= 'A' && b <= 'Z') {
+                buffer[start + normalized] = (byte) (b + ('a' - 'A'));
+            }
+        }
+        visitor.visit(buffer, start, normalized, filePosition + start);
+    }
+
+    /**
+     * Slow path for words that contain non ASCII characters.
+     *
+     * @param buffer       Buffer holding the word.
+     * @param start        Start of the word.
+     * @param length       Length of the word.
+     * @param filePosition File position of the buffer.
+     * @param visitor      Visitor that receives the word.
+     */
+    private void visitNonAsciiWord(byte @NotNull [] buffer, int start, int length,
+                                   int filePosition, @NotNull TokenVisitor visitor) {
+        final String word = new String(buffer, start, length, StandardCharsets.UTF_8);
+        if (word.isBlank()) {
+            return;
+        }
+        final byte[] normalized = JavaWordIndex.normalize(word, this.analyzer)
+                .getBytes(StandardCharsets.UTF_8);
+        visitor.visit(normalized, 0, normalized.length, filePosition + start);
+    }
+}
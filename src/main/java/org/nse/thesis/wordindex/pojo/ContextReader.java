@@ -0,0 +1,24 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads words with their context from the indexed file.
+ *
+ * @author Niklas Seppälä
+ */
+interface ContextReader extends Closeable {
+
+    /**
+     * Reads bytes from indexed file into the buffer.
+     *
+     * @param position File position to start reading from.
+     * @param buffer   Buffer to read into. Reader tries to fill it.
+     * @return Number of bytes read, -1 if position is at or past the end of the file.
+     * @throws IOException When reading fails.
+     */
+    int read(int position, byte @NotNull [] buffer) throws IOException;
+}
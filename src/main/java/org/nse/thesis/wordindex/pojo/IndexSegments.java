@@ -0,0 +1,208 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Terms and positions of an index, that is extended by appending to the file.
+ * <p>
+ * Index is a frozen base, and a tail of the words indexed after it. Base term
+ * table and posting lists are never modified, so appending shares them with
+ * the previous index, and only rebuilds the tail. Words that are new to the
+ * base are stored in a tail term table, and their term numbers continue after
+ * the base terms.
+ * </p>
+ * Appending costs the size of the tail, not the size of the whole index. When
+ * the tail grows past {@link #COMPACTION_RATIO}th of the base positions, it is
+ * merged into a new base, so tail stays small compared to the base, and merging
+ * cost is spread over the appends.
+ *
+ * @author Niklas Seppälä
+ */
+final class IndexSegments {
+    /**
+     * Tail is merged into the base, when it has more positions than the
+     * base divided by this.
+     */
+    static final int COMPACTION_RATIO = 8;
+
+    private final TermTable terms;
+    private final PostingLists postings;
+    private final int cut;
+    private final TermTable tailTerms;
+    private final PostingTail tail;
+
+    /**
+     * @param terms    Terms of the base.
+     * @param postings Postings of the base, term numbers matching the term table.
+     */
+    IndexSegments(@NotNull TermTable terms, @NotNull PostingLists postings) {
+        this(terms, postings, Integer.MAX_VALUE, new TermTable(0), PostingTail.EMPTY);
+    }
+
+    /**
+     * @param terms     Terms of the base.
+     * @param postings  Postings of the base.
+     * @param cut       File position, from which base positions are dropped.
+     * @param tailTerms Terms that are not in the base.
+     * @param tail      Positions appended after the base.
+     */
+    private IndexSegments(@NotNull TermTable terms, @NotNull PostingLists postings, int cut,
+                          @NotNull TermTable tailTerms, @NotNull PostingTail tail) {
+        this.terms = terms;
+        this.postings = postings;
+        this.cut = cut;
+        this.tailTerms = tailTerms;
+        this.tail = tail;
+    }
+
+    /**
+     * Appends indexed words to the index. Positions from the cut position onwards
+     * are dropped, as the word starting at the cut was indexed again.
+     *
+     * @param cut      File position, which is the start of the appended positions.
+     * @param terms    Terms of the appended words.
+     * @param appended Entries of the appended words, in term order.
+     * @return New index, this index is left untouched.
+     */
+    @NotNull IndexSegments append(int cut, @NotNull TermTable terms,
+                                  @NotNull List<WordEntry> appended) {
+        final TermTable tailTerms = new TermTable(this.tailTerms);
+        final int[] mapping = new int[terms.size()];
+        for (int term = 0; term < mapping.length; term++) {
+            final int baseTerm = this.terms.find(terms, term);
+            mapping[term] = baseTerm != TermTable.NOT_FOUND ? baseTerm
+                    : this.terms.size() + tailTerms.add(terms, term);
+        }
+        final PostingTail tail = this.tail.append(cut, mapping, appended);
+        final IndexSegments index = new IndexSegments(this.terms, this.postings,
+                Math.min(this.cut, cut), tailTerms, tail);
+        if ((long) tail.size() * COMPACTION_RATIO > this.postings.size()) {
+            return index.compact();
+        }
+        return index;
+    }
+
+    /**
+     * Merges the tail into the base.
+     *
+     * @return Index without a tail, or this index if it has no tail.
+     */
+    @NotNull IndexSegments compact() {
+        if (this.cut == Integer.MAX_VALUE && this.tailTerms.size() == 0) {
+            return this;
+        }
+        final TermTable terms = new TermTable(this.terms);
+        // Tail terms are not in the base, so they keep their numbers.
+        terms.addAll(this.tailTerms);
+        return new IndexSegments(terms,
+                PostingLists.extend(this.postings, this.cut, terms.size(), this.tail));
+    }
+
+    /**
+     * Finds the term number of the word.
+     *
+     * @param bytes  Buffer holding the word.
+     * @param start  Start of the word.
+     * @param length Length of the word.
+     * @return Term number, or {@link TermTable#NOT_FOUND}.
+     */
+    int find(byte @NotNull [] bytes, int start, int length) {
+        final int term = this.terms.find(bytes, start, length);
+        if (term != TermTable.NOT_FOUND) {
+            return term;
+        }
+        final int tailTerm = this.tailTerms.find(bytes, start, length);
+        return tailTerm == TermTable.NOT_FOUND ? TermTable.NOT_FOUND
+                : this.terms.size() + tailTerm;
+    }
+
+    /**
+     * @return Number of terms in the index.
+     */
+    int size() {
+        return this.terms.size() + this.tailTerms.size();
+    }
+
+    /**
+     * @param term Term number.
+     * @return Length of the term in bytes.
+     */
+    int length(int term) {
+        final int baseTerms = this.terms.size();
+        return term < baseTerms ? this.terms.length(term) : this.tailTerms.length(term - baseTerms);
+    }
+
+    /**
+     * @param term Term number.
+     * @return Term decoded to String.
+     */
+    @NotNull String word(int term) {
+        final int baseTerms = this.terms.size();
+        return term < baseTerms ? this.terms.word(term) : this.tailTerms.word(term - baseTerms);
+    }
+
+    /**
+     * @param term Term number.
+     * @return Number of positions of the term.
+     */
+    int count(int term) {
+        final int index = this.tail.find(term);
+        final int tailCount = index == PostingTail.NOT_FOUND ? 0
+                : this.tail.end(index) - this.tail.start(index);
+        return this.baseCount(term) + tailCount;
+    }
+
+    /**
+     * Positions of the term, indexed from zero to {@link #count(int)}.
+     *
+     * @param term Term number.
+     * @return File positions of the term by index, in file order.
+     */
+    @NotNull IntUnaryOperator positions(int term) {
+        final int baseCount = this.baseCount(term);
+        final int baseStart = baseCount == 0 ? 0 : this.postings.start(term);
+        final int index = this.tail.find(term);
+        if (index == PostingTail.NOT_FOUND) {
+            return i -> this.postings.position(baseStart + i);
+        }
+        final int tailStart = this.tail.start(index) - baseCount;
+        return i -> i < baseCount ? this.postings.position(baseStart + i)
+                : this.tail.position(tailStart + i);
+    }
+
+    /**
+     * @return Terms of the base. Whole index after {@link #compact()}.
+     */
+    @NotNull TermTable terms() {
+        return this.terms;
+    }
+
+    /**
+     * @return Postings of the base. Whole index after {@link #compact()}.
+     */
+    @NotNull PostingLists postings() {
+        return this.postings;
+    }
+
+    /**
+     * @return Memory held by the index in bytes, roughly.
+     */
+    long memoryUsage() {
+        return this.terms.memoryUsage() + this.postings.memoryUsage()
+                + this.tailTerms.memoryUsage() + this.tail.memoryUsage();
+    }
+
+    /**
+     * @param term Term number.
+     * @return Number of positions of the term in the base, before the cut.
+     */
+    private int baseCount(int term) {
+        if (term >= this.postings.terms()) {
+            return 0;
+        }
+        return this.postings.end(term, this.cut) - this.postings.start(term);
+    }
+}
@@ -0,0 +1,290 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.jetbrains.annotations.NotNull;
+import org.nse.thesis.wordindex.analyzers.IndexAnalyzer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+
+/**
+ * Index snapshot mapped to memory. Snapshot is queried straight from the mapping,
+ * nothing is deserialized when it is loaded.
+ * <p>
+ * Snapshot is tied to the size and modification time of the indexed file, and
+ * loading fails when those don't match anymore. Native library writes and reads
+ * the same format. All integers are unsigned 32-bit little-endian, unless told
+ * otherwise.
+ * </p>
+ * <pre>
+ *     header:          magic "WIDX", version, analyzer, flags,
+ *                      source size (64-bit), source modification time in ms (64-bit),
+ *                      term count, slot count, position count, arena size
+ *     slots:           term number or 0xFFFFFFFF, slot count entries
+ *     hashes:          hash of each term
+ *     term offsets:    offset of each term in arena, followed by arena size
+ *     posting offsets: offset of each term in positions, followed by position count
+ *     positions:       file positions of all terms
+ *     arena:           UTF-8 bytes of all terms
+ * </pre>
+ * Slots are an open addressing table with linear probing, and terms are hashed
+ * with {@link TermTable#hash(byte[], int, int)}.
+ *
+ * @author Niklas Seppälä
+ */
+final class IndexSnapshot {
+    /**
+     * "WIDX" in little-endian.
+     */
+    static final int MAGIC = 0x58444957;
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+    private static final int EMPTY = -1;
+
+    private final MappedByteBuffer buffer;
+    private final int terms;
+    private final int mask;
+    private final int slots;
+    private final int hashes;
+    private final int termOffsets;
+    private final int postingOffsets;
+    private final int positions;
+    private final int arena;
+
+    /**
+     * Size and modification time of the indexed file, when it was indexed.
+     *
+     * @param size     File size in bytes.
+     * @param modified Modification time in milliseconds.
+     */
+    record SourceStamp(long size, long modified) {
+        /**
+         * @param source Indexed file.
+         * @return Current stamp of the file.
+         * @throws IOException When file attributes can't be read.
+         */
+        static @NotNull SourceStamp of(@NotNull Path source) throws IOException {
+            final BasicFileAttributes attrs = Files.readAttributes(source,
+                    BasicFileAttributes.class);
+            return new SourceStamp(attrs.size(), attrs.lastModifiedTime().toMillis());
+        }
+    }
+
+    /**
+     * @param buffer Mapped snapshot, with validated header.
+     */
+    private IndexSnapshot(@NotNull MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        this.terms = buffer.getInt(32);
+        final int slotCount = buffer.getInt(36);
+        this.mask = slotCount - 1;
+        this.slots = HEADER_SIZE;
+        this.hashes = this.slots + (slotCount << 2);
+        this.termOffsets = this.hashes + (this.terms << 2);
+        this.postingOffsets = this.termOffsets + ((this.terms + 1) << 2);
+        this.positions = this.postingOffsets + ((this.terms + 1) << 2);
+        this.arena = this.positions + (buffer.getInt(40) << 2);
+    }
+
+    /**
+     * Writes the snapshot. Snapshot is first written to a temporary file, which is
+     * then moved over the snapshot, so readers never see a partially written snapshot.
+     *
+     * @param snapshot Path of the snapshot file.
+     * @param source   Stamp of the indexed file.
+     * @param analyzer Analyzer used in indexing.
+     * @param terms    Terms of the index.
+     * @param postings Postings of the index, term numbers matching the term table.
+     * @throws IOException When snapshot can't be written.
+     */
+    static void write(@NotNull Path snapshot, @NotNull SourceStamp source,
+                      @NotNull IndexAnalyzer analyzer, @NotNull TermTable terms,
+                      @NotNull PostingLists postings) throws IOException {
+        final int termCount = terms.size();
+        final int positionCount = postings.start(postings.terms());
+        final int slotCount = Integer.highestOneBit(Math.max(termCount, 1)) << 2;
+        final long size = HEADER_SIZE + 4L * slotCount + 4L * termCount
+                + 8L * (termCount + 1) + 4L * positionCount + terms.arenaLength();
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Index is too large for a snapshot");
+        }
+
+        final ByteBuffer out = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).putInt(VERSION).putInt(analyzer.asNative()).putInt(0)
+                .putLong(source.size()).putLong(source.modified())
+                .putInt(termCount).putInt(slotCount).putInt(positionCount)
+                .putInt(terms.arenaLength());
+
+        final int[] slotTable = new int[slotCount];
+        Arrays.fill(slotTable, EMPTY);
+        for (int term = 0; term < termCount; term++) {
+            int slot = terms.hashOf(term) & (slotCount - 1);
+            while (slotTable[slot] != EMPTY) {
+                slot = (slot + 1) & (slotCount - 1);
+            }
+            slotTable[slot] = term;
+        }
+        out.asIntBuffer().put(slotTable);
+        out.position(out.position() + (slotCount << 2));
+
+        for (int term = 0; term < termCount; term++) {
+            out.putInt(terms.hashOf(term));
+        }
+        for (int term = 0; term < termCount; term++) {
+            out.putInt(terms.offset(term));
+        }
+        out.putInt(terms.arenaLength());
+        for (int term = 0; term <= termCount; term++) {
+            out.putInt(postings.start(term));
+        }
+        for (int i = 0; i < positionCount; i++) {
+            out.putInt(postings.position(i));
+        }
+        terms.copyArena(out);
+        out.flip();
+
+        final Path temporary = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+        Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Maps the snapshot, and checks that it matches the indexed file.
+     *
+     * @param snapshot Path of the snapshot file.
+     * @param source   Indexed file.
+     * @param analyzer Analyzer, that must be the one snapshot was indexed with.
+     * @return Mapped snapshot.
+     * @throws IOException When snapshot can't be read, is corrupted, or is stale.
+     */
+    static @NotNull IndexSnapshot open(@NotNull Path snapshot, @NotNull Path source,
+                                       @NotNull IndexAnalyzer analyzer) throws IOException {
+        final MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid snapshot " + snapshot);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Invalid snapshot " + snapshot);
+        }
+        if (buffer.getInt(8) != analyzer.asNative()) {
+            throw new IOException("Snapshot " + snapshot + " was indexed with another analyzer");
+        }
+        final SourceStamp stamp = SourceStamp.of(source);
+        if (buffer.getLong(16) != stamp.size() || buffer.getLong(24) != stamp.modified()) {
+            throw new IOException("Snapshot " + snapshot + " is stale");
+        }
+
+        final long terms = Integer.toUnsignedLong(buffer.getInt(32));
+        final long slotCount = Integer.toUnsignedLong(buffer.getInt(36));
+        final long expected = HEADER_SIZE + 4 * slotCount + 4 * terms + 8 * (terms + 1)
+                + 4 * Integer.toUnsignedLong(buffer.getInt(40))
+                + Integer.toUnsignedLong(buffer.getInt(44));
+        if (Long.bitCount(slotCount) != 1 || slotCount <= terms || expected != buffer.capacity()) {
+            throw new IOException("Invalid snapshot " + snapshot);
+        }
+        return new IndexSnapshot(buffer);
+    }
+
+    /**
+     * Finds the term number of the word.
+     *
+     * @param bytes  Buffer holding the normalized word.
+     * @param start  Start of the word.
+     * @param length Length of the word.
+     * @return Term number, or {@link TermTable#NOT_FOUND}.
+     */
+    int find(byte @NotNull [] bytes, int start, int length) {
+        final int h = TermTable.hash(bytes, start, length);
+        int slot = h & this.mask;
+        int term;
+        while ((term = this.buffer.getInt(this.slots + (slot << 2))) != EMPTY) {
+            if (this.buffer.getInt(this.hashes + (term << 2)) == h
+                    && termEquals(term, bytes, start, length)) {
+                return term;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return TermTable.NOT_FOUND;
+    }
+
+    /**
+     * @param term Term number.
+     * @return Length of the term in bytes.
+     */
+    int length(int term) {
+        final int offset = this.termOffsets + (term << 2);
+        return this.buffer.getInt(offset + 4) - this.buffer.getInt(offset);
+    }
+
+    /**
+     * @param term Term number.
+     * @return Offset of the first position of the term.
+     */
+    int start(int term) {
+        return this.buffer.getInt(this.postingOffsets + (term << 2));
+    }
+
+    /**
+     * @param term Term number.
+     * @return Offset after the last position of the term.
+     */
+    int end(int term) {
+        return this.buffer.getInt(this.postingOffsets + ((term + 1) << 2));
+    }
+
+    /**
+     * @param offset Offset in positions.
+     * @return File position at specified offset.
+     */
+    int position(int offset) {
+        return this.buffer.getInt(this.positions + (offset << 2));
+    }
+
+    /**
+     * @return Number of terms.
+     */
+    int terms() {
+        return this.terms;
+    }
+
+    /**
+     * Compares the term to the word.
+     *
+     * @param term   Term number.
+     * @param bytes  Buffer holding the word.
+     * @param start  Start of the word.
+     * @param length Length of the word.
+     * @return True if term and the word are equal.
+     */
+    private boolean termEquals(int term, byte @NotNull [] bytes, int start, int length) {
+        if (length(term) != length) {
+            return false;
+        }
+        final int offset = this.arena + this.buffer.getInt(this.termOffsets + (term << 2));
+        for (int i = 0; i < length; i++) {
+            if (this.buffer.get(offset + i) != bytes[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,116 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.jetbrains.annotations.NotNull;
+import org.nse.thesis.wordindex.WordContextIterator;
+import org.nse.thesis.wordindex.WordIndex;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterator that iterates over word's file positions, and returns result
+ * strings containing the word + context. Shared by the Java indexes, which
+ * differ only in where the positions are stored.
+ *
+ * @author Niklas Seppälä
+ */
+final class JavaWordContextIterator implements WordContextIterator {
+
+    private final ContextReader reader;
+    private final WordIndex.ContextBytes ctx;
+    private final IntUnaryOperator positions;
+    private final int end;
+    private final byte[] buffer;
+    private int cursor;
+
+    /**
+     * @param reader     Reader of the indexed file.
+     * @param ctx        Search context size in bytes.
+     * @param wordLength Length of the word.
+     * @param start      Offset of the first position of the word.
+     * @param end        Offset after the last position of the word.
+     * @param positions  Maps offsets to file positions.
+     */
+    JavaWordContextIterator(@NotNull ContextReader reader, @NotNull WordIndex.ContextBytes ctx,
+                            int wordLength, int start, int end,
+                            @NotNull IntUnaryOperator positions) {
+        this.reader = reader;
+        this.ctx = ctx;
+        this.positions = positions;
+        this.cursor = start;
+        this.end = end;
+        this.buffer = new byte[(ctx.size() << 1) + wordLength];
+    }
+
+    /**
+     * Finds position in a file, when search context size
+     * is calculated.
+     *
+     * @param pos Word position.
+     * @param ctx Context size in bytes.
+     * @return File position from word, with context. No value less than zero is returned.
+     */
+    static int withContext(int pos, @NotNull WordIndex.ContextBytes ctx) {
+        return Math.max(pos - ctx.size(), 0);
+    }
+
+    /**
+     * Basic case for read length is ctx + word + ctx.
+     * When there is not enough leading or trailing bytes to satisfy this case,
+     * we read what we have.
+     *
+     * @param ctx        Context size in bytes
+     * @param pos        file position
+     * @param bufferSize Size of the buffer (basic case)
+     * @return How many bytes we should actually read.
+     */
+    static int getActualReadLength(@NotNull WordIndex.ContextBytes ctx, int pos,
+                                   int bufferSize) {
+        int truncateBeginning = pos - ctx.size();
+        int actualReadLength = bufferSize;
+        if (truncateBeginning < 0) {
+            actualReadLength += truncateBeginning;
+        }
+        return actualReadLength;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.cursor < this.end;
+    }
+
+    @Override
+    public String next() {
+        if (this.cursor >= this.end) {
+            throw new NoSuchElementException();
+        }
+        int pos = this.positions.applyAsInt(this.cursor++);
+        try {
+            int readBytes = this.reader.read(withContext(pos, ctx), buffer);
+            return new String(buffer, 0, Math.max(readBytes, 0), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.reader.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public Stream<String> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                this, Spliterator.ORDERED), false);
+    }
+}
@@ -2,6 +2,7 @@ package org.nse.thesis.wordindex.pojo;
 
 import org.jetbrains.annotations.NotNull;
 import org.nse.thesis.wordindex.WordContextIterator;
+import org.nse.thesis.wordindex.WordHit;
 import org.nse.thesis.wordindex.WordIndex;
 import org.nse.thesis.wordindex.analyzers.IndexAnalyzer;
 
@@ -12,8 +13,9 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
+
+import static org.nse.thesis.wordindex.pojo.JavaWordContextIterator.getActualReadLength;
+import static org.nse.thesis.wordindex.pojo.JavaWordContextIterator.withContext;
 
 /**
  * Index that indexes words to their positions in the file.
@@ -25,6 +27,11 @@ public class JavaWordIndex implements WordIndex {
     private final String path;
     private final Map<@NotNull String, @NotNull WordEntry> index;
     private final IndexAnalyzer analyzer;
+    private final PostingLists postings;
+    private final MappedFile mappedFile;
+    private final SharedFileChannel fileChannel;
+    private final IndexSnapshot.SourceStamp source;
+    private final MappedFile.Lazy hitsFile;
 
     /**
      * Creates Word index over specified text file.
@@ -37,25 +44,44 @@ public class JavaWordIndex implements WordIndex {
     public JavaWordIndex(@NotNull String path, @NotNull IndexAnalyzer analyzer,
                          int wordEstimate)
             throws FileNotFoundException {
+        this(path, analyzer, wordEstimate, false);
+    }
+
+    /**
+     * Creates Word index over specified text file.
+     *
+     * @param path          Path to text file to be indexed.
+     * @param analyzer      Analyzer used in tokenizing text to words.
+     * @param wordEstimate  Estimated word count of the file.
+     * @param mapFile       Should indexed file be mapped to memory. Context windows
+     *                      are then read from the mapping, instead of the file.
+     * @throws FileNotFoundException When file path is invalid.
+     */
+    public JavaWordIndex(@NotNull String path, @NotNull IndexAnalyzer analyzer,
+                         int wordEstimate, boolean mapFile)
+            throws FileNotFoundException {
         if (Files.notExists(Path.of(path))) {
             throw new FileNotFoundException(path);
         }
         this.path = path;
         this.analyzer = analyzer;
+        try {
+            // Stamp is taken before indexing, so changes made during indexing
+            // make the snapshot stale.
+            this.source = IndexSnapshot.SourceStamp.of(Path.of(path));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to index file", e);
+        }
         this.index = new HashMap<>(wordEstimate);
         this.doIndexing();
-    }
-
-    /**
-     * Finds position in a file, when search context size
-     * is calculated.
-     *
-     * @param pos Word position.
-     * @param ctx Context size in bytes.
-     * @return File position from word, with context. No value less than zero is returned.
-     */
-    private static int withContext(int pos, @NotNull WordIndex.ContextBytes ctx) {
-        return Math.max(pos - ctx.size(), 0);
+        this.postings = PostingLists.freeze(this.index.values());
+        try {
+            this.mappedFile = mapFile ? new MappedFile(path) : null;
+            this.fileChannel = mapFile ? null : new SharedFileChannel(path);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open file", e);
+        }
+        this.hitsFile = mapFile ? new MappedFile.Lazy(this.mappedFile) : new MappedFile.Lazy(path);
     }
 
     /**
@@ -102,15 +128,17 @@ public class JavaWordIndex implements WordIndex {
         }
 
         List<String> results = new ArrayList<>();
-        try (final RandomAccessFile file = new RandomAccessFile(this.path, READ_MODE)) {
+        try (final ContextReader reader = this.openReader()) {
             byte[] buffer = new byte[(ctx.size() << 1) + entry.getWord().length()];
-            for (Integer pos : entry.getFilePositions()) {
+            final int end = this.postings.end(entry.getTerm());
+            for (int i = this.postings.start(entry.getTerm()); i < end; i++) {
+                final int pos = this.postings.position(i);
                 int actualReadLength = getActualReadLength(ctx, pos, buffer.length);
 
-                file.seek(withContext(pos, ctx));
-                int readBytes = file.read(buffer);
+                int readBytes = reader.read(withContext(pos, ctx), buffer);
 
-                String str = new String(buffer, 0, Math.min(readBytes, actualReadLength),
+                String str = new String(buffer, 0,
+                        Math.max(Math.min(readBytes, actualReadLength), 0),
                         StandardCharsets.UTF_8);
                 results.add(str);
             }
@@ -120,6 +148,47 @@ public class JavaWordIndex implements WordIndex {
         return results;
     }
 
+    /**
+     * Query the index for file positions of all occurrences of the word.
+     *
+     * @param word Word to search for.
+     * @return File positions of the word, in file order.
+     */
+    @Override
+    public long @NotNull [] getPositions(@NotNull String word) {
+        WordEntry entry = this.index.get(normalize(word, this.analyzer));
+        if (entry == null) {
+            return new long[0];
+        }
+        final int start = this.postings.start(entry.getTerm());
+        final long[] positions = new long[this.postings.end(entry.getTerm()) - start];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = this.postings.position(start + i);
+        }
+        return positions;
+    }
+
+    /**
+     * Query the index for all occurrences of the word, as views over the mapped
+     * file. If index doesn't map the file, it is mapped on the first call.
+     *
+     * @param word Word to search for.
+     * @param ctx  The amount of context bytes to surround the word.
+     * @return Hits of the word, in file order.
+     * @throws IOException When file can't be mapped.
+     */
+    @Override
+    public @NotNull List<WordHit> getHits(@NotNull String word,
+                                          @NotNull WordIndex.ContextBytes ctx)
+            throws IOException {
+        WordEntry entry = this.index.get(normalize(word, this.analyzer));
+        if (entry == null) {
+            return List.of();
+        }
+        return WordHit.of(this.hitsFile.get().buffer(), this.getPositions(word),
+                entry.getWord().getBytes(StandardCharsets.UTF_8).length, ctx);
+    }
+
     /**
      * Queries the index with word with context, results can be accessed through an
      * iterator.
@@ -137,15 +206,43 @@ public class JavaWordIndex implements WordIndex {
         if (entry == null) {
             return (WordContextIterator) (Object) Collections.emptyIterator();
         }
-        return new JavaWordContextIterator(new RandomAccessFile(this.path, READ_MODE),
-                ctx,
-                entry);
+        final PostingLists postings = this.postings;
+        return new JavaWordContextIterator(this.openReader(), ctx,
+                entry.getWord().length(), postings.start(entry.getTerm()),
+                postings.end(entry.getTerm()), postings::position);
 
     }
 
+    /**
+     * Saves the index to a snapshot file, that can be loaded with {@link SnapshotWordIndex}.
+     *
+     * @param snapshot Path of the snapshot file.
+     * @throws IOException When snapshot can't be written.
+     */
+    @Override
+    public void save(@NotNull Path snapshot) throws IOException {
+        // Entries were frozen in iteration order, so term numbers match.
+        final TermTable terms = new TermTable(this.index.size());
+        for (WordEntry entry : this.index.values()) {
+            final byte[] word = entry.getWord().getBytes(StandardCharsets.UTF_8);
+            terms.add(word, 0, word.length);
+        }
+        IndexSnapshot.write(snapshot, this.source, this.analyzer, terms, this.postings);
+    }
+
     @Override
     public void close() {
-        // NOP
+        if (this.mappedFile != null) {
+            this.mappedFile.close();
+        }
+        this.hitsFile.close();
+        if (this.fileChannel != null) {
+            try {
+                this.fileChannel.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to close file", e);
+            }
+        }
     }
 
     @Override
@@ -153,6 +250,20 @@ public class JavaWordIndex implements WordIndex {
         return index.toString();
     }
 
+    /**
+     * Opens reader for reading words with context. If file is mapped, words are
+     * read from the mapping, otherwise from the shared file channel.
+     *
+     * @return Reader, that must be closed.
+     * @throws FileNotFoundException When indexed file got deleted, and it is mapped.
+     */
+    private @NotNull ContextReader openReader() throws FileNotFoundException {
+        if (this.mappedFile != null) {
+            return this.mappedFile.reader();
+        }
+        return this.fileChannel.reader();
+    }
+
     /**
      * Tokenizes the file to words, and indexes them by mapping file positions
      * to words.
@@ -177,81 +288,4 @@ public class JavaWordIndex implements WordIndex {
             throw new RuntimeException("Failed to index file", e);
         }
     }
-
-    /**
-     * Basic case for read length is ctx + word + ctx.
-     * When there is not enough leading or trailing bytes to satisfy this case,
-     * we read what we have.
-     *
-     * @param ctx        Context size in bytesss
-     * @param pos        file position
-     * @param bufferSize Size of the buffer (basic case)
-     * @return How many bytes we should actually read.
-     */
-    private int getActualReadLength(@NotNull ContextBytes ctx, Integer pos,
-                                    int bufferSize) {
-        int truncateBeginning = pos - ctx.size();
-        int actualReadLength = bufferSize;
-        if (truncateBeginning < 0) {
-            actualReadLength += truncateBeginning;
-        }
-        return actualReadLength;
-    }
-
-    /**
-     * Iterator that iterates over word's file positions, and returns result
-     * strings containing the word + context.
-     */
-    private static class JavaWordContextIterator implements WordContextIterator {
-
-        private final RandomAccessFile file;
-        private final ContextBytes ctx;
-        private final Iterator<Integer> positions;
-        private final byte[] buffer;
-
-        /**
-         * @param file  Indexed file.
-         * @param ctx   Search context size in bytes.
-         * @param entry Word file Positions to iterate over.
-         */
-        public JavaWordContextIterator(@NotNull RandomAccessFile file, @NotNull WordIndex.ContextBytes ctx,
-                                       @NotNull WordEntry entry) {
-            this.file = file;
-            this.ctx = ctx;
-            this.positions = entry.getFilePositions().iterator();
-            this.buffer = new byte[(ctx.size() << 1) + entry.getWord().length()];
-        }
-
-        @Override
-        public boolean hasNext() {
-            return positions.hasNext();
-        }
-
-        @Override
-        public String next() {
-            int pos = this.positions.next();
-            try {
-                this.file.seek(withContext(pos, ctx));
-                int readBytes = this.file.read(buffer);
-                return new String(buffer, 0, readBytes, StandardCharsets.UTF_8);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
-
-        @Override
-        public void close() {
-            try {
-                this.file.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-
-        @Override
-        public Stream<String> stream() {
-            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
-                    this, Spliterator.ORDERED), false);
-        }
-    }
 }
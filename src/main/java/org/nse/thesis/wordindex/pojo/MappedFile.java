@@ -0,0 +1,207 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Indexed file mapped to memory. Word contexts are sliced straight from
+ * the mapping, so queries don't do any read syscalls. File is mapped again
+ * only when its size or modification time changes.
+ * <p>
+ * Only first 2GB of the file are mapped, as that is the most a buffer can hold.
+ * </p>
+ *
+ * @author Niklas Seppälä
+ */
+public final class MappedFile {
+    private final Path path;
+    private volatile Mapping mapping;
+
+    /**
+     * Current mapping of the file, and file attributes at the time of mapping.
+     *
+     * @param buffer   Mapped file.
+     * @param size     File size, when it was mapped.
+     * @param modified File modification time.
+     */
+    private record Mapping(@NotNull MappedByteBuffer buffer, long size,
+                           @NotNull FileTime modified) {
+    }
+
+    /**
+     * Mapping of a file, that is mapped on first use. Indexes that don't query
+     * through a mapping hold one, to create {@link org.nse.thesis.wordindex.WordHit}
+     * views over the file.
+     */
+    public static final class Lazy {
+        private final String path;
+        private volatile MappedFile file;
+
+        /**
+         * @param path Path to the file to map.
+         */
+        public Lazy(@NotNull String path) {
+            this.path = path;
+        }
+
+        /**
+         * @param file File that is already mapped.
+         */
+        public Lazy(@NotNull MappedFile file) {
+            this.path = file.path.toString();
+            this.file = file;
+        }
+
+        /**
+         * @return Mapping of the file, mapped on the first call.
+         * @throws IOException When file can't be mapped.
+         */
+        public @NotNull MappedFile get() throws IOException {
+            MappedFile mapped = this.file;
+            if (mapped == null) {
+                synchronized (this) {
+                    mapped = this.file;
+                    if (mapped == null) {
+                        mapped = new MappedFile(this.path);
+                        this.file = mapped;
+                    }
+                }
+            }
+            return mapped;
+        }
+
+        /**
+         * Releases the mapping, if the file was mapped.
+         */
+        public void close() {
+            final MappedFile mapped = this.file;
+            if (mapped != null) {
+                mapped.close();
+            }
+        }
+    }
+
+    /**
+     * @param path Path to the file to map.
+     * @throws IOException When file can't be mapped.
+     */
+    public MappedFile(@NotNull String path) throws IOException {
+        this.path = Path.of(path);
+        this.mapping = map(this.path, Files.readAttributes(this.path,
+                BasicFileAttributes.class));
+    }
+
+    /**
+     * Maps the whole file as read only.
+     *
+     * @param path  File to map.
+     * @param attrs Attributes of the file.
+     * @return New mapping.
+     * @throws IOException When file can't be mapped.
+     */
+    private static @NotNull Mapping map(@NotNull Path path, @NotNull BasicFileAttributes attrs)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // Word positions are ints, so rest of the file could never be read.
+            long size = Math.min(channel.size(), Integer.MAX_VALUE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new Mapping(buffer, attrs.size(), attrs.lastModifiedTime());
+        }
+    }
+
+    /**
+     * Get reader over current mapping of the file. If file has changed since it was
+     * mapped, it is mapped again.
+     *
+     * @return Reader that reads from the mapping. Closing it is a no-op.
+     * @throws FileNotFoundException When file was deleted.
+     */
+    @NotNull ContextReader reader() throws FileNotFoundException {
+        final MappedByteBuffer buffer = this.current().buffer();
+        return new ContextReader() {
+            @Override
+            public int read(int position, byte @NotNull [] dst) {
+                if (position >= buffer.limit()) {
+                    return -1;
+                }
+                int length = Math.min(dst.length, buffer.limit() - position);
+                buffer.get(position, dst, 0, length);
+                return length;
+            }
+
+            @Override
+            public void close() {
+                // NOP, mapping is shared.
+            }
+        };
+    }
+
+    /**
+     * Get current mapping of the file. If file has changed since it was mapped, it
+     * is mapped again.
+     *
+     * @return Read only view of the mapping. Slices of it stay valid, even after file
+     * is mapped again.
+     * @throws FileNotFoundException When file was deleted.
+     */
+    public @NotNull ByteBuffer buffer() throws FileNotFoundException {
+        return this.current().buffer().asReadOnlyBuffer();
+    }
+
+    /**
+     * Releases the mapping. Memory is unmapped, when the buffer gets
+     * garbage collected.
+     */
+    public void close() {
+        this.mapping = null;
+    }
+
+    /**
+     * @return Mapping that matches current state of the file.
+     * @throws FileNotFoundException When file was deleted.
+     */
+    private @NotNull Mapping current() throws FileNotFoundException {
+        Mapping current = this.mapping;
+        if (current == null) {
+            throw new IllegalStateException("Index is closed");
+        }
+        final BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(this.path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            throw new FileNotFoundException(this.path.toString());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (attrs.size() != current.size() || !attrs.lastModifiedTime().equals(current.modified())) {
+            synchronized (this) {
+                current = this.mapping;
+                if (current == null) {
+                    throw new IllegalStateException("Index is closed");
+                }
+                if (attrs.size() != current.size() ||
+                        !attrs.lastModifiedTime().equals(current.modified())) {
+                    try {
+                        current = map(this.path, attrs);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Failed to map file", e);
+                    }
+                    this.mapping = current;
+                }
+            }
+        }
+        return current;
+    }
+}
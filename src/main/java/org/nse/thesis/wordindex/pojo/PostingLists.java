@@ -0,0 +1,158 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+
+/**
+ * Frozen, compact layout of word file positions. Positions of all
+ * terms are stored in a single array, and each term owns a range in it.
+ * <pre>
+ *     offsets:   [0, 3, 5]
+ *     positions: [12, 40, 96, 7, 88]
+ *                 ^term 0    ^term 1
+ * </pre>
+ *
+ * @author Niklas Seppälä
+ */
+final class PostingLists {
+    private final int[] positions;
+    private final int[] offsets;
+
+    /**
+     * @param positions Positions of all terms.
+     * @param offsets   Start offset of each term, followed by end offset
+     *                  of the last term.
+     */
+    private PostingLists(int[] positions, int[] offsets) {
+        this.positions = positions;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Freezes word entries into compact layout. Each entry is assigned
+     * a term number, and it's positions are moved into shared array.
+     *
+     * @param entries Entries to freeze.
+     * @return Frozen posting lists.
+     */
+    static @NotNull PostingLists freeze(@NotNull Collection<WordEntry> entries) {
+        int total = 0;
+        for (WordEntry entry : entries) {
+            total += entry.size();
+        }
+
+        final int[] positions = new int[total];
+        final int[] offsets = new int[entries.size() + 1];
+        int term = 0;
+        int offset = 0;
+        for (WordEntry entry : entries) {
+            offsets[term] = offset;
+            entry.freeze(term++, positions, offset);
+            offset += entry.size();
+        }
+        offsets[term] = offset;
+        return new PostingLists(positions, offsets);
+    }
+
+    /**
+     * Extends frozen posting lists with positions of the tail. Positions from the
+     * cut position onwards are dropped from the base lists, so a word that was
+     * indexed again isn't counted twice.
+     *
+     * @param base  Posting lists to extend.
+     * @param cut   File position, which is the start of the tail positions.
+     * @param terms Number of terms, at least as many as there are terms in base.
+     * @param tail  Positions appended after base, term numbers below terms.
+     * @return New posting lists, base is left untouched.
+     */
+    static @NotNull PostingLists extend(@NotNull PostingLists base, int cut, int terms,
+                                        @NotNull PostingTail tail) {
+        final int baseTerms = base.terms();
+        final int[] baseEnds = new int[baseTerms];
+        int total = tail.size();
+        for (int term = 0; term < baseTerms; term++) {
+            baseEnds[term] = base.end(term, cut);
+            total += baseEnds[term] - base.start(term);
+        }
+
+        final int[] positions = new int[total];
+        final int[] offsets = new int[terms + 1];
+        int offset = 0;
+        int index = 0;
+        for (int term = 0; term < terms; term++) {
+            offsets[term] = offset;
+            if (term < baseTerms) {
+                final int length = baseEnds[term] - base.start(term);
+                System.arraycopy(base.positions, base.start(term), positions, offset, length);
+                offset += length;
+            }
+            if (index < tail.terms() && tail.term(index) == term) {
+                for (int i = tail.start(index); i < tail.end(index); i++) {
+                    positions[offset++] = tail.position(i);
+                }
+                index++;
+            }
+        }
+        offsets[terms] = offset;
+        return new PostingLists(positions, offsets);
+    }
+
+    /**
+     * @param term Term number.
+     * @return Offset of the first position of the term.
+     */
+    int start(int term) {
+        return this.offsets[term];
+    }
+
+    /**
+     * @param term Term number.
+     * @return Offset after the last position of the term.
+     */
+    int end(int term) {
+        return this.offsets[term + 1];
+    }
+
+    /**
+     * @param term Term number.
+     * @param cut  File position, from which positions are dropped.
+     * @return Offset after the last position of the term, that is before the cut.
+     */
+    int end(int term, int cut) {
+        int end = this.end(term);
+        while (end > this.start(term) && this.positions[end - 1] >= cut) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * @param offset Offset in positions array.
+     * @return File position at specified offset.
+     */
+    int position(int offset) {
+        return this.positions[offset];
+    }
+
+    /**
+     * @return Memory held by the posting lists in bytes, roughly.
+     */
+    long memoryUsage() {
+        return 4L * this.positions.length + 4L * this.offsets.length;
+    }
+
+    /**
+     * @return Number of positions of all terms.
+     */
+    int size() {
+        return this.positions.length;
+    }
+
+    /**
+     * @return Number of terms.
+     */
+    int terms() {
+        return this.offsets.length - 1;
+    }
+}
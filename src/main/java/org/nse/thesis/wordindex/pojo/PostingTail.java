@@ -0,0 +1,184 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Posting lists of positions appended after frozen {@link PostingLists}.
+ * Only the terms that have appended positions are stored, in term order,
+ * so tail can be rebuilt without touching the base lists.
+ * <pre>
+ *     terms:     [2, 9]
+ *     offsets:   [0, 2, 3]
+ *     positions: [120, 160, 140]
+ *                 ^term 2   ^term 9
+ * </pre>
+ *
+ * @author Niklas Seppälä
+ */
+final class PostingTail {
+    /**
+     * Tail without positions.
+     */
+    static final PostingTail EMPTY = new PostingTail(new int[0], new int[1], new int[0]);
+    /**
+     * Returned by {@link #find(int)} when term has no positions in the tail.
+     */
+    static final int NOT_FOUND = -1;
+
+    private final int[] terms;
+    private final int[] offsets;
+    private final int[] positions;
+
+    /**
+     * @param terms     Term numbers in ascending order.
+     * @param offsets   Start offset of each term, followed by end offset
+     *                  of the last term.
+     * @param positions Positions of all terms.
+     */
+    private PostingTail(int[] terms, int[] offsets, int[] positions) {
+        this.terms = terms;
+        this.offsets = offsets;
+        this.positions = positions;
+    }
+
+    /**
+     * Appends positions of appended entries to the tail. Positions from the cut
+     * position onwards are dropped from this tail, so a word that was indexed
+     * again isn't counted twice.
+     *
+     * @param cut      File position, which is the start of the appended positions.
+     * @param mapping  Term numbers of appended entries.
+     * @param appended Entries of appended positions, in the order of mapping.
+     * @return New tail, this tail is left untouched.
+     */
+    @NotNull PostingTail append(int cut, int @NotNull [] mapping,
+                                @NotNull List<WordEntry> appended) {
+        // Term number in the high bits, entry index in the low bits.
+        final long[] order = new long[mapping.length];
+        int total = 0;
+        for (int i = 0; i < mapping.length; i++) {
+            order[i] = ((long) mapping[i] << 32) | i;
+            total += appended.get(i).size();
+        }
+        Arrays.sort(order);
+        final int[] ends = new int[this.terms.length];
+        for (int i = 0; i < this.terms.length; i++) {
+            ends[i] = this.end(i, cut);
+            total += ends[i] - this.offsets[i];
+        }
+
+        final int maxTerms = this.terms.length + order.length;
+        final int[] terms = new int[maxTerms];
+        final int[] offsets = new int[maxTerms + 1];
+        final int[] positions = new int[total];
+        int count = 0;
+        int offset = 0;
+        int old = 0;
+        int next = 0;
+        while (old < this.terms.length || next < order.length) {
+            final int oldTerm = old < this.terms.length ? this.terms[old] : Integer.MAX_VALUE;
+            final int nextTerm = next < order.length ? (int) (order[next] >>> 32) : Integer.MAX_VALUE;
+            final int term = Math.min(oldTerm, nextTerm);
+            final int start = offset;
+            if (oldTerm == term) {
+                final int length = ends[old] - this.offsets[old];
+                System.arraycopy(this.positions, this.offsets[old], positions, offset, length);
+                offset += length;
+                old++;
+            }
+            if (nextTerm == term) {
+                final WordEntry entry = appended.get((int) order[next]);
+                entry.freeze(term, positions, offset);
+                offset += entry.size();
+                next++;
+            }
+            if (offset > start) {
+                terms[count] = term;
+                offsets[count++] = start;
+            }
+        }
+        offsets[count] = offset;
+        return new PostingTail(Arrays.copyOf(terms, count), Arrays.copyOf(offsets, count + 1),
+                positions);
+    }
+
+    /**
+     * Finds the index of the term in the tail.
+     *
+     * @param term Term number.
+     * @return Index of the term, or {@link #NOT_FOUND} if term has no positions.
+     */
+    int find(int term) {
+        final int index = Arrays.binarySearch(this.terms, term);
+        return index < 0 ? NOT_FOUND : index;
+    }
+
+    /**
+     * @param index Index of the term in the tail.
+     * @return Offset of the first position of the term.
+     */
+    int start(int index) {
+        return this.offsets[index];
+    }
+
+    /**
+     * @param index Index of the term in the tail.
+     * @return Offset after the last position of the term.
+     */
+    int end(int index) {
+        return this.offsets[index + 1];
+    }
+
+    /**
+     * @param index Index of the term in the tail.
+     * @param cut   File position, from which positions are dropped.
+     * @return Offset after the last position of the term, that is before the cut.
+     */
+    int end(int index, int cut) {
+        int end = this.end(index);
+        while (end > this.start(index) && this.positions[end - 1] >= cut) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * @param offset Offset in positions array.
+     * @return File position at specified offset.
+     */
+    int position(int offset) {
+        return this.positions[offset];
+    }
+
+    /**
+     * @param index Index in the tail.
+     * @return Term number at the index.
+     */
+    int term(int index) {
+        return this.terms[index];
+    }
+
+    /**
+     * @return Number of terms that have positions in the tail.
+     */
+    int terms() {
+        return this.terms.length;
+    }
+
+    /**
+     * @return Number of positions of all terms.
+     */
+    int size() {
+        return this.positions.length;
+    }
+
+    /**
+     * @return Memory held by the tail in bytes, roughly.
+     */
+    long memoryUsage() {
+        return 4L * this.positions.length + 8L * this.terms.length;
+    }
+}
@@ -0,0 +1,132 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Indexed file kept open for the lifetime of the index. Word contexts are read
+ * with positional reads, which don't share seek state, so any number of threads
+ * can query through the same channel without opening the file per query.
+ * <p>
+ * Reads continue from the opened file, even if it is deleted or replaced. If the
+ * channel is closed, because a reading thread was interrupted, the file is opened
+ * again by its path for the other readers. Opened file is then checked to be the
+ * same file, where the platform can tell, and reads fail, if the original file was
+ * deleted or replaced in the meantime.
+ * </p>
+ *
+ * @author Niklas Seppälä
+ */
+final class SharedFileChannel {
+    private final Path path;
+    // Identity of the opened file, or null if platform doesn't provide one.
+    private final Object fileKey;
+    private volatile FileChannel channel;
+    private volatile boolean closed;
+
+    /**
+     * @param path Path to the file to open.
+     * @throws IOException When file can't be opened.
+     */
+    SharedFileChannel(@NotNull String path) throws IOException {
+        this.path = Path.of(path);
+        this.channel = FileChannel.open(this.path, StandardOpenOption.READ);
+        this.fileKey = Files.readAttributes(this.path, BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * Get reader over the shared channel.
+     *
+     * @return Reader that reads from the channel. Closing it is a no-op.
+     */
+    @NotNull ContextReader reader() {
+        return new ContextReader() {
+            @Override
+            public int read(int position, byte @NotNull [] buffer) throws IOException {
+                return SharedFileChannel.this.read(position, buffer);
+            }
+
+            @Override
+            public void close() {
+                // NOP, channel is shared.
+            }
+        };
+    }
+
+    /**
+     * Closes the channel. Reads in progress fail.
+     *
+     * @throws IOException When channel can't be closed.
+     */
+    synchronized void close() throws IOException {
+        this.closed = true;
+        this.channel.close();
+    }
+
+    /**
+     * Reads bytes from the file into the buffer, without moving the channel position.
+     *
+     * @param position File position to start reading from.
+     * @param buffer   Buffer to read into.
+     * @return Number of bytes read, -1 if position is at or past the end of the file.
+     * @throws IOException When reading fails.
+     */
+    private int read(int position, byte @NotNull [] buffer) throws IOException {
+        final ByteBuffer dst = ByteBuffer.wrap(buffer);
+        while (true) {
+            final FileChannel current = this.channel;
+            try {
+                while (dst.hasRemaining()) {
+                    if (current.read(dst, position + dst.position()) < 0) {
+                        return dst.position() == 0 ? -1 : dst.position();
+                    }
+                }
+                return dst.position();
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                if (this.closed) {
+                    throw e;
+                }
+                this.reopen(current);
+                dst.clear();
+            }
+        }
+    }
+
+    /**
+     * Opens the file again, unless another reader already did.
+     *
+     * @param closedChannel Channel that was found closed.
+     * @throws FileNotFoundException When original file was deleted or replaced.
+     * @throws IOException           When file can't be opened.
+     */
+    private synchronized void reopen(@NotNull FileChannel closedChannel) throws IOException {
+        if (this.channel == closedChannel && !this.closed) {
+            final FileChannel reopened;
+            try {
+                reopened = FileChannel.open(this.path, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                throw new FileNotFoundException(this.path.toString());
+            }
+            // Key is read after opening, so a file replaced in between is caught too.
+            final Object key = Files.readAttributes(this.path, BasicFileAttributes.class).fileKey();
+            if (this.fileKey != null && !this.fileKey.equals(key)) {
+                reopened.close();
+                throw new FileNotFoundException(this.path + " was replaced");
+            }
+            this.channel = reopened;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.jetbrains.annotations.NotNull;
+import org.nse.thesis.wordindex.WordContextIterator;
+import org.nse.thesis.wordindex.WordHit;
+import org.nse.thesis.wordindex.WordIndex;
+import org.nse.thesis.wordindex.analyzers.IndexAnalyzer;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+import static org.nse.thesis.wordindex.pojo.JavaWordContextIterator.getActualReadLength;
+import static org.nse.thesis.wordindex.pojo.JavaWordContextIterator.withContext;
+
+/**
+ * Index loaded from a snapshot, written by {@link WordIndex#save(Path)} of
+ * {@link JavaWordIndex} or {@link BufferedJavaWordIndex}. Snapshot is mapped to
+ * memory and queried as is, so loading doesn't index the file again, or
+ * deserialize anything.
+ *
+ * @author Niklas Seppälä
+ */
+public class SnapshotWordIndex implements WordIndex {
+    private final String path;
+    private final Path snapshotPath;
+    private final IndexAnalyzer analyzer;
+    private final IndexSnapshot snapshot;
+    private final MappedFile mappedFile;
+    private final SharedFileChannel fileChannel;
+    private final MappedFile.Lazy hitsFile;
+
+    /**
+     * Loads word index of specified text file from a snapshot.
+     *
+     * @param path     Path to indexed text file.
+     * @param analyzer Analyzer the snapshot was indexed with.
+     * @param snapshot Path to snapshot of the index.
+     * @param mapFile  Should indexed file be mapped to memory. Context windows
+     *                 are then read from the mapping, instead of the file.
+     * @throws FileNotFoundException When file path is invalid.
+     * @throws IOException           When snapshot can't be read, or it doesn't match
+     *                               the current state of the file.
+     */
+    public SnapshotWordIndex(@NotNull String path, @NotNull IndexAnalyzer analyzer,
+                             @NotNull Path snapshot, boolean mapFile) throws IOException {
+        if (Files.notExists(Path.of(path))) {
+            throw new FileNotFoundException(path);
+        }
+        this.path = path;
+        this.snapshotPath = snapshot;
+        this.analyzer = analyzer;
+        this.snapshot = IndexSnapshot.open(snapshot, Path.of(path), analyzer);
+        this.mappedFile = mapFile ? new MappedFile(path) : null;
+        this.fileChannel = mapFile ? null : new SharedFileChannel(path);
+        this.hitsFile = mapFile ? new MappedFile.Lazy(this.mappedFile) : new MappedFile.Lazy(path);
+    }
+
+    /**
+     * Query the index for all occurrences of words from indexed file, with specified
+     * amount of context, on both sides of the word.
+     * <pre>
+     *     [ctx word ctx]
+     * </pre>
+     *
+     * @param word Word to search for
+     * @param ctx  The amount of context bytes to surround the word.
+     * @return Collection of words with context.
+     */
+    @Override
+    public @NotNull Collection<String> getWords(@NotNull String word,
+                                                @NotNull WordIndex.ContextBytes ctx) {
+        final int term = this.lookup(word);
+        if (term == TermTable.NOT_FOUND) {
+            return List.of();
+        }
+
+        List<String> results = new ArrayList<>();
+        try (final ContextReader reader = this.openReader()) {
+            byte[] buffer = new byte[(ctx.size() << 1) + this.snapshot.length(term)];
+            final int end = this.snapshot.end(term);
+            for (int i = this.snapshot.start(term); i < end; i++) {
+                final int pos = this.snapshot.position(i);
+                int actualReadLength = getActualReadLength(ctx, pos, buffer.length);
+
+                final int readBytes = reader.read(withContext(pos, ctx), buffer);
+
+                final String str = new String(buffer, 0,
+                        Math.max(Math.min(readBytes, actualReadLength), 0),
+                        StandardCharsets.UTF_8);
+                results.add(str);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return results;
+    }
+
+    /**
+     * Query the index for file positions of all occurrences of the word.
+     *
+     * @param word Word to search for.
+     * @return File positions of the word, in file order.
+     */
+    @Override
+    public long @NotNull [] getPositions(@NotNull String word) {
+        final int term = this.lookup(word);
+        if (term == TermTable.NOT_FOUND) {
+            return new long[0];
+        }
+        final int start = this.snapshot.start(term);
+        final long[] positions = new long[this.snapshot.end(term) - start];
+        for (int i = 0; i < positions.length; i++) {
+            positions[i] = this.snapshot.position(start + i);
+        }
+        return positions;
+    }
+
+    /**
+     * Query the index for all occurrences of the word, as views over the mapped
+     * file. If index doesn't map the file, it is mapped on the first call.
+     *
+     * @param word Word to search for.
+     * @param ctx  The amount of context bytes to surround the word.
+     * @return Hits of the word, in file order.
+     * @throws IOException When file can't be mapped.
+     */
+    @Override
+    public @NotNull List<WordHit> getHits(@NotNull String word,
+                                          @NotNull WordIndex.ContextBytes ctx)
+            throws IOException {
+        final int term = this.lookup(word);
+        if (term == TermTable.NOT_FOUND) {
+            return List.of();
+        }
+        return WordHit.of(this.hitsFile.get().buffer(), this.getPositions(word),
+                this.snapshot.length(term), ctx);
+    }
+
+    /**
+     * Queries the index with word with context, results can be accessed through an
+     * iterator.
+     *
+     * @param word Word to search for
+     * @param ctx  The amount of context to surround the word.
+     * @return iterator for query results.
+     * @throws FileNotFoundException when indexed file got deleted.
+     */
+    @Override
+    public @NotNull WordContextIterator iterateWords(@NotNull String word,
+                                                     @NotNull WordIndex.ContextBytes ctx)
+            throws FileNotFoundException {
+        final int term = this.lookup(word);
+        if (term == TermTable.NOT_FOUND) {
+            return (WordContextIterator) (Object) Collections.emptyIterator();
+        }
+        final IndexSnapshot snapshot = this.snapshot;
+        return new JavaWordContextIterator(this.openReader(), ctx, snapshot.length(term),
+                snapshot.start(term), snapshot.end(term), snapshot::position);
+    }
+
+    /**
+     * Copies the loaded snapshot to specified path.
+     *
+     * @param snapshot Path of the snapshot file.
+     * @throws IOException When snapshot can't be copied.
+     */
+    @Override
+    public void save(@NotNull Path snapshot) throws IOException {
+        if (!Files.exists(snapshot) || !Files.isSameFile(this.snapshotPath, snapshot)) {
+            Files.copy(this.snapshotPath, snapshot, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (this.mappedFile != null) {
+            this.mappedFile.close();
+        }
+        this.hitsFile.close();
+        if (this.fileChannel != null) {
+            try {
+                this.fileChannel.close();
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to close file", e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "{\"" + this.snapshotPath + "\" " + this.snapshot.terms() + '}';
+    }
+
+    /**
+     * Finds the term number of the word from the snapshot.
+     *
+     * @param word Word to search for, normalized before the lookup.
+     * @return Term number of the word, or {@link TermTable#NOT_FOUND} if word is not indexed.
+     */
+    private int lookup(@NotNull String word) {
+        final byte[] normalized = JavaWordIndex.normalize(word, this.analyzer)
+                .getBytes(StandardCharsets.UTF_8);
+        return this.snapshot.find(normalized, 0, normalized.length);
+    }
+
+    /**
+     * Opens reader for reading words with context. If file is mapped, words are
+     * read from the mapping, otherwise from the shared file channel.
+     *
+     * @return Reader, that must be closed.
+     * @throws FileNotFoundException When indexed file got deleted, and it is mapped.
+     */
+    private @NotNull ContextReader openReader() throws FileNotFoundException {
+        if (this.mappedFile != null) {
+            return this.mappedFile.reader();
+        }
+        return this.fileChannel.reader();
+    }
+}
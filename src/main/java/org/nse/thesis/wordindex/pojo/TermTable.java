@@ -0,0 +1,291 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Term dictionary keyed directly by UTF-8 bytes of normalized words.
+ * <p>
+ * Terms are numbered in insertion order. Bytes of all terms are stored
+ * contiguously in a shared arena, and each term stores its hash, so the table
+ * can be resized without hashing the words again. Table uses open addressing
+ * with linear probing, and slots only hold term numbers.
+ * </p>
+ * Looking up or adding a word that already exists doesn't allocate.
+ *
+ * @author Niklas Seppälä
+ */
+final class TermTable {
+    /**
+     * Returned by {@link #find(byte[], int, int)} when word is not in the table.
+     */
+    static final int NOT_FOUND = -1;
+    private static final int EMPTY = -1;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int AVERAGE_WORD_LENGTH = 8;
+
+    private int[] slots;
+    private int mask;
+    private int[] hashes;
+    private int[] offsets;
+    private int[] lengths;
+    private byte[] arena;
+    private int arenaLength;
+    private int size;
+
+    /**
+     * @param capacityEstimate Estimate how many unique words will be stored.
+     */
+    TermTable(int capacityEstimate) {
+        final int terms = Math.max(capacityEstimate, 16);
+        int capacity = Integer.highestOneBit((int) (terms / LOAD_FACTOR)) << 1;
+        this.slots = new int[capacity];
+        Arrays.fill(this.slots, EMPTY);
+        this.mask = capacity - 1;
+        this.hashes = new int[terms];
+        this.offsets = new int[terms];
+        this.lengths = new int[terms];
+        this.arena = new byte[terms * AVERAGE_WORD_LENGTH];
+    }
+
+    /**
+     * Copies the table. Terms keep their numbers in the copy.
+     *
+     * @param other Table to copy.
+     */
+    TermTable(@NotNull TermTable other) {
+        this.slots = other.slots.clone();
+        this.mask = other.mask;
+        this.hashes = other.hashes.clone();
+        this.offsets = other.offsets.clone();
+        this.lengths = other.lengths.clone();
+        this.arena = other.arena.clone();
+        this.arenaLength = other.arenaLength;
+        this.size = other.size;
+    }
+
+    /**
+     * Hashes the word bytes. FNV-1a with a final avalanche, so that low bits
+     * used in slot selection are well distributed.
+     *
+     * @param bytes  Buffer holding the word.
+     * @param start  Start of the word.
+     * @param length Length of the word.
+     * @return Hash of the word.
+     */
+    static int hash(byte @NotNull [] bytes, int start, int length) {
+        int h = 0x811C9DC5;
+        for (int i = start; i < start + length; i++) {
+            h = (h ^ (bytes[i] & 0xFF)) * 0x01000193;
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Finds the term number of the word.
+     *
+     * @param bytes  Buffer holding the word.
+     * @param start  Start of the word.
+     * @param length Length of the word.
+     * @return Term number, or {@link #NOT_FOUND}.
+     */
+    int find(byte @NotNull [] bytes, int start, int length) {
+        final int h = hash(bytes, start, length);
+        int slot = h & this.mask;
+        int term;
+        while ((term = this.slots[slot]) != EMPTY) {
+            if (this.hashes[term] == h && termEquals(term, bytes, start, length)) {
+                return term;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Finds the term number of the word, or adds the word as a new term.
+     * New term gets the next free term number, which is {@link #size()} before
+     * the call.
+     *
+     * @param bytes  Buffer holding the word.
+     * @param start  Start of the word.
+     * @param length Length of the word.
+     * @return Term number of the word.
+     */
+    int add(byte @NotNull [] bytes, int start, int length) {
+        final int h = hash(bytes, start, length);
+        int slot = h & this.mask;
+        int term;
+        while ((term = this.slots[slot]) != EMPTY) {
+            if (this.hashes[term] == h && termEquals(term, bytes, start, length)) {
+                return term;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+
+        term = this.size++;
+        if (term == this.hashes.length) {
+            final int capacity = term << 1;
+            this.hashes = Arrays.copyOf(this.hashes, capacity);
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+            this.lengths = Arrays.copyOf(this.lengths, capacity);
+        }
+        if (this.arenaLength + length > this.arena.length) {
+            this.arena = Arrays.copyOf(this.arena,
+                    Math.max(this.arena.length << 1, this.arenaLength + length));
+        }
+        System.arraycopy(bytes, start, this.arena, this.arenaLength, length);
+        this.hashes[term] = h;
+        this.offsets[term] = this.arenaLength;
+        this.lengths[term] = length;
+        this.arenaLength += length;
+        this.slots[slot] = term;
+
+        if (this.size > this.slots.length * LOAD_FACTOR) {
+            resize();
+        }
+        return term;
+    }
+
+    /**
+     * @return Number of terms in the table.
+     */
+    int size() {
+        return this.size;
+    }
+
+    /**
+     * @return Memory held by the table in bytes, roughly.
+     */
+    long memoryUsage() {
+        return 4L * this.slots.length + 12L * this.hashes.length + this.arena.length;
+    }
+
+    /**
+     * @param term Term number.
+     * @return Length of the term in bytes.
+     */
+    int length(int term) {
+        return this.lengths[term];
+    }
+
+    /**
+     * @param term Term number.
+     * @return Stored hash of the term, see {@link #hash(byte[], int, int)}.
+     */
+    int hashOf(int term) {
+        return this.hashes[term];
+    }
+
+    /**
+     * @param term Term number.
+     * @return Offset of the term bytes in the arena. Terms are stored in term
+     * order, so term ends where the next one starts.
+     */
+    int offset(int term) {
+        return this.offsets[term];
+    }
+
+    /**
+     * @return Used length of the arena in bytes.
+     */
+    int arenaLength() {
+        return this.arenaLength;
+    }
+
+    /**
+     * Copies used part of the arena to the buffer.
+     *
+     * @param destination Buffer to copy bytes of all terms to.
+     */
+    void copyArena(@NotNull ByteBuffer destination) {
+        destination.put(this.arena, 0, this.arenaLength);
+    }
+
+    /**
+     * @param term Term number.
+     * @return Term decoded to String.
+     */
+    @NotNull String word(int term) {
+        return new String(this.arena, this.offsets[term], this.lengths[term],
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Adds all terms of other table to this table.
+     *
+     * @param other Table to merge.
+     * @return Term numbers of this table, indexed by term numbers of other table.
+     */
+    int @NotNull [] addAll(@NotNull TermTable other) {
+        final int[] mapping = new int[other.size];
+        for (int term = 0; term < other.size; term++) {
+            mapping[term] = this.add(other, term);
+        }
+        return mapping;
+    }
+
+    /**
+     * Finds the term of other table from this table.
+     *
+     * @param other Table holding the term.
+     * @param term  Term number in other table.
+     * @return Term number in this table, or {@link #NOT_FOUND}.
+     */
+    int find(@NotNull TermTable other, int term) {
+        return this.find(other.arena, other.offsets[term], other.lengths[term]);
+    }
+
+    /**
+     * Finds the term of other table from this table, or adds it as a new term.
+     *
+     * @param other Table holding the term.
+     * @param term  Term number in other table.
+     * @return Term number in this table.
+     */
+    int add(@NotNull TermTable other, int term) {
+        return this.add(other.arena, other.offsets[term], other.lengths[term]);
+    }
+
+    /**
+     * Compares the term to the word.
+     *
+     * @param term   Term number.
+     * @param bytes  Buffer holding the word.
+     * @param start  Start of the word.
+     * @param length Length of the word.
+     * @return True if term and the word are equal.
+     */
+    private boolean termEquals(int term, byte @NotNull [] bytes, int start, int length) {
+        final int offset = this.offsets[term];
+        return this.lengths[term] == length && Arrays.equals(this.arena, offset, offset + length,
+                bytes, start, start + length);
+    }
+
+    /**
+     * Doubles the slot count. Terms are placed by stored hash.
+     */
+    private void resize() {
+        final int capacity = this.slots.length << 1;
+        final int[] newSlots = new int[capacity];
+        Arrays.fill(newSlots, EMPTY);
+        final int newMask = capacity - 1;
+        for (int term = 0; term < this.size; term++) {
+            int slot = this.hashes[term] & newMask;
+            while (newSlots[slot] != EMPTY) {
+                slot = (slot + 1) & newMask;
+            }
+            newSlots[slot] = term;
+        }
+        this.slots = newSlots;
+        this.mask = newMask;
+    }
+}
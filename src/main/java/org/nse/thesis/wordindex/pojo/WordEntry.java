@@ -1,18 +1,30 @@
 package org.nse.thesis.wordindex.pojo;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
  * Word entry data object, that hold file positions.
  * Object is comparable by its word.
+ * <p>
+ * While the file is being indexed, positions are collected into a growable
+ * primitive array. When indexing is done, entries are frozen into
+ * {@link PostingLists}, and entry only remembers its term number.
+ * </p>
  *
  * @author Niklas Seppälä
  */
 class WordEntry {
+    /**
+     * Term number of an entry that is not yet frozen.
+     */
+    static final int NOT_FROZEN = -1;
+    private static final int DEFAULT_CAPACITY = 8;
+
     private final String word;
-    private final List<Integer> filePositions;
+    private int[] filePositions;
+    private int length;
+    private int term = NOT_FROZEN;
 
     /**
      * Creates new WordEntry object, with initial file position.
@@ -22,8 +34,8 @@ class WordEntry {
      */
     public WordEntry(String word, int initial) {
         this.word = word;
-        this.filePositions = new ArrayList<>();
-        this.filePositions.add(initial);
+        this.filePositions = new int[DEFAULT_CAPACITY];
+        this.filePositions[this.length++] = initial;
     }
 
     /**
@@ -34,20 +46,69 @@ class WordEntry {
     }
 
     /**
-     * @return Get pe positions where word appears in the indexed
-     * file.
+     * @return Number of positions where word appears in the indexed file.
      */
-    public List<Integer> getFilePositions() {
-        return filePositions;
+    public int size() {
+        return length;
     }
 
     /**
-     * Add file position to this entry.
+     * @return Term number of this entry in {@link PostingLists}, or
+     * {@link #NOT_FROZEN} if entry is not yet frozen.
+     */
+    public int getTerm() {
+        return term;
+    }
+
+    /**
+     * Add file position to this entry. If position array is full, it will be
+     * resized by doubling it's capacity.
      *
      * @param filePosition Position to add.
+     * @throws IllegalStateException If entry is already frozen.
      */
     public void addFilePosition(int filePosition) {
-        this.filePositions.add(filePosition);
+        if (this.filePositions == null) {
+            throw new IllegalStateException("Entry is frozen");
+        }
+        if (this.length == this.filePositions.length) {
+            this.filePositions = Arrays.copyOf(this.filePositions, this.length << 1);
+        }
+        this.filePositions[this.length++] = filePosition;
+    }
+
+    /**
+     * Appends all positions of other entry to this entry. Other entry's
+     * positions must come after positions of this entry in the file.
+     *
+     * @param other Entry of the same word.
+     * @throws IllegalStateException If either entry is already frozen.
+     */
+    public void addFilePositions(WordEntry other) {
+        if (this.filePositions == null || other.filePositions == null) {
+            throw new IllegalStateException("Entry is frozen");
+        }
+        final int required = this.length + other.length;
+        if (required > this.filePositions.length) {
+            this.filePositions = Arrays.copyOf(this.filePositions,
+                    Math.max(this.filePositions.length << 1, required));
+        }
+        System.arraycopy(other.filePositions, 0, this.filePositions, this.length, other.length);
+        this.length = required;
+    }
+
+    /**
+     * Copies collected positions to shared positions array, and releases
+     * the growable array.
+     *
+     * @param term        Term number of this entry.
+     * @param destination Shared positions array.
+     * @param offset      Offset in the shared array, where positions are copied to.
+     */
+    void freeze(int term, int[] destination, int offset) {
+        System.arraycopy(this.filePositions, 0, destination, offset, this.length);
+        this.filePositions = null;
+        this.term = term;
     }
 
     @Override
@@ -67,6 +128,6 @@ class WordEntry {
 
     @Override
     public String toString() {
-        return "{\"" + word + "\" " + filePositions + '}';
+        return "{\"" + word + "\" " + length + '}';
     }
 }
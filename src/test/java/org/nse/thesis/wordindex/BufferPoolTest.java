@@ -0,0 +1,58 @@
+package org.nse.thesis.wordindex;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BufferPoolTest {
+
+    @Test
+    void testReusesReleasedBuffers() {
+        AtomicInteger created = new AtomicInteger();
+        BufferPool<Object> pool = new BufferPool<>(() -> {
+            created.incrementAndGet();
+            return new Object();
+        });
+        Object first = pool.acquire();
+        Object second = pool.acquire();
+        assertNotSame(first, second);
+        pool.release(first);
+        assertSame(first, pool.acquire());
+        assertEquals(2, created.get());
+    }
+
+    @Test
+    void testFullPoolDropsBuffers() {
+        BufferPool<Object> pool = new BufferPool<>(Object::new);
+        List<Object> borrowed = new ArrayList<>();
+        for (int i = 0; i < 1024; i++) {
+            borrowed.add(pool.acquire());
+        }
+        borrowed.forEach(pool::release);
+        // Pool holds only some of the buffers, rest were left for the GC.
+        List<Object> reused = new ArrayList<>();
+        for (int i = 0; i < 1024; i++) {
+            Object buffers = pool.acquire();
+            if (borrowed.contains(buffers)) {
+                reused.add(buffers);
+            }
+        }
+        assertTrue(reused.size() > 0 && reused.size() < borrowed.size());
+    }
+
+    @Test
+    void testDirectQueryBuffersGrow() {
+        DirectQueryBuffers buffers = new DirectQueryBuffers(512);
+        assertEquals(512, buffers.read(16).capacity());
+        assertTrue(buffers.read(4096).capacity() >= 4096);
+        assertTrue(buffers.read(16).isDirect());
+        assertSame(buffers.str(8), buffers.str(4));
+    }
+}
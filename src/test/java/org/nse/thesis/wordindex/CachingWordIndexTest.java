@@ -0,0 +1,191 @@
+package org.nse.thesis.wordindex;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nse.thesis.wordindex.pojo.BufferedJavaWordIndex;
+
+import java.io.FileNotFoundException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CachingWordIndexTest extends WordIndexTestBase {
+
+    /**
+     * Index that counts queries, and can hold them until released.
+     */
+    private static class CountingIndex implements WordIndex {
+        private final WordIndex index;
+        private final AtomicInteger queries = new AtomicInteger();
+        private final CountDownLatch release;
+
+        private CountingIndex(WordIndex index, CountDownLatch release) {
+            this.index = index;
+            this.release = release;
+        }
+
+        @Override
+        public Collection<String> getWords(String word, ContextBytes ctx) {
+            this.queries.incrementAndGet();
+            try {
+                this.release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return this.index.getWords(word, ctx);
+        }
+
+        @Override
+        public WordContextIterator iterateWords(String word, ContextBytes ctx)
+                throws FileNotFoundException {
+            return this.index.iterateWords(word, ctx);
+        }
+
+        @Override
+        public void close() throws Exception {
+            this.index.close();
+        }
+    }
+
+    @Test
+    void testCachedResults() throws Exception {
+        CountingIndex counting = new CountingIndex(new BufferedJavaWordIndex(TEST_FILE,
+                this.getAnalyzer(), 16), new CountDownLatch(0));
+        try (CachingWordIndex index = new CachingWordIndex(counting, TEST_FILE, this.getAnalyzer(),
+                1 << 24)) {
+            this.getWordOccurrences().forEach((word, count) -> {
+                this.checkResultsBySize(index, word, count);
+                this.checkResultsBySize(index, word.toUpperCase(), count);
+                this.checkIteratorResultsBySize(index, word, count);
+            });
+            Assertions.assertEquals(this.getWordOccurrences().size(), counting.queries.get());
+            CachingWordIndex.CacheStats stats = index.cacheStats();
+            Assertions.assertEquals(this.getWordOccurrences().size(), stats.misses());
+            Assertions.assertEquals(2L * this.getWordOccurrences().size(), stats.hits());
+            Assertions.assertEquals(this.getWordOccurrences().size(), stats.cachedResults());
+
+            // Context is part of the key.
+            index.getWords("wrath", WordIndex.ContextBytes.NO_CONTEXT);
+            Assertions.assertEquals(this.getWordOccurrences().size() + 1, counting.queries.get());
+        }
+    }
+
+    @Test
+    void testEvictionBySize() throws Exception {
+        CountingIndex counting = new CountingIndex(new BufferedJavaWordIndex(TEST_FILE,
+                this.getAnalyzer(), 16), new CountDownLatch(0));
+        try (CachingWordIndex index = new CachingWordIndex(counting, TEST_FILE, this.getAnalyzer(),
+                64 * 1024)) {
+            index.getWords("wrath", WordIndex.ContextBytes.SMALL_CONTEXT);
+            index.getWords("easy", WordIndex.ContextBytes.SMALL_CONTEXT);
+            // Too large to be cached at all.
+            index.getWords("god", WordIndex.ContextBytes.SMALL_CONTEXT);
+            index.getWords("god", WordIndex.ContextBytes.SMALL_CONTEXT);
+            Assertions.assertEquals(4, counting.queries.get());
+            Assertions.assertEquals(2, index.cacheStats().cachedResults());
+            Assertions.assertTrue(index.cacheStats().cachedBytes() <= 64 * 1024);
+
+            for (int i = 0; i < 8; i++) {
+                index.getWords("wrath", WordIndex.ContextBytes.values()[i % 4]);
+            }
+            Assertions.assertTrue(index.cacheStats().evictions() > 0);
+            Assertions.assertTrue(index.cacheStats().cachedBytes() <= 64 * 1024);
+            this.checkResultsBySize(index, "easy", 5);
+        }
+    }
+
+    @Test
+    void testConcurrentMissesCollapse() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountingIndex counting = new CountingIndex(new BufferedJavaWordIndex(TEST_FILE,
+                this.getAnalyzer(), 16), release);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (CachingWordIndex index = new CachingWordIndex(counting, TEST_FILE, this.getAnalyzer(),
+                1 << 24)) {
+            List<Future<Collection<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> index.getWords("wrath",
+                        WordIndex.ContextBytes.SMALL_CONTEXT)));
+            }
+            while (index.cacheStats().misses() < 8) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for (Future<Collection<String>> result : results) {
+                Assertions.assertEquals(198, result.get(10, TimeUnit.SECONDS).size());
+            }
+            Assertions.assertEquals(1, counting.queries.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testFailedMissReleasesWaiters() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        WordIndex failing = new CountingIndex(new BufferedJavaWordIndex(TEST_FILE,
+                this.getAnalyzer(), 16), release) {
+            @Override
+            public Collection<String> getWords(String word, ContextBytes ctx) {
+                super.getWords(word, ctx);
+                throw new Error("Query failed");
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (CachingWordIndex index = new CachingWordIndex(failing, TEST_FILE, this.getAnalyzer(),
+                1 << 24)) {
+            List<Future<Collection<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> index.getWords("wrath",
+                        WordIndex.ContextBytes.SMALL_CONTEXT)));
+            }
+            while (index.cacheStats().misses() < 8) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+            for (Future<Collection<String>> result : results) {
+                ExecutionException e = Assertions.assertThrows(ExecutionException.class,
+                        () -> result.get(10, TimeUnit.SECONDS));
+                Assertions.assertEquals("Query failed", e.getCause().getMessage());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testFileChangeInvalidates(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("text.txt");
+        Files.writeString(file, "power of man\n");
+        try (CachingWordIndex index = new CachingWordIndex(new BufferedJavaWordIndex(file.toString(),
+                this.getAnalyzer(), 16), file.toString(), this.getAnalyzer(), 1 << 20)) {
+            this.checkResultsBySize(index, "power", 1);
+            Assertions.assertEquals(1, index.cacheStats().cachedResults());
+
+            Files.writeString(file, "power\n", StandardOpenOption.APPEND);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(
+                    Files.getLastModifiedTime(file).toMillis() + 1000));
+            Assertions.assertTrue(index.refresh());
+            this.checkResultsBySize(index, "power", 2);
+
+            // Change the file without refreshing, cached result is still dropped.
+            Files.setLastModifiedTime(file, FileTime.fromMillis(
+                    Files.getLastModifiedTime(file).toMillis() + 1000));
+            long misses = index.cacheStats().misses();
+            this.checkResultsBySize(index, "power", 2);
+            Assertions.assertEquals(misses + 1, index.cacheStats().misses());
+        }
+    }
+}
@@ -2,12 +2,26 @@ package org.nse.thesis.wordindex;
 
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.nse.thesis.wordindex.pojo.BufferedJavaWordIndex;
+import org.nse.thesis.wordindex.pojo.SnapshotWordIndex;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 class DirectoryWordIndexTest extends WordIndexTestBase {
     private static final Map<String, Integer> wordToCountMap = new HashMap<>();
@@ -36,4 +50,236 @@ class DirectoryWordIndexTest extends WordIndexTestBase {
         }
     }
      */
-}
\ No newline at end of file
+
+    @Test
+    void testConcurrentIndexing() throws FileNotFoundException {
+        try (DirectoryWordIndex index = new DirectoryWordIndex("src/test/resources/docs",
+                this.getAnalyzer(), (path, analyzer) -> new BufferedJavaWordIndex(path, analyzer, 16))) {
+            Assertions.assertTrue(index.failures().isEmpty());
+            Assertions.assertEquals(new File("src/test/resources/docs").list().length, index.files().size());
+            for (File file : index.files()) {
+                wordToCountMap.forEach((key, value) -> assertWordCount(index, file, key, value));
+            }
+        }
+    }
+
+    @Test
+    void testFailuresAreCollected(@TempDir Path dir) throws Exception {
+        for (int i = 0; i < 8; i++) {
+            Files.writeString(dir.resolve("file" + i), "power of man " + i);
+        }
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        WordIndex.Provider provider = (path, analyzer) -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(10);
+                if (path.endsWith("file3")) {
+                    throw new FileNotFoundException(path);
+                }
+                return new BufferedJavaWordIndex(path, analyzer, 16);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (DirectoryWordIndex index = new DirectoryWordIndex(dir.toString(), this.getAnalyzer(),
+                provider, executor, 2)) {
+            Assertions.assertEquals(7, index.files().size());
+            Assertions.assertEquals(1, index.failures().size());
+            Assertions.assertInstanceOf(FileNotFoundException.class, index.failures().get("file3"));
+            Assertions.assertTrue(maxRunning.get() <= 2);
+            assertWordCount(index, dir.resolve("file5").toFile(), "power", 1);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testGetWordsFromAllFiles() throws FileNotFoundException {
+        try (DirectoryWordIndex index = new DirectoryWordIndex("src/test/resources/docs",
+                this.getAnalyzer(), (path, analyzer) -> new BufferedJavaWordIndex(path, analyzer, 16))) {
+            List<DirectoryWordIndex.Hit> hits = index.getWords("power", WordIndex.ContextBytes.SMALL_CONTEXT);
+            Assertions.assertEquals(58 * index.files().size(), hits.size());
+            // Files are merged in name order, hits of a file stay in index order.
+            Assertions.assertEquals(hits.stream().sorted(Comparator.comparing(hit -> hit.file().getName())).toList(),
+                    hits);
+            File first = index.files().get(0);
+            Assertions.assertEquals(index.getWordsWithContextInFile(first.getAbsolutePath(), "power",
+                            WordIndex.ContextBytes.SMALL_CONTEXT),
+                    hits.subList(0, 58).stream().map(DirectoryWordIndex.Hit::context).toList());
+
+            List<DirectoryWordIndex.Hit> streamed = index.streamWords("power", WordIndex.ContextBytes.SMALL_CONTEXT)
+                    .toList();
+            Assertions.assertEquals(hits.size(), streamed.size());
+            Assertions.assertTrue(streamed.containsAll(hits));
+            Assertions.assertEquals(0, index.streamWords("notindexed", WordIndex.ContextBytes.SMALL_CONTEXT).count());
+        }
+    }
+
+    @Test
+    void testLiveUpdates(@TempDir Path dir) throws Exception {
+        Path first = dir.resolve("first");
+        Files.writeString(first, "power of man\n");
+        AtomicInteger open = new AtomicInteger();
+        WordIndex.Provider provider = (path, analyzer) -> {
+            WordIndex index = new BufferedJavaWordIndex(path, analyzer, 16);
+            open.incrementAndGet();
+            return new WordIndex() {
+                @Override
+                public Collection<String> getWords(String word, ContextBytes ctx) {
+                    return index.getWords(word, ctx);
+                }
+
+                @Override
+                public WordContextIterator iterateWords(String word, ContextBytes ctx)
+                        throws FileNotFoundException {
+                    return index.iterateWords(word, ctx);
+                }
+
+                @Override
+                public void close() throws Exception {
+                    open.decrementAndGet();
+                    index.close();
+                }
+            };
+        };
+
+        try (DirectoryWordIndex index = new DirectoryWordIndex(dir.toString(), this.getAnalyzer(),
+                provider)) {
+            index.startWatching();
+            assertWordCount(index, first.toFile(), "power", 1);
+
+            Path second = dir.resolve("second");
+            Files.writeString(second, "power\n");
+            awaitUntil(() -> index.files().size() == 2);
+            assertWordCount(index, second.toFile(), "power", 1);
+
+            Files.writeString(first, "power power\n", StandardOpenOption.APPEND);
+            awaitUntil(() -> index.getWordsWithContextInFile(first.toString(), "power",
+                    WordIndex.ContextBytes.SMALL_CONTEXT).size() == 3);
+
+            Files.delete(second);
+            awaitUntil(() -> index.files().size() == 1);
+            Assertions.assertEquals(3, index.getWords("power", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+        }
+        // Replaced and dropped indexes got closed.
+        awaitUntil(() -> open.get() == 0);
+    }
+
+    @Test
+    void testCloseWaitsForRunningUpdates(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("file");
+        Files.writeString(file, "power of man\n");
+        AtomicInteger open = new AtomicInteger();
+        CountDownLatch updating = new CountDownLatch(1);
+        CountDownLatch finishUpdate = new CountDownLatch(1);
+        WordIndex.Provider provider = (path, analyzer) -> {
+            WordIndex index = new BufferedJavaWordIndex(path, analyzer, 16);
+            if (open.incrementAndGet() > 1) {
+                updating.countDown();
+                try {
+                    finishUpdate.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return new WordIndex() {
+                @Override
+                public Collection<String> getWords(String word, ContextBytes ctx) {
+                    return index.getWords(word, ctx);
+                }
+
+                @Override
+                public WordContextIterator iterateWords(String word, ContextBytes ctx)
+                        throws FileNotFoundException {
+                    return index.iterateWords(word, ctx);
+                }
+
+                @Override
+                public void close() throws Exception {
+                    open.decrementAndGet();
+                    index.close();
+                }
+            };
+        };
+
+        DirectoryWordIndex index = new DirectoryWordIndex(dir.toString(), this.getAnalyzer(), provider);
+        index.startWatching();
+        Files.writeString(file, "power\n", StandardOpenOption.APPEND);
+        Assertions.assertTrue(updating.await(20, TimeUnit.SECONDS));
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                // Released right away.
+            }
+            finishUpdate.countDown();
+        });
+        releaser.start();
+        index.close();
+        // Index of the running update was closed before close returned.
+        Assertions.assertEquals(0, open.get());
+        releaser.join();
+    }
+
+    @Test
+    void testLazyResidency(@TempDir Path dir) throws Exception {
+        File[] docs = new File("src/test/resources/docs").listFiles(File::isFile);
+        Assertions.assertNotNull(docs);
+        Path snapshots = dir.resolve("snapshots");
+        AtomicInteger indexed = new AtomicInteger();
+        WordIndex.Provider provider = (path, analyzer) -> {
+            indexed.incrementAndGet();
+            return new BufferedJavaWordIndex(path, analyzer, 16);
+        };
+        // Budget fits a single index, so every switch between files evicts.
+        DirectoryWordIndex.LazyResidency residency = new DirectoryWordIndex.LazyResidency(1,
+                snapshots, (path, analyzer, snapshot) -> new SnapshotWordIndex(path, analyzer,
+                snapshot, false));
+
+        try (DirectoryWordIndex index = new DirectoryWordIndex("src/test/resources/docs",
+                this.getAnalyzer(), provider, null, 2, residency)) {
+            Assertions.assertEquals(docs.length, index.files().size());
+            Assertions.assertEquals(0, indexed.get());
+
+            File first = index.files().get(0);
+            assertWordCount(index, first, "power", 58);
+            assertWordCount(index, first, "man", 118);
+            DirectoryWordIndex.ResidencyStats stats = index.residencyStats();
+            Assertions.assertEquals(1, stats.misses());
+            Assertions.assertEquals(1, stats.hits());
+            Assertions.assertEquals(1, stats.residentFiles());
+            Assertions.assertTrue(stats.residentBytes() > 0);
+
+            Assertions.assertEquals(58 * docs.length,
+                    index.getWords("power", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+            stats = index.residencyStats();
+            Assertions.assertEquals(1, stats.residentFiles());
+            Assertions.assertTrue(stats.evictions() > 0);
+            // Loaded index is acquired when admitted, so concurrent loads never evict
+            // each other before their query, and every file is indexed once.
+            Assertions.assertEquals(docs.length, indexed.get());
+
+            // Evicted index is loaded from its snapshot instead of indexed again.
+            int indexedBefore = indexed.get();
+            for (File file : index.files()) {
+                wordToCountMap.forEach((key, value) -> assertWordCount(index, file, key, value));
+            }
+            Assertions.assertEquals(indexedBefore, indexed.get());
+            Assertions.assertTrue(index.residencyStats().misses() > stats.misses());
+            Assertions.assertTrue(index.failures().isEmpty());
+        }
+    }
+
+    private static void awaitUntil(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 20_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            Assertions.assertTrue(System.nanoTime() < deadline, "Condition was not met in time");
+            Thread.sleep(20);
+        }
+    }
+}
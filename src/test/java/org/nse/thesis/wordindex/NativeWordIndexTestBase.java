@@ -0,0 +1,151 @@
+package org.nse.thesis.wordindex;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+import org.nse.thesis.wordindex.pojo.SnapshotWordIndex;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public abstract class NativeWordIndexTestBase extends WordIndexTestBase {
+
+    protected abstract WordIndex open(String path, long indexingBufferSize, int indexingThreads,
+                                      int queryBufferSize, boolean compact) throws IOException;
+
+    protected abstract WordIndex load(String path, Path snapshot, int queryBufferSize)
+            throws IOException;
+
+    @Test
+    void testGetWords() {
+        try (WordIndex index = this.open(TEST_FILE, 8192, 1, 4096, true)) {
+            this.getWordOccurrences().forEach((word, count) -> this.checkResultsBySize(index, word, count));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void testIterateWords() {
+        try (WordIndex index = this.open(TEST_FILE, 8192, 1, 4096, true)) {
+            this.getWordOccurrences().forEach((word, count) -> this.checkIteratorResultsBySize(index, word, count));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void testGetWordsBatch() throws Exception {
+        // Small query buffer, so that the batch takes many native calls.
+        try (WordIndex index = this.open(TEST_FILE, 8192, 1, 512, true)) {
+            this.checkBatchResults(index);
+        }
+    }
+
+    @Test
+    void testPositionsAndHits() throws Exception {
+        // Small query buffer, so that positions of common words take two calls.
+        try (WordIndex index = this.open(TEST_FILE, 8192, 1, 512, true)) {
+            this.checkPositionsAndHits(index);
+        }
+    }
+
+    @Test
+    @Timeout(value = 30, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+    void testLongestWordWithLargeContext(@TempDir Path tempDir) throws Exception {
+        String path = writeLongestWordFile(tempDir);
+        try (WordIndex index = this.open(path, 8192, 1, WordIndex.MIN_QUERY_BUFFER_SIZE, true)) {
+            this.checkLongestWord(index, path);
+        }
+    }
+
+    @Test
+    void testPooledBuffers() throws Exception {
+        try (WordIndex index = this.open(TEST_FILE, 8192, 1, 512, true)) {
+            this.checkPooledQueries(index);
+        }
+    }
+
+    @Test
+    void testParallelIndexing() throws Exception {
+        try (WordIndex index = this.open(TEST_FILE, 8192, 4, 4096, true)) {
+            this.getWordOccurrences().forEach((word, count) -> this.checkResultsBySize(index, word, count));
+        }
+        try (WordIndex index = this.open(TEST_FILE, WordIndex.MAPPED_INDEXING, 4, 4096, true)) {
+            this.getWordOccurrences().forEach((word, count) -> this.checkIteratorResultsBySize(index, word, count));
+        }
+    }
+
+    @Test
+    void testMappedIndexing(@TempDir Path tempDir) throws Exception {
+        try (WordIndex index = this.open(TEST_FILE, WordIndex.MAPPED_INDEXING, 1, 4096, true)) {
+            this.getWordOccurrences().forEach((word, count) -> {
+                this.checkResultsBySize(index, word, count);
+                this.checkIteratorResultsBySize(index, word, count);
+            });
+        }
+
+        Path file = tempDir.resolve("growing.log");
+        Files.writeString(file, "not so easy, ea");
+        try (WordIndex index = this.open(file.toString(), WordIndex.MAPPED_INDEXING, 1, 4096, false)) {
+            assertEquals(1, index.getWords("easy", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+
+            Files.writeString(file, "sy does it\n", StandardOpenOption.APPEND);
+            assertTrue(index.refresh());
+            assertEquals(2, index.getWords("easy", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+            assertEquals(1, index.getWords("does", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+        }
+    }
+
+    @Test
+    void testSnapshot(@TempDir Path tempDir) throws Exception {
+        Path snapshot = tempDir.resolve("bible.widx");
+        try (WordIndex built = this.open(TEST_FILE, 8192, 1, 4096, true)) {
+            built.save(snapshot);
+            // Native save returns false, when the snapshot can't be written.
+            assertThrows(IOException.class, () -> built.save(tempDir.resolve("missing/bible.widx")));
+        }
+        try (WordIndex loaded = this.load(TEST_FILE, snapshot, 4096)) {
+            this.getWordOccurrences().forEach((word, count) -> {
+                this.checkResultsBySize(loaded, word, count);
+                this.checkIteratorResultsBySize(loaded, word, count);
+            });
+        }
+        // Snapshot format is shared with the Java implementation.
+        try (WordIndex loaded = new SnapshotWordIndex(TEST_FILE, this.getAnalyzer(), snapshot, false)) {
+            this.getWordOccurrences().forEach((word, count) -> this.checkResultsBySize(loaded, word, count));
+        }
+    }
+
+    @Test
+    void testRefresh(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("growing.log");
+        Files.writeString(file, "not so easy, ea");
+        try (WordIndex index = this.open(file.toString(), 8192, 1, 4096, false)) {
+            assertEquals(1, index.getWords("easy", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+            assertFalse(index.refresh());
+
+            Files.writeString(file, "sy does it\n", StandardOpenOption.APPEND);
+            assertTrue(index.refresh());
+            assertEquals(2, index.getWords("easy", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+            assertEquals(1, index.getWords("does", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+        }
+    }
+
+    @Test
+    @Timeout(value = 30, threadMode = Timeout.ThreadMode.SEPARATE_THREAD)
+    void testRefreshWhileIterating(@TempDir Path tempDir) throws Exception {
+        // Refresh maps the file again, so it must wait for the open iterator.
+        String path = writeIteratedFile(tempDir);
+        try (WordIndex index = this.open(path, WordIndex.MAPPED_INDEXING, 1, 512, false)) {
+            this.checkRefreshWhileIterating(index, path);
+        }
+    }
+}
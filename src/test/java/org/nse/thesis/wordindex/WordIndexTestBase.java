@@ -2,16 +2,30 @@ package org.nse.thesis.wordindex;
 import org.junit.jupiter.api.BeforeEach;
 import org.nse.thesis.wordindex.analyzers.EnglishAnalyzer;
 import org.nse.thesis.wordindex.analyzers.IndexAnalyzer;
+import org.nse.thesis.wordindex.pojo.JavaWordIndex;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class WordIndexTestBase {
 
     public static final String TEST_FILE = "src/test/resources/bible.txt";
+    // Longer than the minimum query buffer holds, with large context on both sides.
+    public static final String LONGEST_WORD = "longest".repeat(43);
     private final Map<String, Integer> wordOccurrences = new HashMap<>();
     private final IndexAnalyzer analyzer = new EnglishAnalyzer();
 
@@ -42,6 +56,123 @@ public class WordIndexTestBase {
         assertEquals(expected, found1.size());
     }
 
+    public void checkBatchResults(WordIndex index) {
+        List<String> words = List.of("god", "notinthebible", "wrath", "God", "easy");
+        List<Collection<String>> batch = index.getWordsBatch(words,
+                WordIndex.ContextBytes.SMALL_CONTEXT);
+        assertEquals(words.size(), batch.size());
+        for (int i = 0; i < words.size(); i++) {
+            Collection<String> expected = index.getWords(words.get(i),
+                    WordIndex.ContextBytes.SMALL_CONTEXT);
+            assertEquals(List.copyOf(expected), List.copyOf(batch.get(i)));
+        }
+        assertEquals(0, batch.get(1).size());
+        assertEquals(4443, batch.get(3).size());
+    }
+
+    public void checkPositionsAndHits(WordIndex index) throws Exception {
+        for (Map.Entry<String, Integer> occurrence : this.wordOccurrences.entrySet()) {
+            String word = occurrence.getKey();
+            long[] positions = index.getPositions(word);
+            assertEquals(occurrence.getValue(), positions.length);
+            for (int i = 1; i < positions.length; i++) {
+                assertTrue(positions[i - 1] < positions[i]);
+            }
+
+            List<WordHit> hits = index.getHits(word, WordIndex.ContextBytes.SMALL_CONTEXT);
+            List<String> expected = List.copyOf(index.getWords(word,
+                    WordIndex.ContextBytes.SMALL_CONTEXT));
+            assertEquals(expected.size(), hits.size());
+            for (int i = 0; i < hits.size(); i++) {
+                WordHit hit = hits.get(i);
+                assertEquals(positions[i], hit.position());
+                assertTrue(word.equalsIgnoreCase(
+                        StandardCharsets.UTF_8.decode(hit.word()).toString()));
+                assertEquals(expected.get(i), hit.toString());
+            }
+        }
+        assertEquals(0, index.getPositions("notinthebible").length);
+        assertEquals(0, index.getHits("notinthebible",
+                WordIndex.ContextBytes.SMALL_CONTEXT).size());
+    }
+
+    public void checkPooledQueries(WordIndex index) throws Exception {
+        // Buffers grow for large context, and are shared by queries of all threads.
+        assertEquals(4443, index.getWords("god", WordIndex.ContextBytes.LARGE_CONTEXT).size());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> queries = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                queries.add(executor.submit(() -> {
+                    this.wordOccurrences.forEach((word, count) -> {
+                        this.checkResultsBySize(index, word, count);
+                        this.checkIteratorResultsBySize(index, word, count);
+                    });
+                    return null;
+                }));
+            }
+            for (Future<?> query : queries) {
+                query.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    // Read buffer of queries for the longest word is sized by the word, not by the
+    // minimum query buffer.
+    public static String writeLongestWordFile(Path dir) throws IOException {
+        Path file = dir.resolve("longest.txt");
+        Files.writeString(file, "short " + LONGEST_WORD + " words, and " + LONGEST_WORD + "\n");
+        return file.toString();
+    }
+
+    public void checkLongestWord(WordIndex index, String path) throws Exception {
+        List<String> expected;
+        try (WordIndex reference = new JavaWordIndex(path, this.analyzer, 16)) {
+            expected = List.copyOf(reference.getWords(LONGEST_WORD,
+                    WordIndex.ContextBytes.LARGE_CONTEXT));
+        }
+        assertEquals(2, expected.size());
+        assertEquals(expected, List.copyOf(index.getWords(LONGEST_WORD,
+                WordIndex.ContextBytes.LARGE_CONTEXT)));
+        try (WordContextIterator iterator = index.iterateWords(LONGEST_WORD,
+                WordIndex.ContextBytes.LARGE_CONTEXT)) {
+            assertEquals(expected, iterator.stream().toList());
+        }
+    }
+
+    // Word is found so many times, that iterator needs many native calls.
+    public static String writeIteratedFile(Path dir) throws IOException {
+        Path file = dir.resolve("iterated.log");
+        Files.writeString(file, "easy does it\n".repeat(100));
+        return file.toString();
+    }
+
+    // Refresh runs on another thread, while an iterator of the index is open. Iterator
+    // reads the positions from before the refresh, and refreshed index finds the rest.
+    public void checkRefreshWhileIterating(WordIndex index, String path) throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (WordContextIterator iterator = index.iterateWords("easy",
+                WordIndex.ContextBytes.SMALL_CONTEXT)) {
+            assertTrue(iterator.hasNext());
+            iterator.next();
+            int count = 1;
+            Files.writeString(Path.of(path), "easy does it\n".repeat(1000),
+                    StandardOpenOption.APPEND);
+            Future<Boolean> refreshed = executor.submit(index::refresh);
+            while (iterator.hasNext()) {
+                assertTrue(iterator.next().contains("easy"));
+                count++;
+            }
+            assertEquals(100, count);
+            assertTrue(refreshed.get());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(1100, index.getWords("easy", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+    }
+
     public IndexAnalyzer getAnalyzer() {
         return analyzer;
     }
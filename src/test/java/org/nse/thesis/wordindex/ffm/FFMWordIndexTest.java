@@ -1,34 +1,82 @@
 package org.nse.thesis.wordindex.ffm;
 
 import org.junit.jupiter.api.Test;
+import org.nse.thesis.wordindex.NativeWordIndexTestBase;
 import org.nse.thesis.wordindex.WordIndex;
-import org.nse.thesis.wordindex.WordIndexTestBase;
 
-class FFMWordIndexTest extends WordIndexTestBase {
+import java.io.IOException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FFMWordIndexTest extends NativeWordIndexTestBase {
 
     static {
         FFMNativeHandles.load("build/libs/wordindex.so");
     }
 
-    @Test
-    void testGetWords() {
-        try (WordIndex index = new FFMWordIndex(TEST_FILE, this.getAnalyzer(),
-                1 << 8,
-                8192, 4096, true)) {
-            this.getWordOccurrences().forEach((word, count) -> this.checkResultsBySize(index, word, count));
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    @Override
+    protected WordIndex open(String path, long indexingBufferSize, int indexingThreads,
+                             int queryBufferSize, boolean compact) throws IOException {
+        return new FFMWordIndex(path, this.getAnalyzer(), 1 << 8, indexingBufferSize,
+                indexingThreads, queryBufferSize, compact);
+    }
+
+    @Override
+    protected WordIndex load(String path, Path snapshot, int queryBufferSize) throws IOException {
+        return new FFMWordIndex(path, this.getAnalyzer(), snapshot, queryBufferSize);
     }
 
     @Test
-    void testIterateWords() {
-        try (WordIndex index = new FFMWordIndex(TEST_FILE, this.getAnalyzer(),
-                1 << 8,
-                8192, 4096, true)) {
-            this.getWordOccurrences().forEach((word, count) -> this.checkIteratorResultsBySize(index, word, count));
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    void testForEachWord() throws Exception {
+        // Read through a buffer, and from the mapped file.
+        for (long indexingBufferSize : new long[]{8192, WordIndex.MAPPED_INDEXING}) {
+            try (FFMWordIndex index = new FFMWordIndex(TEST_FILE, this.getAnalyzer(),
+                    1 << 8,
+                    indexingBufferSize, 4096, true)) {
+                for (String word : this.getWordOccurrences().keySet()) {
+                    List<String> streamed = new ArrayList<>();
+                    long count = index.forEachWord(word, WordIndex.ContextBytes.MEDIUM_CONTEXT,
+                            streamed::add);
+                    assertEquals(List.copyOf(index.getWords(word,
+                            WordIndex.ContextBytes.MEDIUM_CONTEXT)), streamed);
+                    assertEquals(streamed.size(), count);
+                }
+                assertEquals(0, index.forEachHit("notinthebible",
+                        WordIndex.ContextBytes.SMALL_CONTEXT, hit -> {
+                        }));
+
+                // Segment can't be read after the consumer returns.
+                List<MemorySegment> kept = new ArrayList<>();
+                index.forEachHit("easy", WordIndex.ContextBytes.SMALL_CONTEXT, kept::add);
+                assertEquals(5, kept.size());
+                assertThrows(IllegalStateException.class,
+                        () -> kept.get(0).get(ValueLayout.JAVA_BYTE, 0));
+
+                // Consumer's exception stops the query, and is thrown to the caller.
+                List<String> seen = new ArrayList<>();
+                assertThrows(IllegalStateException.class, () -> index.forEachWord("god",
+                        WordIndex.ContextBytes.SMALL_CONTEXT, hit -> {
+                            seen.add(hit);
+                            if (seen.size() == 2) {
+                                throw new IllegalStateException();
+                            }
+                        }));
+                assertEquals(2, seen.size());
+
+                // Consumer may query the index again.
+                long[] nested = new long[1];
+                index.forEachWord("easy", WordIndex.ContextBytes.SMALL_CONTEXT,
+                        hit -> nested[0] += index.forEachWord("wrath",
+                                WordIndex.ContextBytes.SMALL_CONTEXT, inner -> {
+                                }));
+                assertEquals(5 * 198, nested[0]);
+            }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,26 @@
+package org.nse.thesis.wordindex.jna;
+
+import org.nse.thesis.wordindex.NativeWordIndexTestBase;
+import org.nse.thesis.wordindex.WordIndex;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+class JNADirectWordIndexTest extends NativeWordIndexTestBase {
+
+    static {
+        JNADirectWordIndexLibrary.load("build/libs/wordindex.so");
+    }
+
+    @Override
+    protected WordIndex open(String path, long indexingBufferSize, int indexingThreads,
+                             int queryBufferSize, boolean compact) throws IOException {
+        return new JNADirectWordIndex(path, this.getAnalyzer(), 1 << 8, indexingBufferSize,
+                indexingThreads, queryBufferSize, compact);
+    }
+
+    @Override
+    protected WordIndex load(String path, Path snapshot, int queryBufferSize) throws IOException {
+        return new JNADirectWordIndex(path, this.getAnalyzer(), snapshot, queryBufferSize);
+    }
+}
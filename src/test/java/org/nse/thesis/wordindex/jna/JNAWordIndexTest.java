@@ -1,34 +1,26 @@
 package org.nse.thesis.wordindex.jna;
 
-import org.junit.jupiter.api.Test;
+import org.nse.thesis.wordindex.NativeWordIndexTestBase;
 import org.nse.thesis.wordindex.WordIndex;
-import org.nse.thesis.wordindex.WordIndexTestBase;
 
-class JNAWordIndexTest extends WordIndexTestBase {
+import java.io.IOException;
+import java.nio.file.Path;
+
+class JNAWordIndexTest extends NativeWordIndexTestBase {
 
     static {
         JNAWordIndexLibrary.Impl.load("build/libs/wordindex.so");
     }
 
-    @Test
-    void testGetWords() {
-        try (WordIndex index = new JNAWordIndex(TEST_FILE, this.getAnalyzer(),
-                1 << 8,
-                8192, 4096, true)) {
-            this.getWordOccurrences().forEach((word, count) -> this.checkResultsBySize(index, word, count));
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    @Override
+    protected WordIndex open(String path, long indexingBufferSize, int indexingThreads,
+                             int queryBufferSize, boolean compact) throws IOException {
+        return new JNAWordIndex(path, this.getAnalyzer(), 1 << 8, indexingBufferSize,
+                indexingThreads, queryBufferSize, compact);
     }
 
-    @Test
-    void testIterateWords() {
-        try (WordIndex index = new JNAWordIndex(TEST_FILE, this.getAnalyzer(),
-                1 << 8,
-                8192, 4096, true)) {
-            this.getWordOccurrences().forEach((word, count) -> this.checkIteratorResultsBySize(index, word, count));
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    @Override
+    protected WordIndex load(String path, Path snapshot, int queryBufferSize) throws IOException {
+        return new JNAWordIndex(path, this.getAnalyzer(), snapshot, queryBufferSize);
     }
-}
\ No newline at end of file
+}
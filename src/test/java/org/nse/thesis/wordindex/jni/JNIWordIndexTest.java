@@ -1,33 +1,52 @@
 package org.nse.thesis.wordindex.jni;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nse.thesis.wordindex.NativeWordIndexTestBase;
 import org.nse.thesis.wordindex.WordIndex;
-import org.nse.thesis.wordindex.WordIndexTestBase;
 
-class JNIWordIndexTest extends WordIndexTestBase {
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JNIWordIndexTest extends NativeWordIndexTestBase {
     static {
         JNIWordIndexBindings.load("build/libs/wordindex.so");
     }
 
-    @Test
-    void testGetWords() {
-        try (WordIndex index = new JNIWordIndex(TEST_FILE, this.getAnalyzer(),
-                1 << 8,
-                8192, 4096, true)) {
-            this.getWordOccurrences().forEach((word, count) -> this.checkResultsBySize(index, word, count));
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    @Override
+    protected WordIndex open(String path, long indexingBufferSize, int indexingThreads,
+                             int queryBufferSize, boolean compact) throws IOException {
+        return new JNIWordIndex(path, this.getAnalyzer(), 1 << 8, indexingBufferSize,
+                indexingThreads, queryBufferSize, compact);
+    }
+
+    @Override
+    protected WordIndex load(String path, Path snapshot, int queryBufferSize) throws IOException {
+        return new JNIWordIndex(path, this.getAnalyzer(), snapshot, queryBufferSize);
     }
 
     @Test
-    void testIterateWords() {
-        try (WordIndex index = new JNIWordIndex(TEST_FILE, this.getAnalyzer(),
+    void testEncodedWords(@TempDir Path tempDir) throws Exception {
+        // Modified UTF-8 of JNI strings differs from UTF-8 for supplementary characters.
+        Path file = tempDir.resolve("encoded.txt");
+        Files.writeString(file, "Café au lait, \uD83D\uDE00smile and café\n");
+        try (WordIndex index = new JNIWordIndex(file.toString(), this.getAnalyzer(),
                 1 << 8,
-                8192, 4096, true)) {
-            this.getWordOccurrences().forEach((word, count) -> this.checkIteratorResultsBySize(index, word, count));
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+                8192, 4096, false)) {
+            this.checkResultsBySize(index, "café", 2);
+            this.checkIteratorResultsBySize(index, "café", 2);
+            assertEquals(2, index.getPositions("café").length);
+
+            String emoji = "\uD83D\uDE00smile";
+            this.checkResultsBySize(index, emoji, 1);
+            this.checkIteratorResultsBySize(index, emoji, 1);
+            assertEquals(1, index.getPositions(emoji).length);
+            assertTrue(index.getWords(emoji, WordIndex.ContextBytes.SMALL_CONTEXT)
+                    .iterator().next().contains(emoji));
         }
     }
-}
\ No newline at end of file
+}
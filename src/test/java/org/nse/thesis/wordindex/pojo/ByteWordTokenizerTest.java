@@ -0,0 +1,78 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.junit.jupiter.api.Test;
+import org.nse.thesis.wordindex.WordIndexTestBase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteWordTokenizerTest extends WordIndexTestBase {
+
+    @Test
+    public void emptyBufferHasNoWords() {
+        List<WordToken> tokens = new ArrayList<>();
+        int truncated = tokenize(new byte[256], 0, false, 0, tokens);
+        assertTrue(tokens.isEmpty());
+        assertEquals(0, truncated);
+    }
+
+    @Test
+    public void truncatesWhenWordIsNotFinished() {
+        String str = "One two three fo";
+        byte[] readBuffer = str.getBytes(StandardCharsets.UTF_8);
+        List<WordToken> tokens = new ArrayList<>();
+
+        int truncated = tokenize(readBuffer, readBuffer.length, false, 0, tokens);
+        assertEquals(List.of(
+                new WordToken("one", 0),
+                new WordToken("two", 4),
+                new WordToken("three", 8)
+        ), tokens);
+        assertEquals(2, truncated);
+        assertEquals("fo", new String(readBuffer, 0, truncated, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void endOfInputShouldNotTruncateFinalWord() {
+        byte[] readBuffer = new byte[256];
+        String str = "One, two; THREE four five\n";
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, readBuffer, 0, bytes.length);
+        List<WordToken> tokens = new ArrayList<>();
+
+        int truncated = tokenize(readBuffer, str.length(), true, 100, tokens);
+        assertEquals(List.of(
+                new WordToken("one", 100),
+                new WordToken("two", 105),
+                new WordToken("three", 110),
+                new WordToken("four", 116),
+                new WordToken("five", 121)
+        ), tokens);
+        assertEquals(0, truncated);
+    }
+
+    @Test
+    public void nonAsciiWordsAreNormalizedLikeStrings() {
+        String str = "\u00C4ITI \u00E4iti Stra\u00DFe";
+        byte[] readBuffer = str.getBytes(StandardCharsets.UTF_8);
+        List<WordToken> tokens = new ArrayList<>();
+
+        tokenize(readBuffer, readBuffer.length, true, 0, tokens);
+        assertEquals(List.of(
+                new WordToken("\u00E4iti", 0),
+                new WordToken("\u00E4iti", 6),
+                new WordToken("stra\u00DFe", 12)
+        ), tokens);
+    }
+
+    private int tokenize(byte[] buffer, int length, boolean endOfInput, int filePosition,
+                         List<WordToken> tokens) {
+        return new ByteWordTokenizer(getAnalyzer()).tokenize(buffer, length, endOfInput,
+                filePosition, (bytes, start, wordLength, position) -> tokens.add(
+                        new WordToken(new String(bytes, start, wordLength, StandardCharsets.UTF_8),
+                                position)));
+    }
+}
@@ -1,9 +1,25 @@
 package org.nse.thesis.wordindex.pojo;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.nse.thesis.wordindex.WordIndex;
 import org.nse.thesis.wordindex.WordIndexTestBase;
 
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
 public class ImprovedJavaWordIndexTest extends WordIndexTestBase {
 
     @Test
@@ -23,4 +39,139 @@ public class ImprovedJavaWordIndexTest extends WordIndexTestBase {
             throw new RuntimeException(e);
         }
     }
+
+    @Test
+    void testGetWordsMapped() {
+        try (WordIndex index = new BufferedJavaWordIndex(TEST_FILE, this.getAnalyzer(), 16, true)) {
+            this.getWordOccurrences().forEach((word, count) -> this.checkResultsBySize(index, word, count));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void testIterateWordsMapped() {
+        try (WordIndex index = new BufferedJavaWordIndex(TEST_FILE, this.getAnalyzer(), 16, true)) {
+            this.getWordOccurrences().forEach((word, count) -> this.checkIteratorResultsBySize(index, word, count));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void testPositionsAndHits() throws Exception {
+        try (WordIndex index = new BufferedJavaWordIndex(TEST_FILE, this.getAnalyzer(), 16)) {
+            this.checkPositionsAndHits(index);
+        }
+        try (WordIndex index = new BufferedJavaWordIndex(TEST_FILE, this.getAnalyzer(), 16, true)) {
+            this.checkPositionsAndHits(index);
+        }
+    }
+
+    @Test
+    void testParallelIndexingMatchesSequential() {
+        try (WordIndex sequential = new BufferedJavaWordIndex(TEST_FILE, this.getAnalyzer(), 16);
+             WordIndex parallel = new BufferedJavaWordIndex(TEST_FILE, this.getAnalyzer(), 16,
+                     false, 4, WordIndex.MIN_INDEXING_BUFFER_SIZE)) {
+            this.getWordOccurrences().forEach((word, count) -> {
+                this.checkResultsBySize(parallel, word, count);
+                assertEquals(sequential.getWords(word, WordIndex.ContextBytes.SMALL_CONTEXT),
+                        parallel.getWords(word, WordIndex.ContextBytes.SMALL_CONTEXT));
+            });
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void testRefreshWhileIterating(@TempDir Path tempDir) throws Exception {
+        String path = writeIteratedFile(tempDir);
+        try (WordIndex index = new BufferedJavaWordIndex(path, this.getAnalyzer(), 16, true)) {
+            this.checkRefreshWhileIterating(index, path);
+        }
+    }
+
+    @Test
+    void testFileOver2GiBIsRejected(@TempDir Path tempDir) throws Exception {
+        // Sparse file, positions past 2 GiB don't fit int file positions.
+        Path file = tempDir.resolve("huge.log");
+        Files.writeString(file, "alpha beta\n");
+        try (WordIndex index = new BufferedJavaWordIndex(file.toString(), this.getAnalyzer(), 16,
+                false, 4, WordIndex.MIN_INDEXING_BUFFER_SIZE)) {
+            try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+                raf.setLength(Integer.MAX_VALUE + 1L);
+            }
+            assertThrows(IOException.class, index::refresh);
+            assertEquals(1, index.getWords("alpha", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+        }
+        RuntimeException e = assertThrows(RuntimeException.class,
+                () -> new BufferedJavaWordIndex(file.toString(), this.getAnalyzer(), 16,
+                        false, 4, WordIndex.MIN_INDEXING_BUFFER_SIZE));
+        assertInstanceOf(IOException.class, e.getCause());
+    }
+
+    @Test
+    void testRefreshIndexesAppendedTail(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("growing.log");
+        Files.writeString(file, "alpha beta gam");
+        try (WordIndex index = new BufferedJavaWordIndex(file.toString(), this.getAnalyzer(), 16)) {
+            assertEquals(1, index.getWords("gam", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+            assertFalse(index.refresh());
+
+            // Word cut off at the old end of the file is finished by the appended bytes.
+            Files.writeString(file, "ma alpha\nbeta", StandardOpenOption.APPEND);
+            assertTrue(index.refresh());
+            assertEquals(0, index.getWords("gam", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+
+            try (WordIndex fresh = new BufferedJavaWordIndex(file.toString(), this.getAnalyzer(), 16)) {
+                for (String word : List.of("alpha", "beta", "gamma")) {
+                    assertEquals(fresh.getWords(word, WordIndex.ContextBytes.SMALL_CONTEXT),
+                            index.getWords(word, WordIndex.ContextBytes.SMALL_CONTEXT));
+                }
+                assertEquals(fresh.toString(), index.toString());
+            }
+            assertEquals(2, index.getWords("beta", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+
+            // Many small refreshes grow the tail, until it is merged into the index.
+            for (int i = 0; i < 40; i++) {
+                Files.writeString(file, " gamma delta" + i + "\nalp", StandardOpenOption.APPEND);
+                assertTrue(index.refresh());
+                Files.writeString(file, "ha", StandardOpenOption.APPEND);
+                assertTrue(index.refresh());
+            }
+            try (WordIndex fresh = new BufferedJavaWordIndex(file.toString(), this.getAnalyzer(), 16)) {
+                for (String word : List.of("alpha", "alp", "beta", "gamma", "delta7", "delta39")) {
+                    assertEquals(fresh.getWords(word, WordIndex.ContextBytes.SMALL_CONTEXT),
+                            index.getWords(word, WordIndex.ContextBytes.SMALL_CONTEXT));
+                    assertArrayEquals(fresh.getPositions(word), index.getPositions(word));
+                }
+                assertEquals(fresh.toString(), index.toString());
+            }
+
+            // Truncated file is indexed again.
+            Files.writeString(file, "delta\n");
+            assertTrue(index.refresh());
+            assertEquals(0, index.getWords("alpha", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+            assertEquals(1, index.getWords("delta", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+        }
+    }
+
+    @Test
+    void testParallelRefreshAfterShrinkMatchesSequential(@TempDir Path tempDir) throws Exception {
+        Path file = tempDir.resolve("shrinking.log");
+        byte[] content = Files.readAllBytes(Path.of(TEST_FILE));
+        Files.write(file, content);
+        try (WordIndex index = new BufferedJavaWordIndex(file.toString(), this.getAnalyzer(), 16,
+                false, 4, WordIndex.MIN_INDEXING_BUFFER_SIZE)) {
+            Files.write(file, Arrays.copyOf(content, content.length / 2));
+            assertTrue(index.refresh());
+            try (WordIndex fresh = new BufferedJavaWordIndex(file.toString(), this.getAnalyzer(), 16)) {
+                assertEquals(fresh.toString(), index.toString());
+                for (String word : this.getWordOccurrences().keySet()) {
+                    assertEquals(fresh.getWords(word, WordIndex.ContextBytes.SMALL_CONTEXT),
+                            index.getWords(word, WordIndex.ContextBytes.SMALL_CONTEXT));
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,87 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+class IndexSegmentsTest {
+
+    @Test
+    void appendSharesBaseAndDropsPositionsFromCut() {
+        // Base ends with "tw", that is cut off.
+        IndexSegments base = index("one", 100, "tw", 1);
+        int cut = 100 * 10;
+
+        TermTable terms = new TermTable(0);
+        List<WordEntry> appended = new ArrayList<>();
+        add(terms, appended, "two", cut);
+        add(terms, appended, "one", cut + 4);
+        add(terms, appended, "two", cut + 8);
+        IndexSegments index = base.append(cut, terms, appended);
+
+        Assertions.assertSame(base.terms(), index.terms());
+        Assertions.assertSame(base.postings(), index.postings());
+        Assertions.assertEquals(3, index.size());
+        Assertions.assertEquals(101, index.count(find(index, "one")));
+        Assertions.assertEquals(cut + 4, index.positions(find(index, "one")).applyAsInt(100));
+        Assertions.assertEquals(0, index.count(find(index, "tw")));
+        Assertions.assertEquals(2, index.count(find(index, "two")));
+        Assertions.assertEquals("two", index.word(find(index, "two")));
+        Assertions.assertEquals(1, base.count(find(base, "tw")));
+        Assertions.assertEquals(TermTable.NOT_FOUND, find(base, "two"));
+    }
+
+    @Test
+    void largeTailIsMergedIntoBase() {
+        IndexSegments index = index("one", IndexSegments.COMPACTION_RATIO, "tw", 1);
+        int cut = IndexSegments.COMPACTION_RATIO * 10;
+
+        TermTable terms = new TermTable(0);
+        List<WordEntry> appended = new ArrayList<>();
+        add(terms, appended, "two", cut);
+        add(terms, appended, "one", cut + 4);
+        IndexSegments compacted = index.append(cut, terms, appended);
+
+        Assertions.assertNotSame(index.terms(), compacted.terms());
+        Assertions.assertSame(compacted, compacted.compact());
+        Assertions.assertEquals(3, compacted.postings().terms());
+        Assertions.assertEquals(IndexSegments.COMPACTION_RATIO + 1,
+                compacted.count(find(compacted, "one")));
+        Assertions.assertEquals(0, compacted.count(find(compacted, "tw")));
+        IntUnaryOperator positions = compacted.positions(find(compacted, "two"));
+        Assertions.assertEquals(1, compacted.count(find(compacted, "two")));
+        Assertions.assertEquals(cut, positions.applyAsInt(0));
+    }
+
+    private static IndexSegments index(String first, int count, String last, int lastCount) {
+        TermTable terms = new TermTable(0);
+        List<WordEntry> entries = new ArrayList<>();
+        int position = 0;
+        for (int i = 0; i < count; i++, position += 10) {
+            add(terms, entries, first, position);
+        }
+        for (int i = 0; i < lastCount; i++, position += 10) {
+            add(terms, entries, last, position);
+        }
+        return new IndexSegments(terms, PostingLists.freeze(entries));
+    }
+
+    private static void add(TermTable terms, List<WordEntry> entries, String word, int position) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        int term = terms.add(bytes, 0, bytes.length);
+        if (term == entries.size()) {
+            entries.add(new WordEntry(word, position));
+        } else {
+            entries.get(term).addFilePosition(position);
+        }
+    }
+
+    private static int find(IndexSegments index, String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        return index.find(bytes, 0, bytes.length);
+    }
+}
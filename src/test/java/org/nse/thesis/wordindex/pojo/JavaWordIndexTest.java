@@ -23,4 +23,41 @@ class JavaWordIndexTest extends WordIndexTestBase {
             throw new RuntimeException(e);
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    void testGetWordsBatch() {
+        try (WordIndex index = new JavaWordIndex(TEST_FILE, this.getAnalyzer(), 16)) {
+            this.checkBatchResults(index);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void testPositionsAndHits() throws Exception {
+        try (WordIndex index = new JavaWordIndex(TEST_FILE, this.getAnalyzer(), 16)) {
+            this.checkPositionsAndHits(index);
+        }
+        try (WordIndex index = new JavaWordIndex(TEST_FILE, this.getAnalyzer(), 16, true)) {
+            this.checkPositionsAndHits(index);
+        }
+    }
+
+    @Test
+    void testGetWordsMapped() {
+        try (WordIndex index = new JavaWordIndex(TEST_FILE, this.getAnalyzer(), 16, true)) {
+            this.getWordOccurrences().forEach((word, count) -> this.checkResultsBySize(index, word, count));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    void testIterateWordsMapped() {
+        try (WordIndex index = new JavaWordIndex(TEST_FILE, this.getAnalyzer(), 16, true)) {
+            this.getWordOccurrences().forEach((word, count) -> this.checkIteratorResultsBySize(index, word, count));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
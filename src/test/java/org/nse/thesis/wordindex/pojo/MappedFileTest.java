@@ -0,0 +1,47 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.junit.jupiter.api.Test;
+import org.nse.thesis.wordindex.WordIndexTestBase;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MappedFileTest extends WordIndexTestBase {
+
+    @Test
+    void testReadsUntilEndOfFile() throws Exception {
+        final MappedFile file = new MappedFile(TEST_FILE);
+        try {
+            final byte[] content = Files.readAllBytes(Path.of(TEST_FILE));
+            final byte[] buffer = new byte[32];
+            final int position = content.length - 10;
+            assertEquals(10, file.reader().read(position, buffer));
+            for (int i = 0; i < 10; i++) {
+                assertEquals(content[position + i], buffer[i]);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    void testReadPastEndOfFile() throws Exception {
+        final MappedFile file = new MappedFile(TEST_FILE);
+        final SharedFileChannel channel = new SharedFileChannel(TEST_FILE);
+        try {
+            final int size = (int) Files.size(Path.of(TEST_FILE));
+            final byte[] buffer = new byte[32];
+            for (int position : new int[]{size, size + 1, size + 1024}) {
+                assertEquals(-1, file.reader().read(position, buffer));
+                assertEquals(-1, channel.reader().read(position, buffer));
+            }
+            assertArrayEquals(new byte[32], buffer);
+        } finally {
+            file.close();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+class PostingListsTest {
+
+    @Test
+    void freezeKeepsPositionsInOrder() {
+        WordEntry one = new WordEntry("one", 0);
+        for (int i = 1; i < 20; i++) {
+            one.addFilePosition(i * 10);
+        }
+        WordEntry two = new WordEntry("two", 4);
+        two.addFilePosition(8);
+
+        PostingLists postings = PostingLists.freeze(List.of(one, two));
+        Assertions.assertEquals(2, postings.terms());
+
+        Assertions.assertEquals(20, postings.end(one.getTerm()) - postings.start(one.getTerm()));
+        for (int i = postings.start(one.getTerm()), n = 0; i < postings.end(one.getTerm()); i++, n++) {
+            Assertions.assertEquals(n * 10, postings.position(i));
+        }
+        Assertions.assertEquals(4, postings.position(postings.start(two.getTerm())));
+        Assertions.assertEquals(8, postings.position(postings.start(two.getTerm()) + 1));
+    }
+
+    @Test
+    void frozenEntryCantGrow() {
+        WordEntry entry = new WordEntry("one", 0);
+        PostingLists.freeze(List.of(entry));
+        Assertions.assertThrows(IllegalStateException.class, () -> entry.addFilePosition(1));
+    }
+
+    @Test
+    void extendDropsPositionsFromCut() {
+        WordEntry one = new WordEntry("one", 0);
+        one.addFilePosition(10);
+        WordEntry two = new WordEntry("tw", 20);
+        PostingLists base = PostingLists.freeze(List.of(one, two));
+
+        WordEntry twoAgain = new WordEntry("two", 20);
+        twoAgain.addFilePosition(30);
+        WordEntry three = new WordEntry("three", 40);
+        PostingTail tail = PostingTail.EMPTY.append(20, new int[]{1, 2}, List.of(twoAgain, three));
+        PostingLists extended = PostingLists.extend(base, 20, 3, tail);
+
+        Assertions.assertEquals(3, extended.terms());
+        Assertions.assertEquals(2, extended.end(0) - extended.start(0));
+        Assertions.assertEquals(2, extended.end(1) - extended.start(1));
+        Assertions.assertEquals(30, extended.position(extended.start(1) + 1));
+        Assertions.assertEquals(40, extended.position(extended.start(2)));
+        Assertions.assertEquals(1, base.end(1) - base.start(1));
+    }
+}
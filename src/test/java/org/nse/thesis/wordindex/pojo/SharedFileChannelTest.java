@@ -0,0 +1,91 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nse.thesis.wordindex.WordIndex;
+import org.nse.thesis.wordindex.WordIndexTestBase;
+
+import java.io.FileNotFoundException;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SharedFileChannelTest extends WordIndexTestBase {
+
+    @Test
+    void testConcurrentQueries() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (WordIndex index = new BufferedJavaWordIndex(TEST_FILE, this.getAnalyzer(), 16)) {
+            Collection<String> expected = index.getWords("wrath", WordIndex.ContextBytes.MEDIUM_CONTEXT);
+            List<Future<Collection<String>>> results = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                results.add(executor.submit(() -> index.getWords("wrath",
+                        WordIndex.ContextBytes.MEDIUM_CONTEXT)));
+            }
+            for (Future<Collection<String>> result : results) {
+                assertEquals(expected, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testReopenedAfterInterrupt() throws Exception {
+        SharedFileChannel channel = new SharedFileChannel(TEST_FILE);
+        try {
+            byte[] expected = new byte[32];
+            channel.reader().read(100, expected);
+
+            Thread.currentThread().interrupt();
+            assertThrows(ClosedByInterruptException.class,
+                    () -> channel.reader().read(100, new byte[32]));
+            Thread.interrupted();
+
+            byte[] buffer = new byte[32];
+            assertEquals(32, channel.reader().read(100, buffer));
+            assertArrayEquals(expected, buffer);
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    void testReplacedFileIsNotReopened(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("text.txt");
+        Files.writeString(file, "power of man\n");
+        SharedFileChannel channel = new SharedFileChannel(file.toString());
+        try {
+            Path replacement = dir.resolve("replacement.txt");
+            Files.writeString(replacement, "wrath of man\n");
+            Files.move(replacement, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+
+            // Open channel keeps reading the original file.
+            byte[] buffer = new byte[5];
+            assertEquals(5, channel.reader().read(0, buffer));
+            assertEquals("power", new String(buffer, StandardCharsets.UTF_8));
+
+            Thread.currentThread().interrupt();
+            assertThrows(ClosedByInterruptException.class,
+                    () -> channel.reader().read(0, new byte[5]));
+            Thread.interrupted();
+
+            assertThrows(FileNotFoundException.class, () -> channel.reader().read(0, buffer));
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.nse.thesis.wordindex.WordIndex;
+import org.nse.thesis.wordindex.WordIndexTestBase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SnapshotWordIndexTest extends WordIndexTestBase {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testSnapshotOfBufferedIndex() throws Exception {
+        Path snapshot = tempDir.resolve("bible.widx");
+        try (WordIndex built = new BufferedJavaWordIndex(TEST_FILE, this.getAnalyzer(), 16)) {
+            built.save(snapshot);
+            try (WordIndex loaded = new SnapshotWordIndex(TEST_FILE, this.getAnalyzer(), snapshot,
+                    false)) {
+                this.getWordOccurrences().forEach((word, count) -> {
+                    this.checkResultsBySize(loaded, word, count);
+                    this.checkIteratorResultsBySize(loaded, word, count);
+                    assertEquals(built.getWords(word, WordIndex.ContextBytes.SMALL_CONTEXT),
+                            loaded.getWords(word, WordIndex.ContextBytes.SMALL_CONTEXT));
+                });
+                assertEquals(0, loaded.getWords("notindexed", WordIndex.ContextBytes.SMALL_CONTEXT).size());
+            }
+        }
+    }
+
+    @Test
+    void testSnapshotOfJavaIndex() throws Exception {
+        Path snapshot = tempDir.resolve("bible.widx");
+        try (WordIndex built = new JavaWordIndex(TEST_FILE, this.getAnalyzer(), 16)) {
+            built.save(snapshot);
+        }
+        try (WordIndex loaded = new SnapshotWordIndex(TEST_FILE, this.getAnalyzer(), snapshot, true)) {
+            this.getWordOccurrences().forEach((word, count) -> this.checkResultsBySize(loaded, word, count));
+        }
+    }
+
+    @Test
+    void testSnapshotPositionsAndHits() throws Exception {
+        Path snapshot = tempDir.resolve("bible.widx");
+        try (WordIndex built = new BufferedJavaWordIndex(TEST_FILE, this.getAnalyzer(), 16)) {
+            built.save(snapshot);
+        }
+        try (WordIndex loaded = new SnapshotWordIndex(TEST_FILE, this.getAnalyzer(), snapshot, false)) {
+            this.checkPositionsAndHits(loaded);
+        }
+        try (WordIndex loaded = new SnapshotWordIndex(TEST_FILE, this.getAnalyzer(), snapshot, true)) {
+            this.checkPositionsAndHits(loaded);
+        }
+    }
+
+    @Test
+    void testStaleSnapshotIsRejected() throws Exception {
+        Path file = tempDir.resolve("text.txt");
+        Files.writeString(file, "One two three two one\n");
+        Path snapshot = tempDir.resolve("text.widx");
+        try (WordIndex built = new BufferedJavaWordIndex(file.toString(), this.getAnalyzer(), 16)) {
+            built.save(snapshot);
+        }
+
+        Files.setLastModifiedTime(file, FileTime.fromMillis(
+                Files.getLastModifiedTime(file).toMillis() + 1000));
+        assertThrows(IOException.class,
+                () -> new SnapshotWordIndex(file.toString(), this.getAnalyzer(), snapshot, false));
+    }
+}
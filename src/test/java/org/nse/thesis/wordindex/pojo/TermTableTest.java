@@ -0,0 +1,53 @@
+package org.nse.thesis.wordindex.pojo;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+class TermTableTest {
+
+    @Test
+    void termsAreNumberedInInsertionOrder() {
+        TermTable terms = new TermTable(0);
+        byte[] text = "one two one three".getBytes(StandardCharsets.UTF_8);
+
+        Assertions.assertEquals(0, terms.add(text, 0, 3));
+        Assertions.assertEquals(1, terms.add(text, 4, 3));
+        Assertions.assertEquals(0, terms.add(text, 8, 3));
+        Assertions.assertEquals(2, terms.add(text, 12, 5));
+        Assertions.assertEquals(3, terms.size());
+
+        Assertions.assertEquals("two", terms.word(1));
+        Assertions.assertEquals(5, terms.length(2));
+        Assertions.assertEquals(TermTable.NOT_FOUND, terms.find(text, 0, 2));
+    }
+
+    @Test
+    void termsSurviveResize() {
+        TermTable terms = new TermTable(0);
+        for (int i = 0; i < 10_000; i++) {
+            byte[] word = ("word" + i).getBytes(StandardCharsets.UTF_8);
+            Assertions.assertEquals(i, terms.add(word, 0, word.length));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            byte[] word = ("word" + i).getBytes(StandardCharsets.UTF_8);
+            Assertions.assertEquals(i, terms.find(word, 0, word.length));
+            Assertions.assertEquals("word" + i, terms.word(i));
+        }
+    }
+
+    @Test
+    void addAllMapsTermsOfOtherTable() {
+        TermTable first = new TermTable(0);
+        TermTable second = new TermTable(0);
+        byte[] text = "one two three".getBytes(StandardCharsets.UTF_8);
+        first.add(text, 0, 3);
+        first.add(text, 4, 3);
+        second.add(text, 8, 5);
+        second.add(text, 4, 3);
+
+        Assertions.assertArrayEquals(new int[]{2, 1}, first.addAll(second));
+        Assertions.assertEquals(3, first.size());
+    }
+}